@@ -53,6 +53,8 @@ class MockApi(scope: CoroutineScope, manager: ApiManager<ProtonVPNRetrofit>, val
             pollApiNotifications = true,
             vpnAccelerator = true)))
 
+    override suspend fun getAppConfigIfModified(): ApiResult<AppConfigResponse?> = getAppConfig()
+
     override suspend fun getSession(): ApiResult<SessionListResponse> =
         ApiResult.Success(SessionListResponse(0, listOf()))
 
@@ -65,6 +67,12 @@ class MockApi(scope: CoroutineScope, manager: ApiManager<ProtonVPNRetrofit>, val
         else
             super.getServerList(loader, ip)
 
+    override suspend fun getServerListIfModified(loader: LoaderUI?, ip: String?) =
+        if (MockSwitch.mockedServersUsed)
+            ApiResult.Success(ServerList(MockedServers.serverList))
+        else
+            super.getServerListIfModified(loader, ip)
+
     override suspend fun getVPNInfo(): ApiResult<VpnInfoResponse> =
         ApiResult.Success(userData.vpnInfoResponse ?: TestUser.getBasicUser().vpnInfoResponse)
 
@@ -355,13 +355,14 @@ class MockAppModule {
         userData: UserData,
         serverManager: ServerManager,
         vpnApiManager: VpnApiManager,
+        api: ProtonApiRetroFit,
         vpnStateMonitor: VpnStateMonitor,
         vpnConnectionManager: VpnConnectionManager,
         vpnApiClient: VpnApiClient,
         humanVerificationHandler: HumanVerificationHandler,
         certificateRepository: CertificateRepository
-    ): LogoutHandler = LogoutHandler(scope, userData, serverManager, vpnApiManager, userData.apiSessionProvider,
-        vpnStateMonitor, vpnConnectionManager, humanVerificationHandler, certificateRepository, vpnApiClient)
+    ): LogoutHandler = LogoutHandler(scope, userData, serverManager, vpnApiManager, api,
+        userData.apiSessionProvider, vpnStateMonitor, vpnConnectionManager, humanVerificationHandler, certificateRepository, vpnApiClient)
 
     @Module
     interface Bindings {
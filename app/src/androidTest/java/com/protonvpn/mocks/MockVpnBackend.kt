@@ -95,6 +95,8 @@ class MockVpnBackend(
     ) = agentProvider?.invoke(certInfo, hostname, nativeClient)
             ?: super.createAgentConnection(certInfo, hostname, nativeClient)
 
+    override suspend fun awaitTunnelReady() {}
+
     override val retryInfo get() = RetryInfo(10, 10)
 
     var stateOnConnect: VpnState = VpnState.Connected
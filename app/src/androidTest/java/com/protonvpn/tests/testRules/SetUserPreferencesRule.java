@@ -45,6 +45,7 @@ public class SetUserPreferencesRule extends TestWatcher {
 
     @Override
     protected void finished(Description description) {
+        userDataHelper.userData.flushNow();
         Storage.clearAllPreferences();
     }
 }
@@ -40,6 +40,7 @@ import java.util.TimeZone
 import kotlin.coroutines.EmptyCoroutineContext
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
+import kotlin.test.assertTrue
 
 private const val LOG_PATTERN = "%msg"
 
@@ -78,6 +79,36 @@ class ProtonLoggerImplTests {
         assertEquals(listOf("message1", "message2"), File(logDir, "Data.log").readLines())
     }
 
+    @Test
+    fun testLogFileRotated() = runLoggerTest { logger ->
+        val line = "x".repeat(1023)
+        repeat(400) { logger.log(line) }
+
+        val rolledFile = File(logDir, "Data1.log")
+        assertTrue(rolledFile.exists())
+        assertEquals(400, rolledFile.readLines().size + File(logDir, "Data.log").readLines().size)
+        assertEquals(400L, logger.stats.linesWritten)
+        assertEquals(0L, logger.stats.linesDropped)
+    }
+
+    @Test
+    fun testTwoRolledFilesKept() = runLoggerTest { logger ->
+        val line = "x".repeat(1023)
+        repeat(700) { logger.log(line) }
+
+        val files = listOf("Data.log", "Data1.log", "Data2.log").map { File(logDir, it) }
+        assertTrue(files.all { it.exists() })
+        assertEquals(700, files.sumBy { it.readLines().size })
+    }
+
+    @Test
+    fun testMalformedLineDoesNotDropBatch() = runLoggerTest { logger ->
+        logger.log(listOf("unpaired \uD800 surrogate", "message2", "message3"))
+
+        assertEquals(listOf("unpaired ? surrogate", "message2", "message3"), File(logDir, "Data.log").readLines())
+        assertEquals(3L, logger.stats.linesWritten)
+    }
+
     @Test
     fun testGetLogLines() = runLoggerTest { logger ->
         logger.log("message1")
@@ -1053,23 +1053,6 @@ dependencies = [
     ],
     "dependency": "com.daimajia.easing:library:2.4"
   },
-  {
-    "project": "AndroidSVG",
-    "description": "SVG rendering library for Android.",
-    "version": "1.4",
-    "developers": [
-      "Paul LeBeau"
-    ],
-    "url": "https://github.com/BigBadaboom/androidsvg",
-    "year": null,
-    "licenses": [
-      {
-        "license": "The Apache Software License, Version 2.0",
-        "license_url": "http://www.apache.org/licenses/LICENSE-2.0.txt"
-      }
-    ],
-    "dependency": "com.caverock:androidsvg:1.4"
-  },
   {
     "project": "AndroidX Leanback Preference",
     "description": "AndroidX Leanback Preference",
@@ -2000,23 +1983,6 @@ dependencies = [
     ],
     "dependency": "androidx.lifecycle:lifecycle-livedata-ktx:2.3.1"
   },
-  {
-    "project": "logback-android",
-    "description": "\"Logging library for Android apps\"",
-    "version": "2.0.0",
-    "developers": [
-      "tony19"
-    ],
-    "url": "https://github.com/tony19/logback-android",
-    "year": null,
-    "licenses": [
-      {
-        "license": "\"The Apache Software License, Version 2.0\"",
-        "license_url": "https://www.apache.org/licenses/LICENSE-2.0"
-      }
-    ],
-    "dependency": "com.github.tony19:logback-android:2.0.0"
-  },
   {
     "project": "Lottie",
     "description": "Lottie is an animation library that renders Adobe After Effects animations natively in realtime.",
@@ -2620,21 +2586,6 @@ dependencies = [
     "licenses": [],
     "dependency": "com.github.shts:TriangleLabelView:1.1.2"
   },
-  {
-    "project": "SLF4J API Module",
-    "description": "The slf4j API",
-    "version": "1.7.30",
-    "developers": [],
-    "url": "http://www.slf4j.org",
-    "year": null,
-    "licenses": [
-      {
-        "license": "MIT License",
-        "license_url": "http://www.opensource.org/licenses/mit-license.php"
-      }
-    ],
-    "dependency": "org.slf4j:slf4j-api:1.7.30"
-  },
   {
     "project": "srp",
     "description": null,
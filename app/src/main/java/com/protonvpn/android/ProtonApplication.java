@@ -30,8 +30,12 @@ import com.protonvpn.android.components.NotificationHelper;
 import com.protonvpn.android.di.AppComponent;
 import com.protonvpn.android.di.DaggerAppComponent;
 import com.protonvpn.android.migration.NewAppMigrator;
+import com.protonvpn.android.startup.StartupOrchestrator;
+import com.protonvpn.android.startup.StartupTrace;
 import com.protonvpn.android.utils.AndroidUtils;
+import com.protonvpn.android.utils.CoalescingWriter;
 import com.protonvpn.android.utils.DefaultActivityLifecycleCallbacks;
+import com.protonvpn.android.utils.FileObjectStore;
 import com.protonvpn.android.utils.ProtonLogger;
 import com.protonvpn.android.utils.ProtonPreferences;
 import com.protonvpn.android.utils.Storage;
@@ -43,7 +47,7 @@ import net.danlew.android.joda.JodaTimeAndroid;
 import org.jetbrains.annotations.NotNull;
 import org.strongswan.android.logic.StrongSwanApplication;
 
-import javax.inject.Inject;
+import java.io.File;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatDelegate;
@@ -57,38 +61,57 @@ import rx_activity_result2.RxActivityResult;
 
 public class ProtonApplication extends DaggerApplication {
 
+    private static final int STARTUP_THREADS = 3;
+
+    private static final String TASK_SENTRY = "sentry";
+    private static final String TASK_PREFERENCES = "preferences";
+    private static final String TASK_JODA_TIME = "jodaTime";
+    private static final String TASK_MIGRATION = "migration";
+    private static final String TASK_NATIVE_LIBRARIES = "nativeLibraries";
+    private static final String TASK_STRONGSWAN_CERTIFICATE = "strongSwanCertificate";
+
+    private static StartupOrchestrator startup;
+
     public Activity foregroundActivity;
 
     private AppComponent appComponent;
 
+    private final StartupTrace startupTrace = new StartupTrace(SystemClock::elapsedRealtime);
+
     @Override
     public void onCreate() {
+        long injectionStart = SystemClock.elapsedRealtime();
         super.onCreate();
-        initActivityObserver();
-        initSentry();
-        initStrongSwan();
-        NotificationHelper.Companion.initNotificationChannel(this);
-        JodaTimeAndroid.init(this);
-        TrustKit.initializeWithNetworkSecurityConfiguration(this);
-        new ANRWatchDog(15000).start();
-
-        initPreferences();
-        NewAppMigrator.INSTANCE.migrate(this);
-
-        RxActivityResult.register(this);
-        StateSaver.setEnabledForAllActivitiesAndSupportFragments(this, true);
-
-        if (BuildConfig.DEBUG)
-            initLeakCanary();
-
-        AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
-
-        // Initialize go-libraries early to avoid crashes in StrongSwan
-        Seq.touch();
+        startupTrace.record("injection", injectionStart, SystemClock.elapsedRealtime());
+        StrongSwanApplication.setContext(getApplicationContext());
 
-        ProtonLogger.INSTANCE.log("--------- App start ---------");
-        // Inject VpnLogCapture once injection into ProtonApplication is fixed in androidTests.
-        (new VpnLogCapture(getAppComponent(), SystemClock::elapsedRealtime)).startCapture();
+        // Only tasks needed before the first activity is shown run on the main thread, the rest runs in parallel
+        // on background threads. Code depending on background tasks needs to await them.
+        startup = new StartupOrchestrator(startupTrace, StartupOrchestrator.createExecutor(STARTUP_THREADS));
+        // Sentry goes first so that crashes in the tasks depending on it are reported.
+        startup.task(TASK_SENTRY, this::initSentry);
+        startup.task("activityObserver", this::initActivityObserver);
+        startup.task(TASK_PREFERENCES, this::initPreferences);
+        startup.task(TASK_JODA_TIME, () -> JodaTimeAndroid.init(this));
+        startup.task("trustKit", () -> TrustKit.initializeWithNetworkSecurityConfiguration(this), TASK_SENTRY);
+        startup.task(TASK_MIGRATION, () -> NewAppMigrator.INSTANCE.migrate(this),
+            TASK_SENTRY, TASK_PREFERENCES, TASK_JODA_TIME);
+        startup.task("ui", this::initUi, TASK_SENTRY);
+        // VPN services may call startForeground() with this channel right after onCreate (e.g. always-on VPN).
+        startup.task("notificationChannel", () -> NotificationHelper.Companion.initNotificationChannel(this));
+        startup.backgroundTask(TASK_NATIVE_LIBRARIES, this::initNativeLibraries);
+        startup.backgroundTask(TASK_STRONGSWAN_CERTIFICATE,
+            () -> StrongswanCertificateManager.INSTANCE.init(getBaseContext()), TASK_NATIVE_LIBRARIES);
+        startup.backgroundTask("anrWatchDog", () -> new ANRWatchDog(15000).start());
+        // Read ahead what ServerManager and the first screens need, they are created on the main thread.
+        startup.backgroundTask("userData", () -> getAppComponent().userData(), TASK_MIGRATION);
+        startup.backgroundTask("serverList", () -> getAppComponent().serverListStore().preload(), TASK_JODA_TIME);
+        startup.task("logCapture", () -> {
+            ProtonLogger.INSTANCE.log("--------- App start ---------");
+            // Inject VpnLogCapture once injection into ProtonApplication is fixed in androidTests.
+            (new VpnLogCapture(getAppComponent(), SystemClock::elapsedRealtime)).startCapture();
+        }, TASK_PREFERENCES);
+        startup.run();
     }
 
     private void initActivityObserver() {
@@ -103,22 +126,35 @@ public class ProtonApplication extends DaggerApplication {
                 foregroundActivity = null;
                 ProtonLogger.logActivityPaused(activity);
             }
+
+            @Override public void onActivityStopped(@NonNull Activity activity) {
+                CoalescingWriter.flushAll();
+                Storage.flush();
+            }
         });
     }
 
-    private void initStrongSwan() {
+    private void initNativeLibraries() {
         ReLinker.loadLibrary(this, "androidbridge");
+        // Initialize go-libraries early to avoid crashes in StrongSwan
+        Seq.touch();
+    }
 
-        // Static blocks from StrongSwanApplication will execute here loading native library and initializing
-        // certificate store.
-        StrongSwanApplication.setContext(getApplicationContext());
-        StrongswanCertificateManager.INSTANCE.init(getBaseContext());
+    private void initUi() {
+        RxActivityResult.register(this);
+        StateSaver.setEnabledForAllActivitiesAndSupportFragments(this, true);
+
+        if (BuildConfig.DEBUG)
+            initLeakCanary();
+
+        AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
     }
 
     private void initPreferences() {
         ProtonPreferences preferences =
             new ProtonPreferences(this, BuildConfig.PREF_SALT, BuildConfig.PREF_KEY, "Proton-Secured");
         Storage.setPreferences(preferences);
+        Storage.setObjectStore(new FileObjectStore(new File(getFilesDir(), "storage"), preferences, preferences));
     }
 
     private void initSentry() {
@@ -141,7 +177,7 @@ public class ProtonApplication extends DaggerApplication {
         return getAppComponent();
     }
 
-    private AppComponent getAppComponent() {
+    private synchronized AppComponent getAppComponent() {
         if (appComponent == null) {
             appComponent = DaggerAppComponent.builder().application(this).build();
         }
@@ -157,6 +193,30 @@ public class ProtonApplication extends DaggerApplication {
         StrongSwanApplication.setContext(context);
     }
 
+    /**
+     * Blocks until the Go bridge library is loaded, must be called before using its classes (e.g. ed25519).
+     */
+    public static void awaitNativeLibraries() {
+        if (startup != null)
+            startup.await(TASK_NATIVE_LIBRARIES);
+    }
+
+    /**
+     * Blocks until native libraries and the StrongSwan certificate store are initialized.
+     */
+    public static void awaitVpnLibraries() {
+        if (startup != null)
+            startup.await(TASK_STRONGSWAN_CERTIFICATE);
+    }
+
+    public static boolean areVpnLibrariesReady() {
+        return startup == null || startup.isDone(TASK_STRONGSWAN_CERTIFICATE);
+    }
+
+    public StartupTrace getStartupTrace() {
+        return startupTrace;
+    }
+
     public boolean isInForeground() {
         return foregroundActivity != null;
     }
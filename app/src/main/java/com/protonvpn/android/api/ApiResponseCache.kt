@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021. Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.api
+
+import com.protonvpn.android.utils.Log
+import java.io.BufferedInputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * On-disk cache of API responses with their validators (ETag and Last-Modified), used to make
+ * conditional requests for catalog endpoints.
+ *
+ * There is one entry per endpoint, tagged with a bucket (e.g. the truncated IP the response was
+ * requested for). Validators are only offered for the bucket of the stored entry, so a response is
+ * never validated against one fetched for different parameters. The body is written to disk while it
+ * is decoded and is only read back when the caller needs the value of an unchanged response.
+ */
+class ApiResponseCache(private val directory: File) {
+
+    class Validators(val eTag: String?, val lastModified: String?)
+
+    private class Entry(val bucket: String, val validators: Validators)
+
+    private val entries = HashMap<String, Entry?>()
+
+    @Synchronized
+    fun getValidators(endpoint: String, bucket: String): Validators? {
+        val entry = entries.getOrPut(endpoint) { readEntry(endpoint) }
+        return entry?.takeIf { it.bucket == bucket && bodyFile(endpoint).exists() }?.validators
+    }
+
+    /**
+     * Decodes [body] and stores it with [validators] for [endpoint] and [bucket]. Without validators
+     * nothing is stored and the previous entry is removed.
+     */
+    fun <T> store(
+        endpoint: String,
+        bucket: String,
+        validators: Validators,
+        body: InputStream,
+        decode: (InputStream) -> T
+    ): T {
+        if (validators.eTag == null && validators.lastModified == null) {
+            remove(endpoint)
+            return decode(body)
+        }
+        directory.mkdirs()
+        val tmpFile = File.createTempFile(endpoint, ".tmp", directory)
+        try {
+            val value = FileOutputStream(tmpFile).use { out ->
+                val tee = TeeInputStream(body, out)
+                decode(tee).also { tee.close() }
+            }
+            commit(endpoint, Entry(bucket, validators), tmpFile)
+            return value
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    /**
+     * Decodes the stored body of [endpoint], used when the server reports the response as unchanged.
+     */
+    fun <T> readBody(endpoint: String, decode: (InputStream) -> T): T =
+        BufferedInputStream(FileInputStream(bodyFile(endpoint))).use(decode)
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        directory.listFiles()?.forEach { it.delete() }
+    }
+
+    @Synchronized
+    private fun remove(endpoint: String) {
+        entries[endpoint] = null
+        entryFile(endpoint).delete()
+        bodyFile(endpoint).delete()
+    }
+
+    @Synchronized
+    private fun commit(endpoint: String, entry: Entry, tmpBody: File) {
+        try {
+            val tmpEntry = File(directory, "$endpoint.entry.tmp")
+            DataOutputStream(FileOutputStream(tmpEntry)).use { out ->
+                out.writeUTF(entry.bucket)
+                out.writeUTF(entry.validators.eTag ?: "")
+                out.writeUTF(entry.validators.lastModified ?: "")
+            }
+            // The old entry is removed first, a crash in between leaves no entry rather than a mismatched one.
+            entryFile(endpoint).delete()
+            if (!tmpBody.renameTo(bodyFile(endpoint)) || !tmpEntry.renameTo(entryFile(endpoint)))
+                throw IOException("Unable to store response of $endpoint")
+            entries[endpoint] = entry
+        } catch (e: IOException) {
+            Log.e("Unable to cache response", e)
+            remove(endpoint)
+        }
+    }
+
+    private fun readEntry(endpoint: String): Entry? {
+        val file = entryFile(endpoint)
+        if (!file.exists()) return null
+        return try {
+            DataInputStream(FileInputStream(file)).use { input ->
+                val bucket = input.readUTF()
+                val eTag = input.readUTF().takeIf { it.isNotEmpty() }
+                val lastModified = input.readUTF().takeIf { it.isNotEmpty() }
+                Entry(bucket, Validators(eTag, lastModified))
+            }
+        } catch (e: IOException) {
+            Log.e("Unable to read cached response", e)
+            null
+        }
+    }
+
+    private fun entryFile(endpoint: String) = File(directory, "$endpoint.entry")
+    private fun bodyFile(endpoint: String) = File(directory, "$endpoint.body")
+
+    // Copies everything read from the response to the cache file. Whatever the decoder didn't read (e.g.
+    // trailing whitespace) is copied on close.
+    private class TeeInputStream(input: InputStream, private val copy: OutputStream) : FilterInputStream(input) {
+        private var closed = false
+        override fun read(): Int {
+            val b = super.read()
+            if (b != -1)
+                copy.write(b)
+            return b
+        }
+
+        override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+            val count = super.read(buffer, offset, length)
+            if (count > 0)
+                copy.write(buffer, offset, count)
+            return count
+        }
+
+        override fun skip(n: Long): Long {
+            // Skipped bytes must end up in the copy too.
+            val buffer = ByteArray(minOf(n, 8192L).toInt())
+            return read(buffer, 0, buffer.size).toLong().coerceAtLeast(0)
+        }
+
+        override fun markSupported() = false
+
+        override fun close() {
+            if (closed) return
+            closed = true
+            val buffer = ByteArray(8192)
+            while (read(buffer, 0, buffer.size) != -1) {
+                // Copied by read
+            }
+            super.close()
+        }
+    }
+}
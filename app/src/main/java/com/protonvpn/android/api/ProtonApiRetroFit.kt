@@ -19,6 +19,7 @@
 package com.protonvpn.android.api
 
 import android.os.Build
+import android.os.SystemClock
 import com.protonvpn.android.appconfig.AppConfigResponse
 import com.protonvpn.android.components.LoaderUI
 import com.protonvpn.android.models.login.GenericResponse
@@ -28,18 +29,45 @@ import com.protonvpn.android.models.login.SessionListResponse
 import com.protonvpn.android.models.login.VpnInfoResponse
 import com.protonvpn.android.models.vpn.CertificateRequestBody
 import com.protonvpn.android.models.vpn.CertificateResponse
+import com.protonvpn.android.models.vpn.LoadsResponse
+import com.protonvpn.android.models.vpn.ServerList
+import com.protonvpn.android.models.vpn.StreamingServicesResponse
+import com.protonvpn.android.utils.ProtonLogger
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import me.proton.core.network.data.protonApi.RefreshTokenRequest
 import me.proton.core.network.domain.ApiManager
 import me.proton.core.network.domain.ApiResult
+import me.proton.core.util.kotlin.deserialize
 import okhttp3.RequestBody
+import okhttp3.ResponseBody
+import retrofit2.HttpException
+import retrofit2.Response
+import java.io.InputStream
+import java.io.InputStreamReader
 
 //TODO: remove dependencies on activity/network loaders, refactor callbacks to suspending functions
-open class ProtonApiRetroFit(val scope: CoroutineScope, private val manager: ApiManager<ProtonVPNRetrofit>) {
+open class ProtonApiRetroFit(
+    val scope: CoroutineScope,
+    private val manager: ApiManager<ProtonVPNRetrofit>,
+    private val responseCache: ApiResponseCache? = null
+) {
+    // Catalog endpoints come in two variants: the plain one always returns the value (decoding the cached body
+    // when the server reports it unchanged), the IfModified one returns null when the response is unchanged
+    // since the last call, for callers that still hold the value of that call.
 
     open suspend fun getAppConfig(): ApiResult<AppConfigResponse> =
-        manager { getAppConfig() }
+        getAppConfig(unchangedAsNull = false).requireValue()
+
+    open suspend fun getAppConfigIfModified(): ApiResult<AppConfigResponse?> =
+        getAppConfig(unchangedAsNull = true)
+
+    private suspend fun getAppConfig(unchangedAsNull: Boolean): ApiResult<AppConfigResponse?> =
+        conditionalCall("clientconfig", "", unchangedAsNull, null, jsonDecoder<AppConfigResponse>()) { eTag, since ->
+            getAppConfig(eTag, since)
+        }
 
     suspend fun getLocation() =
         manager { getLocation() }
@@ -53,14 +81,45 @@ open class ProtonApiRetroFit(val scope: CoroutineScope, private val manager: Api
         callback: NetworkResultCallback<GenericResponse>
     ) = makeCall(callback, loader) { it.postBugReport(params) }
 
-    open suspend fun getServerList(loader: LoaderUI?, ip: String?) =
-        makeCall(loader) { it.getServers(ip) }
+    open suspend fun getServerList(loader: LoaderUI?, ip: String?): ApiResult<ServerList> =
+        getServerList(loader, ip, unchangedAsNull = false).requireValue()
 
-    open suspend fun getLoads(ip: String?) =
-        manager { getLoads(ip) }
+    open suspend fun getServerListIfModified(loader: LoaderUI?, ip: String?): ApiResult<ServerList?> =
+        getServerList(loader, ip, unchangedAsNull = true)
 
-    open suspend fun getStreamingServices() =
-        manager { getStreamingServices() }
+    private suspend fun getServerList(
+        loader: LoaderUI?,
+        ip: String?,
+        unchangedAsNull: Boolean
+    ): ApiResult<ServerList?> =
+        conditionalCall("logicals", ip ?: "", unchangedAsNull, loader, ::decodeServerList) { eTag, since ->
+            getServers(ip, eTag, since)
+        }
+
+    private fun decodeServerList(input: InputStream): ServerList {
+        val start = SystemClock.elapsedRealtime()
+        val servers = ServerListDecoder().decode(InputStreamReader(input, Charsets.UTF_8))
+        ProtonLogger.log("Decoded ${servers.serverList.size} servers in ${SystemClock.elapsedRealtime() - start} ms")
+        return servers
+    }
+
+    open suspend fun getLoadsIfModified(ip: String?): ApiResult<LoadsResponse?> =
+        conditionalCall("loads", ip ?: "", true, null, jsonDecoder<LoadsResponse>()) { eTag, since ->
+            getLoads(ip, eTag, since)
+        }
+
+    open suspend fun getStreamingServices(): ApiResult<StreamingServicesResponse> =
+        getStreamingServices(unchangedAsNull = false).requireValue()
+
+    open suspend fun getStreamingServicesIfModified(): ApiResult<StreamingServicesResponse?> =
+        getStreamingServices(unchangedAsNull = true)
+
+    private suspend fun getStreamingServices(unchangedAsNull: Boolean): ApiResult<StreamingServicesResponse?> =
+        conditionalCall(
+            "streamingservices", "", unchangedAsNull, null, jsonDecoder<StreamingServicesResponse>()
+        ) { eTag, since ->
+            getStreamingServices(eTag, since)
+        }
 
     suspend fun postLogin(body: LoginBody) =
         manager { postLogin(body) }
@@ -89,6 +148,11 @@ open class ProtonApiRetroFit(val scope: CoroutineScope, private val manager: Api
     open suspend fun logout() =
         manager { postLogout() }
 
+    // Cached catalog responses may depend on the user, they must not be validated for the next one.
+    fun clearResponseCache() {
+        responseCache?.clear()
+    }
+
     open suspend fun getSession(): ApiResult<SessionListResponse> =
         manager { getSession() }
 
@@ -101,6 +165,35 @@ open class ProtonApiRetroFit(val scope: CoroutineScope, private val manager: Api
                 clientPublicKey, "EC", Build.MODEL, "session", emptyList()))
         }
 
+    private suspend fun <T : Any> conditionalCall(
+        endpoint: String,
+        bucket: String,
+        unchangedAsNull: Boolean,
+        loader: LoaderUI?,
+        decode: (InputStream) -> T,
+        call: suspend ProtonVPNRetrofit.(ifNoneMatch: String?, ifModifiedSince: String?) -> Response<ResponseBody>
+    ): ApiResult<T?> = makeCall(loader) { api ->
+        val validators = responseCache?.getValidators(endpoint, bucket)
+        val response = api.call(validators?.eTag, validators?.lastModified)
+        withContext(Dispatchers.IO) {
+            response.body().use { body ->
+                when {
+                    response.code() == HTTP_NOT_MODIFIED && validators != null && responseCache != null ->
+                        if (unchangedAsNull) null else responseCache.readBody(endpoint, decode)
+                    !response.isSuccessful || body == null ->
+                        throw HttpException(response)
+                    responseCache != null -> {
+                        val newValidators = ApiResponseCache.Validators(
+                            response.headers()["ETag"], response.headers()["Last-Modified"])
+                        responseCache.store(endpoint, bucket, newValidators, body.byteStream(), decode)
+                    }
+                    else ->
+                        decode(body.byteStream())
+                }
+            }
+        }
+    }
+
     private suspend fun <T> makeCall(
         loader: LoaderUI?,
         callFun: suspend (ProtonVPNRetrofit) -> T
@@ -118,6 +211,15 @@ open class ProtonApiRetroFit(val scope: CoroutineScope, private val manager: Api
         return result
     }
 
+    private inline fun <reified T : Any> jsonDecoder(): (InputStream) -> T = { input ->
+        input.bufferedReader().use { it.readText() }.deserialize()
+    }
+
+    private fun <T : Any> ApiResult<T?>.requireValue(): ApiResult<T> = when (this) {
+        is ApiResult.Success -> ApiResult.Success(requireNotNull(value))
+        is ApiResult.Error -> this
+    }
+
     private fun <T> makeCall(
         callback: NetworkResultCallback<T>,
         loader: LoaderUI? = null,
@@ -135,4 +237,8 @@ open class ProtonApiRetroFit(val scope: CoroutineScope, private val manager: Api
             }
         }
     }
+
+    companion object {
+        private const val HTTP_NOT_MODIFIED = 304
+    }
 }
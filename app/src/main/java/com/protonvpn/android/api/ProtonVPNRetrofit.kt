@@ -18,7 +18,6 @@
  */
 package com.protonvpn.android.api
 
-import com.protonvpn.android.appconfig.AppConfigResponse
 import com.protonvpn.android.appconfig.ApiNotificationsResponse
 import com.protonvpn.android.appconfig.ForkedSessionResponse
 import com.protonvpn.android.appconfig.SessionForkSelectorResponse
@@ -32,30 +31,45 @@ import com.protonvpn.android.models.login.VpnInfoResponse
 import com.protonvpn.android.models.vpn.CertificateRequestBody
 import com.protonvpn.android.models.vpn.CertificateResponse
 import com.protonvpn.android.models.vpn.ConnectingDomainResponse
-import com.protonvpn.android.models.vpn.LoadsResponse
-import com.protonvpn.android.models.vpn.ServerList
-import com.protonvpn.android.models.vpn.StreamingServicesResponse
 import com.protonvpn.android.models.vpn.UserLocation
 import me.proton.core.network.data.protonApi.BaseRetrofitApi
 import okhttp3.RequestBody
+import okhttp3.ResponseBody
+import retrofit2.Response
 import retrofit2.http.Body
 import retrofit2.http.DELETE
 import retrofit2.http.GET
+import retrofit2.http.Header
 import retrofit2.http.POST
 import retrofit2.http.Path
 import retrofit2.http.Query
+import retrofit2.http.Streaming
 
 @Suppress("ComplexInterface")
 interface ProtonVPNRetrofit : BaseRetrofitApi {
 
+    // Catalog endpoints are requested conditionally and their bodies are decoded by ProtonApiRetroFit,
+    // see ApiResponseCache. vpn/logicals is decoded with ServerListDecoder while the body is read.
+    @Streaming
     @GET("vpn/logicals")
-    suspend fun getServers(@Query("IP") ip: String?): ServerList
+    suspend fun getServers(
+        @Query("IP") ip: String?,
+        @Header("If-None-Match") ifNoneMatch: String?,
+        @Header("If-Modified-Since") ifModifiedSince: String?
+    ): Response<ResponseBody>
 
     @GET("vpn/loads")
-    suspend fun getLoads(@Query("IP") ip: String?): LoadsResponse
+    suspend fun getLoads(
+        @Query("IP") ip: String?,
+        @Header("If-None-Match") ifNoneMatch: String?,
+        @Header("If-Modified-Since") ifModifiedSince: String?
+    ): Response<ResponseBody>
 
     @GET("vpn/streamingservices")
-    suspend fun getStreamingServices(): StreamingServicesResponse
+    suspend fun getStreamingServices(
+        @Header("If-None-Match") ifNoneMatch: String?,
+        @Header("If-Modified-Since") ifModifiedSince: String?
+    ): Response<ResponseBody>
 
     @GET("vpn/servers/{serverId}")
     suspend fun getServerDomain(@Path(value = "serverId", encoded = true) serverId: String): ConnectingDomainResponse
@@ -89,7 +103,10 @@ interface ProtonVPNRetrofit : BaseRetrofitApi {
     suspend fun postBugReport(@Body params: RequestBody): GenericResponse
 
     @GET("vpn/clientconfig")
-    suspend fun getAppConfig(): AppConfigResponse
+    suspend fun getAppConfig(
+        @Header("If-None-Match") ifNoneMatch: String?,
+        @Header("If-Modified-Since") ifModifiedSince: String?
+    ): Response<ResponseBody>
 
     @GET("core/v4/notifications")
     suspend fun getApiNotifications(): ApiNotificationsResponse
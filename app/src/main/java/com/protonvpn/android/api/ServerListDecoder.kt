@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2021. Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.api
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.MalformedJsonException
+import com.protonvpn.android.models.vpn.ConnectingDomain
+import com.protonvpn.android.models.vpn.Location
+import com.protonvpn.android.models.vpn.Server
+import com.protonvpn.android.models.vpn.ServerList
+import com.protonvpn.android.utils.ServerGroups
+import kotlinx.serialization.SerializationException
+import java.io.Reader
+
+/**
+ * Streaming decoder of the vpn/logicals response.
+ *
+ * Servers are created while the response is read, without holding the whole body or a JSON tree in
+ * memory, and are grouped by [ServerGroups.Builder] as they come. Values that repeat across servers
+ * (countries, cities, domains, coordinates) share a single String instance. Field names and nullability
+ * follow the serializable [Server], [ConnectingDomain] and [Location] classes.
+ */
+class ServerListDecoder {
+
+    private val strings = HashMap<String, String>()
+
+    fun decode(input: Reader): ServerList = try {
+        val groups = ServerGroups.Builder()
+        var hasServers = false
+        JsonReader(input).use { reader ->
+            reader.beginObject()
+            while (reader.hasNext()) {
+                if (reader.nextName() == "LogicalServers") {
+                    hasServers = true
+                    reader.beginArray()
+                    while (reader.hasNext())
+                        groups.add(readServer(reader))
+                    reader.endArray()
+                } else {
+                    reader.skipValue()
+                }
+            }
+            reader.endObject()
+        }
+        if (!hasServers)
+            throw SerializationException("Field 'LogicalServers' is missing")
+        ServerList(groups.build())
+    } catch (e: MalformedJsonException) {
+        throw SerializationException(e.message, e)
+    } catch (e: IllegalStateException) {
+        throw SerializationException(e.message, e)
+    } catch (e: NumberFormatException) {
+        throw SerializationException(e.message, e)
+    }
+
+    private fun readServer(reader: JsonReader): Server {
+        var id: String? = null
+        var entryCountry: String? = null
+        var exitCountry: String? = null
+        var name: String? = null
+        var connectingDomains: List<ConnectingDomain>? = null
+        var hostCountry: String? = null
+        var domain: String? = null
+        var load: Float? = null
+        var tier: Int? = null
+        var region: String? = null
+        var city: String? = null
+        var features: Int? = null
+        var location: Location? = null
+        var score: Float? = null
+        var isOnline: Boolean? = null
+
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "ID" -> id = reader.nextString()
+                "EntryCountry" -> entryCountry = readShared(reader)
+                "ExitCountry" -> exitCountry = readShared(reader)
+                "Name" -> name = reader.nextString()
+                "Servers" -> connectingDomains = readConnectingDomains(reader)
+                "HostCountry" -> hostCountry = readSharedOrNull(reader)
+                "Domain" -> domain = readShared(reader)
+                "Load" -> load = reader.nextDouble().toFloat()
+                "Tier" -> tier = reader.nextInt()
+                "Region" -> region = readSharedOrNull(reader)
+                "City" -> city = readSharedOrNull(reader)
+                "Features" -> features = reader.nextInt()
+                "Location" -> location = readLocation(reader)
+                "Score" -> score = reader.nextDouble().toFloat()
+                "Status" -> isOnline = reader.nextInt() == 1
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+
+        return Server(
+            serverId = required(id, "ID"),
+            entryCountry = required(entryCountry, "EntryCountry"),
+            exitCountry = required(exitCountry, "ExitCountry"),
+            serverName = required(name, "Name"),
+            connectingDomains = required(connectingDomains, "Servers"),
+            hostCountry = hostCountry,
+            domain = required(domain, "Domain"),
+            load = required(load, "Load"),
+            tier = required(tier, "Tier"),
+            region = region,
+            city = city,
+            features = required(features, "Features"),
+            location = required(location, "Location"),
+            score = required(score, "Score"),
+            isOnline = required(isOnline, "Status")
+        )
+    }
+
+    private fun readConnectingDomains(reader: JsonReader): List<ConnectingDomain> {
+        val domains = ArrayList<ConnectingDomain>(2)
+        reader.beginArray()
+        while (reader.hasNext())
+            domains.add(readConnectingDomain(reader))
+        reader.endArray()
+        domains.trimToSize()
+        return domains
+    }
+
+    private fun readConnectingDomain(reader: JsonReader): ConnectingDomain {
+        var entryIp: String? = null
+        var domain: String? = null
+        var exitIp: String? = null
+        var id: String? = null
+        var label: String? = null
+        var isOnline = true
+        var publicKey: String? = null
+
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "EntryIP" -> entryIp = reader.nextString()
+                "Domain" -> domain = readShared(reader)
+                "ExitIP" -> exitIp = readSharedOrNull(reader)
+                "ID" -> id = readStringOrNull(reader)
+                "Label" -> label = readSharedOrNull(reader)
+                "Status" -> isOnline = reader.nextInt() == 1
+                "X25519PublicKey" -> publicKey = readSharedOrNull(reader)
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+
+        // The exit IP is usually the same as the entry IP.
+        val entry = required(entryIp, "EntryIP")
+        return ConnectingDomain(
+            entryIp = entry,
+            entryDomain = required(domain, "Domain"),
+            exitIp = if (exitIp == entry) entry else exitIp,
+            id = id,
+            label = label,
+            isOnline = isOnline,
+            publicKeyX25519 = publicKey
+        )
+    }
+
+    private fun readLocation(reader: JsonReader): Location {
+        var latitude: String? = null
+        var longitude: String? = null
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                // Coordinates are numbers in the response, Location keeps them as their literal text.
+                "Lat" -> latitude = readShared(reader)
+                "Long" -> longitude = readShared(reader)
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+        return Location(required(latitude, "Lat"), required(longitude, "Long"))
+    }
+
+    private fun readShared(reader: JsonReader): String {
+        val value = reader.nextString()
+        return strings.getOrPut(value) { value }
+    }
+
+    private fun readSharedOrNull(reader: JsonReader): String? =
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull()
+            null
+        } else {
+            readShared(reader)
+        }
+
+    private fun readStringOrNull(reader: JsonReader): String? =
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull()
+            null
+        } else {
+            reader.nextString()
+        }
+
+    private fun <T> required(value: T?, name: String): T =
+        value ?: throw SerializationException("Field '$name' is missing")
+}
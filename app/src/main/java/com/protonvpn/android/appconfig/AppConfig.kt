@@ -51,10 +51,14 @@ class AppConfig(scope: CoroutineScope, val api: ProtonApiRetroFit, val userData:
     }
 
     suspend fun update() {
-        val result = api.getAppConfig()
-        result.valueOrNull?.let { config ->
-            Storage.save(config)
-            appConfigResponseObservable.value = config
+        val result = api.getAppConfigIfModified()
+        if (result is ApiResult.Success) {
+            // A null config means the stored one is still current.
+            val config = result.value ?: appConfigResponse
+            if (result.value != null) {
+                Storage.save(config)
+                appConfigResponseObservable.value = config
+            }
             if (userData.isLoggedIn) {
                 val notificationsResponse = if (config.featureFlags.pollApiNotifications)
                     api.getApiNotifications().valueOrNull
@@ -20,13 +20,40 @@ package com.protonvpn.android.bus
 
 import com.protonvpn.android.utils.ConnectionTools
 
+// TrafficMonitor publishes a single instance that is updated in place on the main thread, observers shouldn't keep
+// it around expecting the values to stay the same.
 class TrafficUpdate(
-    val downloadSpeed: Long,
-    val uploadSpeed: Long,
-    val sessionDownload: Long,
-    val sessionUpload: Long,
-    val sessionTimeSeconds: Int
+    downloadSpeed: Long,
+    uploadSpeed: Long,
+    sessionDownload: Long,
+    sessionUpload: Long,
+    sessionTimeSeconds: Int
 ) {
+    var downloadSpeed = downloadSpeed
+        private set
+    var uploadSpeed = uploadSpeed
+        private set
+    var sessionDownload = sessionDownload
+        private set
+    var sessionUpload = sessionUpload
+        private set
+    var sessionTimeSeconds = sessionTimeSeconds
+        private set
+
+    internal fun set(
+        downloadSpeed: Long,
+        uploadSpeed: Long,
+        sessionDownload: Long,
+        sessionUpload: Long,
+        sessionTimeSeconds: Int
+    ) {
+        this.downloadSpeed = downloadSpeed
+        this.uploadSpeed = uploadSpeed
+        this.sessionDownload = sessionDownload
+        this.sessionUpload = sessionUpload
+        this.sessionTimeSeconds = sessionTimeSeconds
+    }
+
     val notificationString: String
         get() = "↓ $sessionDownloadString | $downloadSpeedString  ↑ $sessionUploadString | $uploadSpeedString"
 
@@ -25,6 +25,7 @@ import android.os.Bundle;
 import com.afollestad.materialdialogs.DialogAction;
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.afollestad.materialdialogs.Theme;
+import com.protonvpn.android.ProtonApplication;
 import com.protonvpn.android.components.RetainableDialog;
 import com.protonvpn.android.ui.drawer.LogActivity;
 
@@ -32,6 +33,7 @@ import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
 import androidx.fragment.app.FragmentTransaction;
+import de.blinkt.openvpn.core.VpnStatus;
 
 public class DebugDialog extends RetainableDialog {
 
@@ -50,6 +52,31 @@ public class DebugDialog extends RetainableDialog {
                     startActivity(new Intent(getActivity(), LogActivity.class));
                 }
             })
+            .positiveText("Show startup trace")
+            .onPositive(new MaterialDialog.SingleButtonCallback() {
+                @Override
+                public void onClick(@NonNull MaterialDialog materialDialog,
+                                    @NonNull DialogAction dialogAction) {
+                    ProtonApplication application = (ProtonApplication) requireActivity().getApplication();
+                    new MaterialDialog.Builder(requireContext()).title("Startup trace")
+                        .theme(Theme.DARK)
+                        .content(application.getStartupTrace().dump())
+                        .positiveText("OK")
+                        .show();
+                }
+            })
+            .neutralText("Show VPN event stats")
+            .onNeutral(new MaterialDialog.SingleButtonCallback() {
+                @Override
+                public void onClick(@NonNull MaterialDialog materialDialog,
+                                    @NonNull DialogAction dialogAction) {
+                    new MaterialDialog.Builder(requireContext()).title("VPN event listeners")
+                        .theme(Theme.DARK)
+                        .content(VpnStatus.getListenerStats())
+                        .positiveText("OK")
+                        .show();
+                }
+            })
             .show();
     }
 
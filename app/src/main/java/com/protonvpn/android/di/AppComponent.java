@@ -20,6 +20,8 @@ package com.protonvpn.android.di;
 
 import android.app.Application;
 
+import com.protonvpn.android.models.config.UserData;
+import com.protonvpn.android.utils.ServerListStore;
 import com.protonvpn.android.vpn.VpnLogCapture;
 
 import javax.inject.Singleton;
@@ -49,6 +51,11 @@ public interface AppComponent extends AndroidInjector<DaggerApplication> {
     }
 
     void inject(@NonNull VpnLogCapture vpnLogCapture);
+
+    // Warmed up on background threads during startup.
+    UserData userData();
+
+    ServerListStore serverListStore();
 }
 
 @InstallIn(SingletonComponent.class)
@@ -22,6 +22,7 @@ import android.os.SystemClock
 import com.google.gson.Gson
 import com.protonvpn.android.BuildConfig
 import com.protonvpn.android.ProtonApplication
+import com.protonvpn.android.api.ApiResponseCache
 import com.protonvpn.android.api.GuestHole
 import com.protonvpn.android.api.HumanVerificationHandler
 import com.protonvpn.android.api.ProtonApiRetroFit
@@ -37,6 +38,7 @@ import com.protonvpn.android.ui.home.LogoutHandler
 import com.protonvpn.android.ui.home.ServerListUpdater
 import com.protonvpn.android.utils.Constants.PRIMARY_VPN_API_URL
 import com.protonvpn.android.utils.CoreLogger
+import com.protonvpn.android.utils.ServerListStore
 import com.protonvpn.android.utils.ServerManager
 import com.protonvpn.android.utils.TrafficMonitor
 import com.protonvpn.android.utils.UserPlanManager
@@ -44,6 +46,7 @@ import com.protonvpn.android.vpn.CertificateRepository
 import com.protonvpn.android.vpn.ConnectivityMonitor
 import com.protonvpn.android.vpn.MaintenanceTracker
 import com.protonvpn.android.vpn.ProtonVpnBackendProvider
+import com.protonvpn.android.vpn.ReachabilityCache
 import com.protonvpn.android.vpn.RecentsManager
 import com.protonvpn.android.vpn.VpnBackendProvider
 import com.protonvpn.android.vpn.VpnConnectionErrorHandler
@@ -79,6 +82,7 @@ import me.proton.core.network.domain.ApiManager
 import me.proton.core.network.domain.NetworkManager
 import me.proton.core.network.domain.client.ClientIdProvider
 import me.proton.core.util.kotlin.DispatcherProvider
+import java.io.File
 import java.util.Random
 import javax.inject.Singleton
 
@@ -97,8 +101,13 @@ class AppModule {
 
     @Singleton
     @Provides
-    fun provideServerManager(userData: UserData) =
-        ServerManager(ProtonApplication.getAppContext(), userData)
+    fun provideServerListStore() =
+        ServerListStore(File(ProtonApplication.getAppContext().filesDir, "servers"))
+
+    @Singleton
+    @Provides
+    fun provideServerManager(userData: UserData, serverListStore: ServerListStore) =
+        ServerManager(ProtonApplication.getAppContext(), userData, serverListStore)
 
     @Singleton
     @Provides
@@ -187,7 +196,8 @@ class AppModule {
 
     @Singleton
     @Provides
-    fun provideAPI(apiManager: ApiManager<ProtonVPNRetrofit>) = ProtonApiRetroFit(scope, apiManager)
+    fun provideAPI(apiManager: ApiManager<ProtonVPNRetrofit>) = ProtonApiRetroFit(
+        scope, apiManager, ApiResponseCache(File(ProtonApplication.getAppContext().cacheDir, "api_responses")))
 
     @Singleton
     @Provides
@@ -286,6 +296,11 @@ class AppModule {
     @Provides
     fun provideConnectivityMonitor() = ConnectivityMonitor(scope, ProtonApplication.getAppContext())
 
+    @Singleton
+    @Provides
+    fun provideReachabilityCache(connectivityMonitor: ConnectivityMonitor) =
+        ReachabilityCache(connectivityMonitor, System::currentTimeMillis)
+
     @Singleton
     @Provides
     fun provideNotificationHelper(
@@ -301,7 +316,8 @@ class AppModule {
         appConfig: AppConfig,
         serverManager: ServerManager,
         certificateRepository: CertificateRepository,
-        wireguardBackend: WireguardBackend
+        wireguardBackend: WireguardBackend,
+        reachabilityCache: ReachabilityCache
     ): VpnBackendProvider =
         ProtonVpnBackendProvider(
             StrongSwanBackend(
@@ -311,7 +327,8 @@ class AppModule {
                 System::currentTimeMillis,
                 userData,
                 appConfig,
-                certificateRepository
+                certificateRepository,
+                reachabilityCache
             ),
             OpenVpnBackend(
                 random,
@@ -320,7 +337,8 @@ class AppModule {
                 appConfig,
                 System::currentTimeMillis,
                 certificateRepository,
-                scope
+                scope,
+                reachabilityCache
             ),
             wireguardBackend,
             serverManager
@@ -378,13 +396,14 @@ class AppModule {
         userData: UserData,
         serverManager: ServerManager,
         vpnApiManager: VpnApiManager,
+        api: ProtonApiRetroFit,
         vpnStateMonitor: VpnStateMonitor,
         vpnConnectionManager: VpnConnectionManager,
         vpnApiClient: VpnApiClient,
         humanVerificationHandler: HumanVerificationHandler,
         certificateRepository: CertificateRepository
-    ): LogoutHandler = LogoutHandler(scope, userData, serverManager, vpnApiManager, userData.apiSessionProvider,
-        vpnStateMonitor, vpnConnectionManager, humanVerificationHandler, certificateRepository, vpnApiClient)
+    ): LogoutHandler = LogoutHandler(scope, userData, serverManager, vpnApiManager, api,
+        userData.apiSessionProvider, vpnStateMonitor, vpnConnectionManager, humanVerificationHandler, certificateRepository, vpnApiClient)
 
     @Module
     interface Bindings {
@@ -27,6 +27,7 @@ import com.protonvpn.android.models.login.VpnInfoResponse;
 import com.protonvpn.android.models.profiles.Profile;
 import com.protonvpn.android.models.vpn.Server;
 import com.protonvpn.android.utils.AndroidUtils;
+import com.protonvpn.android.utils.CoalescingWriter;
 import com.protonvpn.android.utils.LiveEvent;
 import com.protonvpn.android.utils.Storage;
 
@@ -79,6 +80,13 @@ public final class UserData implements Serializable {
     private transient LiveEvent updateEvent = new LiveEvent();
     private transient ApiSessionProvider apiSessionProvider =
         new ApiSessionProvider(ProtonApplication.getAppContext());
+    // Settings are often changed in bursts, the whole object is serialized once per burst. Setters of serialized
+    // fields are synchronized so that the background write doesn't see them half-changed.
+    private transient CoalescingWriter storageWriter = new CoalescingWriter(() -> {
+        synchronized (this) {
+            Storage.save(this);
+        }
+    });
 
     private UserData() {
         user = "";
@@ -128,19 +136,29 @@ public final class UserData implements Serializable {
         return isLoggedIn ? getVpnInfoResponse().getPassword() : "guest";
     }
 
-    public void setUser(String user) {
+    public synchronized void setUser(String user) {
         this.user = user;
         saveToStorage();
     }
 
     private void saveToStorage() {
-        Storage.save(this);
+        storageWriter.markDirty();
         updateEvent.emit();
     }
 
+    /**
+     * Writes pending changes to disk before returning, for places where the process may be killed before the delayed
+     * write happens. Must not be called while holding the lock on this object.
+     */
+    public void flushNow() {
+        storageWriter.flushNow();
+        Storage.flush();
+    }
+
     public void setLoggedIn(VpnInfoResponse response) {
         setVpnInfoResponse(response);
         setLoggedIn(true);
+        flushNow();
     }
 
     public boolean hasAccessToServer(@Nullable Server serverToAccess) {
@@ -182,7 +200,7 @@ public final class UserData implements Serializable {
     }
 
     @Deprecated
-    public void trackAppOpening(DateTime currentTime) {
+    public synchronized void trackAppOpening(DateTime currentTime) {
         DateTime lastOpen = lastTimeAppOpened != null ? lastTimeAppOpened : new DateTime();
         int daysBetween = Days.daysBetween(lastOpen, currentTime).getDays();
         if (daysBetween == 1 || timesAppUsed == 0) {
@@ -207,6 +225,7 @@ public final class UserData implements Serializable {
         clearNetworkUserData();
         setDefaultConnection(null);
         setNetShieldProtocol(null);
+        flushNow();
     }
 
     public boolean isMaxSessionReached(int currentSessionCount) {
@@ -218,7 +237,7 @@ public final class UserData implements Serializable {
         return defaultConnection;
     }
 
-    public void setDefaultConnection(Profile profile) {
+    public synchronized void setDefaultConnection(Profile profile) {
         defaultConnection = profile;
         saveToStorage();
     }
@@ -227,7 +246,7 @@ public final class UserData implements Serializable {
         return Build.VERSION.SDK_INT < 26 && connectOnBoot;
     }
 
-    public void setConnectOnBoot(boolean connectOnBoot) {
+    public synchronized void setConnectOnBoot(boolean connectOnBoot) {
         this.connectOnBoot = connectOnBoot;
         saveToStorage();
     }
@@ -237,7 +256,7 @@ public final class UserData implements Serializable {
         return vpnInfoResponse;
     }
 
-    public void setVpnInfoResponse(VpnInfoResponse vpnInfoResponse) {
+    public synchronized void setVpnInfoResponse(VpnInfoResponse vpnInfoResponse) {
         this.vpnInfoResponse = vpnInfoResponse;
         if (isFreeUser()) {
             setNetShieldProtocol(NetShieldProtocol.DISABLED);
@@ -253,7 +272,7 @@ public final class UserData implements Serializable {
         return isLoggedIn;
     }
 
-    public void setLoggedIn(boolean loggedIn) {
+    public synchronized void setLoggedIn(boolean loggedIn) {
         isLoggedIn = loggedIn;
         saveToStorage();
     }
@@ -262,7 +281,7 @@ public final class UserData implements Serializable {
         return Build.VERSION.SDK_INT >= 26 || showIcon;
     }
 
-    public void setShowIcon(boolean showIcon) {
+    public synchronized void setShowIcon(boolean showIcon) {
         this.showIcon = showIcon;
         saveToStorage();
     }
@@ -280,7 +299,7 @@ public final class UserData implements Serializable {
         return vpnInfoUpdatedAt;
     }
 
-    private void setVpnInfoUpdatedAt(DateTime vpnInfoUpdatedAt) {
+    private synchronized void setVpnInfoUpdatedAt(DateTime vpnInfoUpdatedAt) {
         this.vpnInfoUpdatedAt = vpnInfoUpdatedAt;
         saveToStorage();
     }
@@ -290,7 +309,7 @@ public final class UserData implements Serializable {
             Minutes.minutesBetween(trialDialogShownAt, new DateTime()).getMinutes() < 360);
     }
 
-    public void setTrialDialogShownAt(DateTime trialDialogShownAt) {
+    public synchronized void setTrialDialogShownAt(DateTime trialDialogShownAt) {
         this.trialDialogShownAt = trialDialogShownAt;
         saveToStorage();
     }
@@ -299,7 +318,7 @@ public final class UserData implements Serializable {
         return mtuSize;
     }
 
-    public void setMtuSize(int mtuSize) {
+    public synchronized void setMtuSize(int mtuSize) {
         this.mtuSize = mtuSize;
         saveToStorage();
     }
@@ -308,7 +327,7 @@ public final class UserData implements Serializable {
         return useSplitTunneling;
     }
 
-    public void setUseSplitTunneling(boolean useSplitTunneling) {
+    public synchronized void setUseSplitTunneling(boolean useSplitTunneling) {
         this.useSplitTunneling = useSplitTunneling;
         saveToStorage();
     }
@@ -317,24 +336,24 @@ public final class UserData implements Serializable {
         return splitTunnelApps;
     }
 
-    public void addAppToSplitTunnel(String app) {
+    public synchronized void addAppToSplitTunnel(String app) {
         splitTunnelApps.add(app);
         saveToStorage();
     }
 
-    public void addIpToSplitTunnel(String ip) {
+    public synchronized void addIpToSplitTunnel(String ip) {
         if (!splitTunnelIpAddresses.contains(ip)) {
             this.splitTunnelIpAddresses.add(ip);
             saveToStorage();
         }
     }
 
-    public void removeIpFromSplitTunnel(String ip) {
+    public synchronized void removeIpFromSplitTunnel(String ip) {
         splitTunnelIpAddresses.remove(ip);
         saveToStorage();
     }
 
-    public void removeAppFromSplitTunnel(String app) {
+    public synchronized void removeAppFromSplitTunnel(String app) {
         splitTunnelApps.remove(app);
         saveToStorage();
     }
@@ -356,7 +375,7 @@ public final class UserData implements Serializable {
         return useSmartProtocol;
     }
 
-    public void setUseSmartProtocol(boolean value) {
+    public synchronized void setUseSmartProtocol(boolean value) {
         useSmartProtocol = value;
         selectedProtocolLiveData.postValue(getSelectedProtocol());
         saveToStorage();
@@ -366,7 +385,7 @@ public final class UserData implements Serializable {
         return vpnAcceleratorEnabled;
     }
 
-    public void setVpnAcceleratorEnabled(boolean value) {
+    public synchronized void setVpnAcceleratorEnabled(boolean value) {
         vpnAcceleratorEnabled = value;
         vpnAcceleratorLiveData.postValue(isVpnAcceleratorEnabled());
         saveToStorage();
@@ -376,7 +395,7 @@ public final class UserData implements Serializable {
         return showVpnAcceleratorNotifications;
     }
 
-    public void setShowVpnAcceleratorNotifications(boolean value) {
+    public synchronized void setShowVpnAcceleratorNotifications(boolean value) {
         showVpnAcceleratorNotifications = value;
         saveToStorage();
     }
@@ -386,7 +405,7 @@ public final class UserData implements Serializable {
         return selectedProtocol;
     }
 
-    public void setManualProtocol(VpnProtocol value) {
+    public synchronized void setManualProtocol(VpnProtocol value) {
         selectedProtocol = value;
         selectedProtocolLiveData.postValue(getSelectedProtocol());
         saveToStorage();
@@ -396,7 +415,7 @@ public final class UserData implements Serializable {
         return transmissionProtocol;
     }
 
-    public void setTransmissionProtocol(TransmissionProtocol transmissionProtocol) {
+    public synchronized void setTransmissionProtocol(TransmissionProtocol transmissionProtocol) {
         this.transmissionProtocol = transmissionProtocol;
         saveToStorage();
     }
@@ -405,7 +424,7 @@ public final class UserData implements Serializable {
         return AndroidUtils.INSTANCE.isTV(ProtonApplication.getAppContext()) || bypassLocalTraffic;
     }
 
-    public void setBypassLocalTraffic(boolean bypassLocalTraffic) {
+    public synchronized void setBypassLocalTraffic(boolean bypassLocalTraffic) {
         this.bypassLocalTraffic = bypassLocalTraffic;
         saveToStorage();
     }
@@ -414,14 +433,14 @@ public final class UserData implements Serializable {
         return secureCoreEnabled;
     }
 
-    public void setSecureCoreEnabled(boolean secureCoreEnabled) {
+    public synchronized void setSecureCoreEnabled(boolean secureCoreEnabled) {
         if (this.secureCoreEnabled != secureCoreEnabled) {
             this.secureCoreEnabled = secureCoreEnabled;
             saveToStorage();
         }
     }
 
-    public void setApiUseDoH(boolean value) {
+    public synchronized void setApiUseDoH(boolean value) {
         apiUseDoH = value;
         saveToStorage();
     }
@@ -430,7 +449,7 @@ public final class UserData implements Serializable {
         return apiUseDoH;
     }
 
-    public void setNetShieldProtocol(NetShieldProtocol value) {
+    public synchronized void setNetShieldProtocol(NetShieldProtocol value) {
         netShieldProtocol = value;
         netShieldProtocolLiveData.postValue(getNetShieldProtocol());
         saveToStorage();
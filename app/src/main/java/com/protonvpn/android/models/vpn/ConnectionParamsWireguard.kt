@@ -84,9 +84,7 @@ class ConnectionParamsWireguard(
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
     fun calculateAllowedIps(excludedIps: List<String>): String {
         val ipRangeSet = IPRangeSet.fromString("0.0.0.0/0")
-        excludedIps.forEach {
-            ipRangeSet.remove(IPRange(it))
-        }
+        ipRangeSet.remove(IPRangeSet().apply { addAll(excludedIps.map { IPRange(it) }) })
 
         // IPRangeSet class does not support IPv6 so we need to add them here
         // explicitly to not leak IPv6 for Wireguard then split tunneling is used
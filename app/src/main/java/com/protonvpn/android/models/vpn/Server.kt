@@ -23,8 +23,6 @@ import com.protonvpn.android.components.Listable
 import com.protonvpn.android.components.Markable
 import com.protonvpn.android.models.config.VpnProtocol
 import com.protonvpn.android.utils.CountryTools
-import com.protonvpn.android.utils.DebugUtils.debugAssert
-import com.protonvpn.android.utils.implies
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.Transient
@@ -45,7 +43,7 @@ data class Server(
     @SerialName(value = "Region") val region: String?,
     @SerialName(value = "City") val city: String?,
     @SerialName(value = "Features") val features: Int,
-    @SerialName(value = "Location") private val location: Location,
+    @SerialName(value = "Location") val location: Location,
 
     @SerialName(value = "Score") var score: Float,
 
@@ -56,6 +54,9 @@ data class Server(
 
     val online get() = isOnline && connectingDomains.any { it.isOnline }
 
+    // Status of the server itself, without taking its connecting domains into account.
+    val isStatusOnline get() = isOnline
+
     @Transient
     private val translatedCoordinates: TranslatedCoordinates = TranslatedCoordinates(exitCountry)
 
@@ -68,13 +69,13 @@ data class Server(
     }
 
     val keywords: List<Keyword> get() = mutableListOf<Keyword>().apply {
-        if (features and 4 == 4)
+        if (features and FEATURE_P2P != 0)
             add(Keyword.P2P)
-        if (features and 2 == 2)
+        if (features and FEATURE_TOR != 0)
             add(Keyword.TOR)
-        if (features and 8 == 8)
+        if (features and FEATURE_STREAMING != 0)
             add(Keyword.STREAMING)
-        if (features and 32 == 32)
+        if (features and FEATURE_SMART_ROUTING != 0)
             add(Keyword.SMART_ROUTING)
     }
 
@@ -82,12 +83,6 @@ data class Server(
     val entryCountryCoordinates: TranslatedCoordinates? =
         TranslatedCoordinates(this.entryCountry)
 
-    init {
-        debugAssert {
-            isOnline.implies(connectingDomains.any(ConnectingDomain::isOnline))
-        }
-    }
-
     val isFreeServer: Boolean
         get() = domain.contains("-free")
 
@@ -111,7 +106,7 @@ data class Server(
     }
 
     val isSecureCoreServer: Boolean
-        get() = features and 1 == 1
+        get() = features and FEATURE_SECURE_CORE != 0
 
     val serverNumber: Int
         get() {
@@ -160,7 +155,29 @@ data class Server(
         }
     }
 
+    // Returns true if load, score or online state changed.
+    fun updateLoad(loadUpdate: LoadUpdate): Boolean {
+        var changed = load != loadUpdate.load || score != loadUpdate.score
+        load = loadUpdate.load
+        score = loadUpdate.score
+
+        // If server becomes online we don't know which connectingDomains became available based on /loads
+        // response. If there's more than one connectingDomain it'll have to wait for /logicals response
+        if (online != loadUpdate.isOnline && (!loadUpdate.isOnline || connectingDomains.size == 1)) {
+            setOnline(loadUpdate.isOnline)
+            changed = true
+        }
+        return changed
+    }
+
     companion object {
+        // Bits of [features].
+        const val FEATURE_SECURE_CORE = 1
+        const val FEATURE_TOR = 2
+        const val FEATURE_P2P = 4
+        const val FEATURE_STREAMING = 8
+        const val FEATURE_SMART_ROUTING = 32
+
         val SERVER_NUMBER_PATTERN: Pattern = Pattern.compile("#(\\d+(\\d+)?)")
     }
 }
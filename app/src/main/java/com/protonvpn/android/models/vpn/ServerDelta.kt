@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2021. Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.models.vpn
+
+/**
+ * Change of a single server's load, score or online state caused by a /loads update. [server] is the
+ * instance present in the current (protocol filtered) server list and is already updated.
+ */
+data class ServerDelta(
+    val server: Server,
+    val onlineChanged: Boolean
+)
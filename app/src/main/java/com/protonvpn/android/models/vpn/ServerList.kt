@@ -18,10 +18,34 @@
  */
 package com.protonvpn.android.models.vpn
 
+import com.protonvpn.android.utils.DebugUtils.debugAssert
+import com.protonvpn.android.utils.ServerGroups
+import com.protonvpn.android.utils.implies
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.Transient
 
 @Serializable
 class ServerList(
     @SerialName(value = "LogicalServers") val serverList: List<Server>
-) : java.io.Serializable
+) : java.io.Serializable {
+
+    // Set when the servers were grouped while decoding the response.
+    @Transient
+    var groups: ServerGroups? = null
+        private set
+
+    init {
+        // Checked on the API response only: domains of an online server may go offline later, e.g. in the stored
+        // server list.
+        debugAssert {
+            serverList.all { server ->
+                server.isStatusOnline.implies(server.connectingDomains.any(ConnectingDomain::isOnline))
+            }
+        }
+    }
+
+    constructor(groups: ServerGroups) : this(groups.servers) {
+        this.groups = groups
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.startup
+
+import com.protonvpn.android.utils.ProtonLogger
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs application startup as a graph of named tasks. A task starts once all tasks it depends on have finished,
+ * background tasks on [executor] and the others on the thread calling [run], so that only the main thread tasks
+ * are on the critical path. Dependencies need to be added before the tasks that depend on them.
+ *
+ * A failed background task fails its dependents and is rethrown by [await], failures of main thread tasks are
+ * thrown from [run]. Every task is recorded in [trace].
+ */
+class StartupOrchestrator @JvmOverloads constructor(
+    private val trace: StartupTrace,
+    private val executor: Executor,
+    private val log: (String) -> Unit = { ProtonLogger.log(it) }
+) {
+    private class Task(
+        val name: String,
+        val action: Runnable,
+        val dependencies: List<Task>,
+        val background: Boolean
+    ) {
+        val dependents = mutableListOf<Task>()
+        val pendingDependencies = AtomicInteger(dependencies.size)
+        val done = CountDownLatch(1)
+        @Volatile var error: Throwable? = null
+    }
+
+    private val tasks = LinkedHashMap<String, Task>()
+    private val readyMainTasks = LinkedBlockingQueue<Task>()
+    private val remainingTasks = AtomicInteger()
+    @Volatile private var started = false
+
+    fun task(name: String, action: Runnable, vararg dependsOn: String) = add(name, action, dependsOn, false)
+
+    fun backgroundTask(name: String, action: Runnable, vararg dependsOn: String) = add(name, action, dependsOn, true)
+
+    private fun add(name: String, action: Runnable, dependsOn: Array<out String>, background: Boolean) {
+        check(!started) { "Startup already running" }
+        require(name !in tasks) { "Duplicate startup task $name" }
+        val dependencies = dependsOn.map { requireNotNull(tasks[it]) { "Unknown dependency $it of $name" } }
+        val task = Task(name, action, dependencies, background)
+        dependencies.forEach { it.dependents += task }
+        tasks[name] = task
+    }
+
+    /**
+     * Runs all tasks and returns once the main thread tasks have finished, background tasks may still be running.
+     */
+    fun run() {
+        check(!started) { "Startup already running" }
+        started = true
+        remainingTasks.set(tasks.size)
+        tasks.values.filter { it.dependencies.isEmpty() }.forEach(::schedule)
+        repeat(tasks.values.count { !it.background }) {
+            execute(readyMainTasks.take())
+        }
+    }
+
+    fun isDone(name: String) = getTask(name).done.count == 0L
+
+    /**
+     * Blocks until task [name] has finished, throws if it or any of its dependencies failed.
+     */
+    fun await(name: String) {
+        val task = getTask(name)
+        task.done.await()
+        task.error?.let { throw IllegalStateException("Startup task $name failed", it) }
+    }
+
+    private fun getTask(name: String) = requireNotNull(tasks[name]) { "Unknown startup task $name" }
+
+    private fun schedule(task: Task) {
+        if (task.background)
+            executor.execute { execute(task) }
+        else
+            readyMainTasks.put(task)
+    }
+
+    private fun execute(task: Task) {
+        val failedDependency = task.dependencies.mapNotNull { it.error }.firstOrNull()
+        if (failedDependency != null) {
+            task.error = failedDependency
+        } else {
+            try {
+                trace.trace(task.name) { task.action.run() }
+            } catch (e: Throwable) {
+                if (!task.background)
+                    throw e
+                task.error = e
+                log("Startup task ${task.name} failed: $e")
+            }
+        }
+        task.done.countDown()
+        task.dependents.forEach {
+            if (it.pendingDependencies.decrementAndGet() == 0)
+                schedule(it)
+        }
+        if (remainingTasks.decrementAndGet() == 0)
+            log("Startup finished:\n${trace.dump()}")
+    }
+
+    companion object {
+        // Threads are released once startup is done.
+        @JvmStatic
+        fun createExecutor(threads: Int): Executor =
+            ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, LinkedBlockingQueue()) {
+                Thread(it, "Startup")
+            }.apply { allowCoreThreadTimeOut(true) }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.startup
+
+import java.util.Locale
+
+/**
+ * Timings of the startup phases, relative to the creation of the trace. Phases can be recorded from any thread.
+ */
+class StartupTrace(private val clock: () -> Long) {
+
+    data class Phase(val name: String, val thread: String, val startMs: Long, val durationMs: Long)
+
+    private val origin = clock()
+    private val recorded = mutableListOf<Phase>()
+
+    val phases: List<Phase> get() = synchronized(recorded) { recorded.sortedBy { it.startMs } }
+
+    fun <T> trace(name: String, block: () -> T): T {
+        val start = clock()
+        try {
+            return block()
+        } finally {
+            record(name, start, clock())
+        }
+    }
+
+    fun record(name: String, start: Long, end: Long) {
+        val phase = Phase(name, Thread.currentThread().name, start - origin, end - start)
+        synchronized(recorded) {
+            recorded += phase
+        }
+    }
+
+    fun dump(): String = phases.joinToString("\n") {
+        String.format(Locale.US, "+%5dms %5dms  %-16s %s", it.startMs, it.durationMs, it.thread, it.name)
+    }
+}
@@ -55,6 +55,7 @@ import com.protonvpn.android.utils.AndroidUtils.isRtl
 import com.protonvpn.android.utils.CountryTools
 import com.protonvpn.android.utils.ViewUtils.toPx
 import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.launch
 
 class TvMainFragment : BaseTvBrowseFragment() {
 
@@ -87,6 +88,11 @@ class TvMainFragment : BaseTvBrowseFragment() {
                 setupRowAdapter()
             }
         }
+        viewLifecycleOwner.lifecycleScope.launch {
+            viewModel.countryStatusChanges.collect { flags ->
+                rowsAdapter?.updateCountryCards(flags)
+            }
+        }
     }
 
     override fun onResume() {
@@ -173,6 +179,18 @@ class TvMainFragment : BaseTvBrowseFragment() {
         addOrReplace(0, createRow(recentsRow, 0))
     }
 
+    private fun ArrayObjectAdapter.updateCountryCards(flags: Set<String>) {
+        updateRecentsRow()
+        for (rowIndex in 0 until size()) {
+            val cards = (get(rowIndex) as? CardListRow)?.adapter as? ArrayObjectAdapter ?: continue
+            for (cardIndex in 0 until cards.size()) {
+                val card = cards.get(cardIndex) as? CountryCard ?: continue
+                if (card.vpnCountry.flag in flags)
+                    cards.replace(cardIndex, viewModel.getCountryCard(requireContext(), card.vpnCountry))
+            }
+        }
+    }
+
     private fun ArrayObjectAdapter.createRows() {
         var index = 1
         updateRecentsRow()
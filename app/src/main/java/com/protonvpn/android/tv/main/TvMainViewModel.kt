@@ -56,6 +56,7 @@ import com.protonvpn.android.vpn.VpnState
 import com.protonvpn.android.vpn.VpnStateMonitor
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filter
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.launch
 import javax.inject.Inject
@@ -80,6 +81,11 @@ class TvMainViewModel @Inject constructor(
 
     val vpnStatus = vpnStateMonitor.status.asLiveData()
 
+    // Flags of countries with servers that went online or offline in a loads update.
+    val countryStatusChanges = serverManager.serverDeltas.map { deltas ->
+        deltas.filter { it.onlineChanged }.mapTo(HashSet()) { it.server.flag }
+    }.filter { it.isNotEmpty() }
+
     // Simplified vpn connection state change stream for UI elements interested in distinct changes between 3 states
     enum class ConnectionState { None, Connecting, Connected }
     val vpnConnectionState = vpnStateMonitor.status.map {
@@ -135,13 +141,7 @@ class TvMainViewModel @Inject constructor(
             DebugUtils.debugAssert { continent != null }
             continent
         }, { country ->
-            CountryCard(
-                countryName = country.countryName,
-                hasStreamingService = !streamingServices(country.flag).isNullOrEmpty(),
-                backgroundImage = DrawableImage(CountryTools.getFlagResource(context, country.flag)),
-                bottomTitleResId = countryListItemIcon(country),
-                vpnCountry = country
-            )
+            getCountryCard(context, country)
         }).mapValues { continent ->
             continent.value.sortedWith(compareBy {
                 !it.vpnCountry.hasAccessibleOnlineServer(userData)
@@ -149,6 +149,14 @@ class TvMainViewModel @Inject constructor(
         }
     }
 
+    fun getCountryCard(context: Context, country: VpnCountry) = CountryCard(
+        countryName = country.countryName,
+        hasStreamingService = !streamingServices(country.flag).isNullOrEmpty(),
+        backgroundImage = DrawableImage(CountryTools.getFlagResource(context, country.flag)),
+        bottomTitleResId = countryListItemIcon(country),
+        vpnCountry = country
+    )
+
     fun getRecentCardList(context: Context): List<Card> {
         val recentsList = mutableListOf<Card>()
         recentsList.add(constructQuickConnect(context))
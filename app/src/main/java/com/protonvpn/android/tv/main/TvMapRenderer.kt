@@ -21,12 +21,14 @@ package com.protonvpn.android.tv.main
 import android.content.Context
 import android.graphics.Bitmap
 import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Matrix
+import android.graphics.Paint
+import android.graphics.PorterDuff
+import android.graphics.Rect
 import android.graphics.RectF
-import androidx.annotation.ColorRes
+import android.util.LruCache
 import androidx.core.content.ContextCompat
-import com.caverock.androidsvg.PreserveAspectRatio
-import com.caverock.androidsvg.RenderOptions
-import com.caverock.androidsvg.SVG
 import com.protonvpn.android.R
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Deferred
@@ -35,14 +37,25 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.ObsoleteCoroutinesApi
 import kotlinx.coroutines.async
 import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.newSingleThreadContext
 import kotlinx.coroutines.runBlocking
-import okhttp3.internal.toHexString
+import kotlin.coroutines.coroutineContext
+import kotlin.math.ceil
+import kotlin.math.floor
+import kotlin.math.ln
+import kotlin.math.roundToInt
 
 data class RenderedMap(val bitmap: Bitmap, val region: RectF)
 
+/**
+ * Renders the TV map for a region. The base map is rasterized into tiles per zoom level, which are cached, and the
+ * selected and connected countries are painted on top of it from their cached paths. Changing the selection only
+ * redraws the area of the countries whose color changed, changing the region only composes cached tiles unless
+ * the zoom level has tiles that weren't needed before.
+ */
 class TvMapRenderer(
     context: Context,
     val scope: CoroutineScope,
@@ -54,6 +67,12 @@ class TvMapRenderer(
         val outMap: Bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888)
         val outCanvas: Canvas = Canvas(outMap)
 
+        // What the map bitmap currently shows, null region when it needs to be composed again in full.
+        var region: MapRegion? = null
+        var highlights: Map<String, Int> = emptyMap()
+        // Area of map not copied to outMap yet.
+        val unpublished = Rect()
+
         fun isSize(w: Int, h: Int) = map.width == w && map.height == h
     }
 
@@ -77,18 +96,36 @@ class TvMapRenderer(
         }
     }
 
-    private val countryColor = context.getHexColor(R.color.tvMapCountry)
-    private val selectedColor = context.getHexColor(R.color.tvMapSelected)
-    private val connectedColor = context.getHexColor(R.color.tvMapConnected)
-    private val borderColor = context.getHexColor(R.color.tvMapBorder)
+    private val countryColor = ContextCompat.getColor(context, R.color.tvMapCountry)
+    private val selectedColor = ContextCompat.getColor(context, R.color.tvMapSelected)
+    private val connectedColor = ContextCompat.getColor(context, R.color.tvMapConnected)
+    private val borderColor = ContextCompat.getColor(context, R.color.tvMapBorder)
+
+    private val fillPaint = Paint(Paint.ANTI_ALIAS_FLAG).apply { style = Paint.Style.FILL }
+    private val borderPaint = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        style = Paint.Style.STROKE
+        color = borderColor
+        strokeWidth = BORDER_WIDTH
+    }
+    private val tilePaint = Paint(Paint.FILTER_BITMAP_FLAG)
+    private val matrix = Matrix()
+    private val visibleRect = RectF()
+    private val dirtyRect = RectF()
 
     @OptIn(ObsoleteCoroutinesApi::class)
     private val renderContext = newSingleThreadContext("tv.map_renderer")
 
-    private val mapSvg: Deferred<SVG> = scope.async(renderContext) {
-        SVG.getFromAsset(context.resources.assets, ASSET_NAME)
+    private val mapShapes: Deferred<TvMapShapes> = scope.async(renderContext) {
+        TvMapShapes.load(context, ASSET_NAME)
     }
 
+    // Keyed by zoom level and tile position, used only on renderContext. Tile contents depend on the render target
+    // width too, the cache is cleared when it changes.
+    private val tiles = object : LruCache<Long, Bitmap>(tileCacheBytes()) {
+        override fun sizeOf(key: Long, value: Bitmap) = value.byteCount
+    }
+    private var tilesWidth = 0
+
     private var renderTarget: RenderTarget? = null
 
     private var selectedId: String? = null
@@ -116,39 +153,48 @@ class TvMapRenderer(
     private suspend fun RenderTarget.render() {
         renderJob?.cancelAndJoin()
         renderJob = scope.launch(renderContext) {
-            val selected = selectedId
-            val connected = connectedId
-
-            val selectedCountryCss = if (selected != null && selected != connected)
-                "#$selected { fill: $selectedColor; }" else ""
-            val connectedCountryCss = if (connected != null)
-                "#$connected { fill: $connectedColor; }" else ""
-            val css = "$selectedCountryCss $connectedCountryCss " +
-                "path { fill: $countryColor; stroke: $borderColor; stroke-width: 0.1; }"
+            val shapes = mapShapes.await()
+            if (map.width != tilesWidth) {
+                tiles.evictAll()
+                tilesWidth = map.width
+            }
             val width = map.width.toFloat()
             val height = map.height.toFloat()
-
-            val svg = mapSvg.await()
-            val documentWidth = svg.documentWidth
-            val documentHeight = svg.documentHeight
             val region = mapRegion.shiftedToBoundaries(height / width)
-            val viewBoxScale = documentWidth / width
-            val regionScale = region.w
-            val renderOptions = RenderOptions()
-                    .css(css)
-                    .preserveAspectRatio(PreserveAspectRatio.STRETCH)
-                    .viewBox(region.x * documentWidth,
-                            region.y * documentWidth,
-                            documentWidth * viewBoxScale * regionScale,
-                            documentHeight * viewBoxScale * regionScale)
-
-            svg.renderToCanvas(canvas, renderOptions)
+            val highlights = highlightColors(selectedId, connectedId)
+
+            val dirty = Rect()
+            if (region != this@render.region) {
+                dirty.set(0, 0, map.width, map.height)
+            } else {
+                val changed = (highlights.keys + this@render.highlights.keys)
+                    .filter { highlights[it] != this@render.highlights[it] }
+                setDocumentMatrix(shapes, region)
+                changed.mapNotNull { shapes.countries[it] }.forEach { country ->
+                    matrix.mapRect(dirtyRect, country.bounds)
+                    dirty.union(dirtyRect.roundOutWithBorder())
+                }
+                if (!dirty.intersect(0, 0, map.width, map.height))
+                    dirty.setEmpty()
+            }
+            if (dirty.isEmpty && unpublished.isEmpty)
+                return@launch
+
+            if (!dirty.isEmpty) {
+                // A partially drawn map is composed again in full next time.
+                this@render.region = null
+                compose(shapes, region, highlights, dirty)
+                this@render.region = region
+                this@render.highlights = highlights
+                unpublished.union(dirty)
+            }
 
             // If current render job was canceled don't produce and pass output bitmap to client,
             // but if it's still active don't suspend and finish blocking current (background)
             // thread to avoid starting new render before map is fully copied to output bitmap.
             if (isActive) runBlocking(Dispatchers.Main) {
-                outCanvas.drawBitmap(map, 0f, 0f, null)
+                outCanvas.drawBitmap(map, unpublished, unpublished, null)
+                unpublished.setEmpty()
                 val regionHeight = height / width * region.w
                 val regionRect = RectF(region.x, region.y, region.x + region.w, region.y + regionHeight)
                 bitmapCallback(RenderedMap(outMap, regionRect))
@@ -157,6 +203,108 @@ class TvMapRenderer(
         renderJob?.join()
     }
 
+    private fun highlightColors(selected: String?, connected: String?): Map<String, Int> {
+        val highlights = HashMap<String, Int>(2)
+        if (selected != null)
+            highlights[selected] = selectedColor
+        if (connected != null)
+            highlights[connected] = connectedColor
+        return highlights
+    }
+
+    private suspend fun RenderTarget.compose(
+        shapes: TvMapShapes,
+        region: MapRegion,
+        highlights: Map<String, Int>,
+        dirty: Rect
+    ) {
+        val saveCount = canvas.save()
+        try {
+            canvas.clipRect(dirty)
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
+            drawTiles(shapes, region, dirty)
+            setDocumentMatrix(shapes, region)
+            canvas.concat(matrix)
+            highlights.forEach { (id, color) ->
+                val country = shapes.countries[id] ?: return@forEach
+                fillPaint.color = color
+                canvas.drawPath(country.path, fillPaint)
+                canvas.drawPath(country.path, borderPaint)
+            }
+        } finally {
+            // The canvas is kept between renders, also when one is canceled.
+            canvas.restoreToCount(saveCount)
+        }
+    }
+
+    private suspend fun RenderTarget.drawTiles(shapes: TvMapShapes, region: MapRegion, dirty: Rect) {
+        // Tiles of the zoom level closest to the scale of the region, they are scaled by at most a factor of
+        // 1.41 either way.
+        val level = zoomLevel(region.w)
+        val levelWidth = map.width.toFloat() * (1 shl level)
+        val levelHeight = levelWidth * shapes.height / shapes.width
+        val scale = map.width / (region.w * levelWidth)
+        val left = region.x * levelWidth
+        val top = region.y * levelWidth
+        canvas.save()
+        canvas.scale(scale, scale)
+        canvas.translate(-left, -top)
+        visibleRect.set(dirty.left / scale + left, dirty.top / scale + top,
+            dirty.right / scale + left, dirty.bottom / scale + top)
+        val firstColumn = maxOf(0, floor(visibleRect.left / TILE_SIZE).toInt())
+        val lastColumn = minOf(ceil(levelWidth / TILE_SIZE).toInt(), ceil(visibleRect.right / TILE_SIZE).toInt()) - 1
+        val firstRow = maxOf(0, floor(visibleRect.top / TILE_SIZE).toInt())
+        val lastRow = minOf(ceil(levelHeight / TILE_SIZE).toInt(), ceil(visibleRect.bottom / TILE_SIZE).toInt()) - 1
+        val tileCount = maxOf(0, lastColumn - firstColumn + 1) * maxOf(0, lastRow - firstRow + 1)
+        if (tileCount * TILE_BYTES > tiles.maxSize())
+            tiles.resize(tileCount * TILE_BYTES)
+        for (row in firstRow..lastRow) {
+            for (column in firstColumn..lastColumn) {
+                coroutineContext.ensureActive()
+                val tile = getTile(shapes, level, levelWidth, column, row)
+                canvas.drawBitmap(tile, column * TILE_SIZE.toFloat(), row * TILE_SIZE.toFloat(), tilePaint)
+            }
+        }
+        canvas.restore()
+    }
+
+    // Maps document coordinates to the map bitmap for the region.
+    private fun RenderTarget.setDocumentMatrix(shapes: TvMapShapes, region: MapRegion) {
+        val scale = map.width / (region.w * shapes.width)
+        matrix.setTranslate(-region.x * shapes.width, -region.y * shapes.width)
+        matrix.postScale(scale, scale)
+    }
+
+    private fun getTile(shapes: TvMapShapes, level: Int, levelWidth: Float, column: Int, row: Int): Bitmap {
+        val key = level.toLong() shl 40 or (column.toLong() shl 20) or row.toLong()
+        tiles[key]?.let { return it }
+
+        val tile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888)
+        val tileCanvas = Canvas(tile)
+        val scale = levelWidth / shapes.width
+        tileCanvas.translate(-column * TILE_SIZE.toFloat(), -row * TILE_SIZE.toFloat())
+        tileCanvas.scale(scale, scale)
+        shapes.background?.let {
+            fillPaint.shader = it
+            tileCanvas.drawRect(0f, 0f, shapes.width, shapes.height, fillPaint)
+            fillPaint.shader = null
+        }
+        fillPaint.color = countryColor
+        shapes.countries.values.forEach { country ->
+            if (!tileCanvas.quickReject(country.bounds, Canvas.EdgeType.AA)) {
+                tileCanvas.drawPath(country.path, fillPaint)
+                tileCanvas.drawPath(country.path, borderPaint)
+            }
+        }
+        tiles.put(key, tile)
+        return tile
+    }
+
+    private fun RectF.roundOutWithBorder() = Rect().also {
+        inset(-DIRTY_MARGIN, -DIRTY_MARGIN)
+        roundOut(it)
+    }
+
     fun updateSelection(selected: String?, connected: String?) {
         if (selected != selectedId || connected != connectedId) {
             selectedId = selected
@@ -174,10 +322,17 @@ class TvMapRenderer(
 
         const val WIDTH = 1538.434f
 
-        private fun Context.getHexColor(@ColorRes res: Int): String {
-            val argb = ContextCompat.getColor(this, res)
-            val rgba = 0xFF000000.toInt() and argb ushr 24 or (argb shl 8)
-            return "#${rgba.toHexString().padStart(8, '0')}"
-        }
+        private const val TILE_SIZE = 256
+        private const val TILE_BYTES = TILE_SIZE * TILE_SIZE * 4
+        private const val MAX_ZOOM_LEVEL = 3
+        private const val BORDER_WIDTH = 0.1f
+        // Covers antialiasing and the border around a country when its area is redrawn.
+        private const val DIRTY_MARGIN = 2f
+
+        private fun zoomLevel(regionWidth: Float) =
+            (ln(1f / regionWidth) / ln(2f)).roundToInt().coerceIn(0, MAX_ZOOM_LEVEL)
+
+        private fun tileCacheBytes() =
+            minOf(Runtime.getRuntime().maxMemory() / 8, 32L * 1024 * 1024).toInt()
     }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.tv.main
+
+import android.content.Context
+import android.graphics.Color
+import android.graphics.LinearGradient
+import android.graphics.Path
+import android.graphics.RectF
+import android.graphics.Shader
+import android.util.Xml
+import androidx.core.graphics.PathParser
+import org.xmlpull.v1.XmlPullParser
+
+/**
+ * Country outlines and background of the TV map, parsed once from the map's SVG asset into [Path]s in document
+ * coordinates. The map only uses translated groups of paths, a vertical background gradient and CSS for colors,
+ * which is all that is supported here.
+ */
+class TvMapShapes private constructor(
+    val width: Float,
+    val height: Float,
+    val background: Shader?,
+    val countries: Map<String, Country>
+) {
+    class Country(val path: Path, val bounds: RectF)
+
+    companion object {
+        fun load(context: Context, assetName: String): TvMapShapes =
+            context.assets.open(assetName).use { input ->
+                val parser = Xml.newPullParser()
+                parser.setInput(input, null)
+                parse(parser)
+            }
+
+        private fun parse(parser: XmlPullParser): TvMapShapes {
+            var width = 0f
+            var height = 0f
+            val stopOffsets = mutableListOf<Float>()
+            val stopColors = mutableListOf<Int>()
+            val paths = LinkedHashMap<String, Path>()
+            // Translation of each open group, outermost first.
+            val translations = mutableListOf(0f to 0f)
+            while (parser.next() != XmlPullParser.END_DOCUMENT) {
+                if (parser.eventType == XmlPullParser.END_TAG && parser.name == "g") {
+                    translations.removeAt(translations.lastIndex)
+                    continue
+                }
+                if (parser.eventType != XmlPullParser.START_TAG)
+                    continue
+                when (parser.name) {
+                    "svg" -> {
+                        width = parser.getAttributeValue(null, "width").toFloat()
+                        height = parser.getAttributeValue(null, "height").toFloat()
+                    }
+                    "stop" -> {
+                        stopOffsets += parser.getAttributeValue(null, "offset").removeSuffix("%").toFloat() / 100
+                        val color = parser.getAttributeValue(null, "style")
+                            .split(';').first { it.startsWith("stop-color:") }.removePrefix("stop-color:")
+                        stopColors += Color.parseColor(color)
+                    }
+                    "g" -> translations += translations.last() + parseTranslation(parser)
+                    "path" -> {
+                        val id = parser.getAttributeValue(null, "id")
+                        val path = PathParser.createPathFromPathData(parser.getAttributeValue(null, "d"))
+                        val (dx, dy) = translations.last() + parseTranslation(parser)
+                        path.offset(dx, dy)
+                        if (parser.getAttributeValue(null, "fill-rule") == "evenodd")
+                            path.fillType = Path.FillType.EVEN_ODD
+                        val existing = paths[id]
+                        if (existing != null)
+                            existing.addPath(path)
+                        else
+                            paths[id] = path
+                    }
+                }
+            }
+            val countries = paths.mapValues { (_, path) ->
+                Country(path, RectF().apply { path.computeBounds(this, true) })
+            }
+            val background = if (stopColors.size >= 2) {
+                LinearGradient(0f, 0f, 0f, height, stopColors.toIntArray(), stopOffsets.toFloatArray(),
+                    Shader.TileMode.CLAMP)
+            } else {
+                null
+            }
+            return TvMapShapes(width, height, background, countries)
+        }
+
+        private fun parseTranslation(parser: XmlPullParser): Pair<Float, Float> {
+            val transform = parser.getAttributeValue(null, "transform") ?: return 0f to 0f
+            val values = transform.removePrefix("translate(").removeSuffix(")")
+                .split(' ', ',').filter { it.isNotEmpty() }.map { it.toFloat() }
+            return values[0] to values.getOrElse(1) { 0f }
+        }
+
+        private operator fun Pair<Float, Float>.plus(other: Pair<Float, Float>) =
+            first + other.first to second + other.second
+    }
+}
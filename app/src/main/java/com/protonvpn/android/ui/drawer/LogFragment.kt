@@ -21,8 +21,12 @@ package com.protonvpn.android.ui.drawer
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import android.view.inputmethod.EditorInfo
+import android.widget.EditText
 import android.widget.TextView
+import androidx.appcompat.widget.SwitchCompat
 import androidx.lifecycle.lifecycleScope
+import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import butterknife.BindView
 import com.protonvpn.android.R
@@ -30,33 +34,150 @@ import com.protonvpn.android.components.BaseFragment
 import com.protonvpn.android.components.BaseViewHolder
 import com.protonvpn.android.components.ContentLayout
 import com.protonvpn.android.models.config.UserData
+import com.protonvpn.android.utils.Log
+import com.protonvpn.android.utils.LogLineIndex
 import com.protonvpn.android.utils.ProtonLogger
+import com.protonvpn.android.utils.ProtonLoggerImpl.LogUpdate
 import com.protonvpn.android.vpn.VpnStateMonitor
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.IOException
 import javax.inject.Inject
 
 @ContentLayout(R.layout.fragment_log)
 class LogFragment : BaseFragment() {
 
     private val logAdapter = LogAdapter()
-    internal var log: MutableList<String> = ArrayList()
+    private var lines: LogViewerLines? = null
+    private val loadingPages = HashSet<Int>()
+    private var searchJob: Job? = null
+    private var searchPosition = -1
 
     @BindView(R.id.recyclerView) @JvmField var recyclerView: RecyclerView? = null
+    @BindView(R.id.searchText) @JvmField var searchText: EditText? = null
+    @BindView(R.id.switchOnlyMatching) @JvmField var switchOnlyMatching: SwitchCompat? = null
     @Inject lateinit var stateMonitor: VpnStateMonitor
     @Inject lateinit var userData: UserData
 
     override fun onViewCreated() {
         recyclerView?.adapter = logAdapter
+        searchText?.setOnEditorActionListener { _, actionId, _ ->
+            if (actionId == EditorInfo.IME_ACTION_SEARCH) {
+                search()
+                true
+            } else {
+                false
+            }
+        }
+        switchOnlyMatching?.setOnCheckedChangeListener { _, _ ->
+            searchPosition = -1
+            search()
+        }
         viewLifecycleOwner.lifecycleScope.launch {
-            ProtonLogger.getLogLines().collect { addToLog(it) }
+            ProtonLogger.getLogUpdates().collect { onLogUpdate(it) }
+        }
+    }
+
+    override fun onDestroyView() {
+        super.onDestroyView()
+        lines?.close()
+        lines = null
+        loadingPages.clear()
+    }
+
+    private suspend fun onLogUpdate(update: LogUpdate) {
+        when (update) {
+            is LogUpdate.Files -> {
+                val index = withContext(Dispatchers.IO) {
+                    try {
+                        LogLineIndex.build(update.sources)
+                    } catch (e: IOException) {
+                        Log.e("Unable to index log files", e)
+                        update.sources.forEach { it.channel.close() }
+                        LogLineIndex.build(emptyList())
+                    }
+                }
+                lines?.close()
+                lines = LogViewerLines(index)
+                logAdapter.notifyDataSetChanged()
+                scrollToEnd()
+            }
+            is LogUpdate.Lines -> {
+                val viewerLines = lines ?: return
+                val atEnd = recyclerView?.canScrollVertically(1) != true
+                val inserted = viewerLines.addLiveLines(update.lines)
+                if (!inserted.isEmpty()) {
+                    logAdapter.notifyItemRangeInserted(inserted.first, inserted.count())
+                    if (atEnd) scrollToEnd()
+                }
+            }
         }
     }
 
-    private fun addToLog(item: String) {
-        log.add(item)
-        logAdapter.notifyDataSetChanged()
-        recyclerView?.scrollToPosition(log.size - 1)
+    private fun scrollToEnd() {
+        val size = lines?.size ?: 0
+        if (size > 0)
+            recyclerView?.scrollToPosition(size - 1)
+    }
+
+    private fun loadPage(viewerLines: LogViewerLines, page: Int) {
+        if (!loadingPages.add(page)) return
+        viewLifecycleOwner.lifecycleScope.launch {
+            val loaded = try {
+                withContext(Dispatchers.IO) { viewerLines.loadPage(page) }
+            } catch (e: IOException) {
+                Log.e("Unable to read log lines", e)
+                null
+            }
+            if (lines !== viewerLines) return@launch
+            loadingPages.remove(page)
+            if (loaded != null) {
+                viewerLines.addPage(loaded)
+                val positions = viewerLines.positionsOf(loaded)
+                if (!positions.isEmpty())
+                    logAdapter.notifyItemRangeChanged(positions.first, positions.count())
+            }
+        }
+    }
+
+    // Jumps to the next line containing the search text, with the switch on only those lines are shown.
+    private fun search() {
+        val viewerLines = lines ?: return
+        val text = searchText?.text?.toString().orEmpty()
+        val onlyMatching = switchOnlyMatching?.isChecked == true
+        searchJob?.cancel()
+        if (text.isEmpty()) {
+            if (viewerLines.filter != null) {
+                viewerLines.setFilter(null, null)
+                logAdapter.notifyDataSetChanged()
+                scrollToEnd()
+            }
+            return
+        }
+        searchJob = viewLifecycleOwner.lifecycleScope.launch {
+            val liveLines = viewerLines.liveLinesSnapshot()
+            val matches = try {
+                withContext(Dispatchers.IO) { viewerLines.findLines(text, liveLines) }
+            } catch (e: IOException) {
+                Log.e("Unable to search log", e)
+                return@launch
+            }
+            if (lines !== viewerLines) return@launch
+            val filter = if (onlyMatching) text else null
+            if (filter != viewerLines.filter) {
+                viewerLines.setFilter(filter, matches)
+                logAdapter.notifyDataSetChanged()
+                searchPosition = -1
+            }
+            val position = viewerLines.nextMatch(matches, searchPosition, forward = true)
+            if (position >= 0) {
+                searchPosition = position
+                (recyclerView?.layoutManager as? LinearLayoutManager)?.scrollToPositionWithOffset(position, 0)
+            }
+        }
     }
 
     private inner class LogAdapter : RecyclerView.Adapter<LogLineViewHolder>() {
@@ -67,10 +188,14 @@ class LogFragment : BaseFragment() {
         }
 
         override fun onBindViewHolder(holder: LogLineViewHolder, position: Int) {
-            holder.bindData(log[position])
+            val viewerLines = lines ?: return
+            val line = viewerLines.getLine(position)
+            if (line == null)
+                loadPage(viewerLines, viewerLines.pageOf(position))
+            holder.bindData(line ?: "")
         }
 
-        override fun getItemCount() = log.size
+        override fun getItemCount() = lines?.size ?: 0
     }
 
     inner class LogLineViewHolder internal constructor(view: View) : BaseViewHolder<String>(view) {
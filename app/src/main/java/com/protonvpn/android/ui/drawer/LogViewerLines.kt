@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.ui.drawer
+
+import com.protonvpn.android.utils.LogLineIndex
+import java.io.Closeable
+import java.io.IOException
+
+/**
+ * Lines shown by the log viewer: those of the indexed log files followed by the lines logged while the viewer is
+ * open. File lines are read in pages of [PAGE_SIZE] and only the most recently used pages are kept.
+ *
+ * With a filter only the lines containing the filter text are shown, positions then map to line numbers through
+ * the list of matching lines. Pages hold file lines by line number, so they stay valid when the filter changes.
+ * Used on the main thread, except for the @Throws functions which read the files and are meant to be called in the
+ * background.
+ */
+class LogViewerLines(private val index: LogLineIndex) : Closeable {
+
+    class Page(val number: Int, val lines: List<String>)
+
+    private val liveLines = ArrayList<String>()
+    private val pages = object : LinkedHashMap<Int, List<String>>(MAX_PAGES, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, List<String>>) = size > MAX_PAGES
+    }
+
+    // Line numbers of the visible lines when filtered, file lines first, then live lines.
+    private var visibleLines: IntArray? = null
+    private var visibleCount = 0
+
+    var filter: String? = null
+        private set
+
+    val size get() = visibleLines?.let { visibleCount } ?: index.lineCount + liveLines.size
+
+    /**
+     * Returns the line at [position] or null when its page needs to be loaded with [loadPage] first.
+     */
+    fun getLine(position: Int): String? {
+        val line = lineNumber(position)
+        if (line >= index.lineCount)
+            return liveLines[line - index.lineCount]
+        return pages[line / PAGE_SIZE]?.get(line % PAGE_SIZE)
+    }
+
+    fun pageOf(position: Int) = lineNumber(position) / PAGE_SIZE
+
+    @Throws(IOException::class)
+    fun loadPage(page: Int) = Page(page, index.readLines(page * PAGE_SIZE, PAGE_SIZE))
+
+    fun addPage(page: Page) {
+        pages[page.number] = page.lines
+    }
+
+    /**
+     * Positions of the visible lines on [page], i.e. those to refresh once it's loaded.
+     */
+    fun positionsOf(page: Page): IntRange {
+        val first = page.number * PAGE_SIZE
+        val last = first + page.lines.size - 1
+        val visible = visibleLines ?: return first..last
+        val from = lowerBound(visible, visibleCount, first)
+        val to = lowerBound(visible, visibleCount, last + 1) - 1
+        return from..to
+    }
+
+    /**
+     * Adds lines logged after the indexed files, returns the positions at which they became visible.
+     */
+    fun addLiveLines(lines: List<String>): IntRange {
+        val firstPosition = size
+        val filterText = filter
+        lines.forEach { line ->
+            liveLines += line
+            if (filterText != null && line.contains(filterText, ignoreCase = true))
+                addVisible(index.lineCount + liveLines.size - 1)
+        }
+        return firstPosition until size
+    }
+
+    /**
+     * Finds the lines containing [text], in the files and in the live lines.
+     */
+    @Throws(IOException::class)
+    fun findLines(text: String, liveLines: List<String>): IntArray {
+        val fileMatches = index.findLines(text)
+        val liveMatches = liveLines.indices.filter { liveLines[it].contains(text, ignoreCase = true) }
+        return fileMatches + liveMatches.map { index.lineCount + it }
+    }
+
+    // A copy for findLines running in the background while lines are added.
+    fun liveLinesSnapshot(): List<String> = ArrayList(liveLines)
+
+    /**
+     * Shows only [matches] of [text] (from [findLines]), or all lines when [text] is null. Live lines added since
+     * the matches were found are checked here.
+     */
+    fun setFilter(text: String?, matches: IntArray?) {
+        filter = text
+        if (text == null || matches == null) {
+            visibleLines = null
+            visibleCount = 0
+            return
+        }
+        visibleLines = matches
+        visibleCount = matches.size
+        // Lines after the last match either didn't match or weren't searched yet.
+        val from = maxOf(matches.lastOrNull()?.plus(1) ?: 0, index.lineCount)
+        for (line in from until index.lineCount + liveLines.size) {
+            if (liveLines[line - index.lineCount].contains(text, ignoreCase = true))
+                addVisible(line)
+        }
+    }
+
+    /**
+     * Position of the first line in [matches] after (or before, going backwards) [position], wrapping around.
+     * Returns -1 when there's no match.
+     */
+    fun nextMatch(matches: IntArray, position: Int, forward: Boolean): Int {
+        if (matches.isEmpty()) return -1
+        if (visibleLines != null) {
+            // Every visible line matches the filter.
+            return if (size == 0) -1 else Math.floorMod(position + if (forward) 1 else -1, size)
+        }
+        val i = if (forward) lowerBound(matches, matches.size, position + 1)
+            else lowerBound(matches, matches.size, position) - 1
+        return matches[Math.floorMod(i, matches.size)]
+    }
+
+    override fun close() {
+        index.close()
+    }
+
+    private fun lineNumber(position: Int) = visibleLines?.get(position) ?: position
+
+    private fun addVisible(line: Int) {
+        var visible = visibleLines!!
+        if (visibleCount == visible.size)
+            visible = visible.copyOf(maxOf(16, visibleCount * 2)).also { visibleLines = it }
+        visible[visibleCount++] = line
+    }
+
+    private fun lowerBound(values: IntArray, count: Int, value: Int): Int {
+        var low = 0
+        var high = count
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (values[mid] < value) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    companion object {
+        const val PAGE_SIZE = 128
+        private const val MAX_PAGES = 16
+    }
+}
@@ -20,6 +20,7 @@
 package com.protonvpn.android.ui.home
 
 import com.protonvpn.android.api.ApiSessionProvider
+import com.protonvpn.android.api.ProtonApiRetroFit
 import com.protonvpn.android.api.VpnApiClient
 import com.protonvpn.android.api.VpnApiManager
 import com.protonvpn.android.models.config.UserData
@@ -38,6 +39,7 @@ class LogoutHandler(
     val userData: UserData,
     val serverManager: ServerManager,
     val vpnApiManager: VpnApiManager,
+    val api: ProtonApiRetroFit,
     val apiSessionProvider: ApiSessionProvider,
     val vpnStateMonitor: VpnStateMonitor,
     val vpnConnectionManager: VpnConnectionManager,
@@ -75,6 +77,7 @@ class LogoutHandler(
 
         userData.logout()
         serverManager.clearCache()
+        api.clearResponseCache()
         humanVerificationHandler.clear()
 
         logoutEvent.emit()
@@ -147,9 +147,9 @@ class ServerListUpdater(
     }
 
     private suspend fun updateLoads(): Boolean {
-        val result = api.getLoads(strippedIP)
+        val result = api.getLoadsIfModified(strippedIP)
         if (result is ApiResult.Success) {
-            serverManager.updateLoads(result.value.loadsList)
+            result.value?.let { serverManager.updateLoads(it.loadsList) }
             lastLoadsUpdateInternal = now()
             Storage.saveLong(KEY_LOADS_UPDATE_DATE, DateTime().millis)
             return true
@@ -175,7 +175,7 @@ class ServerListUpdater(
 
     suspend fun updateServerList(
         networkLoader: NetworkLoader? = null
-    ): ApiResult<ServerList> {
+    ): ApiResult<ServerList?> {
         val loaderUI = networkLoader?.networkFrameLayout
 
         loaderUI?.setRetryListener {
@@ -184,7 +184,10 @@ class ServerListUpdater(
             }
         }
 
-        api.getStreamingServices().valueOrNull?.let {
+        val streamingServices =
+            if (serverManager.streamingServices == null) api.getStreamingServices()
+            else api.getStreamingServicesIfModified()
+        streamingServices.valueOrNull?.let {
             serverManager.setStreamingServices(it)
         }
 
@@ -193,9 +196,16 @@ class ServerListUpdater(
         // To provide relevant scores even when connected to VPN, we send a truncated version of
         // the user's public IP address. In keeping with our no-logs policy, this partial IP address
         // is not stored on the server and is only used to fulfill this one-off API request.
-        val result = api.getServerList(loaderUI, strippedIP)
+        // Servers that are still current are only validated, an unchanged list is not downloaded and set again.
+        val result =
+            if (serverManager.isDownloadedAtLeastOnce) api.getServerListIfModified(loaderUI, strippedIP)
+            else api.getServerList(loaderUI, strippedIP)
         if (result is ApiResult.Success) {
-            serverManager.setServers(result.value.serverList)
+            val servers = result.value
+            if (servers != null)
+                serverManager.setServers(servers)
+            else
+                serverManager.markServersUnchanged()
         }
         return result
     }
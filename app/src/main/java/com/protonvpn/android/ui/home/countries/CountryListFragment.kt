@@ -21,6 +21,7 @@ package com.protonvpn.android.ui.home.countries
 import androidx.annotation.StringRes
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.ViewModelProviders
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.GridLayoutManager
 import androidx.recyclerview.widget.SimpleItemAnimator
 import com.protonvpn.android.R
@@ -30,12 +31,15 @@ import com.protonvpn.android.components.ContentLayout
 import com.protonvpn.android.components.LoaderUI
 import com.protonvpn.android.components.NetworkFrameLayout
 import com.protonvpn.android.databinding.FragmentCountryListBinding
+import com.protonvpn.android.models.vpn.ServerDelta
 import com.protonvpn.android.models.vpn.VpnCountry
 import com.protonvpn.android.utils.Log
 import com.xwray.groupie.ExpandableGroup
 import com.xwray.groupie.Group
 import com.xwray.groupie.GroupAdapter
 import com.xwray.groupie.GroupieViewHolder
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.launch
 import me.proton.core.network.domain.ApiResult
 import javax.inject.Inject
 
@@ -45,6 +49,16 @@ class CountryListFragment : BaseFragmentV2<CountryListViewModel, FragmentCountry
     @Inject
     lateinit var viewModelFactory: ViewModelProvider.Factory
 
+    private class CountryGroup(
+        val country: VpnCountry,
+        val group: ExpandableGroup,
+        val fastestServerId: String?
+    )
+
+    // Country flag -> its group and server id -> server items, for updating single items on load changes.
+    private val countryGroups = HashMap<String, CountryGroup>()
+    private val serverItems = HashMap<String, MutableList<CountryExpandedViewHolder>>()
+
     override fun initViewModel() {
         viewModel =
                 ViewModelProviders.of(this, viewModelFactory).get(CountryListViewModel::class.java)
@@ -65,6 +79,39 @@ class CountryListFragment : BaseFragmentV2<CountryListViewModel, FragmentCountry
         viewModel.serverManager.updateEvent.observe(viewLifecycleOwner) {
             updateListData()
         }
+        viewLifecycleOwner.lifecycleScope.launch {
+            viewModel.serverDeltas.collect { deltas ->
+                updateServers(deltas)
+            }
+        }
+    }
+
+    private fun updateServers(deltas: List<ServerDelta>) {
+        val changedCountries = HashSet<String>()
+        for (delta in deltas) {
+            val countryGroup = countryGroups[delta.server.flag] ?: continue
+            if (delta.onlineChanged || delta.server.serverId == countryGroup.fastestServerId)
+                changedCountries.add(delta.server.flag)
+            else
+                serverItems[delta.server.serverId]?.forEach { it.notifyChanged() }
+        }
+        for (countryGroup in deltas.mapNotNullTo(HashSet()) { countryGroups[it.server.flag] }) {
+            if (viewModel.getFastestServer(countryGroup.country)?.serverId != countryGroup.fastestServerId)
+                changedCountries.add(countryGroup.country.flag)
+        }
+        changedCountries.forEach(::replaceCountryGroup)
+    }
+
+    private fun replaceCountryGroup(flag: String) {
+        val groupAdapter = binding.list.adapter as GroupAdapter<GroupieViewHolder>
+        val old = countryGroups[flag] ?: return
+        val index = (0 until groupAdapter.groupCount).firstOrNull { groupAdapter.getGroup(it) === old.group }
+            ?: return
+        val expandedCountriesIds = if (old.group.isExpanded) setOf(flag.hashCode().toLong()) else emptySet()
+        old.country.connectableServers.forEach { serverItems.remove(it.serverId) }
+        val newGroup = createCountryGroup(old.country, expandedCountriesIds)
+        groupAdapter.remove(old.group)
+        groupAdapter.add(index, newGroup)
     }
 
     private fun initList() = with(binding.list) {
@@ -88,27 +135,37 @@ class CountryListFragment : BaseFragmentV2<CountryListViewModel, FragmentCountry
         if (header != null)
             groups.add(HeaderItem(header, null))
 
-        for (country in countries) {
-            val expandableHeaderItem = object : CountryViewHolder(viewModel, country, viewLifecycleOwner) {
-                override fun onExpanded(position: Int) {
-                    this@CountryListFragment.binding.list.smoothScrollToPosition(
-                            position + if (viewModel.userData.isSecureCoreEnabled) 1 else 2
-                    )
-                }
+        for (country in countries)
+            groups.add(createCountryGroup(country, expandedCountriesIds))
+    }
+
+    private fun createCountryGroup(country: VpnCountry, expandedCountriesIds: Set<Long>): ExpandableGroup {
+        val expandableHeaderItem = object : CountryViewHolder(viewModel, country, viewLifecycleOwner) {
+            override fun onExpanded(position: Int) {
+                this@CountryListFragment.binding.list.smoothScrollToPosition(
+                        position + if (viewModel.userData.isSecureCoreEnabled) 1 else 2
+                )
             }
+        }
 
-            groups.add(ExpandableGroup(expandableHeaderItem).apply {
-                isExpanded = expandableHeaderItem.id in expandedCountriesIds &&
-                        country.hasAccessibleOnlineServer(viewModel.userData)
-                viewModel.getMappedServersForCountry(country).forEach { (title, servers, infoKey) ->
-                    title?.let { add(HeaderItem(it, infoKey)) }
-                    servers.forEach {
-                        add(CountryExpandedViewHolder(
-                            viewModel, it, viewLifecycleOwner, title == R.string.listFastestServer))
-                    }
+        var fastestServerId: String? = null
+        val group = ExpandableGroup(expandableHeaderItem).apply {
+            isExpanded = expandableHeaderItem.id in expandedCountriesIds &&
+                    country.hasAccessibleOnlineServer(viewModel.userData)
+            viewModel.getMappedServersForCountry(country).forEach { (title, servers, infoKey) ->
+                title?.let { add(HeaderItem(it, infoKey)) }
+                val fastest = title == R.string.listFastestServer
+                servers.forEach {
+                    if (fastest)
+                        fastestServerId = it.serverId
+                    val item = CountryExpandedViewHolder(viewModel, it, viewLifecycleOwner, fastest)
+                    serverItems.getOrPut(it.serverId) { mutableListOf() }.add(item)
+                    add(item)
                 }
-            })
+            }
         }
+        countryGroups[country.flag] = CountryGroup(country, group, fastestServerId)
+        return group
     }
 
     private fun updateListData() {
@@ -116,6 +173,8 @@ class CountryListFragment : BaseFragmentV2<CountryListViewModel, FragmentCountry
         val groupAdapter = binding.list.adapter as GroupAdapter<GroupieViewHolder>
 
         val expandedCountriesIds = getExpandedCountriesIds(groupAdapter)
+        countryGroups.clear()
+        serverItems.clear()
         if (viewModel.userData.isFreeUser && !viewModel.userData.isSecureCoreEnabled) {
             val (free, premium) = viewModel.getFreeAndPremiumCountries()
             addCountriesGroup(newGroups, R.string.listFreeCountries, free, expandedCountriesIds)
@@ -43,6 +43,8 @@ class CountryListViewModel @Inject constructor(
 
     val vpnStatus = vpnStateMonitor.status.asLiveData()
 
+    val serverDeltas get() = serverManager.serverDeltas
+
     fun refreshServerList(networkLoader: NetworkLoader) {
         serverListUpdater.getServersList(networkLoader)
     }
@@ -64,8 +66,7 @@ class CountryListViewModel @Inject constructor(
         val basicServers = countryServers.filter { it.isBasicServer }
         val plusServers = countryServers.filter { it.isPlusServer }
         val internalServers = countryServers.filter { it.isPMTeamServer }
-        val fastestServer =
-            SerializationUtils.clone(serverManager.getBestScoreServer(countryServers))
+        val fastestServer = getFastestServer(country)?.let { SerializationUtils.clone(it) }
 
         val groups: MutableList<ServersGroup> = mutableListOf()
         if (internalServers.isNotEmpty()) {
@@ -94,6 +95,13 @@ class CountryListViewModel @Inject constructor(
         return groups
     }
 
+    // Server shown in the "fastest" group of an expanded country, none in secure core mode.
+    fun getFastestServer(country: VpnCountry): Server? =
+        if (userData.isSecureCoreEnabled)
+            null
+        else
+            serverManager.getBestScoreServer(country.connectableServers)
+
     fun getCountriesForList(): List<VpnCountry> =
         if (userData.isSecureCoreEnabled)
             serverManager.getSecureCoreExitCountries()
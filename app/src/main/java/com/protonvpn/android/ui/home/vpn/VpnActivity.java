@@ -28,6 +28,7 @@ import android.os.IBinder;
 
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.afollestad.materialdialogs.Theme;
+import com.protonvpn.android.ProtonApplication;
 import com.protonvpn.android.R;
 import com.protonvpn.android.components.BaseActivity;
 import com.protonvpn.android.models.config.UserData;
@@ -135,6 +136,7 @@ public abstract class VpnActivity extends BaseActivity {
 
         @Override
         protected TrustedCertificateManager doInBackground(Void... params) {
+            ProtonApplication.awaitVpnLibraries();
             return TrustedCertificateManager.getInstance().load();
         }
 
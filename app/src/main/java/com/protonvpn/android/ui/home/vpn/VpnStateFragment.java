@@ -89,6 +89,7 @@ import androidx.annotation.StringRes;
 import androidx.core.content.ContextCompat;
 import butterknife.BindView;
 import butterknife.OnClick;
+import de.blinkt.openvpn.core.TrafficHistory;
 import de.hdodenhof.circleimageview.CircleImageView;
 
 import static com.protonvpn.android.utils.AndroidUtilsKt.openProtonUrl;
@@ -98,6 +99,7 @@ public class VpnStateFragment extends BaseFragment {
 
     private static final String KEY_ERROR_CONNECTION_ID = "error_connection_id";
     private static final String KEY_DISMISSED_CONNECTION_ID = "dismissed_connection_id";
+    private static final int CHART_VISIBLE_ENTRIES = 20;
 
     @BindView(R.id.connectingView) View connectingView;
     @BindView(R.id.textConnectingTo) TextView textConnectingTo;
@@ -142,6 +144,7 @@ public class VpnStateFragment extends BaseFragment {
     private long errorConnectionID;
     private long dismissedConnectionID;
     private Timer graphUpdateTimer;
+    private long lastChartTimestamp;
 
     @OnClick(R.id.buttonQuickConnect)
     public void buttonQuickConnect() {
@@ -222,6 +225,9 @@ public class VpnStateFragment extends BaseFragment {
         trafficMonitor
             .getTrafficStatus()
             .observe(getViewLifecycleOwner(), this::onTrafficUpdate);
+        trafficMonitor
+            .getHistoryLiveData()
+            .observe(getViewLifecycleOwner(), this::onHistoryUpdate);
     }
 
     private void forceAnimeNestedLayouts() {
@@ -360,7 +366,6 @@ public class VpnStateFragment extends BaseFragment {
 
     private void onTrafficUpdate(final @Nullable TrafficUpdate update) {
         if (getActivity() != null && update != null) {
-            addEntry(update.getDownloadSpeed(), update.getUploadSpeed());
             textSessionTime.setText(TimeUtils.getFormattedTimeFromSeconds(update.getSessionTimeSeconds()));
             textUploadSpeed.setText(update.getUploadSpeedString());
             textDownloadSpeed.setText(update.getDownloadSpeedString());
@@ -376,6 +381,39 @@ public class VpnStateFragment extends BaseFragment {
         }
         onTrafficUpdate(new TrafficUpdate(0, 0, 0, 0, 0));
         chart.clear();
+        lastChartTimestamp = 0;
+    }
+
+    private void onHistoryUpdate(final @Nullable TrafficHistory history) {
+        // Traffic status is only set while connected and sampling.
+        if (getActivity() == null || history == null || trafficMonitor.getTrafficStatus().getValue() == null) {
+            return;
+        }
+        boolean added = false;
+        synchronized (history) {
+            int size = history.size(TrafficHistory.SECONDS);
+            int first = size;
+            while (first > 1 && size - first < CHART_VISIBLE_ENTRIES
+                && history.getTimestamp(TrafficHistory.SECONDS, first - 1) > lastChartTimestamp) {
+                --first;
+            }
+            for (int i = first; i < size; ++i) {
+                long timestamp = history.getTimestamp(TrafficHistory.SECONDS, i);
+                long elapsed = timestamp - history.getTimestamp(TrafficHistory.SECONDS, i - 1);
+                if (elapsed > 0) {
+                    long diffIn = history.getIn(TrafficHistory.SECONDS, i)
+                        - history.getIn(TrafficHistory.SECONDS, i - 1);
+                    long diffOut = history.getOut(TrafficHistory.SECONDS, i)
+                        - history.getOut(TrafficHistory.SECONDS, i - 1);
+                    addEntry(diffIn * 1000f / elapsed, diffOut * 1000f / elapsed);
+                    added = true;
+                }
+                lastChartTimestamp = timestamp;
+            }
+        }
+        if (added) {
+            refreshChart();
+        }
     }
 
     private void updateNotConnectedView() {
@@ -452,10 +490,14 @@ public class VpnStateFragment extends BaseFragment {
 
         data.addEntry(new Entry(data.getDataSetByIndex(0).getEntryCount(), downloadSpeed), 0);
         data.addEntry(new Entry(data.getDataSetByIndex(1).getEntryCount(), uploadSpeed), 1);
+    }
+
+    private void refreshChart() {
+        LineData data = chart.getData();
         data.notifyDataChanged();
         chart.notifyDataSetChanged();
 
-        chart.setVisibleXRangeMaximum(20);
+        chart.setVisibleXRangeMaximum(CHART_VISIBLE_ENTRIES);
         chart.moveViewTo(data.getEntryCount(), 10f, YAxis.AxisDependency.LEFT);
     }
 
@@ -138,7 +138,7 @@ class LoginViewModel @Inject constructor(
             makeInfoResponseCall(user, password).apply {
                 if (this is LoginState.Success && serverManager.isOutdated) {
                     val serversResult = api.getServerList(null, null)
-                    if (serversResult is ApiResult.Success) serverManager.setServers(serversResult.value.serverList)
+                    if (serversResult is ApiResult.Success) serverManager.setServers(serversResult.value)
                 }
             }
         }
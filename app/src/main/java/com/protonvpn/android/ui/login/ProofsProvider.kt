@@ -19,6 +19,7 @@
 
 package com.protonvpn.android.ui.login
 
+import com.protonvpn.android.ProtonApplication
 import com.protonvpn.android.models.login.LoginInfoResponse
 import kotlinx.coroutines.withContext
 import me.proton.core.util.kotlin.DispatcherProvider
@@ -35,6 +36,7 @@ class ProofsProvider @Inject constructor(private val dispatcherProvider: Dispatc
         password: ByteArray,
         infoResponse: LoginInfoResponse
     ): Proofs? = withContext(dispatcherProvider.Comp) {
+        ProtonApplication.awaitNativeLibraries()
         val auth = Auth(
             infoResponse.getVersion(),
             username,
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.utils
+
+import java.util.Collections
+import java.util.WeakHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Write-behind persistence: [markDirty] schedules a single [write] [delayMs] later on a background thread, so that
+ * a burst of changes is written once. [flushNow] writes pending changes synchronously, [flushAll] does it for all
+ * writers, e.g. when the app goes to background.
+ *
+ * [write] is called on one thread at a time, changes made while it runs are written by the next write.
+ */
+class CoalescingWriter @JvmOverloads constructor(
+    private val write: Runnable,
+    private val delayMs: Long = DEFAULT_DELAY_MS,
+    private val executor: ScheduledExecutorService = defaultExecutor
+) {
+    private val dirty = AtomicBoolean()
+    private val writeLock = Any()
+
+    init {
+        synchronized(writers) {
+            writers.add(this)
+        }
+    }
+
+    fun markDirty() {
+        if (!dirty.getAndSet(true))
+            executor.schedule(::flushNow, delayMs, TimeUnit.MILLISECONDS)
+    }
+
+    fun flushNow() {
+        synchronized(writeLock) {
+            if (dirty.getAndSet(false))
+                write.run()
+        }
+    }
+
+    val isDirty get() = dirty.get()
+
+    companion object {
+        private const val DEFAULT_DELAY_MS = 500L
+
+        private val defaultExecutor by lazy {
+            Executors.newSingleThreadScheduledExecutor { Thread(it, "CoalescingWriter").apply { isDaemon = true } }
+        }
+        private val writers = Collections.newSetFromMap(WeakHashMap<CoalescingWriter, Boolean>())
+
+        @JvmStatic
+        fun flushAll() {
+            val dirtyWriters = synchronized(writers) { writers.filter { it.isDirty } }
+            dirtyWriters.forEach { it.flushNow() }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.utils
+
+import android.content.SharedPreferences
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Key-value store for serialized objects with one file per key, so that saving an object rewrites only that object.
+ *
+ * Values are cached in memory after the first read. Writes happen on a single background thread: each key has at
+ * most one write queued which writes the latest value, replacing the file atomically by renaming a temporary file.
+ * Keys missing in the store are read once from [legacyPreferences] and removed from there once written to a file.
+ * Queued writes aren't waited for by the system when the app stops, call [flush] to do that.
+ */
+class FileObjectStore @JvmOverloads constructor(
+    private val directory: File,
+    private val codec: Codec = Codec.PLAIN,
+    private val legacyPreferences: SharedPreferences? = null,
+    private val writeExecutor: Executor = Executors.newSingleThreadExecutor()
+) {
+    /**
+     * Transforms values stored in files, e.g. encrypts them.
+     */
+    interface Codec {
+        fun encode(value: String): String?
+        fun decode(value: String): String?
+
+        companion object {
+            val PLAIN = object : Codec {
+                override fun encode(value: String) = value
+                override fun decode(value: String) = value
+            }
+        }
+    }
+
+    private val lock = Any()
+
+    // Values by key, null for keys known to be absent. Keys not in the map haven't been read yet.
+    private val values = HashMap<String, String?>()
+
+    // Latest value waiting to be written for each key, null for deletion.
+    private val pendingWrites = HashMap<String, String?>()
+
+    // Keys to remove from legacy preferences once their value is written.
+    private val migratedKeys = HashSet<String>()
+
+    // Incremented by clear() so that writes started before don't recreate files.
+    private var epoch = 0
+
+    fun contains(key: String) = get(key) != null
+
+    fun get(key: String): String? = synchronized(lock) {
+        if (key in values)
+            return values[key]
+        val value = readFile(key) ?: migrateFromLegacy(key)
+        values[key] = value
+        value
+    }
+
+    fun put(key: String, value: String) = synchronized(lock) {
+        values[key] = value
+        scheduleWrite(key, value)
+    }
+
+    fun remove(key: String) = synchronized(lock) {
+        values[key] = null
+        migratedKeys.remove(key)
+        legacyPreferences?.let {
+            if (it.contains(key))
+                it.edit().remove(key).apply()
+        }
+        scheduleWrite(key, null)
+    }
+
+    fun clear() = synchronized(lock) {
+        epoch++
+        values.clear()
+        pendingWrites.clear()
+        migratedKeys.clear()
+        directory.listFiles()?.forEach { it.delete() }
+    }
+
+    /**
+     * Blocks until all writes queued so far are done, the way activity stops wait for
+     * [SharedPreferences.Editor.apply]. Gives up after [FLUSH_TIMEOUT_MS] so that a stuck write can't cause an ANR.
+     */
+    fun flush() {
+        val done = CountDownLatch(1)
+        writeExecutor.execute { done.countDown() }
+        try {
+            if (!done.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                Log.e("Timed out waiting for queued writes")
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+
+    private fun fileFor(key: String) = File(directory, key)
+
+    private fun readFile(key: String): String? {
+        val file = fileFor(key)
+        if (!file.exists())
+            return null
+        return try {
+            codec.decode(file.readText())
+        } catch (e: IOException) {
+            Log.e("Unable to read $key", e)
+            null
+        }
+    }
+
+    private fun migrateFromLegacy(key: String): String? {
+        val preferences = legacyPreferences ?: return null
+        if (!preferences.contains(key))
+            return null
+        val value = preferences.getString(key, null) ?: return null
+        migratedKeys += key
+        scheduleWrite(key, value)
+        return value
+    }
+
+    private fun scheduleWrite(key: String, value: String?) {
+        val alreadyScheduled = key in pendingWrites
+        pendingWrites[key] = value
+        if (!alreadyScheduled)
+            writeExecutor.execute { write(key) }
+    }
+
+    private fun write(key: String) {
+        val (value, writeEpoch) = synchronized(lock) {
+            if (key !in pendingWrites)
+                return
+            pendingWrites.remove(key) to epoch
+        }
+        val file = fileFor(key)
+        if (value == null) {
+            synchronized(lock) {
+                if (epoch == writeEpoch)
+                    file.delete()
+            }
+            return
+        }
+        val encoded = codec.encode(value)
+        if (encoded == null) {
+            Log.e("Unable to encode $key")
+            return
+        }
+        try {
+            directory.mkdirs()
+            val tmpFile = File(directory, "$key.tmp")
+            tmpFile.writeText(encoded)
+            synchronized(lock) {
+                if (epoch != writeEpoch) {
+                    tmpFile.delete()
+                    return
+                }
+                if (!tmpFile.renameTo(file))
+                    throw IOException("Unable to rename ${tmpFile.path}")
+                if (migratedKeys.remove(key))
+                    legacyPreferences?.edit()?.remove(key)?.apply()
+            }
+        } catch (e: IOException) {
+            Log.e("Unable to write $key", e)
+        }
+    }
+
+    companion object {
+        private const val FLUSH_TIMEOUT_MS = 5_000L
+    }
+}
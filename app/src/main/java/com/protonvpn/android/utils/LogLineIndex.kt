@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.utils
+
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Index of line start offsets over a sequence of log files, the oldest first. Only the offsets are kept in memory,
+ * lines are read from the files when they are needed. Each file ends a line, even without a trailing newline.
+ *
+ * Files are read with positional reads up to the length they had when the index was built, so the index stays
+ * valid while the logger appends to, renames or deletes them. The index owns the channels and closes them.
+ */
+class LogLineIndex private constructor(
+    private val sources: List<Source>,
+    private val lineStarts: LongArray,
+    val lineCount: Int
+) : Closeable {
+
+    class Source(val channel: FileChannel, val length: Long)
+
+    private val totalLength = sources.sumOf { it.length }
+
+    /**
+     * Reads [count] lines starting at [first], fewer if the index ends before.
+     */
+    @Throws(IOException::class)
+    fun readLines(first: Int, count: Int): List<String> {
+        val last = minOf(first + count, lineCount)
+        if (first < 0 || first >= last) return emptyList()
+        val start = lineStarts[first]
+        val bytes = ByteArray((lineEnd(last - 1) - start).toInt())
+        read(start, bytes)
+        return (first until last).map { line ->
+            val offset = (lineStarts[line] - start).toInt()
+            var end = (lineEnd(line) - start).toInt()
+            while (end > offset && (bytes[end - 1] == LF || bytes[end - 1] == CR)) end--
+            String(bytes, offset, end - offset, Charsets.UTF_8)
+        }
+    }
+
+    /**
+     * Returns the numbers of the lines containing [query], ignoring case. Lines are read a page at a time, the
+     * files are never loaded whole.
+     */
+    @Throws(IOException::class)
+    fun findLines(query: String): IntArray {
+        var matches = IntArray(64)
+        var count = 0
+        var first = 0
+        while (first < lineCount) {
+            readLines(first, SEARCH_PAGE_LINES).forEachIndexed { i, line ->
+                if (line.contains(query, ignoreCase = true)) {
+                    if (count == matches.size) matches = matches.copyOf(count * 2)
+                    matches[count++] = first + i
+                }
+            }
+            first += SEARCH_PAGE_LINES
+        }
+        return matches.copyOf(count)
+    }
+
+    override fun close() {
+        sources.forEach {
+            try {
+                it.channel.close()
+            } catch (e: IOException) {
+                // Nothing left to do with it.
+            }
+        }
+    }
+
+    private fun lineEnd(line: Int) = if (line + 1 < lineCount) lineStarts[line + 1] else totalLength
+
+    // Reads bytes at a global offset, possibly from consecutive files.
+    private fun read(offset: Long, bytes: ByteArray) {
+        val buffer = ByteBuffer.wrap(bytes)
+        var sourceStart = 0L
+        for (source in sources) {
+            val sourceEnd = sourceStart + source.length
+            while (buffer.hasRemaining() && offset + buffer.position() < sourceEnd) {
+                val position = offset + buffer.position() - sourceStart
+                buffer.limit(minOf(bytes.size.toLong(), sourceEnd - offset).toInt())
+                if (source.channel.read(buffer, position) < 0)
+                    throw IOException("Log file truncated")
+                buffer.limit(bytes.size)
+            }
+            sourceStart = sourceEnd
+        }
+    }
+
+    companion object {
+        private const val LF = '\n'.toByte()
+        private const val CR = '\r'.toByte()
+        private const val SCAN_BUFFER_SIZE = 64 * 1024
+        private const val SEARCH_PAGE_LINES = 512
+
+        @Throws(IOException::class)
+        fun build(sources: List<Source>): LogLineIndex {
+            var starts = LongArray(1024)
+            var count = 0
+            val buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE)
+            var sourceStart = 0L
+            for (source in sources) {
+                var lineStart = true
+                var position = 0L
+                while (position < source.length) {
+                    buffer.clear()
+                    buffer.limit(minOf(SCAN_BUFFER_SIZE.toLong(), source.length - position).toInt())
+                    val read = source.channel.read(buffer, position)
+                    if (read < 0) throw IOException("Log file truncated")
+                    val array = buffer.array()
+                    for (i in 0 until read) {
+                        if (lineStart) {
+                            if (count == starts.size) starts = starts.copyOf(count * 2)
+                            starts[count++] = sourceStart + position + i
+                            lineStart = false
+                        }
+                        if (array[i] == LF) lineStart = true
+                    }
+                    position += read
+                }
+                sourceStart += source.length
+            }
+            return LogLineIndex(sources, starts, count)
+        }
+    }
+}
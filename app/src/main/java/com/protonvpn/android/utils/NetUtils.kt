@@ -18,18 +18,7 @@
  */
 package com.protonvpn.android.utils
 
-import kotlinx.coroutines.CancellableContinuation
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.suspendCancellableCoroutine
-import kotlinx.coroutines.withContext
-import java.io.IOException
-import java.net.DatagramPacket
-import java.net.DatagramSocket
-import java.net.InetAddress
-import java.net.InetSocketAddress
-import java.net.Socket
-import java.net.SocketAddress
-import kotlin.coroutines.resume
+import kotlinx.coroutines.flow.first
 
 object NetUtils {
 
@@ -43,65 +32,13 @@ object NetUtils {
                 } ?: ip
     }
 
+    val portScanner = PortScanner()
+
     suspend fun ping(
         ip: String,
         port: Int,
         pingData: ByteArray,
         tcp: Boolean,
-        timeout: Int = 5000
-    ): Boolean = withContext(Dispatchers.IO) {
-        suspendCancellableCoroutine<Boolean> { continuation ->
-            val result = try {
-                val address = InetSocketAddress(InetAddress.getByName(ip), port)
-                val result = if (tcp)
-                    pingTcp(pingData, address, continuation, timeout)
-                else
-                    pingUdp(pingData, address, continuation, timeout)
-                result
-            } catch (e: IOException) {
-                ProtonLogger.log("Pinging server $ip:$port exception: $e")
-                false
-            }
-            continuation.resume(result)
-        }
-    }
-
-    private fun pingTcp(
-        pingData: ByteArray,
-        socketAddress: SocketAddress,
-        continuation: CancellableContinuation<*>,
-        timeout: Int
-    ): Boolean {
-        Socket().use { socket ->
-            continuation.invokeOnCancellation {
-                socket.close()
-            }
-            socket.soTimeout = timeout
-            socket.connect(socketAddress, timeout)
-            socket.getOutputStream().apply {
-                write(pingData)
-                flush()
-            }
-            return socket.getInputStream().read() != -1
-        }
-    }
-
-    private fun pingUdp(
-        pingData: ByteArray,
-        socketAddress: SocketAddress,
-        continuation: CancellableContinuation<*>,
-        timeout: Int
-    ): Boolean {
-        DatagramSocket().use { socket ->
-            continuation.invokeOnCancellation {
-                socket.close()
-            }
-            val packet = DatagramPacket(pingData, pingData.size, socketAddress)
-            socket.soTimeout = timeout
-            socket.send(packet)
-            val returnPacket = DatagramPacket(ByteArray(1), 1)
-            socket.receive(returnPacket)
-            return returnPacket.length > 0
-        }
-    }
+        timeout: Int = PortScanner.DEFAULT_TIMEOUT_MS
+    ): Boolean = portScanner.scan(listOf(PortScanner.Probe(ip, port, pingData, tcp, timeout))).first().success
 }
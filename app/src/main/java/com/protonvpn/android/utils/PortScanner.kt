@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.utils
+
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.callbackFlow
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.ByteChannel
+import java.nio.channels.DatagramChannel
+import java.nio.channels.SelectableChannel
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.SocketChannel
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Non-blocking port prober. All probes, from all callers, are multiplexed on a single [Selector] owned by one
+ * background thread, so scanning many ports doesn't park a thread per socket.
+ *
+ * A probe succeeds when the server answers [Probe.data] with at least one byte. At most [maxConcurrentProbes]
+ * sockets are open at any time, remaining probes wait in a queue. Results are emitted as they arrive; when the
+ * collector stops collecting (e.g. after the first successful result) the batch's remaining probes are dropped.
+ */
+class PortScanner(private val maxConcurrentProbes: Int = DEFAULT_MAX_CONCURRENT_PROBES) {
+
+    class Probe(
+        val ip: String,
+        val port: Int,
+        val data: ByteArray,
+        val tcp: Boolean,
+        val timeoutMs: Int = DEFAULT_TIMEOUT_MS
+    )
+
+    data class Result(val probe: Probe, val success: Boolean, val rttMs: Long)
+
+    private class Batch(val results: SendChannel<Result>, var remaining: Int) {
+        @Volatile var cancelled = false
+    }
+
+    private class Task(val probe: Probe, val batch: Batch) {
+        var channel: SelectableChannel? = null
+        val request: ByteBuffer = ByteBuffer.wrap(probe.data)
+        var startNanos = 0L
+        var deadlineNanos = 0L
+    }
+
+    private val commands = ConcurrentLinkedQueue<Task>()
+    private val selector by lazy {
+        Selector.open().also {
+            Thread(::runLoop, "PortScanner").apply {
+                isDaemon = true
+                start()
+            }
+        }
+    }
+
+    // Accessed only from the selector thread.
+    private val pending = ArrayDeque<Task>()
+    private val active = LinkedHashSet<Task>()
+    private val readBuffer = ByteBuffer.allocate(1)
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    fun scan(probes: List<Probe>): Flow<Result> = callbackFlow {
+        if (probes.isEmpty()) {
+            close()
+        } else {
+            val batch = Batch(channel, probes.size)
+            probes.forEach { commands.add(Task(it, batch)) }
+            selector.wakeup()
+            awaitClose {
+                batch.cancelled = true
+                selector.wakeup()
+            }
+        }
+    }.buffer(Channel.UNLIMITED)
+
+    @Suppress("TooGenericExceptionCaught")
+    private fun runLoop() {
+        while (true) {
+            try {
+                step()
+            } catch (e: Exception) {
+                ProtonLogger.log("Port scanner error: $e")
+                active.toList().forEach { finish(it, false) }
+            }
+        }
+    }
+
+    @Suppress("TooGenericExceptionCaught")
+    private fun step() {
+        generateSequence { commands.poll() }.forEach { pending.add(it) }
+        while (active.size < maxConcurrentProbes && pending.isNotEmpty())
+            start(pending.removeFirst())
+
+        val now = System.nanoTime()
+        active.filter { it.batch.cancelled || it.deadlineNanos <= now }.forEach { finish(it, false) }
+        pending.removeAll { it.batch.cancelled }
+
+        val nextDeadline = active.minOfOrNull { it.deadlineNanos }
+        when {
+            nextDeadline == null -> selector.select()
+            nextDeadline <= now -> selector.selectNow()
+            else -> selector.select(
+                TimeUnit.NANOSECONDS.toMillis(nextDeadline - now).coerceAtLeast(1))
+        }
+
+        val selected = selector.selectedKeys()
+        selected.forEach { key ->
+            val task = key.attachment() as Task
+            try {
+                handle(task, key)
+            } catch (e: Exception) {
+                // Besides IOException, e.g. CancelledKeyException. Only fail this probe.
+                ProtonLogger.log("Pinging server ${task.probe.ip}:${task.probe.port} exception: $e")
+                finish(task, false)
+            }
+        }
+        selected.clear()
+    }
+
+    @Suppress("TooGenericExceptionCaught")
+    private fun start(task: Task) {
+        val probe = task.probe
+        task.startNanos = System.nanoTime()
+        task.deadlineNanos = task.startNanos + TimeUnit.MILLISECONDS.toNanos(probe.timeoutMs.toLong())
+        active += task
+        try {
+            val address = InetSocketAddress(InetAddress.getByName(probe.ip), probe.port)
+            if (probe.tcp) {
+                val channel = SocketChannel.open()
+                task.channel = channel
+                channel.configureBlocking(false)
+                val connected = channel.connect(address)
+                channel.register(
+                    selector, if (connected) SelectionKey.OP_WRITE else SelectionKey.OP_CONNECT, task)
+            } else {
+                val channel = DatagramChannel.open()
+                task.channel = channel
+                channel.configureBlocking(false)
+                channel.connect(address)
+                channel.register(selector, SelectionKey.OP_WRITE, task)
+            }
+        } catch (e: Exception) {
+            // Besides IOException, e.g. UnresolvedAddressException from connect. Only fail this probe.
+            ProtonLogger.log("Pinging server ${probe.ip}:${probe.port} exception: $e")
+            finish(task, false)
+        }
+    }
+
+    private fun handle(task: Task, key: SelectionKey) {
+        if (!key.isValid) return
+        val channel = task.channel as ByteChannel
+        when {
+            key.isConnectable -> {
+                if ((channel as SocketChannel).finishConnect())
+                    key.interestOps(SelectionKey.OP_WRITE)
+            }
+            key.isWritable -> {
+                channel.write(task.request)
+                if (!task.request.hasRemaining())
+                    key.interestOps(SelectionKey.OP_READ)
+            }
+            key.isReadable -> {
+                readBuffer.clear()
+                val read = channel.read(readBuffer)
+                if (read > 0)
+                    finish(task, true)
+                else if (read < 0)
+                    finish(task, false)
+            }
+        }
+    }
+
+    private fun finish(task: Task, success: Boolean) {
+        if (!active.remove(task)) return
+        try {
+            task.channel?.close()
+        } catch (e: IOException) {
+            // Nothing to do, the probe is finished anyway.
+        }
+        val batch = task.batch
+        if (!batch.cancelled) {
+            val rtt = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.startNanos)
+            batch.results.offer(Result(task.probe, success, rtt))
+        }
+        if (--batch.remaining == 0)
+            batch.results.close()
+    }
+
+    companion object {
+        const val DEFAULT_TIMEOUT_MS = 5000
+        const val DEFAULT_MAX_CONCURRENT_PROBES = 64
+    }
+}
@@ -19,17 +19,7 @@
 package com.protonvpn.android.utils
 
 import android.content.Context
-import ch.qos.logback.classic.LoggerContext
-import ch.qos.logback.classic.android.LogcatAppender
-import ch.qos.logback.classic.encoder.PatternLayoutEncoder
-import ch.qos.logback.classic.spi.ILoggingEvent
-import ch.qos.logback.core.UnsynchronizedAppenderBase
-import ch.qos.logback.core.encoder.Encoder
-import ch.qos.logback.core.rolling.FixedWindowRollingPolicy
-import ch.qos.logback.core.rolling.RollingFileAppender
-import ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy
-import ch.qos.logback.core.util.FileSize
-import ch.qos.logback.core.util.StatusPrinter
+import android.util.Log
 import com.protonvpn.android.BuildConfig
 import io.sentry.Sentry
 import io.sentry.event.Event
@@ -38,29 +28,39 @@ import io.sentry.event.interfaces.ExceptionInterface
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.ExperimentalCoroutinesApi
-import kotlinx.coroutines.channels.BufferOverflow
-import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ReceiveChannel
 import kotlinx.coroutines.channels.awaitClose
-import kotlinx.coroutines.channels.sendBlocking
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.buffer
 import kotlinx.coroutines.flow.callbackFlow
-import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import org.slf4j.LoggerFactory
 import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
 import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.CharsetEncoder
+import java.nio.charset.CodingErrorAction
+import java.text.SimpleDateFormat
+import java.util.Date
 import java.util.GregorianCalendar
 import java.util.Locale
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.collections.ArrayList
 
 private const val LOG_PATTERN = "%d{HH:mm:ss}%property{timeZone}: %msg"
-private const val LOG_QUEUE_MAX_SIZE = 100
-private const val LOG_ROTATE_SIZE = "300kb"
+private const val LOG_QUEUE_MAX_SIZE = 10_000
+private const val LOG_BATCH_MAX_SIZE = 500
+private const val LOG_ROTATE_SIZE = 300 * 1024L
+private const val LOG_WRITE_BUFFER_SIZE = 64 * 1024
+private const val LOGCAT_TAG = "ProtonLogger"
 
 open class ProtonLoggerImpl(
     appContext: Context,
@@ -71,22 +71,116 @@ open class ProtonLoggerImpl(
 ) {
     data class LogFile(val name: String, val file: File)
 
+    sealed class LogUpdate {
+        // The log files as they were when the updates started, indexed by the receiver.
+        class Files(val sources: List<LogLineIndex.Source>) : LogUpdate()
+        // Lines logged after that, one update per written batch.
+        class Lines(val lines: List<String>) : LogUpdate()
+    }
+
+    // Entries of the log queue: messages logged together take a single place in it.
+    private sealed class LogMessage {
+        class Line(val message: String) : LogMessage()
+        class Lines(val messages: List<String>) : LogMessage()
+    }
+
+    data class Stats(
+        val linesWritten: Long,
+        val bytesWritten: Long,
+        val batchesWritten: Long,
+        val linesDropped: Long,
+        val linesPerSecond: Double
+    )
+
+    /**
+     * Formats log lines according to a subset of the logback pattern syntax: %d{date format}, %property{timeZone}
+     * and %msg. The date and time zone parts are only recomputed once per second.
+     */
+    private class LineFormatter(pattern: String) {
+        private sealed class Token {
+            class Literal(val text: String) : Token()
+            class DateTime(val format: String) : Token()
+            object TimeZone : Token()
+            object Message : Token()
+        }
+
+        private val tokens = parse(pattern)
+        private val dateFormats = tokens.filterIsInstance<Token.DateTime>()
+            .associateWith { SimpleDateFormat(it.format, Locale.US) }
+        private val formattedDates = HashMap<Token.DateTime, String>()
+        private var timeZoneSuffix = ""
+        private var formattedSecond = Long.MIN_VALUE
+
+        fun format(out: StringBuilder, message: String, timestamp: Long) {
+            val second = timestamp / 1000
+            if (second != formattedSecond) {
+                formattedSecond = second
+                dateFormats.forEach { (token, format) -> formattedDates[token] = format.format(Date(timestamp)) }
+                timeZoneSuffix = timeZoneSuffix(GregorianCalendar())
+            }
+            for (token in tokens) {
+                when (token) {
+                    is Token.Literal -> out.append(token.text)
+                    is Token.DateTime -> out.append(formattedDates[token])
+                    Token.TimeZone -> out.append(timeZoneSuffix)
+                    Token.Message -> out.append(message)
+                }
+            }
+        }
+
+        private fun parse(pattern: String): List<Token> {
+            val result = mutableListOf<Token>()
+            val regex = Regex("""%d\{([^}]*)\}|%property\{timeZone\}|%msg""")
+            var position = 0
+            regex.findAll(pattern).forEach { match ->
+                if (match.range.first > position)
+                    result += Token.Literal(pattern.substring(position, match.range.first))
+                result += when {
+                    match.value == "%msg" -> Token.Message
+                    match.value.startsWith("%property") -> Token.TimeZone
+                    else -> Token.DateTime(match.groupValues[1])
+                }
+                position = match.range.last + 1
+            }
+            if (position < pattern.length)
+                result += Token.Literal(pattern.substring(position))
+            return result
+        }
+    }
+
     private class BackgroundLogger(
         private val appContext: Context,
         mainScope: CoroutineScope,
         private val loggerDispatcher: CoroutineDispatcher,
-        private val messages: Flow<String>,
+        private val messages: ReceiveChannel<LogMessage>,
+        private val droppedMessages: AtomicLong,
         private val logDir: String,
-        private val logPattern: String,
-        uniqueLoggerName: String
+        logPattern: String
     ) {
-
-        private lateinit var logContext: LoggerContext
-
         private val fileName = "Data.log"
         private val fileName2 = "Data1.log"
-        private val logger =
-            LoggerFactory.getLogger(uniqueLoggerName) as ch.qos.logback.classic.Logger
+        private val fileName3 = "Data2.log"
+
+        private val formatter = LineFormatter(logPattern)
+        private val lineBuilder = StringBuilder(256)
+        private val batchBuilder = StringBuilder(LOG_WRITE_BUFFER_SIZE)
+        // Malformed input (e.g. a lone surrogate from truncated logcat output) must not stop encoding of the batch.
+        private val encoder: CharsetEncoder = Charsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE)
+        private val writeBuffer = ByteBuffer.allocate(LOG_WRITE_BUFFER_SIZE)
+        private var fileChannel: FileChannel? = null
+
+        // Live listeners from getLogLines and getLogUpdates, accessed only on loggerDispatcher. They receive the
+        // lines of each batch once it's written.
+        private val lineListeners = mutableListOf<(List<String>) -> Unit>()
+        private val batchLines = ArrayList<String>()
+
+        private val startTime = System.currentTimeMillis()
+        @Volatile private var linesWritten = 0L
+        @Volatile private var bytesWritten = 0L
+        @Volatile private var batchesWritten = 0L
+        private var reportedDrops = 0L
 
         init {
             mainScope.launch(loggerDispatcher) {
@@ -96,6 +190,12 @@ open class ProtonLoggerImpl(
             }
         }
 
+        val stats: Stats get() {
+            val elapsedSeconds = (System.currentTimeMillis() - startTime).coerceAtLeast(1) / 1000.0
+            return Stats(linesWritten, bytesWritten, batchesWritten, droppedMessages.get(),
+                linesWritten / elapsedSeconds)
+        }
+
         /**
          * Copy log files to a temporary location so that they can be safely uploaded without
          * additional data being appended to them. The files will be deleted by clearUploadTempFiles
@@ -139,63 +239,129 @@ open class ProtonLoggerImpl(
                         .forEach { line -> send(line) }
                 }
             }
-            val encoder = createAndStartEncoder(logger.loggerContext, logPattern)
-            val appender = ChannelAdapter(this, encoder)
-            appender.start()
-            logger.addAppender(appender)
-            awaitClose { logger.detachAppender(appender) }
-        }.flowOn(loggerDispatcher)
-
-        private fun initialize() {
-            logContext = LoggerFactory.getILoggerFactory() as LoggerContext
-
-            val patternEncoder = createAndStartEncoder(logContext, "$logPattern%n")
+            val listener: (List<String>) -> Unit = { lines -> lines.forEach { offer(it) } }
+            lineListeners += listener
+            awaitClose { lineListeners -= listener }
+        }.buffer(LOG_QUEUE_MAX_SIZE).flowOn(loggerDispatcher)
 
-            val fileAppender = RollingFileAppender<ILoggingEvent>().apply {
-                this.context = logContext
-                file = "$logDir/$fileName"
+        /**
+         * Starts with the current log files, opened for reading up to their current length, and continues with
+         * the batches of lines written after them. Nothing is read here, the files are indexed by the receiver.
+         */
+        @OptIn(ExperimentalCoroutinesApi::class)
+        fun getLogUpdates(): Flow<LogUpdate> = callbackFlow {
+            send(LogUpdate.Files(openLogFilesForReading()))
+            val listener: (List<String>) -> Unit = { lines -> offer(LogUpdate.Lines(lines)) }
+            lineListeners += listener
+            awaitClose { lineListeners -= listener }
+        }.buffer(LOG_QUEUE_MAX_SIZE / LOG_BATCH_MAX_SIZE).flowOn(loggerDispatcher)
+
+        private fun openLogFilesForReading(): List<LogLineIndex.Source> {
+            val sources = mutableListOf<LogLineIndex.Source>()
+            try {
+                getLogFiles().forEach { file ->
+                    val channel = FileInputStream(file).channel
+                    sources += LogLineIndex.Source(channel, channel.size())
+                }
+            } catch (e: IOException) {
+                Log.e(LOGCAT_TAG, "Unable to open log file for reading", e)
+                sources.forEach { it.channel.close() }
+                sources.clear()
             }
+            return sources
+        }
 
-            val rollingPolicy = FixedWindowRollingPolicy().apply {
-                this.context = logContext
-                setParent(fileAppender)
-                fileNamePattern = "$logDir/Data%i.log"
-                minIndex = 1
-                maxIndex = 2
-                start()
-            }
+        private fun initialize() {
+            File(logDir).mkdirs()
+            openLogFile()
+        }
 
-            val triggerPolicy = SizeBasedTriggeringPolicy<ILoggingEvent>().apply {
-                maxFileSize = FileSize.valueOf(LOG_ROTATE_SIZE)
-                this.context = logContext
-                start()
+        private fun openLogFile() {
+            fileChannel = try {
+                FileOutputStream(File(logDir, fileName), true).channel
+            } catch (e: IOException) {
+                Log.e(LOGCAT_TAG, "Unable to open log file", e)
+                null
             }
+        }
 
-            fileAppender.triggeringPolicy = triggerPolicy
-            fileAppender.rollingPolicy = rollingPolicy
-
-            val logcatAppender = LogcatAppender().apply {
-                this.context = logContext
-                encoder = patternEncoder
-                start()
+        private suspend fun processLogs() {
+            while (true) {
+                var message: LogMessage? = messages.receive()
+                var count = 0
+                while (message != null) {
+                    when (message) {
+                        is LogMessage.Line -> {
+                            appendLine(message.message)
+                            count++
+                        }
+                        is LogMessage.Lines -> {
+                            message.messages.forEach { appendLine(it) }
+                            count += message.messages.size
+                        }
+                    }
+                    if (count >= LOG_BATCH_MAX_SIZE) break
+                    message = messages.poll()
+                }
+                val dropped = droppedMessages.get()
+                if (dropped != reportedDrops) {
+                    appendLine("Log queue full, dropped ${dropped - reportedDrops} messages")
+                    reportedDrops = dropped
+                }
+                writeBatch()
+                linesWritten += count
             }
+        }
 
-            fileAppender.encoder = patternEncoder
-            fileAppender.start()
-
-            logger.addAppender(fileAppender)
-            logger.addAppender(logcatAppender)
-
-            StatusPrinter.print(logContext)
+        private fun appendLine(message: String) {
+            lineBuilder.setLength(0)
+            formatter.format(lineBuilder, message, System.currentTimeMillis())
+            val line = lineBuilder.toString()
+            Log.d(LOGCAT_TAG, line)
+            if (lineListeners.isNotEmpty())
+                batchLines += line
+            batchBuilder.append(lineBuilder).append('\n')
         }
 
-        private suspend fun processLogs() {
-            messages.collect { message ->
-                logContext.putProperty("timeZone", timeZoneSuffix(GregorianCalendar()))
-                logger.debug(message)
+        private fun writeBatch() {
+            val channel = fileChannel
+            if (channel != null) {
+                try {
+                    val chars = CharBuffer.wrap(batchBuilder)
+                    encoder.reset()
+                    do {
+                        val result = encoder.encode(chars, writeBuffer, true)
+                        writeBuffer.flip()
+                        while (writeBuffer.hasRemaining())
+                            bytesWritten += channel.write(writeBuffer)
+                        writeBuffer.clear()
+                    } while (result.isOverflow)
+                    batchesWritten++
+                    if (channel.size() >= LOG_ROTATE_SIZE)
+                        rotate(channel)
+                } catch (e: IOException) {
+                    Log.e(LOGCAT_TAG, "Unable to write log file", e)
+                }
+            }
+            batchBuilder.setLength(0)
+            if (batchLines.isNotEmpty()) {
+                val lines = ArrayList(batchLines)
+                lineListeners.forEach { it(lines) }
+                batchLines.clear()
             }
         }
 
+        // Keeps two rolled over files like the logback rolling policy used before.
+        private fun rotate(channel: FileChannel) {
+            channel.close()
+            val rolledFile = File(logDir, fileName2)
+            val oldestFile = File(logDir, fileName3)
+            oldestFile.delete()
+            rolledFile.renameTo(oldestFile)
+            File(logDir, fileName).renameTo(rolledFile)
+            openLogFile()
+        }
+
         private fun getLogFiles(): List<File> {
             val logFile = File(logDir, fileName)
             val logFile2 = File(logDir, fileName2)
@@ -226,41 +392,25 @@ open class ProtonLoggerImpl(
         }
 
         private fun getUploadTempFilesDir(): File = File(appContext.cacheDir, "log_upload")
-
-        private fun createAndStartEncoder(
-            loggerContext: LoggerContext,
-            pattern: String
-        ) = PatternLayoutEncoder().apply {
-            this.context = loggerContext
-            this.pattern = pattern
-            start()
-        }
-
-        private class ChannelAdapter(
-            private val channel: SendChannel<String>,
-            private val encoder: Encoder<ILoggingEvent>
-        ) : UnsynchronizedAppenderBase<ILoggingEvent>() {
-
-            override fun append(eventObject: ILoggingEvent) {
-                val line = encoder.encode(eventObject).decodeToString()
-                channel.sendBlocking(line)
-            }
-        }
     }
 
-    private val logMessageQueue =
-        MutableSharedFlow<String>(10, LOG_QUEUE_MAX_SIZE, BufferOverflow.DROP_LATEST)
+    // Messages are dropped only when the writer falls this far behind, the number of dropped messages is then
+    // written to the log.
+    private val logMessageQueue = Channel<LogMessage>(LOG_QUEUE_MAX_SIZE)
+    private val droppedMessages = AtomicLong()
 
     private val backgroundLogger = BackgroundLogger(
         appContext,
         mainScope,
         loggerDispatcher,
         logMessageQueue,
+        droppedMessages,
         logDir,
-        logPattern,
-        getUniqueLoggerName()
+        logPattern
     )
 
+    val stats: Stats get() = backgroundLogger.stats
+
     fun logSentryEvent(event: Event) {
         if (!BuildConfig.DEBUG) {
             Sentry.capture(event)
@@ -269,11 +419,22 @@ open class ProtonLoggerImpl(
     }
 
     fun log(message: String) {
-        logMessageQueue.tryEmit(message)
+        if (!logMessageQueue.offer(LogMessage.Line(message)))
+            droppedMessages.incrementAndGet()
+    }
+
+    /**
+     * Logs the messages in order, taking a single place in the queue.
+     */
+    fun log(messages: List<String>) {
+        if (messages.isNotEmpty() && !logMessageQueue.offer(LogMessage.Lines(messages)))
+            droppedMessages.addAndGet(messages.size.toLong())
     }
 
     fun getLogLines() = backgroundLogger.getLogLines()
 
+    fun getLogUpdates() = backgroundLogger.getLogUpdates()
+
     @Suppress("BlockingMethodInNonBlockingContext")
     @Throws(IOException::class)
     suspend fun getLogFilesForUpload(): List<LogFile> = backgroundLogger.getFilesForUpload()
@@ -296,16 +457,6 @@ open class ProtonLoggerImpl(
             backgroundLogger.clearUploadTempFiles(files)
         }
     }
-
-    companion object {
-        private var instanceNumber = 0
-
-        private fun getUniqueLoggerName(): String = synchronized(this) {
-            val uniqueName = "ProtonLogger_$instanceNumber"
-            ++instanceNumber
-            return uniqueName
-        }
-    }
 }
 
 private fun logException(message: String, throwable: Throwable) {
@@ -42,9 +42,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-public class ProtonPreferences implements SharedPreferences {
+public class ProtonPreferences implements SharedPreferences, FileObjectStore.Codec {
 
     private static final int ORIGINAL_ITERATION_COUNT = 10000;
 
@@ -275,6 +276,18 @@ public class ProtonPreferences implements SharedPreferences {
         return null;
     }
 
+    @Nullable
+    @Override
+    public String encode(@NonNull String value) {
+        return encrypt(value);
+    }
+
+    @Nullable
+    @Override
+    public String decode(@NonNull String value) {
+        return decrypt(value);
+    }
+
     @Override
     public Map<String, String> getAll() {
         final Map<String, ?> encryptedMap = sharedPreferences.getAll();
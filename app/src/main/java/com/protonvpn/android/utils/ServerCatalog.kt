@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021. Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.utils
+
+import com.protonvpn.android.models.vpn.ConnectingDomain
+import com.protonvpn.android.models.vpn.Server
+import com.protonvpn.android.models.vpn.VpnCountry
+
+/**
+ * Read-only view of the (protocol filtered) server list with hash indexes for the lookups done by
+ * [ServerManager]. All indexes are built in a single pass in the constructor, the catalog is never
+ * modified afterwards and is replaced as a whole when the server list changes. Only the score
+ * [ranking], created on first use, is updated with server scores.
+ */
+class ServerCatalog(
+    val vpnCountries: List<VpnCountry>,
+    val secureCoreEntryCountries: List<VpnCountry>,
+    val secureCoreExitCountries: List<VpnCountry>
+) {
+    private val serversById = HashMap<String, Server>()
+    private val domainsById = HashMap<String, ConnectingDomain>()
+    private val serversByFeature = HashMap<Int, MutableList<Server>>()
+    private val vpnCountriesByFlag = HashMap<String, VpnCountry>(vpnCountries.size)
+    private val entryCountriesByFlag = HashMap<String, VpnCountry>(secureCoreEntryCountries.size)
+    private val exitCountriesByFlag = HashMap<String, VpnCountry>(secureCoreExitCountries.size)
+
+    private val rankingDelegate = lazy { ServerRanking(this) }
+    val ranking by rankingDelegate
+
+    init {
+        index(vpnCountries, vpnCountriesByFlag)
+        index(secureCoreEntryCountries, entryCountriesByFlag)
+        index(secureCoreExitCountries, exitCountriesByFlag)
+    }
+
+    private fun index(countries: List<VpnCountry>, byFlag: MutableMap<String, VpnCountry>) {
+        for (country in countries) {
+            byFlag[country.flag] = country
+            for (server in country.serverList) {
+                // Secure core servers are listed both under entry and exit country.
+                if (serversById.containsKey(server.serverId))
+                    continue
+                serversById[server.serverId] = server
+                for (domain in server.connectingDomains) {
+                    domain.id?.let { id ->
+                        if (!domainsById.containsKey(id))
+                            domainsById[id] = domain
+                    }
+                }
+                var features = server.features
+                while (features != 0) {
+                    val bit = Integer.lowestOneBit(features)
+                    serversByFeature.getOrPut(bit) { mutableListOf() }.add(server)
+                    features = features and bit.inv()
+                }
+            }
+        }
+    }
+
+    val isEmpty get() = serversById.isEmpty()
+
+    val allServers: Collection<Server> get() = serversById.values
+
+    fun getServerById(id: String): Server? = serversById[id]
+
+    fun getConnectingDomainById(id: String): ConnectingDomain? = domainsById[id]
+
+    fun getVpnCountry(flag: String): VpnCountry? = vpnCountriesByFlag[flag]
+
+    fun getSecureCoreEntryCountry(flag: String): VpnCountry? = entryCountriesByFlag[flag]
+
+    fun getSecureCoreExitCountry(flag: String): VpnCountry? = exitCountriesByFlag[flag]
+
+    fun getExitCountry(flag: String, secureCore: Boolean): VpnCountry? =
+        if (secureCore) getSecureCoreExitCountry(flag) else getVpnCountry(flag)
+
+    fun getExitCountries(secureCore: Boolean): List<VpnCountry> =
+        if (secureCore) secureCoreExitCountries else vpnCountries
+
+    fun onScoreChanged(serverId: String) {
+        if (rankingDelegate.isInitialized())
+            ranking.onScoreChanged(serverId)
+    }
+
+    // Servers having all the feature bits from [featureMask] set.
+    fun getServersWithFeatures(featureMask: Int): List<Server> {
+        if (featureMask == 0)
+            return serversById.values.toList()
+        var candidates: List<Server>? = null
+        var mask = featureMask
+        while (mask != 0) {
+            val bit = Integer.lowestOneBit(mask)
+            val servers = serversByFeature[bit] ?: return emptyList()
+            if (candidates == null || servers.size < candidates.size)
+                candidates = servers
+            mask = mask and bit.inv()
+        }
+        return candidates!!.filter { it.features and featureMask == featureMask }
+    }
+
+    companion object {
+        val EMPTY = ServerCatalog(emptyList(), emptyList(), emptyList())
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2021. Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.utils
+
+import com.protonvpn.android.models.vpn.Server
+import java.util.Locale
+
+/**
+ * Servers grouped by country the way [ServerManager] presents them: regular servers by flag and secure
+ * core servers by entry and exit country. [Builder] groups servers as they are added, so the grouping can
+ * be done while the server list is being decoded.
+ */
+class ServerGroups private constructor(
+    val servers: List<Server>,
+    // Flags in the order of their first appearance.
+    val countries: List<String>,
+    val regularByFlag: Map<String, List<Server>>,
+    // Keyed by upper case entry/exit country.
+    val secureCoreByEntry: Map<String, List<Server>>,
+    val secureCoreByExit: Map<String, List<Server>>
+) : java.io.Serializable {
+
+    class Builder {
+        private val servers = ArrayList<Server>()
+        private val countries = LinkedHashSet<String>()
+        private val regularByFlag = HashMap<String, MutableList<Server>>()
+        private val secureCoreByEntry = HashMap<String, MutableList<Server>>()
+        private val secureCoreByExit = HashMap<String, MutableList<Server>>()
+
+        fun add(server: Server) {
+            servers.add(server)
+            countries.add(server.flag)
+            if (server.isSecureCoreServer) {
+                secureCoreByEntry.getOrPut(server.entryCountry.toUpperCase(Locale.US)) { ArrayList() }.add(server)
+                secureCoreByExit.getOrPut(server.exitCountry.toUpperCase(Locale.US)) { ArrayList() }.add(server)
+            } else {
+                regularByFlag.getOrPut(server.flag) { ArrayList() }.add(server)
+            }
+        }
+
+        fun build() =
+            ServerGroups(servers, countries.toList(), regularByFlag, secureCoreByEntry, secureCoreByExit)
+    }
+
+    companion object {
+        fun of(servers: List<Server>): ServerGroups {
+            val builder = Builder()
+            servers.forEach(builder::add)
+            return builder.build()
+        }
+    }
+}
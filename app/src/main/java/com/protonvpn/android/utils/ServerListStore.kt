@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2021. Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.utils
+
+import com.protonvpn.android.models.vpn.ConnectingDomain
+import com.protonvpn.android.models.vpn.LoadUpdate
+import com.protonvpn.android.models.vpn.Location
+import com.protonvpn.android.models.vpn.Server
+import org.joda.time.DateTime
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Binary on-disk store for the server list.
+ *
+ * The full list is written to a snapshot file, load and connecting domain status updates in between
+ * full saves are appended to a journal file that is replayed on load. Both files carry the snapshot
+ * generation so that a journal left over from an older snapshot is never applied. All writes happen
+ * on a single background thread, [load] is synchronous but can be started ahead of time with [preload].
+ */
+class ServerListStore(
+    private val directory: File,
+    private val writeExecutor: Executor = Executors.newSingleThreadExecutor()
+) {
+    class Snapshot(val servers: List<Server>, val updatedAt: DateTime?)
+
+    private val snapshotFile get() = File(directory, SNAPSHOT_FILE)
+    private val journalFile get() = File(directory, JOURNAL_FILE)
+
+    // Accessed only from the write executor.
+    private var generation = 0L
+
+    // Generation in the journal header and length of its complete records, accessed only from the write executor.
+    // 0 when unknown: the next append then starts the journal over instead of appending to a stale or torn one.
+    private var journalGeneration = 0L
+    private var journalLength = 0L
+
+    // Number of records in the journal, used by the caller to decide when to write a full snapshot.
+    @Volatile var journalRecordCount = 0
+        private set
+
+    val needsCompaction get() = journalRecordCount >= MAX_JOURNAL_RECORDS
+
+    // Read of the files for the first load, run by whichever of preload and load comes first.
+    private val initialLoad = FutureTask(::readFromDisk)
+    private val initialLoadTaken = AtomicBoolean()
+
+    fun preload() {
+        initialLoad.run()
+    }
+
+    fun load(): Snapshot? {
+        if (initialLoadTaken.compareAndSet(false, true)) {
+            initialLoad.run()
+            return initialLoad.get()
+        }
+        return readFromDisk()
+    }
+
+    private fun readFromDisk(): Snapshot? = try {
+        val snapshot = readSnapshot()
+        if (snapshot != null)
+            replayJournal(snapshot)
+        snapshot
+    } catch (e: IOException) {
+        discardFiles("Unable to read server list", e)
+    } catch (e: RuntimeException) {
+        discardFiles("Corrupt server list", e)
+    }
+
+    private fun discardFiles(message: String, e: Exception): Snapshot? {
+        Log.e(message, e)
+        // Deleted in order with the writes, so that a snapshot saved meanwhile is not lost.
+        writeExecutor.execute {
+            snapshotFile.delete()
+            deleteJournal()
+        }
+        return null
+    }
+
+    fun save(servers: List<Server>, updatedAt: DateTime?) {
+        journalRecordCount = 0
+        writeExecutor.execute {
+            try {
+                writeSnapshot(servers, updatedAt)
+            } catch (e: IOException) {
+                Log.e("Unable to save server list", e)
+            }
+        }
+    }
+
+    // Updates the time stored in the snapshot header without rewriting the servers.
+    fun saveUpdatedAt(updatedAt: DateTime?) {
+        writeExecutor.execute {
+            if (generation == 0L) return@execute
+            try {
+                RandomAccessFile(snapshotFile, "rw").use { file ->
+                    file.seek(UPDATED_AT_OFFSET)
+                    file.writeLong(updatedAt?.millis ?: -1L)
+                }
+            } catch (e: IOException) {
+                Log.e("Unable to save server list update time", e)
+            }
+        }
+    }
+
+    fun appendLoads(loads: List<LoadUpdate>) {
+        if (loads.isEmpty()) return
+        journalRecordCount += loads.size
+        appendToJournal { out ->
+            for (loadUpdate in loads) {
+                out.writeByte(RECORD_LOAD.toInt())
+                out.writeUTF(loadUpdate.id)
+                out.writeFloat(loadUpdate.load)
+                out.writeFloat(loadUpdate.score)
+                out.writeInt(loadUpdate.status)
+            }
+        }
+    }
+
+    fun appendDomainStatus(domainId: String, isOnline: Boolean) {
+        journalRecordCount++
+        appendToJournal { out ->
+            out.writeByte(RECORD_DOMAIN_STATUS.toInt())
+            out.writeUTF(domainId)
+            out.writeBoolean(isOnline)
+        }
+    }
+
+    fun clear() {
+        journalRecordCount = 0
+        writeExecutor.execute {
+            snapshotFile.delete()
+            deleteJournal()
+        }
+    }
+
+    private fun deleteJournal() {
+        journalFile.delete()
+        journalGeneration = 0L
+        journalLength = 0L
+    }
+
+    private fun appendToJournal(write: (DataOutputStream) -> Unit) {
+        writeExecutor.execute {
+            // Nothing to append to if the snapshot was never written.
+            if (generation == 0L) return@execute
+            try {
+                FileOutputStream(journalFile, true).use { stream ->
+                    val channel = stream.channel
+                    // Drops a journal of another snapshot and a torn record left by a failed append.
+                    if (journalGeneration != generation)
+                        journalLength = 0L
+                    if (channel.size() != journalLength)
+                        channel.truncate(journalLength)
+                    val out = DataOutputStream(BufferedOutputStream(stream))
+                    if (journalLength == 0L) {
+                        out.writeInt(JOURNAL_MAGIC)
+                        out.writeLong(generation)
+                    }
+                    write(out)
+                    out.flush()
+                    journalGeneration = generation
+                    journalLength = channel.size()
+                }
+            } catch (e: IOException) {
+                Log.e("Unable to append to server list journal", e)
+            }
+        }
+    }
+
+    private fun writeSnapshot(servers: List<Server>, updatedAt: DateTime?) {
+        directory.mkdirs()
+        val newGeneration = System.currentTimeMillis().coerceAtLeast(generation + 1)
+        val tmpFile = File(directory, "$SNAPSHOT_FILE.tmp")
+        DataOutputStream(BufferedOutputStream(FileOutputStream(tmpFile), BUFFER_SIZE)).use { out ->
+            out.writeInt(SNAPSHOT_MAGIC)
+            out.writeInt(FORMAT_VERSION)
+            out.writeLong(newGeneration)
+            out.writeLong(updatedAt?.millis ?: -1L)
+            out.writeInt(servers.size)
+            servers.forEach { writeServer(out, it) }
+        }
+        if (!tmpFile.renameTo(snapshotFile))
+            throw IOException("Unable to rename ${tmpFile.path}")
+        generation = newGeneration
+        deleteJournal()
+    }
+
+    private fun readSnapshot(): Snapshot? {
+        val file = snapshotFile
+        if (!file.exists()) return null
+        DataInputStream(BufferedInputStream(FileInputStream(file), BUFFER_SIZE)).use { input ->
+            if (input.readInt() != SNAPSHOT_MAGIC || input.readInt() != FORMAT_VERSION)
+                return null
+            val fileGeneration = input.readLong()
+            val updatedAtMillis = input.readLong()
+            val count = input.readCount(MAX_SERVERS)
+            val strings = HashMap<String, String>()
+            val servers = ArrayList<Server>(count)
+            repeat(count) {
+                servers.add(readServer(input, strings))
+            }
+            writeExecutor.execute { generation = fileGeneration }
+            return Snapshot(servers, if (updatedAtMillis >= 0) DateTime(updatedAtMillis) else null)
+        }
+    }
+
+    private fun replayJournal(snapshot: Snapshot) {
+        val file = journalFile
+        if (!file.exists()) return
+        val servers = snapshot.servers.associateBy { it.serverId }
+        val domains = HashMap<String, ConnectingDomain>()
+        snapshot.servers.forEach { server ->
+            server.connectingDomains.forEach { domain -> domain.id?.let { domains[it] = domain } }
+        }
+        var records = 0
+        val bytes = file.readBytes()
+        DataInputStream(ByteArrayInputStream(bytes)).use { input ->
+            val fileGeneration = try {
+                if (input.readInt() == JOURNAL_MAGIC) input.readLong() else null
+            } catch (e: EOFException) {
+                null
+            }
+            if (fileGeneration == null || snapshotGenerationMismatch(fileGeneration)) {
+                // Left over e.g. when the process died between writing a snapshot and deleting the old journal.
+                writeExecutor.execute {
+                    if (journalGeneration == 0L)
+                        deleteJournal()
+                }
+                return
+            }
+            var validLength = (bytes.size - input.available()).toLong()
+            try {
+                while (true) {
+                    when (input.readByte()) {
+                        RECORD_LOAD -> {
+                            val update =
+                                LoadUpdate(input.readUTF(), input.readFloat(), input.readFloat(), input.readInt())
+                            servers[update.id]?.updateLoad(update)
+                        }
+                        RECORD_DOMAIN_STATUS -> {
+                            val id = input.readUTF()
+                            val isOnline = input.readBoolean()
+                            domains[id]?.isOnline = isOnline
+                        }
+                        else -> break
+                    }
+                    records++
+                    validLength = (bytes.size - input.available()).toLong()
+                }
+            } catch (e: EOFException) {
+                // End of journal, a truncated last record is ignored.
+            }
+            // Appends continue after the last complete record, unless this process already appended meanwhile.
+            val completeLength = validLength
+            writeExecutor.execute {
+                if (journalGeneration == 0L) {
+                    journalGeneration = fileGeneration
+                    journalLength = completeLength
+                }
+            }
+        }
+        journalRecordCount = records
+    }
+
+    private fun snapshotGenerationMismatch(journalGeneration: Long): Boolean {
+        DataInputStream(FileInputStream(snapshotFile)).use { input ->
+            input.readInt()
+            input.readInt()
+            return input.readLong() != journalGeneration
+        }
+    }
+
+    private fun writeServer(out: DataOutputStream, server: Server) = with(server) {
+        out.writeUTF(serverId)
+        out.writeUTF(entryCountry)
+        out.writeUTF(exitCountry)
+        out.writeUTF(serverName)
+        out.writeNullableUTF(hostCountry)
+        out.writeUTF(domain)
+        out.writeFloat(load)
+        out.writeInt(tier)
+        out.writeNullableUTF(region)
+        out.writeNullableUTF(city)
+        out.writeInt(features)
+        out.writeUTF(location.latitude)
+        out.writeUTF(location.longitude)
+        out.writeFloat(score)
+        out.writeBoolean(isStatusOnline)
+        out.writeInt(connectingDomains.size)
+        connectingDomains.forEach { writeConnectingDomain(out, it) }
+    }
+
+    private fun readServer(input: DataInputStream, strings: MutableMap<String, String>): Server {
+        val serverId = input.readUTF()
+        val entryCountry = input.readUTF().dedupe(strings)
+        val exitCountry = input.readUTF().dedupe(strings)
+        val serverName = input.readUTF()
+        val hostCountry = input.readNullableUTF()?.dedupe(strings)
+        val domain = input.readUTF()
+        val load = input.readFloat()
+        val tier = input.readInt()
+        val region = input.readNullableUTF()?.dedupe(strings)
+        val city = input.readNullableUTF()?.dedupe(strings)
+        val features = input.readInt()
+        val location = Location(input.readUTF(), input.readUTF())
+        val score = input.readFloat()
+        val isOnline = input.readBoolean()
+        val domainCount = input.readCount(MAX_CONNECTING_DOMAINS)
+        val connectingDomains = ArrayList<ConnectingDomain>(domainCount)
+        repeat(domainCount) {
+            connectingDomains.add(readConnectingDomain(input))
+        }
+        return Server(serverId, entryCountry, exitCountry, serverName, connectingDomains, hostCountry, domain,
+            load, tier, region, city, features, location, score, isOnline)
+    }
+
+    private fun DataInputStream.readCount(max: Int): Int {
+        val count = readInt()
+        if (count < 0 || count > max)
+            throw IOException("Invalid count $count")
+        return count
+    }
+
+    private fun writeConnectingDomain(out: DataOutputStream, domain: ConnectingDomain) = with(domain) {
+        out.writeUTF(entryIp)
+        out.writeUTF(entryDomain)
+        out.writeUTF(getExitIP())
+        out.writeNullableUTF(id)
+        out.writeNullableUTF(label)
+        out.writeBoolean(isOnline)
+        out.writeNullableUTF(publicKeyX25519)
+    }
+
+    private fun readConnectingDomain(input: DataInputStream) = ConnectingDomain(
+        entryIp = input.readUTF(),
+        entryDomain = input.readUTF(),
+        exitIp = input.readUTF(),
+        id = input.readNullableUTF(),
+        label = input.readNullableUTF(),
+        isOnline = input.readBoolean(),
+        publicKeyX25519 = input.readNullableUTF())
+
+    private fun DataOutputStream.writeNullableUTF(value: String?) {
+        writeBoolean(value != null)
+        if (value != null) writeUTF(value)
+    }
+
+    private fun DataInputStream.readNullableUTF(): String? =
+        if (readBoolean()) readUTF() else null
+
+    private fun String.dedupe(strings: MutableMap<String, String>) = strings.getOrPut(this) { this }
+
+    companion object {
+        private const val SNAPSHOT_FILE = "servers.bin"
+        private const val JOURNAL_FILE = "servers.journal"
+        private const val SNAPSHOT_MAGIC = 0x50565353 // "PVSS"
+        private const val JOURNAL_MAGIC = 0x5056534A // "PVSJ"
+        // Version 2 stores the server's own status instead of the one derived from its domains.
+        private const val FORMAT_VERSION = 2
+        private const val BUFFER_SIZE = 64 * 1024
+        private const val MAX_SERVERS = 100_000
+        private const val MAX_CONNECTING_DOMAINS = 1_000
+        // Magic, format version and generation come before the update time in the snapshot.
+        private const val UPDATED_AT_OFFSET = 16L
+        private const val RECORD_LOAD: Byte = 1
+        private const val RECORD_DOMAIN_STATUS: Byte = 2
+        const val MAX_JOURNAL_RECORDS = 10_000
+    }
+}
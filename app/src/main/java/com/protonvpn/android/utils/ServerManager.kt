@@ -21,6 +21,7 @@ package com.protonvpn.android.utils
 import android.content.Context
 import androidx.annotation.VisibleForTesting
 import com.protonvpn.android.models.config.UserData
+import com.protonvpn.android.models.config.VpnProtocol
 import com.protonvpn.android.models.profiles.Profile
 import com.protonvpn.android.models.profiles.SavedProfilesV3
 import com.protonvpn.android.models.profiles.ServerDeliver
@@ -29,25 +30,39 @@ import com.protonvpn.android.models.profiles.ServerWrapper.ProfileType
 import com.protonvpn.android.models.vpn.ConnectingDomain
 import com.protonvpn.android.models.vpn.LoadUpdate
 import com.protonvpn.android.models.vpn.Server
+import com.protonvpn.android.models.vpn.ServerDelta
+import com.protonvpn.android.models.vpn.ServerList
 import com.protonvpn.android.models.vpn.StreamingServicesResponse
 import com.protonvpn.android.models.vpn.VpnCountry
 import com.protonvpn.android.ui.home.ServerListUpdater
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
 import org.jetbrains.annotations.TestOnly
 import org.joda.time.DateTime
+import java.io.File
 import java.io.Serializable
+import java.util.EnumMap
+import java.util.Locale
 
 class ServerManager(
     @Transient private val appContext: Context,
-    @Transient val userData: UserData
+    @Transient val userData: UserData,
+    @Transient private val serverStore: ServerListStore = ServerListStore(File(appContext.filesDir, "servers"))
 ) : Serializable, ServerDeliver {
 
     private val vpnCountries = mutableListOf<VpnCountry>()
     private val secureCoreEntryCountries = mutableListOf<VpnCountry>()
     private val secureCoreExitCountries = mutableListOf<VpnCountry>()
 
-    @Transient private var filteredVpnCountries = listOf<VpnCountry>()
-    @Transient private var filteredSecureCoreEntryCountries = listOf<VpnCountry>()
-    @Transient private var filteredSecureCoreExitCountries = listOf<VpnCountry>()
+    // All servers in the order received from the API.
+    @Transient private var serverList = emptyList<Server>()
+
+    // Indexes over all servers and over protocol filtered servers, each replaced as a whole on update.
+    @Transient @Volatile private var allServersCatalog = ServerCatalog.EMPTY
+    @Transient @Volatile private var catalog = ServerCatalog.EMPTY
+
+    // Protocol filtered views of allServersCatalog, built on first use and kept until the server list changes.
+    @Transient private val protocolCatalogs = EnumMap<VpnProtocol, ServerCatalog>(VpnProtocol::class.java)
 
     var streamingServices: StreamingServicesResponse? = null
         private set
@@ -62,6 +77,10 @@ class ServerManager(
     @Transient val updateEvent = LiveEvent()
     @Transient val profilesUpdateEvent = LiveEvent()
 
+    // Servers changed by updateLoads, emitted instead of updateEvent so that UI can update only affected items.
+    @Transient private val serverDeltasFlow = MutableSharedFlow<List<ServerDelta>>(extraBufferCapacity = 8)
+    val serverDeltas: SharedFlow<List<ServerDelta>> get() = serverDeltasFlow
+
     val isDownloadedAtLeastOnce: Boolean
         get() = updatedAt != null && vpnCountries.isNotEmpty()
 
@@ -77,43 +96,56 @@ class ServerManager(
             }
         }
 
-    private val allServers get() =
-        sequenceOf(filteredVpnCountries, filteredSecureCoreEntryCountries, filteredSecureCoreExitCountries)
-            .flatten().flatMap { it.serverList.asSequence() }
-
-    private fun getServerById(id: String) = allServers.firstOrNull { it.serverId == id }
-
-    private fun getExitCountries(secureCore: Boolean) = if (secureCore)
-        filteredSecureCoreExitCountries else filteredVpnCountries
-
-    @VisibleForTesting fun filterForProtocol(countries: List<VpnCountry>) =
-        userData.selectedProtocol.let { protocol ->
-            countries.mapNotNull { country ->
-                val servers = country.serverList
-                    .filter {
-                        it.supportsProtocol(protocol)
-                    }.map { server ->
-                        val filteredDomains = server.connectingDomains.filter { it.supportsProtocol(protocol) }
-                        server.copy(
-                            isOnline = server.online && filteredDomains.any { it.isOnline },
-                            connectingDomains = filteredDomains)
-                    }
-                if (servers.isNotEmpty())
-                    VpnCountry(country.flag, servers, this)
-                else
-                    null
+    private fun getServerById(id: String) = catalog.getServerById(id)
+
+    private fun getExitCountries(secureCore: Boolean) = catalog.getExitCountries(secureCore)
+
+    // Servers and countries that fully support the protocol are returned as they are, so load updates
+    // apply to them in place. Copies are made only for servers with some unsupported connecting domains
+    // and are shared via [filteredServers] between secure core entry and exit countries.
+    @VisibleForTesting fun filterForProtocol(
+        countries: List<VpnCountry>,
+        protocol: VpnProtocol = userData.selectedProtocol,
+        filteredServers: MutableMap<String, Server> = HashMap()
+    ) =
+        countries.mapNotNull { country ->
+            var unchanged = true
+            val servers = country.serverList.mapNotNull { server ->
+                val filtered = filteredServers[server.serverId] ?: filterForProtocol(server, protocol)?.also {
+                    filteredServers[server.serverId] = it
+                }
+                unchanged = unchanged && filtered === server
+                filtered
+            }
+            when {
+                servers.isEmpty() -> null
+                unchanged -> country
+                else -> VpnCountry(country.flag, servers, this)
+            }
+        }
+
+    private fun filterForProtocol(server: Server, protocol: VpnProtocol): Server? {
+        val supportedCount = server.connectingDomains.count { it.supportsProtocol(protocol) }
+        return when (supportedCount) {
+            0 -> null
+            server.connectingDomains.size -> server
+            else -> {
+                val filteredDomains = server.connectingDomains.filter { it.supportsProtocol(protocol) }
+                server.copy(
+                    isOnline = server.online && filteredDomains.any { it.isOnline },
+                    connectingDomains = filteredDomains)
             }
         }
+    }
 
     init {
-        val oldManager =
-                Storage.load(ServerManager::class.java)
-        if (oldManager != null) {
-            vpnCountries.addAll(oldManager.vpnCountries)
-            secureCoreExitCountries.addAll(oldManager.secureCoreExitCountries)
-            secureCoreEntryCountries.addAll(oldManager.secureCoreEntryCountries)
-            streamingServices = oldManager.streamingServices
-            updatedAt = oldManager.updatedAt
+        val snapshot = serverStore.load()
+        if (snapshot != null) {
+            groupServers(snapshot.servers)
+            updatedAt = snapshot.updatedAt
+            streamingServices = Storage.load(StreamingServicesResponse::class.java)
+        } else {
+            migrateFromPreferences()
         }
         reInitProfiles()
 
@@ -122,16 +154,48 @@ class ServerManager(
         }
     }
 
+    // Server list used to be stored as Gson serialized ServerManager in shared preferences.
+    private fun migrateFromPreferences() {
+        val oldManager = Storage.load(ServerManager::class.java) ?: return
+        val servers = sequenceOf(
+            oldManager.vpnCountries, oldManager.secureCoreEntryCountries, oldManager.secureCoreExitCountries
+        ).flatten().flatMap { it.serverList.asSequence() }.distinctBy { it.serverId }.toList()
+        groupServers(servers)
+        streamingServices = oldManager.streamingServices
+        updatedAt = oldManager.updatedAt
+        serverStore.save(serverList, updatedAt)
+        Storage.save(streamingServices, StreamingServicesResponse::class.java)
+        Storage.delete(ServerManager::class.java)
+    }
+
     private fun onServersUpdate() {
         filterServers()
         updateEvent.emit()
         profilesUpdateEvent.emit()
     }
 
+    private fun indexServers() {
+        allServersCatalog = ServerCatalog(vpnCountries, secureCoreEntryCountries, secureCoreExitCountries)
+        protocolCatalogs.clear()
+    }
+
     private fun filterServers() {
-        filteredVpnCountries = filterForProtocol(vpnCountries)
-        filteredSecureCoreEntryCountries = filterForProtocol(secureCoreEntryCountries)
-        filteredSecureCoreExitCountries = filterForProtocol(secureCoreExitCountries)
+        catalog = protocolCatalogs.getOrPut(userData.selectedProtocol) {
+            createProtocolCatalog(userData.selectedProtocol)
+        }
+    }
+
+    private fun createProtocolCatalog(protocol: VpnProtocol): ServerCatalog {
+        val filteredServers = HashMap<String, Server>()
+        val filteredVpnCountries = filterForProtocol(vpnCountries, protocol, filteredServers)
+        val filteredEntryCountries = filterForProtocol(secureCoreEntryCountries, protocol, filteredServers)
+        val filteredExitCountries = filterForProtocol(secureCoreExitCountries, protocol, filteredServers)
+        val unchanged = filteredServers.size == allServersCatalog.allServers.size &&
+            filteredServers.values.all { allServersCatalog.getServerById(it.serverId) === it }
+        return if (unchanged)
+            allServersCatalog
+        else
+            ServerCatalog(filteredVpnCountries, filteredEntryCountries, filteredExitCountries)
     }
 
     override fun toString() = "vpnCountries: ${vpnCountries.size} entry: ${secureCoreEntryCountries.size}" +
@@ -151,7 +215,8 @@ class ServerManager(
 
     fun clearCache() {
         updatedAt = null
-        Storage.delete(ServerManager::class.java)
+        serverStore.clear()
+        Storage.delete(StreamingServicesResponse::class.java)
     }
 
     fun setGuestHoleServers(serverList: List<Server>) {
@@ -160,64 +225,102 @@ class ServerManager(
     }
 
     fun setServers(serverList: List<Server>) {
+        setServers(ServerGroups.of(serverList))
+    }
+
+    fun setServers(serverList: ServerList) {
+        setServers(serverList.groups ?: ServerGroups.of(serverList.serverList))
+    }
+
+    private fun setServers(groups: ServerGroups) {
+        groupServers(groups)
+        updatedAt = DateTime()
+        serverStore.save(groups.servers, updatedAt)
+        onServersUpdate()
+    }
+
+    // The API reported the server list as unchanged since it was last set.
+    fun markServersUnchanged() {
+        updatedAt = DateTime()
+        serverStore.saveUpdatedAt(updatedAt)
+    }
+
+    private fun groupServers(serverList: List<Server>) {
+        groupServers(ServerGroups.of(serverList))
+    }
+
+    private fun groupServers(groups: ServerGroups) {
+        this.serverList = groups.servers
         vpnCountries.clear()
         secureCoreEntryCountries.clear()
         secureCoreExitCountries.clear()
-        val countries = serverList.asSequence().map(Server::flag).toSet()
-        for (country in countries) {
-            val servers = serverList.filter { server ->
-                !server.isSecureCoreServer && server.flag == country
-            }
-            vpnCountries.add(VpnCountry(country, servers, this))
-        }
-        for (country in countries) {
-            if (country == "IS" || country == "SE" || country == "CH") {
-                val servers = serverList.filter { server ->
-                    server.isSecureCoreServer && server.entryCountry.equals(country, ignoreCase = true)
-                }
-                secureCoreEntryCountries.add(VpnCountry(country, servers, this))
-            }
-        }
-        for (country in countries) {
-            val servers = serverList.filter { server ->
-                server.isSecureCoreServer && server.exitCountry.equals(country, ignoreCase = true)
-            }
-            if (servers.isNotEmpty())
+        for (country in groups.countries) {
+            val key = country.toUpperCase(Locale.US)
+            vpnCountries.add(VpnCountry(country, groups.regularByFlag[country] ?: ArrayList(), this))
+            if (country == "IS" || country == "SE" || country == "CH")
+                secureCoreEntryCountries.add(VpnCountry(country, groups.secureCoreByEntry[key] ?: ArrayList(), this))
+            groups.secureCoreByExit[key]?.let { servers ->
                 secureCoreExitCountries.add(VpnCountry(country, servers, this))
+            }
         }
-        updatedAt = DateTime()
-        Storage.save(this)
-        onServersUpdate()
+        indexServers()
     }
 
     fun updateServerDomainStatus(connectingDomain: ConnectingDomain) {
-        allServers.asSequence().flatMap { it.connectingDomains.asSequence() }
-            .find { it.id == connectingDomain.id }?.let {
-                it.isOnline = connectingDomain.isOnline
-            }
+        val id = connectingDomain.id ?: return
+        allServersCatalog.getConnectingDomainById(id)?.let {
+            it.isOnline = connectingDomain.isOnline
+        }
 
-        Storage.save(this)
+        // Online state of filtered copies is computed from their domains when they are created.
+        protocolCatalogs.clear()
+        if (serverStore.needsCompaction)
+            serverStore.save(serverList, updatedAt)
+        else
+            serverStore.appendDomainStatus(id, connectingDomain.isOnline)
         onServersUpdate()
     }
 
     fun updateLoads(loadsList: List<LoadUpdate>) {
-        val loadsMap = loadsList.asSequence().map { it.id to it }.toMap()
-        allServers.forEach { server ->
-            loadsMap[server.serverId]?.let {
-                server.load = it.load
-                server.score = it.score
-
-                // If server becomes online we don't know which connectingDomains became available based on /loads
-                // response. If there's more than one connectingDomain it'll have to wait for /logicals response
-                if (server.online != it.isOnline && (!it.isOnline || server.connectingDomains.size == 1))
-                    server.setOnline(it.isOnline)
+        // Servers are shared with protocol views, only filtered copies need to be updated separately.
+        val allServers = allServersCatalog
+        val protocolViews = protocolCatalogs.values.filter { it !== allServers }
+        val currentView = catalog
+        val changedLoads = ArrayList<LoadUpdate>()
+        val deltas = ArrayList<ServerDelta>()
+        loadsList.forEach { loadUpdate ->
+            val server = allServers.getServerById(loadUpdate.id) ?: return@forEach
+            val currentServer = currentView.getServerById(loadUpdate.id)
+            val wasOnline = currentServer?.online
+            if (!server.updateLoad(loadUpdate))
+                return@forEach
+            changedLoads.add(loadUpdate)
+            allServers.onScoreChanged(loadUpdate.id)
+            protocolViews.forEach { view ->
+                view.getServerById(loadUpdate.id)?.let { filtered ->
+                    if (filtered !== server)
+                        filtered.updateLoad(loadUpdate)
+                    view.onScoreChanged(loadUpdate.id)
+                }
             }
+            if (currentServer != null)
+                deltas.add(ServerDelta(currentServer, currentServer.online != wasOnline))
         }
-        Storage.save(this)
-        onServersUpdate()
+        if (changedLoads.isEmpty())
+            return
+
+        if (serverStore.needsCompaction)
+            serverStore.save(serverList, updatedAt)
+        else
+            serverStore.appendLoads(changedLoads)
+
+        if (deltas.any { it.onlineChanged })
+            profilesUpdateEvent.emit()
+        if (deltas.isNotEmpty() && !serverDeltasFlow.tryEmit(deltas))
+            updateEvent.emit()
     }
 
-    fun getVpnCountries(): List<VpnCountry> = filteredVpnCountries.sortedByLocaleAware { it.countryName }
+    fun getVpnCountries(): List<VpnCountry> = catalog.vpnCountries.sortedByLocaleAware { it.countryName }
 
     val defaultFallbackConnection = getSavedProfiles()[0]
 
@@ -235,27 +338,25 @@ class ServerManager(
             }
 
 
-    fun getSecureCoreEntryCountries(): List<VpnCountry> = filteredSecureCoreEntryCountries
+    fun getSecureCoreEntryCountries(): List<VpnCountry> = catalog.secureCoreEntryCountries
 
     fun getVpnExitCountry(country: String, secureCoreCountry: Boolean): VpnCountry? =
-        getExitCountries(secureCoreCountry).firstOrNull { it.flag == country }
-
-    fun getBestScoreServer(country: VpnCountry): Server? =
-        getBestScoreServer(country.serverList)
-
-    fun getBestScoreServer(secureCore: Boolean): Server? {
-        val countries = getExitCountries(secureCore)
-        val map = countries.asSequence()
-                .map(VpnCountry::serverList)
-                .mapNotNull(::getBestScoreServer)
-                .groupBy(::hasAccessToServer)
-                .mapValues { it.value.minBy(Server::score) }
-        return map[true] ?: map[false]
+        catalog.getExitCountry(country, secureCoreCountry)
+
+    fun getBestScoreServer(country: VpnCountry): Server? {
+        val ranking = catalog.ranking
+        return if (ranking.contains(country))
+            ranking.getBestScoreServer(country, ::hasAccessToServer)
+        else
+            getBestScoreServer(country.serverList)
     }
 
+    fun getBestScoreServer(secureCore: Boolean): Server? =
+        catalog.ranking.getBestScoreServer(secureCore, ::hasAccessToServer)
+
     fun getBestScoreServer(serverList: List<Server>): Server? {
         val map = serverList.asSequence()
-                .filter { Server.Keyword.TOR !in it.keywords && it.online }
+                .filter { it.features and Server.FEATURE_TOR == 0 && it.online }
                 .groupBy(::hasAccessToServer)
                 .mapValues { it.value.minBy(Server::score) }
         return map[true] ?: map[false]
@@ -321,7 +422,7 @@ class ServerManager(
     }
 
     fun getSecureCoreExitCountries(): List<VpnCountry> =
-        filteredSecureCoreExitCountries.sortedByLocaleAware { it.countryName }
+        catalog.secureCoreExitCountries.sortedByLocaleAware { it.countryName }
 
     override fun getServer(wrapper: ServerWrapper): Server? = when (wrapper.type) {
         ProfileType.FASTEST ->
@@ -345,14 +446,12 @@ class ServerManager(
 
     fun setStreamingServices(value: StreamingServicesResponse) {
         streamingServices = value
-        Storage.save(this)
+        Storage.save(value, StreamingServicesResponse::class.java)
     }
 
     // Sorted by score (best at front)
     fun getOnlineAccessibleServers(secureCore: Boolean): List<Server> =
-        getExitCountries(secureCore).asSequence().flatMap { country ->
-            country.serverList.filter { it.online && hasAccessToServer(it) }.asSequence()
-        }.sortedBy { it.score }.toList()
+        catalog.ranking.getOnlineAccessibleServers(secureCore, ::hasAccessToServer)
 
     @get:TestOnly val firstNotAccessibleVpnCountry get() =
         getVpnCountries().firstOrNull { !it.hasAccessibleOnlineServer(userData) }
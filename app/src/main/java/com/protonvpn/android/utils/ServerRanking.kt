@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021. Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.utils
+
+import com.protonvpn.android.models.vpn.Server
+import com.protonvpn.android.models.vpn.VpnCountry
+import java.util.IdentityHashMap
+import java.util.PriorityQueue
+
+/**
+ * Servers of each exit country of a [ServerCatalog] kept sorted by score, separately for each tier.
+ * Access to servers depends only on their tier so queries pick the tiers to look at and only walk the
+ * head of the sorted lists. Score changes mark the server's country for re-sorting on next query.
+ */
+class ServerRanking(catalog: ServerCatalog) {
+
+    private class CountryRanking(val country: VpnCountry) {
+        private var tiers: List<List<Server>>? = null
+
+        // Servers grouped by tier, each group sorted by score.
+        val rankedTiers: List<List<Server>> get() = tiers ?: country.serverList
+            .groupBy(Server::tier)
+            .values.map { servers -> servers.sortedBy(Server::score) }
+            .also { tiers = it }
+
+        fun invalidate() {
+            tiers = null
+        }
+    }
+
+    private val regularCountries = IdentityHashMap<VpnCountry, CountryRanking>()
+    private val secureCoreCountries = IdentityHashMap<VpnCountry, CountryRanking>()
+    private val countryByServerId = HashMap<String, CountryRanking>()
+
+    // Tor servers are slower, they are only used when asked for directly.
+    private val torServerIds = catalog.getServersWithFeatures(Server.FEATURE_TOR).mapTo(HashSet()) { it.serverId }
+
+    init {
+        index(catalog.vpnCountries, regularCountries)
+        index(catalog.secureCoreExitCountries, secureCoreCountries)
+    }
+
+    private fun index(countries: List<VpnCountry>, rankings: MutableMap<VpnCountry, CountryRanking>) {
+        for (country in countries) {
+            val ranking = CountryRanking(country)
+            rankings[country] = ranking
+            country.serverList.forEach { countryByServerId[it.serverId] = ranking }
+        }
+    }
+
+    @Synchronized
+    fun onScoreChanged(serverId: String) {
+        countryByServerId[serverId]?.invalidate()
+    }
+
+    // Online servers that can be picked as the fastest one.
+    private fun isFastestCandidate(server: Server) = server.online && server.serverId !in torServerIds
+
+    // False for countries from other catalogs (e.g. held by UI since before the server list was updated).
+    @Synchronized
+    fun contains(country: VpnCountry) = country in regularCountries || country in secureCoreCountries
+
+    // Best scoring online non-Tor server, preferring accessible ones.
+    @Synchronized
+    fun getBestScoreServer(country: VpnCountry, hasAccess: (Server) -> Boolean): Server? {
+        val ranking = regularCountries[country] ?: secureCoreCountries[country] ?: return null
+        return getBestScoreServer(listOf(ranking), hasAccess)
+    }
+
+    @Synchronized
+    fun getBestScoreServer(secureCore: Boolean, hasAccess: (Server) -> Boolean): Server? =
+        getBestScoreServer(getRankings(secureCore), hasAccess)
+
+    // All online accessible servers sorted by score.
+    @Synchronized
+    fun getOnlineAccessibleServers(secureCore: Boolean, hasAccess: (Server) -> Boolean): List<Server> {
+        val sortedLists = getRankings(secureCore).flatMap { ranking ->
+            ranking.rankedTiers.filter { hasAccess(it.first()) }
+        }
+        return mergeSorted(sortedLists) { it.online }
+    }
+
+    private fun getRankings(secureCore: Boolean) =
+        (if (secureCore) secureCoreCountries else regularCountries).values
+
+    private fun getBestScoreServer(rankings: Collection<CountryRanking>, hasAccess: (Server) -> Boolean): Server? {
+        var bestAccessible: Server? = null
+        var bestInaccessible: Server? = null
+        for (ranking in rankings) {
+            for (tier in ranking.rankedTiers) {
+                val accessible = hasAccess(tier.first())
+                val best = if (accessible) bestAccessible else bestInaccessible
+                val candidate = tier.firstOrNull(::isFastestCandidate) ?: continue
+                if (best == null || candidate.score < best.score) {
+                    if (accessible) bestAccessible = candidate else bestInaccessible = candidate
+                }
+            }
+        }
+        return bestAccessible ?: bestInaccessible
+    }
+
+    private class Cursor(val servers: List<Server>, var index: Int) {
+        val current get() = servers[index]
+    }
+
+    private fun mergeSorted(sortedLists: List<List<Server>>, predicate: (Server) -> Boolean): List<Server> {
+        val result = ArrayList<Server>(sortedLists.sumBy { it.size })
+        val queue = PriorityQueue<Cursor>(sortedLists.size.coerceAtLeast(1), compareBy { it.current.score })
+        sortedLists.forEach { if (it.isNotEmpty()) queue.add(Cursor(it, 0)) }
+        while (queue.isNotEmpty()) {
+            val cursor = queue.poll()!!
+            val server = cursor.current
+            if (predicate(server))
+                result.add(server)
+            if (++cursor.index < cursor.servers.size)
+                queue.add(cursor)
+        }
+        return result
+    }
+}
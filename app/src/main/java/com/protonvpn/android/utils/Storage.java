@@ -50,6 +50,9 @@ public final class Storage {
 
     private static SharedPreferences preferences;
 
+    // Objects are stored in files when set, in preferences otherwise.
+    @Nullable private static FileObjectStore objectStore;
+
     private Storage() {
     }
 
@@ -57,6 +60,34 @@ public final class Storage {
         Storage.preferences = preferences;
     }
 
+    public static void setObjectStore(@Nullable FileObjectStore objectStore) {
+        Storage.objectStore = objectStore;
+    }
+
+    // Blocks until objects saved so far are written to disk.
+    public static void flush() {
+        if (objectStore != null)
+            objectStore.flush();
+    }
+
+    private static void putJson(String key, String json) {
+        if (objectStore != null)
+            objectStore.put(key, json);
+        else
+            preferences.edit().putString(key, json).apply();
+    }
+
+    @Nullable
+    private static String getJson(String key) {
+        if (objectStore != null)
+            return objectStore.get(key);
+        return preferences.contains(key) ? preferences.getString(key, null) : null;
+    }
+
+    private static boolean containsJson(String key) {
+        return objectStore != null ? objectStore.contains(key) : preferences.contains(key);
+    }
+
     public static void saveBoolean(String key, boolean value) {
         preferences.edit().putBoolean(key, value).apply();
     }
@@ -102,14 +133,13 @@ public final class Storage {
 
     public static void save(@Nullable Object data) {
         if (data != null) {
-            String key = data.getClass().getName();
-            preferences.edit().putString(key, GSON.toJson(data)).apply();
+            putJson(data.getClass().getName(), GSON.toJson(data));
         }
     }
 
     public static <T> void save(@Nullable T data, Class<T> as) {
         if (data != null) {
-            preferences.edit().putString(as.getName(), GSON.toJson(data)).apply();
+            putJson(as.getName(), GSON.toJson(data));
         }
     }
 
@@ -124,14 +154,13 @@ public final class Storage {
 
     @Nullable
     public static <K,V extends K> V load(Class<K> keyClass, Class<V> objClass) {
-        String key = keyClass.getName();
-        if (!preferences.contains(key)) {
+        String json = getJson(keyClass.getName());
+        if (json == null) {
             return null;
         }
 
         V fromJson;
         try {
-            String json = preferences.getString(key, null);
             fromJson = GSON.fromJson(json, objClass);
         }
         catch (Exception e) {
@@ -143,18 +172,21 @@ public final class Storage {
     public static <T> void delete(Class<T> objClass) {
 
         String key = objClass.getName();
-        preferences.edit().remove(key).apply();
+        if (objectStore != null)
+            objectStore.remove(key);
+        else
+            preferences.edit().remove(key).apply();
     }
 
     @Deprecated // use load() with lambda defaultValue
     public static <T> T load(Class<T> objClass, T defaultValue) {
 
         String key = objClass.getName();
-        if (key.equals("com.protonvpn.android.models.config.UserData") && !preferences.contains(key)) {
+        if (key.equals("com.protonvpn.android.models.config.UserData") && !containsJson(key)) {
             key = "com.protonvpn.android.models.config.UserPreferences";
         }
-        String json = preferences.getString(key, null);
-        if (!preferences.contains(key) || json == null) {
+        String json = getJson(key);
+        if (json == null) {
             return defaultValue;
         }
 
@@ -173,6 +205,8 @@ public final class Storage {
     public static void clearAllPreferences() {
 
         preferences.edit().clear().apply();
+        if (objectStore != null)
+            objectStore.clear();
     }
 
 }
\ No newline at end of file
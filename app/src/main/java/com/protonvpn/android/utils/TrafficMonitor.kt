@@ -22,21 +22,27 @@ import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
 import android.net.TrafficStats
+import android.os.Handler
+import android.os.Looper
 import android.os.PowerManager
 import androidx.core.content.getSystemService
 import androidx.lifecycle.MutableLiveData
+import androidx.lifecycle.asLiveData
 import com.protonvpn.android.bus.TrafficUpdate
 import com.protonvpn.android.utils.AndroidUtils.registerBroadcastReceiver
 import com.protonvpn.android.vpn.ConnectivityMonitor
 import com.protonvpn.android.vpn.VpnState
 import com.protonvpn.android.vpn.VpnStateMonitor
+import de.blinkt.openvpn.core.TrafficHistory
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.launch
-import kotlin.math.roundToLong
 
 class TrafficMonitor constructor(
     val context: Context,
@@ -47,12 +53,27 @@ class TrafficMonitor constructor(
 ) {
     val trafficStatus = MutableLiveData<TrafficUpdate?>()
 
+    // Per-second, per-minute and per-hour session traffic. Emits the same instance after each sample, readers should
+    // access it through its getters instead of keeping copies and hold synchronized(history) when combining several
+    // calls, otherwise a sample added in between can tear the result.
+    private val history = TrafficHistory()
+    private val historyUpdates = MutableSharedFlow<TrafficHistory>(
+        replay = 1, onBufferOverflow = BufferOverflow.DROP_OLDEST)
+    val historyFlow: SharedFlow<TrafficHistory> = historyUpdates
+    val historyLiveData = historyFlow.asLiveData()
+
+    // Sampling runs every second while connected, reuse the same update and runnable instead of allocating a new
+    // update and main thread continuation each time.
+    private val update = TrafficUpdate(0, 0, 0, 0, 0)
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val publishUpdate = Runnable { publishUpdate() }
+
     private var sessionStart = 0L
     private var sessionDownloaded = 0L
     private var sessionUploaded = 0L
     private var lastTotalDownload = 0L
     private var lastTotalUpload = 0L
-    private var lastTimestamp = 0L
+    private var lastSampleTime = 0L
 
     private var updateJob: Job? = null
 
@@ -88,15 +109,21 @@ class TrafficMonitor constructor(
     }
 
     private fun resetSession() {
-        trafficStatus.value = TrafficUpdate(0, 0, 0, 0, 0)
-
-        lastTimestamp = now()
-        lastTotalDownload = TrafficStats.getTotalRxBytes()
-        lastTotalUpload = TrafficStats.getTotalTxBytes()
-
-        sessionDownloaded = 0L
-        sessionUploaded = 0L
-        sessionStart = lastTimestamp
+        update.set(0, 0, 0, 0, 0)
+        trafficStatus.value = update
+
+        synchronized(history) {
+            lastTotalDownload = TrafficStats.getTotalRxBytes()
+            lastTotalUpload = TrafficStats.getTotalTxBytes()
+
+            sessionDownloaded = 0L
+            sessionUploaded = 0L
+            sessionStart = now()
+            lastSampleTime = sessionStart
+            history.clear()
+            history.add(0, 0, sessionStart)
+        }
+        historyUpdates.tryEmit(history)
     }
 
     private fun startUpdating() {
@@ -112,41 +139,49 @@ class TrafficMonitor constructor(
 
     private fun startUpdateJob() {
         if (updateJob == null) {
-            updateJob = scope.launch(Dispatchers.Main) {
+            updateJob = scope.launch(Dispatchers.Default) {
                 while (true) {
                     delay(1000)
-
-                    val timestamp = now()
-                    val elapsedSeconds = (timestamp - lastTimestamp) / 1000f
-
-                    // Speeds need to be divided by two due to TrafficStats calculating both phone and VPN
-                    // interfaces which leads to doubled data. NetworkStatsManager may have solved this
-                    // problem but is only available from marshmallow.
-                    val totalDownload = TrafficStats.getTotalRxBytes()
-                    val totalUpload = TrafficStats.getTotalTxBytes()
-                    val downloaded = (totalDownload - lastTotalDownload).coerceAtLeast(0) / 2
-                    val uploaded = (totalUpload - lastTotalUpload).coerceAtLeast(0) / 2
-                    val downloadSpeed = (downloaded / elapsedSeconds).roundToLong()
-                    val uploadSpeed = (uploaded / elapsedSeconds).roundToLong()
-
-                    sessionDownloaded += downloaded
-                    sessionUploaded += uploaded
-
-                    val sessionTimeSeconds = (timestamp - sessionStart).toInt() / 1000
-                    trafficStatus.value = TrafficUpdate(downloadSpeed, uploadSpeed, sessionDownloaded,
-                            sessionUploaded, sessionTimeSeconds)
-
-                    lastTotalDownload = totalDownload
-                    lastTotalUpload = totalUpload
-                    lastTimestamp = timestamp
+                    sample()
+                    historyUpdates.tryEmit(history)
+                    mainHandler.post(publishUpdate)
                 }
             }
         }
     }
 
+    private fun publishUpdate() {
+        // Skip samples that were posted before updates stopped.
+        if (updateJob == null)
+            return
+        synchronized(history) {
+            val sessionTimeSeconds = (lastSampleTime - sessionStart).toInt() / 1000
+            update.set(history.rateIn, history.rateOut, sessionDownloaded, sessionUploaded, sessionTimeSeconds)
+        }
+        trafficStatus.value = update
+    }
+
+    private fun sample() = synchronized(history) {
+        val timestamp = now()
+
+        // Speeds need to be divided by two due to TrafficStats calculating both phone and VPN
+        // interfaces which leads to doubled data. NetworkStatsManager may have solved this
+        // problem but is only available from marshmallow.
+        val totalDownload = TrafficStats.getTotalRxBytes()
+        val totalUpload = TrafficStats.getTotalTxBytes()
+        sessionDownloaded += (totalDownload - lastTotalDownload).coerceAtLeast(0) / 2
+        sessionUploaded += (totalUpload - lastTotalUpload).coerceAtLeast(0) / 2
+        lastTotalDownload = totalDownload
+        lastTotalUpload = totalUpload
+
+        history.add(sessionDownloaded, sessionUploaded, timestamp)
+        lastSampleTime = timestamp
+    }
+
     private fun stopUpdateJob() {
         updateJob?.cancel()
         updateJob = null
+        mainHandler.removeCallbacks(publishUpdate)
     }
 
     private fun stateChanged(state: VpnState) {
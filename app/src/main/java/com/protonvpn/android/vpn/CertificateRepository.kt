@@ -23,6 +23,7 @@ import android.content.Context
 import androidx.core.content.edit
 import androidx.security.crypto.EncryptedSharedPreferences
 import androidx.security.crypto.MasterKeys
+import com.protonvpn.android.ProtonApplication
 import com.protonvpn.android.api.ProtonApiRetroFit
 import com.protonvpn.android.models.config.UserData
 import com.protonvpn.android.utils.ProtonLogger
@@ -31,6 +32,7 @@ import com.protonvpn.android.utils.UserPlanManager
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.async
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.launch
@@ -45,6 +47,9 @@ import java.util.concurrent.TimeUnit
 
 private const val MAX_REFRESH_COUNT = 2
 private val MIN_REFRESH_DELAY = TimeUnit.SECONDS.toMillis(30)
+// Refresh a bit before the refresh time suggested by the API so that a connection started around that time
+// doesn't have to wait for the new certificate.
+private val REFRESH_AHEAD = TimeUnit.MINUTES.toMillis(5)
 
 @Serializable
 data class CertInfo(
@@ -80,7 +85,17 @@ class CertificateRepository(
 
     private val certRequests = mutableMapOf<SessionId, Deferred<CertificateResult>>()
 
-    private val guestX25519Key by lazy { ed25519.KeyPair().toX25519Base64() }
+    // Decrypted CertInfo of each session, certPrefs is only read once per session.
+    private val certCache = mutableMapOf<SessionId, CertInfo>()
+
+    // Key pair generated ahead of time so that generateNewKey doesn't wait for key generation.
+    private var spareKey: Deferred<CertInfo>? = null
+
+    // The Go bridge may still be loading in the background, ed25519 is only used after awaitNativeLibraries().
+    private val guestX25519Key by lazy {
+        ProtonApplication.awaitNativeLibraries()
+        ed25519.KeyPair().toX25519Base64()
+    }
 
     private val refreshCertTask = ReschedulableTask(mainScope, wallClock) {
         updateCurrentCert(force = false)
@@ -110,15 +125,31 @@ class CertificateRepository(
         refreshCertTask.scheduleTo(time)
     }
 
+    private fun proactiveRefreshTime(refreshAt: Long) =
+        (refreshAt - REFRESH_AHEAD).coerceAtLeast(wallClock() + MIN_REFRESH_DELAY)
+
     private fun setInfo(sessionId: SessionId, info: CertInfo) {
+        certCache[sessionId] = info
         certPrefs.edit {
             putString(sessionId.id, info.serialize())
         }
     }
 
-    suspend fun generateNewKey(sessionId: SessionId): CertInfo = withContext(mainScope.coroutineContext) {
+    private fun generateSpareKey() = mainScope.async(Dispatchers.Default) {
+        ProtonApplication.awaitNativeLibraries()
         val keyPair = ed25519.KeyPair()
-        val info = CertInfo(keyPair.privateKeyPKIXPem(), keyPair.publicKeyPKIXPem(), keyPair.toX25519Base64())
+        CertInfo(keyPair.privateKeyPKIXPem(), keyPair.publicKeyPKIXPem(), keyPair.toX25519Base64())
+    }
+
+    private fun ensureSpareKey() {
+        if (spareKey == null)
+            spareKey = generateSpareKey()
+    }
+
+    suspend fun generateNewKey(sessionId: SessionId): CertInfo = withContext(mainScope.coroutineContext) {
+        val key = spareKey ?: generateSpareKey()
+        spareKey = generateSpareKey()
+        val info = key.await()
 
         certRequests.remove(sessionId)?.cancel()
         setInfo(sessionId, info)
@@ -131,11 +162,13 @@ class CertificateRepository(
     private fun updateCurrentCert(force: Boolean) {
         mainScope.launch {
             userData.sessionId?.let {
+                ensureSpareKey()
                 val certInfo = getCertInfo(it)
-                if (force || certInfo.certificatePem == null || wallClock() >= certInfo.refreshAt)
+                val refreshTime = certInfo.refreshAt - REFRESH_AHEAD
+                if (force || certInfo.certificatePem == null || wallClock() >= refreshTime)
                     updateCertificate(it, cancelOngoing = force)
                 else
-                    refreshCertTask.scheduleTo(certInfo.refreshAt)
+                    refreshCertTask.scheduleTo(refreshTime)
             }
         }
     }
@@ -163,7 +196,7 @@ class CertificateRepository(
                             setInfo(sessionId, newInfo)
                             ProtonLogger.log("New certificate expires at: " + Date(cert.expirationTimeMs))
                             if (sessionId == userData.sessionId)
-                                rescheduleRefreshTo(cert.refreshTimeMs)
+                                rescheduleRefreshTo(proactiveRefreshTime(cert.refreshTimeMs))
                             CertificateResult.Success(cert.certificate, info.privateKeyPem)
                         }
                         is ApiResult.Error -> {
@@ -193,13 +226,15 @@ class CertificateRepository(
             }
         }
 
-    suspend fun getCertInfo(sessionId: SessionId) =
-        certPrefs.getString(sessionId.id, null)?.deserialize() ?: run {
-            generateNewKey(sessionId)
+    suspend fun getCertInfo(sessionId: SessionId): CertInfo = withContext(mainScope.coroutineContext) {
+        certCache[sessionId] ?: run {
+            val stored: CertInfo? = certPrefs.getString(sessionId.id, null)?.deserialize()
+            stored?.also { certCache[sessionId] = it } ?: generateNewKey(sessionId)
         }
+    }
 
     suspend fun getX25519Key(sessionId: SessionId?): String =
-        sessionId?.let { getCertInfo(it).x25519Base64 } ?: guestX25519Key
+        sessionId?.let { getCertInfo(it).x25519Base64 } ?: withContext(Dispatchers.Default) { guestX25519Key }
 
     suspend fun getCertificate(sessionId: SessionId, cancelOngoing: Boolean = false): CertificateResult =
         withContext(mainScope.coroutineContext) {
@@ -212,6 +247,7 @@ class CertificateRepository(
 
     suspend fun clear(sessionId: SessionId) = withContext(mainScope.coroutineContext) {
         certRequests.remove(sessionId)?.cancel()
+        certCache.remove(sessionId)
         certPrefs.edit {
             remove(sessionId.id)
         }
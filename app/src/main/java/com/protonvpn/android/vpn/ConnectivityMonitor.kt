@@ -22,6 +22,7 @@ import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
 import android.net.ConnectivityManager
+import android.net.LinkProperties
 import android.net.Network
 import android.net.NetworkCapabilities
 import android.net.NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL
@@ -44,6 +45,9 @@ import android.net.NetworkCapabilities.NET_CAPABILITY_TRUSTED
 import android.net.NetworkCapabilities.NET_CAPABILITY_VALIDATED
 import android.net.NetworkCapabilities.NET_CAPABILITY_WIFI_P2P
 import android.net.NetworkCapabilities.NET_CAPABILITY_XCAP
+import android.net.NetworkCapabilities.TRANSPORT_CELLULAR
+import android.net.NetworkCapabilities.TRANSPORT_ETHERNET
+import android.net.NetworkCapabilities.TRANSPORT_WIFI
 import android.os.Build
 import androidx.annotation.RequiresApi
 import com.protonvpn.android.utils.AndroidUtils.registerBroadcastReceiver
@@ -51,9 +55,11 @@ import com.protonvpn.android.utils.ProtonLogger
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.launch
+import java.security.MessageDigest
 import javax.inject.Singleton
 
 private const val NOT_VPN = "NOT_VPN"
+private const val LINK_ID_BYTES = 8
 
 @Singleton
 class ConnectivityMonitor(
@@ -61,7 +67,7 @@ class ConnectivityMonitor(
     context: Context
 ) {
 
-    private var currentCapabilities: Map<String, Boolean> = LinkedHashMap()
+    @Volatile private var currentCapabilities: Map<String, Boolean> = LinkedHashMap()
 
     val networkCapabilitiesFlow = MutableSharedFlow<Map<String, Boolean>>()
 
@@ -69,6 +75,17 @@ class ConnectivityMonitor(
     // be hard-jailed for example) - for that use VpnStateMonitor
     val vpnActive get() = currentCapabilities[NOT_VPN] == false
 
+    @Volatile private var currentTransport: Int? = null
+    @Volatile private var currentLinkId: String? = null
+
+    // Opaque identifier of the current underlying network that stays the same when reconnecting to the same network
+    // (e.g. the same Wi-Fi). Null when unknown or when the default network is the VPN tunnel.
+    val networkId: String?
+        get() {
+            val linkId = currentLinkId
+            return if (vpnActive || linkId == null) null else "$currentTransport:$linkId"
+        }
+
     private val capabilitiesConstantMap = mutableMapOf(
         "MMS" to NET_CAPABILITY_MMS,
         "SUPL" to NET_CAPABILITY_SUPL,
@@ -104,6 +121,8 @@ class ConnectivityMonitor(
             val diffMap = capabilitiesConstantMap.mapValues {
                 networkCapabilities.hasCapability(it.value)
             }
+            currentTransport = listOf(TRANSPORT_WIFI, TRANSPORT_ETHERNET, TRANSPORT_CELLULAR)
+                .firstOrNull { networkCapabilities.hasTransport(it) }
             if (currentCapabilities != diffMap) {
                 coroutineScope.launch {
                     networkCapabilitiesFlow.emit(diffMap)
@@ -112,6 +131,10 @@ class ConnectivityMonitor(
             }
         }
 
+        override fun onLinkPropertiesChanged(network: Network, linkProperties: LinkProperties) {
+            currentLinkId = linkId(linkProperties)
+        }
+
         override fun onLosing(network: Network, maxMsToLive: Int) {
             ProtonLogger.log("Loosing network ($maxMsToLive)")
         }
@@ -125,10 +148,31 @@ class ConnectivityMonitor(
         }
 
         override fun onLost(network: Network) {
+            currentLinkId = null
             ProtonLogger.log("Network lost")
         }
     }
 
+    // Hash of the properties that tell networks apart. It's used for caching per network, so it's a 64-bit
+    // SHA-256 prefix rather than hashCode(), with which different networks collide often enough to matter.
+    private fun linkId(linkProperties: LinkProperties): String {
+        val gateways = linkProperties.routes.filter { it.isDefaultRoute }.mapNotNull { it.gateway?.hostAddress }
+        val dnsServers = linkProperties.dnsServers.map { it.hostAddress }
+        val privateDns =
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) linkProperties.privateDnsServerName else null
+        val nat64Prefix = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) linkProperties.nat64Prefix else null
+        val description = listOf(
+            linkProperties.interfaceName,
+            gateways.sorted(),
+            dnsServers.sorted(),
+            linkProperties.domains,
+            privateDns,
+            nat64Prefix
+        ).joinToString("|")
+        val digest = MessageDigest.getInstance("SHA-256").digest(description.toByteArray())
+        return digest.take(LINK_ID_BYTES).joinToString("") { "%02x".format(it) }
+    }
+
     init {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             val cm = context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2021. Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.protonvpn.android.vpn
+
+/**
+ * Sits between logcat and the app log for the native charon and WireGuard logs, so their chatter can't crowd out
+ * the app's own log lines.
+ *
+ * Lines in logcat's "tag" format ("D/charon: message") are grouped by tag. Each tag has a token bucket of
+ * [burst] lines refilled at [linesPerSecond], lines over the limit are dropped and counted. A line equal to the
+ * previous one of its tag is not forwarded; the N repeats are reported as a single line ending in "(xN)" once a
+ * different line arrives, or on [flush] when the run is older than [REPEAT_SUMMARY_DELAY_MS]. Lines are forwarded
+ * to [output] in batches of up to [batchSize].
+ *
+ * Calls are made from the capturing thread, only [getStats] may be called from others.
+ */
+class LogcatIngestion(
+    private val clock: () -> Long,
+    private val linesPerSecond: Int = 20,
+    private val burst: Int = 200,
+    private val batchSize: Int = 64,
+    private val output: (List<String>) -> Unit
+) {
+    data class SourceStats(val lines: Long, val forwarded: Long, val collapsed: Long, val rateLimited: Long) {
+        override fun toString() =
+            "$lines lines, $forwarded forwarded, $collapsed collapsed, $rateLimited dropped by rate limit"
+    }
+
+    private class Source(val tag: String, var tokens: Double, var refilledAt: Long) {
+        var lines = 0L
+        var forwarded = 0L
+        var collapsed = 0L
+        var rateLimited = 0L
+
+        var lastLevel = ' '
+        var lastMessage: String? = null
+        var repeats = 0
+        var repeatsSince = 0L
+        var droppedSinceReport = 0
+    }
+
+    private val sources = HashMap<String, Source>()
+    private val pending = ArrayList<String>(batchSize)
+
+    @Synchronized
+    fun add(line: String) {
+        val level: Char
+        val tag: String
+        val message: String
+        val tagEnd = line.indexOf(": ")
+        if (line.length >= 2 && line[1] == '/' && tagEnd > 2) {
+            level = line[0]
+            tag = line.substring(2, tagEnd).trimEnd()
+            message = line.substring(tagEnd + 2)
+        } else {
+            level = '?'
+            tag = UNKNOWN_TAG
+            message = line
+        }
+
+        val now = clock()
+        val source = sources.getOrPut(tag) { Source(tag, burst.toDouble(), now) }
+        source.lines++
+        if (level == source.lastLevel && message == source.lastMessage) {
+            if (source.repeats++ == 0)
+                source.repeatsSince = now
+            source.collapsed++
+            return
+        }
+        reportRepeats(source)
+
+        if (!takeToken(source, now)) {
+            source.rateLimited++
+            source.droppedSinceReport++
+            source.lastMessage = null
+            return
+        }
+        if (source.droppedSinceReport > 0) {
+            forward("${source.tag}: lines dropped, logging too fast (x${source.droppedSinceReport})")
+            source.droppedSinceReport = 0
+        }
+        source.lastLevel = level
+        source.lastMessage = message
+        source.forwarded++
+        forward("$level/$tag: $message")
+    }
+
+    /**
+     * Forwards the pending lines, call when no more input is immediately available. With [end] all runs of repeats
+     * and dropped lines are reported.
+     */
+    @Synchronized
+    fun flush(end: Boolean = false) {
+        val now = clock()
+        sources.values.forEach { source ->
+            if (end || source.repeats > 0 && now - source.repeatsSince >= REPEAT_SUMMARY_DELAY_MS)
+                reportRepeats(source)
+            if (end && source.droppedSinceReport > 0) {
+                forward("${source.tag}: lines dropped, logging too fast (x${source.droppedSinceReport})")
+                source.droppedSinceReport = 0
+            }
+        }
+        if (pending.isNotEmpty()) {
+            output(ArrayList(pending))
+            pending.clear()
+        }
+    }
+
+    @Synchronized
+    fun getStats(): Map<String, SourceStats> =
+        sources.mapValues { (_, s) -> SourceStats(s.lines, s.forwarded, s.collapsed, s.rateLimited) }
+
+    private fun reportRepeats(source: Source) {
+        if (source.repeats > 0) {
+            forward("${source.lastLevel}/${source.tag}: ${source.lastMessage} (x${source.repeats})")
+            source.repeats = 0
+        }
+    }
+
+    private fun takeToken(source: Source, now: Long): Boolean {
+        source.tokens = minOf(burst.toDouble(), source.tokens + (now - source.refilledAt) * linesPerSecond / 1000.0)
+        source.refilledAt = now
+        if (source.tokens < 1) return false
+        source.tokens -= 1
+        return true
+    }
+
+    private fun forward(line: String) {
+        pending += line
+        if (pending.size >= batchSize) {
+            output(ArrayList(pending))
+            pending.clear()
+        }
+    }
+
+    companion object {
+        const val REPEAT_SUMMARY_DELAY_MS = 5_000L
+        private const val UNKNOWN_TAG = "logcat"
+    }
+}
@@ -22,10 +22,9 @@ import com.protonvpn.android.models.config.VpnProtocol
 import com.protonvpn.android.models.profiles.Profile
 import com.protonvpn.android.models.profiles.ServerDeliver
 import com.protonvpn.android.models.vpn.Server
-import com.protonvpn.android.utils.AndroidUtils.whenNotNullNorEmpty
-import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.coroutineScope
-import me.proton.core.util.kotlin.mapAsync
+import kotlinx.coroutines.launch
 import com.protonvpn.android.utils.ProtonLogger
 
 class ProtonVpnBackendProvider(
@@ -51,32 +50,45 @@ class ProtonVpnBackendProvider(
         }.firstOrNull()
     }
 
+    // Servers are pinged with all protocols in parallel but only the preference order decides: as soon as any
+    // protocol responds for a server and all preferred servers have failed the result is returned, remaining pings
+    // are cancelled and servers without a response yet are reported as skipped.
     override suspend fun pingAll(
         preferenceList: List<PhysicalServer>,
         fullScanServer: PhysicalServer?
-    ): VpnBackendProvider.PingResult? {
-        val responses = coroutineScope {
-            preferenceList.mapAsync { server ->
-                val profile = Profile.getTempProfile(server.server, serverDeliver)
-                val portsLimit = if (server === fullScanServer) Int.MAX_VALUE else PING_ALL_MAX_PORTS
-                val strongSwanResponse = async {
-                    strongSwan.prepareForConnection(profile, server.server, true, portsLimit)
+    ): VpnBackendProvider.PingResult? = coroutineScope {
+        val backends = listOf(strongSwan, openVpn)
+        val responses = Channel<Pair<Int, List<PrepareResult>>>(Channel.UNLIMITED)
+        val pings = preferenceList.flatMapIndexed { index, server ->
+            val profile = Profile.getTempProfile(server.server, serverDeliver)
+            val portsLimit = if (server === fullScanServer) Int.MAX_VALUE else PING_ALL_MAX_PORTS
+            backends.map { backend ->
+                launch {
+                    responses.send(index to backend.prepareForConnection(profile, server.server, true, portsLimit))
                 }
-                val openVpnResponse = async {
-                    openVpn.prepareForConnection(profile, server.server, true, portsLimit)
-                }
-                val responses = strongSwanResponse.await() + openVpnResponse.await()
-                server to responses
-            }.toMap()
+            }
         }
 
-        preferenceList.forEach { server ->
-            val serverResponses = responses[server]
-            serverResponses.whenNotNullNorEmpty { responses ->
-                return VpnBackendProvider.PingResult(responses.first().connectionParams.profile, server, responses)
+        val found = arrayOfNulls<List<PrepareResult>>(preferenceList.size)
+        val pending = IntArray(preferenceList.size) { backends.size }
+        var next = 0
+        var result: VpnBackendProvider.PingResult? = null
+        while (result == null && next < preferenceList.size) {
+            val (index, prepared) = responses.receive()
+            pending[index]--
+            if (prepared.isNotEmpty() && found[index] == null)
+                found[index] = prepared
+            while (next < preferenceList.size && found[next] == null && pending[next] == 0)
+                next++
+            val winner = found.getOrNull(next)
+            if (winner != null) {
+                val skipped = preferenceList.filterIndexed { i, _ -> i > next && found[i] == null && pending[i] > 0 }
+                result = VpnBackendProvider.PingResult(
+                    winner.first().connectionParams.profile, preferenceList[next], winner, skipped)
             }
         }
-        return null
+        pings.forEach { it.cancel() }
+        result
     }
 
     companion object {
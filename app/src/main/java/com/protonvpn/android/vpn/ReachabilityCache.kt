@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.android.vpn
+
+import com.protonvpn.android.models.config.TransmissionProtocol
+import com.protonvpn.android.models.config.VpnProtocol
+import com.protonvpn.android.utils.NetUtils
+import com.protonvpn.android.utils.PortScanner
+import com.protonvpn.android.utils.ProtonLogger
+import com.protonvpn.android.utils.Storage
+import kotlinx.coroutines.flow.firstOrNull
+import kotlinx.coroutines.flow.onEach
+import java.util.concurrent.TimeUnit
+
+/**
+ * Remembers which server ports were reachable from which network, so that scanning on a known network can try the
+ * port that worked last time with a single probe and skip ports that are known to be blocked.
+ */
+class ReachabilityCache(
+    private val connectivityMonitor: ConnectivityMonitor,
+    private val now: () -> Long,
+    private val portScanner: PortScanner = NetUtils.portScanner,
+    private val persist: Boolean = true
+) {
+    data class Entry(val success: Boolean, val timestamp: Long, val rttMs: Long)
+
+    private class Entries(val entries: HashMap<String, Entry>)
+
+    private val entries: HashMap<String, Entry> by lazy {
+        (if (persist) Storage.load(Entries::class.java)?.entries else null) ?: HashMap()
+    }
+
+    /**
+     * Finds a port from [ports] that responds to [pingData]. The port that last responded on the current network is
+     * probed first, when it doesn't respond ports selected by [selectPorts] from the ones not known to be blocked are
+     * scanned in parallel. If all other ports are known to be blocked they are scanned anyway.
+     */
+    suspend fun findReachablePort(
+        ip: String,
+        protocol: VpnProtocol,
+        transmission: TransmissionProtocol,
+        ports: List<Int>,
+        pingData: ByteArray,
+        selectPorts: (List<Int>) -> Collection<Int> = { it }
+    ): Int? {
+        val networkId = connectivityMonitor.networkId
+        val cachedPort = networkId?.let { getCachedPort(it, ip, protocol, transmission, ports) }
+        if (cachedPort != null) {
+            ProtonLogger.log("Probing last reachable port $ip:$cachedPort ($protocol $transmission)")
+            val result = scan(networkId, ip, protocol, transmission, listOf(cachedPort), pingData)
+            if (result != null)
+                return result
+        }
+
+        val otherPorts = ports.filter { it != cachedPort }
+        val unblocked = otherPorts.filter { port ->
+            networkId == null || !isBlocked(networkId, ip, protocol, transmission, port)
+        }
+        // Failures may have been temporary, when all ports are known to be blocked they are all tried again.
+        val candidates = unblocked.ifEmpty { otherPorts }
+        return scan(networkId, ip, protocol, transmission, selectPorts(candidates), pingData)
+    }
+
+    private suspend fun scan(
+        networkId: String?,
+        ip: String,
+        protocol: VpnProtocol,
+        transmission: TransmissionProtocol,
+        ports: Collection<Int>,
+        pingData: ByteArray
+    ): Int? {
+        if (ports.isEmpty())
+            return null
+        val tcp = transmission == TransmissionProtocol.TCP
+        var changed = false
+        val result = portScanner.scan(ports.map { PortScanner.Probe(ip, it, pingData, tcp) })
+            .onEach {
+                if (networkId != null &&
+                    record(networkId, ip, protocol, transmission, it.probe.port, it.success, it.rttMs))
+                    changed = true
+            }
+            .firstOrNull { it.success }
+        if (changed)
+            save()
+        return result?.probe?.port
+    }
+
+    @Synchronized
+    private fun getCachedPort(
+        networkId: String,
+        ip: String,
+        protocol: VpnProtocol,
+        transmission: TransmissionProtocol,
+        ports: List<Int>
+    ): Int? = ports
+        .mapNotNull { port ->
+            getValid(key(networkId, ip, protocol, transmission, port))?.takeIf { it.success }?.let { port to it }
+        }
+        .minByOrNull { (_, entry) -> entry.rttMs }
+        ?.first
+
+    @Synchronized
+    private fun isBlocked(
+        networkId: String,
+        ip: String,
+        protocol: VpnProtocol,
+        transmission: TransmissionProtocol,
+        port: Int
+    ) = getValid(key(networkId, ip, protocol, transmission, port))?.success == false
+
+    // Returns true when the entry changed in a way that needs saving.
+    @Synchronized
+    private fun record(
+        networkId: String,
+        ip: String,
+        protocol: VpnProtocol,
+        transmission: TransmissionProtocol,
+        port: Int,
+        success: Boolean,
+        rttMs: Long
+    ): Boolean {
+        val time = now()
+        val previous = entries.put(key(networkId, ip, protocol, transmission, port), Entry(success, time, rttMs))
+        // Refreshed timestamps and RTTs aren't worth rewriting the file for, they are saved with the next change.
+        return previous == null || isExpired(previous, time) || previous.success != success
+    }
+
+    @Synchronized
+    private fun save() {
+        val time = now()
+        entries.values.removeAll { isExpired(it, time) }
+        if (entries.size > MAX_ENTRIES) {
+            entries.entries.sortedBy { it.value.timestamp }.take(entries.size - MAX_ENTRIES)
+                .forEach { entries.remove(it.key) }
+        }
+        if (persist)
+            Storage.save(Entries(entries))
+    }
+
+    private fun getValid(key: String) = entries[key]?.takeIf { !isExpired(it, now()) }
+
+    private fun isExpired(entry: Entry, time: Long) =
+        time - entry.timestamp > if (entry.success) SUCCESS_TTL_MS else FAILURE_TTL_MS
+
+    private fun key(
+        networkId: String,
+        ip: String,
+        protocol: VpnProtocol,
+        transmission: TransmissionProtocol,
+        port: Int
+    ) = "$networkId|$ip|$protocol|$transmission|$port"
+
+    companion object {
+        private val SUCCESS_TTL_MS = TimeUnit.DAYS.toMillis(1)
+        private val FAILURE_TTL_MS = TimeUnit.MINUTES.toMillis(30)
+        private const val MAX_ENTRIES = 500
+    }
+}
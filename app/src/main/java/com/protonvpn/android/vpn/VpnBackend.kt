@@ -22,6 +22,7 @@ import androidx.annotation.CallSuper
 import androidx.annotation.VisibleForTesting
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
+import com.protonvpn.android.ProtonApplication
 import com.protonvpn.android.appconfig.AppConfig
 import com.protonvpn.android.models.config.UserData
 import com.protonvpn.android.models.config.VpnProtocol
@@ -31,10 +32,13 @@ import com.protonvpn.android.models.vpn.Server
 import com.protonvpn.android.utils.Constants
 import com.protonvpn.android.utils.ProtonLogger
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import kotlinx.coroutines.withTimeoutOrNull
 import kotlinx.coroutines.yield
 import localAgent.AgentConnection
@@ -42,6 +46,9 @@ import localAgent.Features
 import localAgent.NativeClient
 import me.proton.core.network.domain.NetworkManager
 import me.proton.core.network.domain.NetworkStatus
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.Socket
 
 data class RetryInfo(val timeoutSeconds: Int, val retryInSeconds: Int)
 
@@ -50,10 +57,17 @@ data class PrepareResult(val backend: VpnBackend, val connectionParams: Connecti
 interface VpnBackendProvider {
     suspend fun prepareConnection(protocol: VpnProtocol, profile: Profile, server: Server): PrepareResult?
 
-    // Returns first from [preferenceList] that responded in a given time frame or null
+    // Returns first from [preferenceList] that responded in a given time frame or null, doesn't wait for servers
+    // further down the list once a preferred one responded.
     // [fullScanServer] when set will have all ports scanned.
     suspend fun pingAll(preferenceList: List<PhysicalServer>, fullScanServer: PhysicalServer? = null): PingResult?
-    data class PingResult(val profile: Profile, val physicalServer: PhysicalServer, val responses: List<PrepareResult>)
+    // [skippedServers] are servers from [preferenceList] that were still being pinged when the result was chosen.
+    data class PingResult(
+        val profile: Profile,
+        val physicalServer: PhysicalServer,
+        val responses: List<PrepareResult>,
+        val skippedServers: List<PhysicalServer> = emptyList()
+    )
 }
 
 interface AgentConnectionInterface {
@@ -83,6 +97,9 @@ abstract class VpnBackend(
 
     @CallSuper
     open suspend fun connect(connectionParams: ConnectionParams) {
+        // Native libraries are loaded in the background on startup.
+        if (!ProtonApplication.areVpnLibrariesReady())
+            withContext(Dispatchers.IO) { ProtonApplication.awaitVpnLibraries() }
         closeAgentConnection()
         lastConnectionParams = connectionParams
     }
@@ -201,8 +218,15 @@ abstract class VpnBackend(
     private var agent: AgentConnectionInterface? = null
     private var agentConnectionJob: Job? = null
     private var reconnectionJob: Job? = null
-    private val features: Features = Features()
-    private val agentConstants = localAgent.LocalAgent.constants()
+    // Go bridge classes, the library may still be loading when the backend is created.
+    private val features: Features by lazy {
+        ProtonApplication.awaitNativeLibraries()
+        Features()
+    }
+    private val agentConstants by lazy {
+        ProtonApplication.awaitNativeLibraries()
+        localAgent.LocalAgent.constants()
+    }
 
     init {
         mainScope.launch {
@@ -320,20 +344,46 @@ abstract class VpnBackend(
         if (agent == null && agentConnectionJob == null) {
             val hostname = lastConnectionParams?.connectingDomain?.entryDomain
             agentConnectionJob = mainScope.launch {
+                val tunnelReady = async { awaitTunnelReady() }
                 val certInfo = certificateRepository.getCertificate(userData.sessionId!!)
                 if (certInfo is CertificateRepository.CertificateResult.Success) {
-                    // Tunnel needs a moment to become functional
-                    delay(500)
+                    tunnelReady.await()
 
                     prepareFeaturesForAgentConnection()
                     agent = createAgentConnection(certInfo, hostname, createNativeClient())
                 } else {
+                    tunnelReady.cancel()
                     setLocalAgentError("Failed to get wireguard certificate")
                 }
             }
         }
     }
 
+    // The tunnel needs a moment to become functional after it is reported as up. Wait until the local agent
+    // accepts TCP connections through it instead of guessing how long that takes.
+    protected open suspend fun awaitTunnelReady() {
+        val start = System.currentTimeMillis()
+        val ready = withTimeoutOrNull(TUNNEL_READY_TIMEOUT) {
+            while (!isLocalAgentReachable())
+                delay(TUNNEL_PROBE_RETRY_DELAY)
+            true
+        }
+        ProtonLogger.log(
+            if (ready == true) "Tunnel ready after ${System.currentTimeMillis() - start} ms"
+            else "Tunnel not ready after $TUNNEL_READY_TIMEOUT ms, connecting to local agent anyway")
+    }
+
+    private suspend fun isLocalAgentReachable() = withContext(Dispatchers.IO) {
+        try {
+            Socket().use {
+                it.connect(InetSocketAddress(LOCAL_AGENT_HOST, LOCAL_AGENT_PORT), TUNNEL_PROBE_TIMEOUT)
+            }
+            true
+        } catch (e: IOException) {
+            false
+        }
+    }
+
     private fun closeAgentConnection() {
         reconnectionJob?.cancel()
         agentConnectionJob?.cancel()
@@ -355,6 +405,11 @@ abstract class VpnBackend(
 
     companion object {
         private const val DISCONNECT_WAIT_TIMEOUT = 3000L
+        private const val TUNNEL_READY_TIMEOUT = 5000L
+        private const val TUNNEL_PROBE_TIMEOUT = 1000
+        private const val TUNNEL_PROBE_RETRY_DELAY = 50L
+        private val LOCAL_AGENT_HOST = Constants.LOCAL_AGENT_ADDRESS.substringBefore(':')
+        private val LOCAL_AGENT_PORT = Constants.LOCAL_AGENT_ADDRESS.substringAfter(':').toInt()
         private const val FEATURES_NETSHIELD = "netshield-level"
         private const val FEATURES_SPLIT_TCP = "split-tcp"
         private const val FEATURES_BOUNCING = "bouncing"
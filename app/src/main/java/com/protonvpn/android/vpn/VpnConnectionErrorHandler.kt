@@ -20,6 +20,7 @@
 package com.protonvpn.android.vpn
 
 import android.content.Context
+import androidx.annotation.VisibleForTesting
 import com.protonvpn.android.api.ProtonApiRetroFit
 import com.protonvpn.android.appconfig.AppConfig
 import com.protonvpn.android.models.config.UserData
@@ -200,6 +201,9 @@ class VpnConnectionErrorHandler(
             ProtonLogger.log("No server responded")
             return null
         }
+        pingResult.skippedServers.forEach {
+            ProtonLogger.log("Skipped pinging fallback server: ${it.connectingDomain.entryDomain}")
+        }
 
         // Original server + protocol responded, don't switch
         if (
@@ -249,7 +253,8 @@ class VpnConnectionErrorHandler(
         }
     }
 
-    private fun getCandidateServers(
+    @VisibleForTesting
+    fun getCandidateServers(
         orgProfile: Profile,
         orgPhysicalServer: PhysicalServer?,
         includeOrgServer: Boolean
@@ -39,6 +39,10 @@ class VpnLogCapture(appComponent: AppComponent, val monoClock: () -> Long) {
     @Inject lateinit var mainScope: CoroutineScope
     @Inject lateinit var dispatcherProvider: DispatcherProvider
 
+    private val ingestion = LogcatIngestion(monoClock) { ProtonLogger.log(it) }
+
+    val stats: Map<String, LogcatIngestion.SourceStats> get() = ingestion.getStats()
+
     init {
         appComponent.inject(this)
     }
@@ -54,21 +58,28 @@ class VpnLogCapture(appComponent: AppComponent, val monoClock: () -> Long) {
             val start = monoClock()
             try {
                 val process = Runtime.getRuntime().exec(
-                    "logcat -s WireGuard/GoBackend/${Constants.WIREGUARD_TUNNEL_NAME}:* charon:* -T 1 -v raw"
+                    "logcat -s WireGuard/GoBackend/${Constants.WIREGUARD_TUNNEL_NAME}:* charon:* -T 1 -v tag"
                 )
-                BufferedReader(InputStreamReader(process.inputStream)).useLines { lines ->
-                    lines.forEach {
-                        ProtonLogger.log(it)
+                BufferedReader(InputStreamReader(process.inputStream)).use { reader ->
+                    while (true) {
+                        val line = reader.readLine() ?: break
+                        ingestion.add(line)
+                        // Lines that logcat writes together are forwarded together.
+                        if (!reader.ready())
+                            ingestion.flush()
                     }
                 }
+                ingestion.flush(end = true)
                 ProtonLogger.log("Logcat streaming ended")
             } catch (e: IOException) {
+                ingestion.flush(end = true)
                 ProtonLogger.log("Log capturing from logcat failed: ${e.message}")
             }
             // Avoid busy loop if capture fails early
             if (monoClock() - start < TimeUnit.MINUTES.toMillis(5))
                 delay(TimeUnit.MINUTES.toMillis(1))
             ProtonLogger.log("Restarting logcat capture")
+            stats.forEach { (tag, sourceStats) -> ProtonLogger.log("Logcat $tag: $sourceStats") }
         } while (true)
     }
 }
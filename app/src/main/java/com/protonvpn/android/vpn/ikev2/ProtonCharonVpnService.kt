@@ -22,6 +22,7 @@ package com.protonvpn.android.vpn.ikev2
 import android.app.Notification
 import android.content.Intent
 import android.net.VpnService
+import com.protonvpn.android.ProtonApplication
 import com.protonvpn.android.api.ProtonApiRetroFit
 import com.protonvpn.android.appconfig.AppConfig
 import com.protonvpn.android.components.NotificationHelper
@@ -49,6 +50,9 @@ class ProtonCharonVpnService : CharonVpnService() {
     @Inject lateinit var notificationHelper: NotificationHelper
 
     override fun onCreate() {
+        // Charon is initialized on its own thread once the service is bound, the libraries it needs may still be
+        // loading when the service is started on a cold start (e.g. by always-on VPN).
+        ProtonApplication.awaitVpnLibraries()
         super.onCreate()
 
         Log.i("[IKEv2] onCreate")
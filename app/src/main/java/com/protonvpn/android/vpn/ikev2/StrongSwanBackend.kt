@@ -25,16 +25,17 @@ import android.content.ServiceConnection
 import android.os.IBinder
 import com.protonvpn.android.ProtonApplication
 import com.protonvpn.android.appconfig.AppConfig
+import com.protonvpn.android.models.config.TransmissionProtocol
 import com.protonvpn.android.models.config.UserData
 import com.protonvpn.android.models.config.VpnProtocol
 import com.protonvpn.android.models.profiles.Profile
 import com.protonvpn.android.models.vpn.ConnectionParams
 import com.protonvpn.android.models.vpn.ConnectionParamsIKEv2
 import com.protonvpn.android.models.vpn.Server
-import com.protonvpn.android.utils.NetUtils
 import com.protonvpn.android.vpn.CertificateRepository
 import com.protonvpn.android.vpn.ErrorType
 import com.protonvpn.android.vpn.PrepareResult
+import com.protonvpn.android.vpn.ReachabilityCache
 import com.protonvpn.android.vpn.RetryInfo
 import com.protonvpn.android.vpn.VpnBackend
 import com.protonvpn.android.vpn.VpnState
@@ -56,7 +57,8 @@ class StrongSwanBackend(
     val now: () -> Long,
     userData: UserData,
     appConfig: AppConfig,
-    certificateRepository: CertificateRepository
+    certificateRepository: CertificateRepository,
+    private val reachabilityCache: ReachabilityCache
 ) : VpnBackend(
     userData,
     appConfig,
@@ -97,8 +99,8 @@ class StrongSwanBackend(
         return emptyList()
     }
 
-    private suspend fun isServerAvailable(ip: String) =
-        NetUtils.ping(ip, STRONGSWAN_PORT, getPingData(), tcp = false, timeout = 5000)
+    private suspend fun isServerAvailable(ip: String) = reachabilityCache.findReachablePort(
+        ip, VpnProtocol.IKEv2, TransmissionProtocol.UDP, listOf(STRONGSWAN_PORT), getPingData()) != null
 
     @Suppress("MagicNumber")
     private fun getPingData() = ByteArrayOutputStream().apply {
@@ -33,13 +33,12 @@ import com.protonvpn.android.models.vpn.Server
 import com.protonvpn.android.utils.Constants
 import com.protonvpn.android.utils.DebugUtils
 import com.protonvpn.android.utils.Log
-import com.protonvpn.android.utils.NetUtils
 import com.protonvpn.android.utils.ProtonLogger
 import com.protonvpn.android.utils.implies
-import com.protonvpn.android.utils.randomNullable
 import com.protonvpn.android.vpn.CertificateRepository
 import com.protonvpn.android.vpn.ErrorType
 import com.protonvpn.android.vpn.PrepareResult
+import com.protonvpn.android.vpn.ReachabilityCache
 import com.protonvpn.android.vpn.RetryInfo
 import com.protonvpn.android.vpn.VpnBackend
 import com.protonvpn.android.vpn.VpnState
@@ -64,7 +63,8 @@ class OpenVpnBackend(
     appConfig: AppConfig,
     val unixTime: () -> Long,
     certificateRepository: CertificateRepository,
-    mainScope: CoroutineScope
+    mainScope: CoroutineScope,
+    private val reachabilityCache: ReachabilityCache
 ) : VpnBackend(
     userData,
     appConfig,
@@ -114,20 +114,22 @@ class OpenVpnBackend(
         coroutineScope {
             val udpPingData = getPingData(tcp = false)
             val udpPort = async {
-                scanInParallel(
-                    samplePorts(openVpnPorts.getUdpPorts(), numberOfPorts),
+                findReachablePort(
+                    openVpnPorts.getUdpPorts(),
+                    numberOfPorts,
                     connectingDomain.entryIp,
                     udpPingData,
-                    withTcp = false)
+                    TransmissionProtocol.UDP)
             }
 
             val tcpPingData = getPingData(tcp = true)
             val tcpPort = async {
-                scanInParallel(
-                    samplePorts(openVpnPorts.getTcpPorts(), numberOfPorts),
+                findReachablePort(
+                    openVpnPorts.getTcpPorts(),
+                    numberOfPorts,
                     connectingDomain.entryIp,
                     tcpPingData,
-                    withTcp = true)
+                    TransmissionProtocol.TCP)
             }
 
             udpPort.await()?.let {
@@ -146,22 +148,15 @@ class OpenVpnBackend(
         else
             list.shuffled().take(count).toSet()
 
-    private suspend fun scanInParallel(
-        ports: Set<Int>,
+    // Returns the first port that responds, remaining probes are cancelled.
+    private suspend fun findReachablePort(
+        ports: List<Int>,
+        numberOfPorts: Int,
         ip: String,
         data: ByteArray,
-        withTcp: Boolean
-    ): Int? = coroutineScope {
-        val available = ports.map { port ->
-            async {
-                port.takeIf {
-                    NetUtils.ping(ip, port, data, withTcp)
-                }
-            }
-        }.mapNotNull {
-            it.await()
-        }
-        available.randomNullable()
+        transmission: TransmissionProtocol
+    ): Int? = reachabilityCache.findReachablePort(ip, vpnProtocol, transmission, ports, data) {
+        samplePorts(it, numberOfPorts)
     }
 
     private fun getPingData(tcp: Boolean): ByteArray {
@@ -67,7 +67,7 @@ public class IPRange implements Comparable<IPRange>
 		}
 	}
 
-	private IPRange(byte[] from, byte[] to)
+	IPRange(byte[] from, byte[] to)
 	{
 		mFrom = from;
 		mTo = to;
@@ -114,7 +114,7 @@ public class IPRange implements Comparable<IPRange>
 		this(base.getAddress(), prefix);
 	}
 
-	private IPRange(byte[] from, int prefix)
+	IPRange(byte[] from, int prefix)
 	{
 		initializeFromCIDR(from, prefix);
 	}
@@ -203,6 +203,16 @@ public class IPRange implements Comparable<IPRange>
 		}
 	}
 
+	byte[] getFromBytes()
+	{
+		return mFrom;
+	}
+
+	byte[] getToBytes()
+	{
+		return mTo;
+	}
+
 	/**
 	 * If this range is a proper subnet returns its prefix, otherwise returns null.
 	 */
@@ -15,19 +15,26 @@
 
 package org.strongswan.android.utils;
 
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.NoSuchElementException;
 
 /**
  * Class that represents a set of IP address ranges (not necessarily proper subnets) and allows
  * modifying the set and enumerating the resulting subnets.
+ *
+ * The ranges of each address family are kept as a sorted array of disjoint, non-adjacent
+ * [from, to] pairs, addresses being stored as two longs (IPv4 addresses in the lower one).
+ * Lookups are binary searches, merging two sets is a single pass over both arrays.
  */
 public class IPRangeSet implements Iterable<IPRange>
 {
-	private TreeSet<IPRange> mRanges = new TreeSet<>();
+	private final Ranges mIPv4 = new Ranges(4);
+	private final Ranges mIPv6 = new Ranges(16);
 
 	/**
 	 * Parse the given string (space separated ranges in CIDR or range notation) and return the
@@ -39,11 +46,12 @@ public class IPRangeSet implements Iterable<IPRange>
 		IPRangeSet set = new IPRangeSet();
 		if (ranges != null)
 		{
+			ArrayList<IPRange> parsed = new ArrayList<>();
 			for (String range : ranges.split("\\s+"))
 			{
 				try
 				{
-					set.add(new IPRange(range));
+					parsed.add(new IPRange(range));
 				}
 				catch (Exception unused)
 				{	/* besides due to invalid strings exceptions might get thrown if the string
@@ -51,6 +59,7 @@ public class IPRangeSet implements Iterable<IPRange>
 					return null;
 				}
 			}
+			set.addAll(parsed);
 		}
 		return set;
 	}
@@ -60,28 +69,10 @@ public class IPRangeSet implements Iterable<IPRange>
 	 */
 	public void add(IPRange range)
 	{
-		if (mRanges.contains(range))
-		{
-			return;
-		}
-		reinsert:
-		while (true)
-		{
-			Iterator<IPRange> iterator = mRanges.iterator();
-			while (iterator.hasNext())
-			{
-				IPRange existing = iterator.next();
-				IPRange replacement = existing.merge(range);
-				if (replacement != null)
-				{
-					iterator.remove();
-					range = replacement;
-					continue reinsert;
-				}
-			}
-			mRanges.add(range);
-			break;
-		}
+		Ranges ranges = family(range.getFromBytes());
+		long[] from = ranges.key(range.getFromBytes());
+		long[] to = ranges.key(range.getToBytes());
+		ranges.add(from[0], from[1], to[0], to[1]);
 	}
 
 	/**
@@ -93,21 +84,27 @@ public class IPRangeSet implements Iterable<IPRange>
 		{
 			return;
 		}
-		for (IPRange range : ranges.mRanges)
-		{
-			add(range);
-		}
+		mIPv4.union(ranges.mIPv4);
+		mIPv6.union(ranges.mIPv6);
 	}
 
 	/**
-	 * Add all ranges from the given collection to this set.
+	 * Add all ranges from the given collection to this set. The ranges are sorted and merged
+	 * before they are added, which is a lot cheaper than adding them one by one.
 	 */
 	public void addAll(Collection<? extends IPRange> coll)
 	{
-		for (IPRange range : coll)
+		ArrayList<IPRange> sorted = new ArrayList<>(coll);
+		Collections.sort(sorted);
+		IPRangeSet other = new IPRangeSet();
+		for (IPRange range : sorted)
 		{
-			add(range);
+			Ranges ranges = other.family(range.getFromBytes());
+			long[] from = ranges.key(range.getFromBytes());
+			long[] to = ranges.key(range.getToBytes());
+			ranges.append(from[0], from[1], to[0], to[1]);
 		}
+		add(other);
 	}
 
 	/**
@@ -115,23 +112,10 @@ public class IPRangeSet implements Iterable<IPRange>
 	 */
 	public void remove(IPRange range)
 	{
-		ArrayList <IPRange> additions = new ArrayList<>();
-		Iterator<IPRange> iterator = mRanges.iterator();
-		while (iterator.hasNext())
-		{
-			IPRange existing = iterator.next();
-			List<IPRange> result = existing.remove(range);
-			if (result.size() == 0)
-			{
-				iterator.remove();
-			}
-			else if (!result.get(0).equals(existing))
-			{
-				iterator.remove();
-				additions.addAll(result);
-			}
-		}
-		mRanges.addAll(additions);
+		Ranges ranges = family(range.getFromBytes());
+		long[] from = ranges.key(range.getFromBytes());
+		long[] to = ranges.key(range.getToBytes());
+		ranges.remove(from[0], from[1], to[0], to[1]);
 	}
 
 	/**
@@ -141,17 +125,39 @@ public class IPRangeSet implements Iterable<IPRange>
 	{
 		if (ranges == this)
 		{
-			mRanges.clear();
+			mIPv4.clear();
+			mIPv6.clear();
 			return;
 		}
-		for (IPRange range : ranges.mRanges)
-		{
-			remove(range);
-		}
+		mIPv4.difference(ranges.mIPv4);
+		mIPv6.difference(ranges.mIPv6);
 	}
 
 	/**
-	 * Get all the subnets derived from all the ranges in this set.
+	 * Check if the given address is contained in any of the ranges in this set.
+	 */
+	public boolean contains(InetAddress address)
+	{
+		byte[] bytes = address.getAddress();
+		Ranges ranges = family(bytes);
+		long[] key = ranges.key(bytes);
+		return ranges.contains(key[0], key[1], key[0], key[1]);
+	}
+
+	/**
+	 * Check if the given range is completely contained in a single range of this set.
+	 */
+	public boolean contains(IPRange range)
+	{
+		Ranges ranges = family(range.getFromBytes());
+		long[] from = ranges.key(range.getFromBytes());
+		long[] to = ranges.key(range.getToBytes());
+		return ranges.contains(from[0], from[1], to[0], to[1]);
+	}
+
+	/**
+	 * Get all the subnets derived from all the ranges in this set. The subnets are computed
+	 * while iterating, the only objects created are the returned subnets.
 	 */
 	public Iterable<IPRange> subnets()
 	{
@@ -162,24 +168,63 @@ public class IPRangeSet implements Iterable<IPRange>
 			{
 				return new Iterator<IPRange>()
 				{
-					private Iterator<IPRange> mIterator = mRanges.iterator();
-					private List<IPRange> mSubnets;
+					private Ranges mRanges = mIPv4;
+					private int mIndex = -1;
+					private long mNextHi, mNextLo;
+					private boolean mDone;
+
+					{
+						nextRange();
+					}
+
+					private void nextRange()
+					{
+						while (++mIndex >= mRanges.mCount)
+						{
+							if (mRanges == mIPv6)
+							{
+								mDone = true;
+								return;
+							}
+							mRanges = mIPv6;
+							mIndex = -1;
+						}
+						mNextHi = mRanges.mKeys[mIndex * 4];
+						mNextLo = mRanges.mKeys[mIndex * 4 + 1];
+					}
 
 					@Override
 					public boolean hasNext()
 					{
-						return (mSubnets != null && mSubnets.size() > 0) || mIterator.hasNext();
+						return !mDone;
 					}
 
 					@Override
 					public IPRange next()
 					{
-						if (mSubnets == null || mSubnets.size() == 0)
+						if (mDone)
+						{
+							throw new NoSuchElementException();
+						}
+						long toHi = mRanges.mKeys[mIndex * 4 + 2], toLo = mRanges.mKeys[mIndex * 4 + 3];
+						/* largest aligned block starting at the next address that doesn't exceed the range */
+						int bits = mRanges.trailingZeros(mNextHi, mNextLo);
+						while (compare(mNextHi | hostMaskHi(bits), mNextLo | hostMaskLo(bits), toHi, toLo) > 0)
+						{
+							bits--;
+						}
+						IPRange subnet = new IPRange(mRanges.bytes(mNextHi, mNextLo), mRanges.mBits - bits);
+						long lastHi = mNextHi | hostMaskHi(bits), lastLo = mNextLo | hostMaskLo(bits);
+						if (lastHi == toHi && lastLo == toLo)
 						{
-							IPRange range = mIterator.next();
-							mSubnets = range.toSubnets();
+							nextRange();
 						}
-						return mSubnets.remove(0);
+						else
+						{
+							mNextHi = lastLo == -1 ? lastHi + 1 : lastHi;
+							mNextLo = lastLo + 1;
+						}
+						return subnet;
 					}
 
 					@Override
@@ -195,7 +240,40 @@ public class IPRangeSet implements Iterable<IPRange>
 	@Override
 	public Iterator<IPRange> iterator()
 	{
-		return mRanges.iterator();
+		return new Iterator<IPRange>()
+		{
+			private Ranges mRanges = mIPv4;
+			private int mIndex;
+
+			@Override
+			public boolean hasNext()
+			{
+				if (mIndex >= mRanges.mCount && mRanges == mIPv4)
+				{
+					mRanges = mIPv6;
+					mIndex = 0;
+				}
+				return mIndex < mRanges.mCount;
+			}
+
+			@Override
+			public IPRange next()
+			{
+				if (!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				long[] keys = mRanges.mKeys;
+				int i = mIndex++ * 4;
+				return new IPRange(mRanges.bytes(keys[i], keys[i + 1]), mRanges.bytes(keys[i + 2], keys[i + 3]));
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 
 	/**
@@ -203,14 +281,14 @@ public class IPRangeSet implements Iterable<IPRange>
 	 */
 	public int size()
 	{
-		return mRanges.size();
+		return mIPv4.mCount + mIPv6.mCount;
 	}
 
 	@Override
 	public String toString()
 	{	/* we could use TextUtils, but that causes the unit tests to fail */
 		StringBuilder sb = new StringBuilder();
-		for (IPRange range : mRanges)
+		for (IPRange range : this)
 		{
 			if (sb.length() > 0)
 			{
@@ -220,4 +298,318 @@ public class IPRangeSet implements Iterable<IPRange>
 		}
 		return sb.toString();
 	}
+
+	private Ranges family(byte[] address)
+	{
+		return address.length == 4 ? mIPv4 : mIPv6;
+	}
+
+	private static int compare(long hiA, long loA, long hiB, long loB)
+	{
+		if (hiA != hiB)
+		{
+			return Long.compare(hiA + Long.MIN_VALUE, hiB + Long.MIN_VALUE);
+		}
+		return Long.compare(loA + Long.MIN_VALUE, loB + Long.MIN_VALUE);
+	}
+
+	private static long hostMaskHi(int bits)
+	{
+		return bits <= 64 ? 0 : bits == 128 ? -1 : (1L << (bits - 64)) - 1;
+	}
+
+	private static long hostMaskLo(int bits)
+	{
+		return bits >= 64 ? -1 : (1L << bits) - 1;
+	}
+
+	/**
+	 * Sorted, disjoint and non-adjacent ranges of one address family. Each range takes four
+	 * slots in the key array: from (high, low) and to (high, low).
+	 */
+	private static class Ranges
+	{
+		private final int mBytes;
+		private final int mBits;
+		private long[] mKeys = new long[16];
+		private int mCount;
+
+		Ranges(int bytes)
+		{
+			mBytes = bytes;
+			mBits = bytes * 8;
+		}
+
+		long[] key(byte[] address)
+		{
+			long hi = 0, lo = 0;
+			int split = Math.max(0, address.length - 8);
+			for (int i = 0; i < split; i++)
+			{
+				hi = (hi << 8) | (address[i] & 0xff);
+			}
+			for (int i = split; i < address.length; i++)
+			{
+				lo = (lo << 8) | (address[i] & 0xff);
+			}
+			return new long[]{hi, lo};
+		}
+
+		byte[] bytes(long hi, long lo)
+		{
+			byte[] address = new byte[mBytes];
+			for (int i = mBytes - 1; i >= 0; i--)
+			{
+				int pos = mBytes - 1 - i;
+				address[i] = (byte)(pos < 8 ? lo >>> (pos * 8) : hi >>> ((pos - 8) * 8));
+			}
+			return address;
+		}
+
+		int trailingZeros(long hi, long lo)
+		{
+			if (lo != 0)
+			{
+				return Math.min(mBits, Long.numberOfTrailingZeros(lo));
+			}
+			if (hi != 0)
+			{
+				return 64 + Long.numberOfTrailingZeros(hi);
+			}
+			return mBits;
+		}
+
+		void clear()
+		{
+			mCount = 0;
+		}
+
+		/**
+		 * Index of the first range that ends at or after the given address.
+		 */
+		private int firstEndingAtOrAfter(long hi, long lo)
+		{
+			int low = 0, high = mCount;
+			while (low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if (compare(mKeys[mid * 4 + 2], mKeys[mid * 4 + 3], hi, lo) < 0)
+				{
+					low = mid + 1;
+				}
+				else
+				{
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		boolean contains(long fromHi, long fromLo, long toHi, long toLo)
+		{
+			int i = firstEndingAtOrAfter(toHi, toLo);
+			return i < mCount && compare(mKeys[i * 4], mKeys[i * 4 + 1], fromHi, fromLo) <= 0;
+		}
+
+		/**
+		 * Append a range, which must not start before the last range starts, merging it with
+		 * the last range if they overlap or are adjacent.
+		 */
+		void append(long fromHi, long fromLo, long toHi, long toLo)
+		{
+			if (mCount > 0)
+			{
+				int last = (mCount - 1) * 4;
+				long endHi = mKeys[last + 2], endLo = mKeys[last + 3];
+				if (compare(fromHi, fromLo, endHi, endLo) <= 0 || isNext(endHi, endLo, fromHi, fromLo))
+				{
+					if (compare(toHi, toLo, endHi, endLo) > 0)
+					{
+						mKeys[last + 2] = toHi;
+						mKeys[last + 3] = toLo;
+					}
+					return;
+				}
+			}
+			ensureCapacity(mCount + 1);
+			int i = mCount++ * 4;
+			mKeys[i] = fromHi;
+			mKeys[i + 1] = fromLo;
+			mKeys[i + 2] = toHi;
+			mKeys[i + 3] = toLo;
+		}
+
+		void add(long fromHi, long fromLo, long toHi, long toLo)
+		{
+			/* the ranges [first, last) overlap or are adjacent to the new range */
+			int first = firstEndingAtOrAfter(fromHi, fromLo);
+			if (first > 0 && isNext(mKeys[(first - 1) * 4 + 2], mKeys[(first - 1) * 4 + 3], fromHi, fromLo))
+			{
+				first--;
+			}
+			int last = first;
+			while (last < mCount && (compare(mKeys[last * 4], mKeys[last * 4 + 1], toHi, toLo) <= 0 ||
+									 isNext(toHi, toLo, mKeys[last * 4], mKeys[last * 4 + 1])))
+			{
+				last++;
+			}
+			if (first < last)
+			{
+				if (compare(mKeys[first * 4], mKeys[first * 4 + 1], fromHi, fromLo) < 0)
+				{
+					fromHi = mKeys[first * 4];
+					fromLo = mKeys[first * 4 + 1];
+				}
+				if (compare(mKeys[(last - 1) * 4 + 2], mKeys[(last - 1) * 4 + 3], toHi, toLo) > 0)
+				{
+					toHi = mKeys[(last - 1) * 4 + 2];
+					toLo = mKeys[(last - 1) * 4 + 3];
+				}
+			}
+			replace(first, last, 1);
+			mKeys[first * 4] = fromHi;
+			mKeys[first * 4 + 1] = fromLo;
+			mKeys[first * 4 + 2] = toHi;
+			mKeys[first * 4 + 3] = toLo;
+		}
+
+		void remove(long fromHi, long fromLo, long toHi, long toLo)
+		{
+			/* the ranges [first, last) overlap the removed range */
+			int first = firstEndingAtOrAfter(fromHi, fromLo);
+			int last = first;
+			while (last < mCount && compare(mKeys[last * 4], mKeys[last * 4 + 1], toHi, toLo) <= 0)
+			{
+				last++;
+			}
+			if (first == last)
+			{
+				return;
+			}
+			long headHi = mKeys[first * 4], headLo = mKeys[first * 4 + 1];
+			long tailHi = mKeys[(last - 1) * 4 + 2], tailLo = mKeys[(last - 1) * 4 + 3];
+			boolean head = compare(headHi, headLo, fromHi, fromLo) < 0;
+			boolean tail = compare(tailHi, tailLo, toHi, toLo) > 0;
+			replace(first, last, (head ? 1 : 0) + (tail ? 1 : 0));
+			int i = first * 4;
+			if (head)
+			{
+				mKeys[i++] = headHi;
+				mKeys[i++] = headLo;
+				mKeys[i++] = fromLo == 0 ? fromHi - 1 : fromHi;
+				mKeys[i++] = fromLo - 1;
+			}
+			if (tail)
+			{
+				mKeys[i++] = toLo == -1 ? toHi + 1 : toHi;
+				mKeys[i++] = toLo + 1;
+				mKeys[i++] = tailHi;
+				mKeys[i] = tailLo;
+			}
+		}
+
+		/**
+		 * Merge the given ranges into these in a single pass over both.
+		 */
+		void union(Ranges other)
+		{
+			if (other.mCount == 0)
+			{
+				return;
+			}
+			long[] keys = mKeys;
+			int count = mCount;
+			mKeys = new long[Math.max(16, (count + other.mCount) * 4)];
+			mCount = 0;
+			int a = 0, b = 0;
+			while (a < count || b < other.mCount)
+			{
+				boolean fromThis = b >= other.mCount || (a < count &&
+					compare(keys[a * 4], keys[a * 4 + 1], other.mKeys[b * 4], other.mKeys[b * 4 + 1]) <= 0);
+				long[] source = fromThis ? keys : other.mKeys;
+				int i = (fromThis ? a++ : b++) * 4;
+				append(source[i], source[i + 1], source[i + 2], source[i + 3]);
+			}
+		}
+
+		/**
+		 * Remove the given ranges from these in a single pass over both.
+		 */
+		void difference(Ranges other)
+		{
+			if (mCount == 0 || other.mCount == 0)
+			{
+				return;
+			}
+			long[] keys = mKeys;
+			int count = mCount;
+			mKeys = new long[Math.max(16, (count + other.mCount) * 4)];
+			mCount = 0;
+			int b = 0;
+			for (int a = 0; a < count; a++)
+			{
+				long fromHi = keys[a * 4], fromLo = keys[a * 4 + 1];
+				long toHi = keys[a * 4 + 2], toLo = keys[a * 4 + 3];
+				/* skip removed ranges that end before this one starts */
+				while (b < other.mCount && compare(other.mKeys[b * 4 + 2], other.mKeys[b * 4 + 3], fromHi, fromLo) < 0)
+				{
+					b++;
+				}
+				boolean remaining = true;
+				int r = b;
+				while (r < other.mCount && compare(other.mKeys[r * 4], other.mKeys[r * 4 + 1], toHi, toLo) <= 0)
+				{
+					long cutFromHi = other.mKeys[r * 4], cutFromLo = other.mKeys[r * 4 + 1];
+					long cutToHi = other.mKeys[r * 4 + 2], cutToLo = other.mKeys[r * 4 + 3];
+					if (compare(fromHi, fromLo, cutFromHi, cutFromLo) < 0)
+					{
+						append(fromHi, fromLo, cutFromLo == 0 ? cutFromHi - 1 : cutFromHi, cutFromLo - 1);
+					}
+					if (compare(cutToHi, cutToLo, toHi, toLo) >= 0)
+					{
+						remaining = false;
+						break;
+					}
+					fromHi = cutToLo == -1 ? cutToHi + 1 : cutToHi;
+					fromLo = cutToLo + 1;
+					r++;
+				}
+				if (remaining)
+				{
+					append(fromHi, fromLo, toHi, toLo);
+				}
+				/* a removed range reaching past this one might also cut the next one */
+				b = r;
+			}
+		}
+
+		/**
+		 * Replace the ranges [first, last) with the given number of (uninitialized) ranges.
+		 */
+		private void replace(int first, int last, int count)
+		{
+			int newCount = mCount - (last - first) + count;
+			ensureCapacity(newCount);
+			System.arraycopy(mKeys, last * 4, mKeys, (first + count) * 4, (mCount - last) * 4);
+			mCount = newCount;
+		}
+
+		private void ensureCapacity(int count)
+		{
+			if (count * 4 > mKeys.length)
+			{
+				long[] keys = new long[Math.max(count * 4, mKeys.length * 2)];
+				System.arraycopy(mKeys, 0, keys, 0, mCount * 4);
+				mKeys = keys;
+			}
+		}
+
+		/**
+		 * Whether the second address directly follows the first.
+		 */
+		private static boolean isNext(long hi, long lo, long nextHi, long nextLo)
+		{
+			return (lo == -1 ? hi + 1 : hi) == nextHi && lo + 1 == nextLo && !(hi == -1 && lo == -1);
+		}
+	}
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app
+
+import com.protonvpn.android.api.ApiResponseCache
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.InputStream
+
+class ApiResponseCacheTests {
+
+    @get:Rule
+    var tempFolder = TemporaryFolder()
+
+    private val readFirstLine: (InputStream) -> String = { it.bufferedReader().readLine() }
+
+    private fun createCache() = ApiResponseCache(tempFolder.root)
+
+    @Test
+    fun storedBodyIsReadBackWithItsValidators() {
+        val cache = createCache()
+        val value = cache.store("logicals", "1.2.3.0", ApiResponseCache.Validators("\"tag\"", null),
+            "first\nsecond".byteInputStream(), readFirstLine)
+
+        assertEquals("first", value)
+        val reopened = createCache()
+        assertEquals("\"tag\"", reopened.getValidators("logicals", "1.2.3.0")?.eTag)
+        assertNull(reopened.getValidators("logicals", "1.2.3.0")?.lastModified)
+        // The part of the body the decoder didn't read is stored too.
+        assertEquals("first\nsecond", reopened.readBody("logicals") { it.reader().readText() })
+    }
+
+    @Test
+    fun validatorsAreOnlyOfferedForTheSameBucket() {
+        val cache = createCache()
+        cache.store("logicals", "1.2.3.0", ApiResponseCache.Validators(null, "Mon, 01 Mar 2021 10:00:00 GMT"),
+            "body".byteInputStream(), readFirstLine)
+
+        assertNull(cache.getValidators("logicals", "4.5.6.0"))
+        assertNull(cache.getValidators("loads", "1.2.3.0"))
+    }
+
+    @Test
+    fun responseWithoutValidatorsRemovesTheEntry() {
+        val cache = createCache()
+        cache.store("logicals", "", ApiResponseCache.Validators("\"tag\"", null),
+            "old".byteInputStream(), readFirstLine)
+        val value = cache.store("logicals", "", ApiResponseCache.Validators(null, null),
+            "new".byteInputStream(), readFirstLine)
+
+        assertEquals("new", value)
+        assertNull(cache.getValidators("logicals", ""))
+        assertNull(createCache().getValidators("logicals", ""))
+    }
+
+    @Test
+    fun clearRemovesAllEntries() {
+        val cache = createCache()
+        cache.store("logicals", "", ApiResponseCache.Validators("\"tag\"", null),
+            "body".byteInputStream(), readFirstLine)
+        cache.clear()
+
+        assertNull(cache.getValidators("logicals", ""))
+        assertEquals(0, tempFolder.root.list()!!.size)
+    }
+}
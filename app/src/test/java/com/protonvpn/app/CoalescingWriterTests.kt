@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app
+
+import com.protonvpn.android.utils.CoalescingWriter
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class CoalescingWriterTests {
+
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+    private val writes = AtomicInteger()
+    private val writer = CoalescingWriter(Runnable { writes.incrementAndGet() }, 50, executor)
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    private fun awaitScheduledWrites() {
+        executor.schedule({}, 100, TimeUnit.MILLISECONDS).get()
+    }
+
+    @Test
+    fun burstIsWrittenOnce() {
+        repeat(30) { writer.markDirty() }
+        awaitScheduledWrites()
+
+        assertEquals(1, writes.get())
+    }
+
+    @Test
+    fun flushNowWritesPendingChangesImmediately() {
+        writer.markDirty()
+        writer.flushNow()
+        assertEquals(1, writes.get())
+
+        awaitScheduledWrites()
+        assertEquals(1, writes.get())
+    }
+
+    @Test
+    fun nothingIsWrittenWhenClean() {
+        writer.flushNow()
+        CoalescingWriter.flushAll()
+        awaitScheduledWrites()
+
+        assertEquals(0, writes.get())
+    }
+
+    @Test
+    fun flushAllWritesBeforeReturning() {
+        writer.markDirty()
+        CoalescingWriter.flushAll()
+        assertEquals(1, writes.get())
+
+        awaitScheduledWrites()
+        assertEquals(1, writes.get())
+    }
+
+    @Test
+    fun changesAfterWriteAreWrittenAgain() {
+        writer.markDirty()
+        awaitScheduledWrites()
+        writer.markDirty()
+        awaitScheduledWrites()
+
+        assertEquals(2, writes.get())
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app
+
+import com.protonvpn.android.utils.FileObjectStore
+import com.protonvpn.app.mocks.MockSharedPreference
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+
+class FileObjectStoreTests {
+
+    @get:Rule
+    var tempFolder = TemporaryFolder()
+
+    private val legacyPreferences = MockSharedPreference()
+    private val queuedWrites = mutableListOf<Runnable>()
+
+    private fun createStore(executor: Executor = Executor { it.run() }) =
+        FileObjectStore(tempFolder.root, FileObjectStore.Codec.PLAIN, legacyPreferences, executor)
+
+    @Test
+    fun valuesAreStoredInSeparateFiles() {
+        val store = createStore()
+        store.put("a", "1")
+        store.put("b", "2")
+
+        assertEquals("1", File(tempFolder.root, "a").readText())
+        assertEquals("2", File(tempFolder.root, "b").readText())
+        assertEquals("2", createStore().get("b"))
+    }
+
+    @Test
+    fun writesOfAKeyAreCoalesced() {
+        val store = createStore(Executor { queuedWrites += it })
+        store.put("a", "1")
+        store.put("a", "2")
+        store.put("b", "3")
+
+        assertEquals("2", store.get("a"))
+        assertEquals(2, queuedWrites.size)
+        queuedWrites.forEach { it.run() }
+        assertEquals("2", File(tempFolder.root, "a").readText())
+    }
+
+    @Test
+    fun removeDeletesFile() {
+        val store = createStore()
+        store.put("a", "1")
+        store.remove("a")
+
+        assertFalse(File(tempFolder.root, "a").exists())
+        assertNull(createStore().get("a"))
+    }
+
+    @Test
+    fun legacyValuesAreMigratedOnce() {
+        legacyPreferences.edit().putString("a", "legacy").apply()
+
+        assertEquals("legacy", createStore().get("a"))
+        assertFalse(legacyPreferences.contains("a"))
+        assertEquals("legacy", createStore().get("a"))
+    }
+
+    @Test
+    fun clearDropsQueuedWrites() {
+        val store = createStore(Executor { queuedWrites += it })
+        store.put("a", "1")
+        store.clear()
+        queuedWrites.forEach { it.run() }
+
+        assertNull(store.get("a"))
+        assertTrue(tempFolder.root.listFiles().isNullOrEmpty())
+    }
+
+    @Test
+    fun flushWaitsForQueuedWrites() {
+        val executor = Executors.newSingleThreadExecutor()
+        val store = createStore(executor)
+        val release = CountDownLatch(1)
+        executor.execute { release.await() }
+        store.put("a", "1")
+        store.put("b", "2")
+        assertFalse(File(tempFolder.root, "a").exists())
+
+        release.countDown()
+        store.flush()
+        assertEquals("1", File(tempFolder.root, "a").readText())
+        assertEquals("2", File(tempFolder.root, "b").readText())
+        executor.shutdown()
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.strongswan.android.utils.IPRange
+import org.strongswan.android.utils.IPRangeSet
+import java.net.InetAddress
+
+class IPRangeSetTests {
+
+    private fun set(ranges: String) = IPRangeSet.fromString(ranges)!!
+
+    private fun IPRangeSet.subnetString() = subnets().joinToString(" ")
+
+    @Test
+    fun addMergesOverlappingAndAdjacentRanges() {
+        val set = set("10.0.0.0/24 10.0.2.0/24 192.168.0.1")
+        set.add(IPRange("10.0.1.0/24"))
+        set.add(IPRange("192.168.0.0-192.168.0.5"))
+
+        assertEquals("10.0.0.0-10.0.2.255 192.168.0.0-192.168.0.5", set.toString())
+        assertEquals(2, set.size())
+    }
+
+    @Test
+    fun removeSplitsRanges() {
+        val set = set("0.0.0.0/0 ::/0")
+        set.remove(IPRange("128.0.0.0/2"))
+        set.remove(IPRange("::1"))
+
+        val subnets = set.subnets().map { it.toString() }
+        assertEquals(listOf("0.0.0.0/1", "192.0.0.0/2", "0:0:0:0:0:0:0:0/128", "0:0:0:0:0:0:0:2/127"), subnets.take(4))
+        assertEquals("8000:0:0:0:0:0:0:0/1", subnets.last())
+        assertEquals(2 + 128, subnets.size)
+    }
+
+    @Test
+    fun setAlgebra() {
+        val set = set("10.0.0.0/8 fd00::/8")
+        set.add(set("11.0.0.0/8 172.16.0.0/12"))
+        set.remove(set("10.128.0.0/9 11.0.0.0/9 fd00::/9"))
+
+        assertEquals("10.0.0.0/9 11.128.0.0/9 172.16.0.0/12 fd80:0:0:0:0:0:0:0/9", set.subnetString())
+    }
+
+    @Test
+    fun containment() {
+        val set = set("10.0.0.0/8 192.168.1.0-192.168.1.100 2001:db8::/32")
+
+        assertTrue(set.contains(InetAddress.getByName("10.1.2.3")))
+        assertTrue(set.contains(InetAddress.getByName("192.168.1.100")))
+        assertFalse(set.contains(InetAddress.getByName("192.168.1.101")))
+        assertTrue(set.contains(InetAddress.getByName("2001:db8::1")))
+        assertFalse(set.contains(InetAddress.getByName("11.0.0.0")))
+        assertTrue(set.contains(IPRange("10.20.0.0/16")))
+        assertFalse(set.contains(IPRange("9.255.255.255-10.0.0.1")))
+    }
+
+    @Test
+    fun bulkExclusionMatchesSingleRemovals() {
+        val excluded = (0 until 2000).map { IPRange("${it % 223 + 1}.${it * 7 % 256}.${it % 256}.0/${24 + it % 9}") }
+        val bulk = set("0.0.0.0/0").apply { remove(IPRangeSet().apply { addAll(excluded) }) }
+        val single = set("0.0.0.0/0").apply { excluded.forEach { remove(it) } }
+
+        assertEquals(single.toString(), bulk.toString())
+        assertEquals(single.subnetString(), bulk.subnetString())
+        excluded.forEach { assertFalse(bulk.contains(it.from)) }
+    }
+
+    @Test
+    fun invalidStringIsRejected() {
+        assertNull(IPRangeSet.fromString("10.0.0.0/8 foo"))
+        assertEquals(0, IPRangeSet.fromString(null)!!.size())
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app
+
+import com.protonvpn.android.ui.drawer.LogViewerLines
+import com.protonvpn.android.utils.LogLineIndex
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.FileInputStream
+
+class LogLineIndexTests {
+
+    @get:Rule
+    var tempFolder = TemporaryFolder()
+
+    private val indexes = mutableListOf<LogLineIndex>()
+
+    @After
+    fun tearDown() {
+        indexes.forEach { it.close() }
+    }
+
+    private fun index(vararg contents: String): LogLineIndex {
+        val sources = contents.map { content ->
+            val file = tempFolder.newFile()
+            file.writeText(content)
+            val channel = FileInputStream(file).channel
+            LogLineIndex.Source(channel, channel.size())
+        }
+        return LogLineIndex.build(sources).also { indexes += it }
+    }
+
+    @Test
+    fun linesAreReadAcrossFiles() {
+        val index = index("a1\na2\n", "b1\nb2 ünïcode\nb3")
+
+        assertEquals(5, index.lineCount)
+        assertEquals(listOf("a1", "a2", "b1", "b2 ünïcode", "b3"), index.readLines(0, 10))
+        assertEquals(listOf("a2", "b1"), index.readLines(1, 2))
+        assertEquals(emptyList<String>(), index.readLines(5, 2))
+    }
+
+    @Test
+    fun fileWithoutTrailingNewlineEndsTheLine() {
+        val index = index("a1\na2", "", "b1\r\n")
+
+        assertEquals(listOf("a1", "a2", "b1"), index.readLines(0, 10))
+    }
+
+    @Test
+    fun indexIsLimitedToTheLengthAtBuildTime() {
+        val file = tempFolder.newFile()
+        file.writeText("line 1\nline 2\n")
+        val channel = FileInputStream(file).channel
+        val index = LogLineIndex.build(listOf(LogLineIndex.Source(channel, channel.size()))).also { indexes += it }
+        file.appendText("line 3\n")
+
+        assertEquals(listOf("line 1", "line 2"), index.readLines(0, 10))
+    }
+
+    @Test
+    fun longFilesAreIndexedAndSearched() {
+        val content = (0 until 10_000).joinToString("") { "line $it\n" }
+        val index = index(content)
+
+        assertEquals(10_000, index.lineCount)
+        assertEquals(listOf("line 4999", "line 5000"), index.readLines(4999, 2))
+        val expected = (0 until 10_000).filter { it.toString().contains("77") }.toIntArray()
+        assertArrayEquals(expected, index.findLines("77"))
+        assertArrayEquals(intArrayOf(), index.findLines("missing"))
+    }
+
+    @Test
+    fun viewerPagesFileLinesAndAppendsLiveLines() {
+        val lines = LogViewerLines(index((0 until 300).joinToString("") { "line $it\n" }))
+
+        assertEquals(300, lines.size)
+        assertNull(lines.getLine(200))
+        val page = lines.loadPage(lines.pageOf(200))
+        lines.addPage(page)
+        assertEquals(LogViewerLines.PAGE_SIZE until 2 * LogViewerLines.PAGE_SIZE, lines.positionsOf(page))
+        assertEquals("line 200", lines.getLine(200))
+
+        assertEquals(300..301, lines.addLiveLines(listOf("live 1", "live 2")))
+        assertEquals("live 2", lines.getLine(301))
+    }
+
+    @Test
+    fun viewerFilterShowsMatchingLinesOnly() {
+        val lines = LogViewerLines(index("connecting\ndisconnected\nother\n"))
+        lines.addLiveLines(listOf("connected", "other"))
+
+        val matches = lines.findLines("CONNECT", lines.liveLinesSnapshot())
+        assertArrayEquals(intArrayOf(0, 1, 3), matches)
+        lines.addLiveLines(listOf("reconnect"))
+        lines.setFilter("connect", matches)
+        assertEquals(4, lines.size)
+        assertEquals("connected", lines.getLine(2))
+        assertEquals("reconnect", lines.getLine(3))
+
+        assertEquals(4..4, lines.addLiveLines(listOf("nothing", "connect again")))
+        lines.addPage(lines.loadPage(0))
+        assertEquals("disconnected", lines.getLine(1))
+        assertEquals(0..1, lines.positionsOf(lines.loadPage(0)))
+
+        lines.setFilter(null, null)
+        assertEquals(8, lines.size)
+        assertEquals(3, lines.nextMatch(matches, 1, forward = true))
+        assertEquals(0, lines.nextMatch(matches, 3, forward = true))
+        assertEquals(3, lines.nextMatch(matches, 0, forward = false))
+    }
+}
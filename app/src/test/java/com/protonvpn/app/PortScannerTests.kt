@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app
+
+import com.protonvpn.android.utils.PortScanner
+import kotlinx.coroutines.flow.firstOrNull
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.ServerSocket
+import kotlin.concurrent.thread
+
+class PortScannerTests {
+
+    private val localhost = InetAddress.getLoopbackAddress()
+    private lateinit var tcpServer: ServerSocket
+    private lateinit var udpServer: DatagramSocket
+    private lateinit var silentUdpServer: DatagramSocket
+
+    private val scanner = PortScanner(maxConcurrentProbes = 2)
+    private val pingData = byteArrayOf(1, 2, 3)
+
+    @Before
+    fun setup() {
+        tcpServer = ServerSocket(0, 10, localhost)
+        thread(isDaemon = true) {
+            while (!tcpServer.isClosed) {
+                runCatching {
+                    tcpServer.accept().use {
+                        it.getInputStream().read()
+                        it.getOutputStream().write(1)
+                    }
+                }
+            }
+        }
+        udpServer = DatagramSocket(0, localhost)
+        thread(isDaemon = true) {
+            val packet = DatagramPacket(ByteArray(16), 16)
+            while (!udpServer.isClosed) {
+                runCatching {
+                    udpServer.receive(packet)
+                    udpServer.send(DatagramPacket(byteArrayOf(1), 1, packet.socketAddress))
+                }
+            }
+        }
+        silentUdpServer = DatagramSocket(0, localhost)
+    }
+
+    @After
+    fun tearDown() {
+        tcpServer.close()
+        udpServer.close()
+        silentUdpServer.close()
+    }
+
+    private fun probe(port: Int, tcp: Boolean, timeoutMs: Int = 2000) =
+        PortScanner.Probe(localhost.hostAddress, port, pingData, tcp, timeoutMs)
+
+    @Test
+    fun respondingPortsSucceed() = runBlocking {
+        val results = scanner.scan(listOf(
+            probe(tcpServer.localPort, tcp = true),
+            probe(udpServer.localPort, tcp = false)
+        )).toList()
+
+        assertEquals(2, results.size)
+        assertTrue(results.all { it.success })
+        assertTrue(results.all { it.rttMs < 2000 })
+    }
+
+    @Test
+    fun silentPortTimesOut() = runBlocking {
+        val results = scanner.scan(listOf(probe(silentUdpServer.localPort, tcp = false, timeoutMs = 200))).toList()
+
+        assertEquals(1, results.size)
+        assertFalse(results.first().success)
+        assertTrue(results.first().rttMs >= 200)
+    }
+
+    @Test
+    fun firstResponderIsReturnedWithoutWaitingForTimeouts() = runBlocking {
+        val probes = List(4) { probe(silentUdpServer.localPort, tcp = false, timeoutMs = 10_000) } +
+            probe(udpServer.localPort, tcp = false)
+        val start = System.currentTimeMillis()
+        val result = PortScanner(maxConcurrentProbes = 8).scan(probes).firstOrNull { it.success }
+
+        assertEquals(udpServer.localPort, result?.probe?.port)
+        assertTrue(System.currentTimeMillis() - start < 5000)
+    }
+
+    @Test
+    fun uncheckedErrorFailsOnlyItsProbe() = runBlocking {
+        // An out of range port makes the probe throw IllegalArgumentException when it's started.
+        val results = scanner.scan(listOf(
+            probe(tcpServer.localPort, tcp = true),
+            probe(70_000, tcp = true)
+        )).toList().associateBy { it.probe.port }
+
+        assertEquals(2, results.size)
+        assertTrue(results.getValue(tcpServer.localPort).success)
+        assertFalse(results.getValue(70_000).success)
+    }
+
+    @Test
+    fun emptyBatchCompletes() = runBlocking {
+        assertEquals(emptyList<PortScanner.Result>(), scanner.scan(emptyList()).toList())
+    }
+}
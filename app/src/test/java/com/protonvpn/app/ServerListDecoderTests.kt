@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app
+
+import com.protonvpn.android.api.ServerListDecoder
+import com.protonvpn.android.models.vpn.Server
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.builtins.ListSerializer
+import me.proton.core.util.kotlin.deserialize
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.StringReader
+
+class ServerListDecoderTests {
+
+    private lateinit var serversJson: String
+    private lateinit var servers: List<Server>
+
+    @Before
+    fun setup() {
+        serversJson = File(javaClass.getResource("/Servers.json")?.path).readText()
+        servers = serversJson.deserialize(ListSerializer(Server.serializer()))
+    }
+
+    private fun decode(json: String) = ServerListDecoder().decode(StringReader(json))
+
+    @Test
+    fun decodesLikeSerializer() {
+        val decoded = decode("""{"Code": 1000, "Extra": {"a": [1, 2]}, "LogicalServers": $serversJson}""")
+
+        assertEquals(servers.map { it.serverId }, decoded.serverList.map { it.serverId })
+        servers.zip(decoded.serverList).forEach { (expected, actual) ->
+            assertEquals(expected.copy(location = actual.location), actual)
+            assertEquals(expected.location.coordinates, actual.location.coordinates)
+            assertEquals(expected.online, actual.online)
+        }
+    }
+
+    @Test
+    fun groupsServersWhileDecoding() {
+        val groups = decode("""{"LogicalServers": $serversJson}""").groups!!
+
+        assertEquals(listOf("CA", "DE", "TW"), groups.countries)
+        assertEquals(listOf("CA#1", "CA#2", "CA#3", "CA#4"), groups.regularByFlag["CA"]?.map { it.serverName })
+        assertNull(groups.regularByFlag["TW"])
+        assertEquals(listOf("IS-TW#1"), groups.secureCoreByEntry["IS"]?.map { it.serverName })
+        assertEquals(listOf("IS-TW#1"), groups.secureCoreByExit["TW"]?.map { it.serverName })
+    }
+
+    @Test
+    fun repeatedValuesShareInstances() {
+        val decoded = decode("""{"LogicalServers": $serversJson}""").serverList
+
+        assertSame(decoded[0].exitCountry, decoded[1].exitCountry)
+        assertSame(decoded[0].city, decoded[1].city)
+        assertSame(decoded[0].location.latitude, decoded[1].location.latitude)
+    }
+
+    @Test(expected = SerializationException::class)
+    fun missingFieldIsParseError() {
+        decode("""{"LogicalServers": [{"ID": "1", "Name": "CH#1"}]}""")
+    }
+
+    @Test(expected = SerializationException::class)
+    fun malformedJsonIsParseError() {
+        decode("""{"LogicalServers": [{"ID" "1"}]}""")
+    }
+}
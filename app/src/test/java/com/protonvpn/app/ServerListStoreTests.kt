@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app
+
+import com.protonvpn.android.models.vpn.LoadUpdate
+import com.protonvpn.android.models.vpn.Server
+import com.protonvpn.android.utils.ServerListStore
+import kotlinx.serialization.builtins.ListSerializer
+import me.proton.core.util.kotlin.deserialize
+import org.joda.time.DateTime
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class ServerListStoreTests {
+
+    @get:Rule
+    var tempFolder = TemporaryFolder()
+
+    private lateinit var servers: List<Server>
+
+    private fun createStore() = ServerListStore(tempFolder.root) { it.run() }
+
+    @Before
+    fun setup() {
+        val serversFile = File(javaClass.getResource("/Servers.json")?.path)
+        servers = serversFile.readText().deserialize(ListSerializer(Server.serializer()))
+    }
+
+    @Test
+    fun emptyStoreLoadsNothing() {
+        assertNull(createStore().load())
+    }
+
+    @Test
+    fun snapshotRoundTrip() {
+        val updatedAt = DateTime(1_600_000_000_000L)
+        createStore().save(servers, updatedAt)
+
+        val snapshot = createStore().load()!!
+        assertEquals(updatedAt, snapshot.updatedAt)
+        assertEquals(servers.map { it.serverId }, snapshot.servers.map { it.serverId })
+        servers.zip(snapshot.servers).forEach { (expected, actual) ->
+            assertEquals(expected.copy(location = actual.location), actual)
+            assertEquals(expected.location.coordinates, actual.location.coordinates)
+        }
+    }
+
+    @Test
+    fun preloadedSnapshotIsUsedOnlyByFirstLoad() {
+        createStore().save(servers, null)
+        val store = createStore()
+        store.preload()
+        File(tempFolder.root, "servers.bin").delete()
+
+        assertEquals(servers.size, store.load()?.servers?.size)
+        assertNull(store.load())
+    }
+
+    @Test
+    fun journalIsReplayedOnLoad() {
+        val store = createStore()
+        store.save(servers, null)
+        val server = servers.first { it.online }
+        val domain = server.connectingDomains.first()
+        store.appendLoads(listOf(LoadUpdate(server.serverId, 42f, 3.5f)))
+        store.appendDomainStatus(domain.id!!, false)
+
+        val loaded = createStore().load()!!.servers.first { it.serverId == server.serverId }
+        assertEquals(42f, loaded.load)
+        assertEquals(3.5f, loaded.score)
+        assertFalse(loaded.connectingDomains.first().isOnline)
+    }
+
+    @Test
+    fun journalIsDiscardedAfterFullSave() {
+        val store = createStore()
+        store.save(servers, null)
+        val server = servers.first()
+        store.appendLoads(listOf(LoadUpdate(server.serverId, 42f, 3.5f)))
+        store.save(servers, null)
+
+        val loaded = createStore().load()!!.servers.first { it.serverId == server.serverId }
+        assertEquals(server.load, loaded.load)
+    }
+
+    @Test
+    fun staleJournalIsReplacedOnAppend() {
+        val store = createStore()
+        store.save(servers, null)
+        store.appendLoads(listOf(LoadUpdate(servers[0].serverId, 42f, 3.5f)))
+        val journal = File(tempFolder.root, "servers.journal")
+        val staleJournal = journal.readBytes()
+        store.save(servers, null)
+        // As if the process died before deleting the journal of the previous snapshot.
+        journal.writeBytes(staleJournal)
+
+        val reopened = createStore()
+        assertEquals(servers[0].load, reopened.load()!!.servers[0].load)
+        reopened.appendLoads(listOf(LoadUpdate(servers[1].serverId, 43f, 2.5f)))
+
+        val loaded = createStore().load()!!.servers
+        assertEquals(servers[0].load, loaded[0].load)
+        assertEquals(43f, loaded[1].load)
+    }
+
+    @Test
+    fun tornJournalRecordIsTruncatedBeforeAppend() {
+        val store = createStore()
+        store.save(servers, null)
+        store.appendLoads(listOf(LoadUpdate(servers[0].serverId, 42f, 3.5f)))
+        store.appendLoads(listOf(LoadUpdate(servers[1].serverId, 43f, 2.5f)))
+        val journal = File(tempFolder.root, "servers.journal")
+        journal.writeBytes(journal.readBytes().let { it.copyOf(it.size - 3) })
+
+        val reopened = createStore()
+        reopened.load()
+        reopened.appendLoads(listOf(LoadUpdate(servers[2].serverId, 44f, 1.5f)))
+
+        val loaded = createStore().load()!!.servers
+        assertEquals(42f, loaded[0].load)
+        assertEquals(servers[1].load, loaded[1].load)
+        assertEquals(44f, loaded[2].load)
+    }
+
+    @Test
+    fun serverStatusSurvivesDomainsBeingOfflineAtSave() {
+        val server = servers.first { it.online }
+        server.connectingDomains.forEach { it.isOnline = false }
+        val store = createStore()
+        store.save(servers, null)
+        store.appendDomainStatus(server.connectingDomains.first().id!!, true)
+
+        val loaded = createStore().load()!!.servers.first { it.serverId == server.serverId }
+        assertTrue(loaded.online)
+        assertFalse(loaded.connectingDomains.drop(1).any { it.isOnline })
+    }
+
+    @Test
+    fun corruptSnapshotIsDiscarded() {
+        createStore().save(servers, null)
+        val file = File(tempFolder.root, "servers.bin")
+        val bytes = file.readBytes()
+        // Server count after magic, format version, generation and update time.
+        bytes.fill(0xff.toByte(), 24, 28)
+        file.writeBytes(bytes)
+
+        assertNull(createStore().load())
+        assertFalse(file.exists())
+    }
+
+    @Test
+    fun truncatedSnapshotIsDiscarded() {
+        createStore().save(servers, null)
+        val file = File(tempFolder.root, "servers.bin")
+        file.writeBytes(file.readBytes().copyOf(100))
+
+        assertNull(createStore().load())
+        assertFalse(file.exists())
+    }
+}
@@ -5,8 +5,10 @@ import androidx.arch.core.executor.testing.InstantTaskExecutorRule
 import com.protonvpn.android.ProtonApplication
 import com.protonvpn.android.models.config.UserData
 import com.protonvpn.android.models.config.VpnProtocol
+import com.protonvpn.android.models.vpn.LoadUpdate
 import com.protonvpn.android.models.vpn.Server
 import com.protonvpn.android.utils.CountryTools
+import com.protonvpn.android.utils.ServerListStore
 import com.protonvpn.android.utils.ServerManager
 import com.protonvpn.android.utils.Storage
 import com.protonvpn.app.mocks.MockSharedPreference
@@ -21,18 +23,23 @@ import org.junit.Assert
 import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
+import org.junit.rules.TemporaryFolder
 import java.io.File
 import java.util.Locale
 
 class ServerManagerTests {
 
     private lateinit var manager: ServerManager
+    private lateinit var servers: List<Server>
 
     @RelaxedMockK private lateinit var userData: UserData
 
     @get:Rule
     var rule = InstantTaskExecutorRule()
 
+    @get:Rule
+    var tempFolder = TemporaryFolder()
+
     @Before
     fun setup() {
         MockKAnnotations.init(this)
@@ -43,11 +50,11 @@ class ServerManagerTests {
         every { userData.hasAccessToServer(any()) } returns true
         every { userData.hasAccessToAnyServer(any()) } returns true
         every { CountryTools.getPreferredLocale(any()) } returns Locale.US
-        manager = ServerManager(contextMock, userData)
+        manager = ServerManager(contextMock, userData, ServerListStore(tempFolder.root) { it.run() })
         val serversFile = File(javaClass.getResource("/Servers.json")?.path)
-        val list = serversFile.readText().deserialize(ListSerializer(Server.serializer()))
+        servers = serversFile.readText().deserialize(ListSerializer(Server.serializer()))
 
-        manager.setServers(list)
+        manager.setServers(servers)
     }
 
     @Test
@@ -73,4 +80,34 @@ class ServerManagerTests {
         Assert.assertEquals(1, canada.serverList.size)
         Assert.assertEquals(1, canada.serverList.first().connectingDomains.size)
     }
+
+    @Test
+    fun secureCoreServerSharedBetweenEntryAndExitCountries() {
+        val entryServer = manager.getSecureCoreEntryCountries().first { it.flag == "IS" }.serverList.first()
+        val exitServer = manager.getVpnExitCountry("TW", true)!!.serverList.first()
+        Assert.assertSame(entryServer, exitServer)
+
+        manager.updateLoads(listOf(LoadUpdate(exitServer.serverId, 10f, 2f)))
+        Assert.assertEquals(2f, manager.getVpnExitCountry("TW", true)!!.serverList.first().score)
+        Assert.assertEquals(10f, manager.getSecureCoreEntryCountries().first { it.flag == "IS" }.serverList.first().load)
+    }
+
+    @Test
+    fun bestScoreServerFollowsLoadUpdates() {
+        val de2 = manager.getVpnExitCountry("DE", false)!!.serverList.first { it.serverName == "DE#2" }
+        manager.updateLoads(listOf(LoadUpdate(de2.serverId, 10f, 0.5f)))
+        Assert.assertEquals("DE#2", manager.getBestScoreServer(false)!!.serverName)
+        Assert.assertEquals(
+            "DE#2", manager.getBestScoreServer(manager.getVpnExitCountry("DE", false)!!)!!.serverName)
+        Assert.assertEquals("DE#2", manager.getOnlineAccessibleServers(false).first().serverName)
+    }
+
+    @Test
+    fun torServerIsNotChosenAsFastest() {
+        val de2 = servers.first { it.serverName == "DE#2" }
+        manager.setServers(servers.map { if (it === de2) it.copy(features = Server.FEATURE_TOR) else it })
+        manager.updateLoads(listOf(LoadUpdate(de2.serverId, 10f, 0.5f)))
+
+        Assert.assertEquals("DE#1", manager.getBestScoreServer(false)!!.serverName)
+    }
 }
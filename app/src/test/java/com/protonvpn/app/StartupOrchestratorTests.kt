@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app
+
+import com.protonvpn.android.startup.StartupOrchestrator
+import com.protonvpn.android.startup.StartupTrace
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+class StartupOrchestratorTests {
+
+    private val executor = Executors.newFixedThreadPool(2)
+    private val trace = StartupTrace(System::currentTimeMillis)
+    private val startup = StartupOrchestrator(trace, executor) {}
+    private val executed = Collections.synchronizedList(mutableListOf<String>())
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    private fun action(name: String) = Runnable { executed += name }
+
+    @Test
+    fun tasksRunAfterTheirDependencies() {
+        startup.task("a", action("a"))
+        startup.backgroundTask("b", action("b"), "a")
+        startup.task("c", action("c"), "b")
+        startup.backgroundTask("d", action("d"), "a", "c")
+        startup.run()
+        startup.await("d")
+
+        assertEquals(listOf("a", "b", "c", "d"), executed)
+        assertEquals(setOf("a", "b", "c", "d"), trace.phases.map { it.name }.toSet())
+    }
+
+    @Test
+    fun backgroundTasksDontBlockMainThread() {
+        val release = CountDownLatch(1)
+        val mainThread = Thread.currentThread().name
+        startup.backgroundTask("slow", Runnable { release.await() })
+        startup.task("main", action("main"))
+        startup.run()
+
+        assertEquals(listOf("main"), executed)
+        assertFalse(startup.isDone("slow"))
+        release.countDown()
+        startup.await("slow")
+        val threads = trace.phases.associate { it.name to it.thread }
+        assertEquals(mainThread, threads["main"])
+        assertTrue(threads["slow"] != mainThread)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun failureIsPropagatedToDependents() {
+        startup.backgroundTask("failing", Runnable { throw IllegalArgumentException() })
+        startup.backgroundTask("dependent", action("dependent"), "failing")
+        startup.run()
+        try {
+            startup.await("dependent")
+        } finally {
+            assertEquals(emptyList<String>(), executed)
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun dependenciesNeedToBeAddedFirst() {
+        startup.task("a", action("a"), "b")
+    }
+}
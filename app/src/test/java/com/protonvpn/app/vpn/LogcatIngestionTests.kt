@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app.vpn
+
+import com.protonvpn.android.vpn.LogcatIngestion
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LogcatIngestionTests {
+
+    private var time = 0L
+    private val batches = mutableListOf<List<String>>()
+    private val forwarded get() = batches.flatten()
+
+    private fun createIngestion(linesPerSecond: Int = 10, burst: Int = 5, batchSize: Int = 100) =
+        LogcatIngestion({ time }, linesPerSecond, burst, batchSize) { batches += it }
+
+    @Test
+    fun linesAreParsedAndForwardedInBatches() {
+        val ingestion = createIngestion(batchSize = 2)
+        ingestion.add("D/charon  : 09[IKE] sending packet: from 10.0.0.2")
+        ingestion.add("I/WireGuard/GoBackend/ProtonTunnel: peer(abc) - Sending handshake initiation")
+        ingestion.add("not a logcat line")
+        ingestion.flush()
+
+        assertEquals(listOf(
+            listOf("D/charon: 09[IKE] sending packet: from 10.0.0.2",
+                "I/WireGuard/GoBackend/ProtonTunnel: peer(abc) - Sending handshake initiation"),
+            listOf("?/logcat: not a logcat line")
+        ), batches)
+    }
+
+    @Test
+    fun repeatedLinesAreCollapsed() {
+        val ingestion = createIngestion()
+        repeat(4) { ingestion.add("W/charon: retransmit") }
+        ingestion.add("W/charon: giving up")
+        repeat(3) { ingestion.add("W/charon: giving up") }
+        ingestion.flush()
+        assertEquals(listOf("W/charon: retransmit", "W/charon: retransmit (x3)", "W/charon: giving up"), forwarded)
+
+        time += LogcatIngestion.REPEAT_SUMMARY_DELAY_MS
+        ingestion.flush()
+        assertEquals("W/charon: giving up (x3)", forwarded.last())
+        assertEquals(LogcatIngestion.SourceStats(8, 2, 6, 0), ingestion.getStats()["charon"])
+    }
+
+    @Test
+    fun eachSourceIsRateLimitedSeparately() {
+        val ingestion = createIngestion()
+        repeat(20) { ingestion.add("D/charon: line $it") }
+        ingestion.add("D/WireGuard: handshake")
+        ingestion.flush()
+        assertEquals((0 until 5).map { "D/charon: line $it" } + "D/WireGuard: handshake", forwarded)
+
+        time += 1000
+        ingestion.add("D/charon: after pause")
+        ingestion.flush()
+        assertEquals(listOf("charon: lines dropped, logging too fast (x15)", "D/charon: after pause"),
+            forwarded.takeLast(2))
+        assertEquals(LogcatIngestion.SourceStats(21, 6, 0, 15), ingestion.getStats()["charon"])
+        assertEquals(LogcatIngestion.SourceStats(1, 1, 0, 0), ingestion.getStats()["WireGuard"])
+    }
+
+    @Test
+    fun endReportsPendingRunsAndDrops() {
+        val ingestion = createIngestion(burst = 1)
+        ingestion.add("E/charon: failed")
+        ingestion.add("E/charon: failed")
+        ingestion.add("E/charon: other")
+        ingestion.flush(end = true)
+
+        assertEquals(
+            listOf("E/charon: failed", "E/charon: failed (x1)", "charon: lines dropped, logging too fast (x1)"),
+            forwarded
+        )
+    }
+}
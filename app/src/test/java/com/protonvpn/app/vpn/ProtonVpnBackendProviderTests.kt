@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app.vpn
+
+import com.protonvpn.android.models.profiles.Profile
+import com.protonvpn.android.models.vpn.ConnectionParamsIKEv2
+import com.protonvpn.android.models.vpn.Server
+import com.protonvpn.android.vpn.PhysicalServer
+import com.protonvpn.android.vpn.PrepareResult
+import com.protonvpn.android.vpn.ProtonVpnBackendProvider
+import com.protonvpn.android.vpn.VpnBackend
+import com.protonvpn.test.shared.MockedServers
+import io.mockk.MockKAnnotations
+import io.mockk.coEvery
+import io.mockk.impl.annotations.MockK
+import io.mockk.mockk
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.test.runBlockingTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+@ExperimentalCoroutinesApi
+class ProtonVpnBackendProviderTests {
+
+    @MockK private lateinit var strongSwan: VpnBackend
+    @MockK private lateinit var openVpn: VpnBackend
+
+    private lateinit var provider: ProtonVpnBackendProvider
+    private lateinit var servers: List<PhysicalServer>
+
+    // Ping duration and whether the server responds.
+    private val pings = mutableMapOf<Server, Pair<Long, Boolean>>()
+
+    @Before
+    fun setup() {
+        MockKAnnotations.init(this)
+        provider = ProtonVpnBackendProvider(strongSwan, openVpn, mockk(), mockk(relaxed = true))
+        servers = MockedServers.serverList.take(3).map { PhysicalServer(it, it.connectingDomains.first()) }
+
+        coEvery { openVpn.prepareForConnection(any(), any(), true, any()) } returns emptyList()
+        coEvery { strongSwan.prepareForConnection(any(), any(), true, any()) } coAnswers {
+            val profile = arg<Profile>(0)
+            val server = arg<Server>(1)
+            val (duration, responds) = pings.getValue(server)
+            delay(duration)
+            if (responds)
+                listOf(PrepareResult(strongSwan,
+                    ConnectionParamsIKEv2(profile, server, server.connectingDomains.first())))
+            else
+                emptyList()
+        }
+    }
+
+    @Test
+    fun preferredServerWinsWithoutWaitingForOthers() = runBlockingTest {
+        pings[servers[0].server] = 100L to true
+        pings[servers[1].server] = 50L to true
+        pings[servers[2].server] = 5000L to true
+
+        val result = provider.pingAll(servers)
+
+        assertEquals(servers[0], result?.physicalServer)
+        assertEquals(listOf(servers[2]), result?.skippedServers)
+        assertTrue(currentTime < 5000)
+    }
+
+    @Test
+    fun failedPreferredServersFallBackToNextResponder() = runBlockingTest {
+        pings[servers[0].server] = 200L to false
+        pings[servers[1].server] = 100L to true
+        pings[servers[2].server] = 5000L to true
+
+        val result = provider.pingAll(servers)
+
+        assertEquals(servers[1], result?.physicalServer)
+        assertEquals(200L, currentTime)
+    }
+
+    @Test
+    fun preferredServerWinsWithoutWaitingForOtherProtocol() = runBlockingTest {
+        servers.forEach { pings[it.server] = 100L to true }
+        coEvery { openVpn.prepareForConnection(any(), any(), true, any()) } coAnswers {
+            delay(5000)
+            emptyList()
+        }
+
+        val result = provider.pingAll(servers)
+
+        assertEquals(servers[0], result?.physicalServer)
+        assertEquals(100L, currentTime)
+    }
+
+    @Test
+    fun noResponses() = runBlockingTest {
+        servers.forEach { pings[it.server] = 100L to false }
+
+        assertNull(provider.pingAll(servers))
+    }
+}
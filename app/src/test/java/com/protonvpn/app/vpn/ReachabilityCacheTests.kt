@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.app.vpn
+
+import com.protonvpn.android.ProtonApplication
+import com.protonvpn.android.models.config.TransmissionProtocol
+import com.protonvpn.android.models.config.VpnProtocol
+import com.protonvpn.android.utils.PortScanner
+import com.protonvpn.android.vpn.ConnectivityMonitor
+import com.protonvpn.android.vpn.ReachabilityCache
+import io.mockk.MockKAnnotations
+import io.mockk.every
+import io.mockk.impl.annotations.MockK
+import io.mockk.mockk
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class ReachabilityCacheTests {
+
+    @MockK private lateinit var connectivityMonitor: ConnectivityMonitor
+    @MockK private lateinit var portScanner: PortScanner
+
+    private lateinit var cache: ReachabilityCache
+    private var time = 0L
+    private var respondingPorts = setOf<Int>()
+    private val scannedPorts = mutableListOf<List<Int>>()
+
+    @Before
+    fun setup() {
+        MockKAnnotations.init(this)
+        ProtonApplication.setAppContextForTest(mockk(relaxed = true))
+        every { connectivityMonitor.networkId } returns "wifi"
+        every { portScanner.scan(any()) } answers {
+            val probes = arg<List<PortScanner.Probe>>(0)
+            scannedPorts += probes.map { it.port }
+            probes.map { PortScanner.Result(it, it.port in respondingPorts, 10) }.asFlow()
+        }
+        cache = ReachabilityCache(connectivityMonitor, { time }, portScanner, persist = false)
+    }
+
+    private fun findPort(vararg ports: Int) = runBlocking {
+        cache.findReachablePort(
+            "1.2.3.4", VpnProtocol.OpenVPN, TransmissionProtocol.UDP, ports.toList(), byteArrayOf(1))
+    }
+
+    @Test
+    fun cachedPortIsProbedFirst() {
+        respondingPorts = setOf(2)
+        assertEquals(2, findPort(1, 2, 3))
+        assertEquals(2, findPort(1, 2, 3))
+
+        assertEquals(listOf(listOf(1, 2, 3), listOf(2)), scannedPorts)
+    }
+
+    @Test
+    fun blockedPortsAreSkipped() {
+        respondingPorts = setOf(3)
+        assertEquals(3, findPort(1, 2, 3, 4))
+        respondingPorts = setOf(1, 4)
+        assertEquals(4, findPort(1, 2, 3, 4))
+
+        assertEquals(listOf(listOf(1, 2, 3, 4), listOf(3), listOf(4)), scannedPorts)
+    }
+
+    @Test
+    fun blockedPortsAreProbedWhenNoOtherPortsAreLeft() {
+        respondingPorts = emptySet()
+        assertNull(findPort(1, 2))
+        respondingPorts = setOf(2)
+        assertEquals(2, findPort(1, 2))
+
+        assertEquals(listOf(listOf(1, 2), listOf(1, 2)), scannedPorts)
+    }
+
+    @Test
+    fun expiredEntriesAreIgnored() {
+        respondingPorts = emptySet()
+        assertNull(findPort(1, 2))
+        time += TimeUnit.HOURS.toMillis(1)
+        respondingPorts = setOf(1)
+        assertEquals(1, findPort(1, 2))
+
+        assertEquals(listOf(listOf(1, 2), listOf(1, 2)), scannedPorts)
+    }
+
+    @Test
+    fun unknownNetworkIsNotCached() {
+        every { connectivityMonitor.networkId } returns null
+        respondingPorts = setOf(2)
+        findPort(1, 2)
+        findPort(1, 2)
+
+        assertEquals(listOf(listOf(1, 2), listOf(1, 2)), scannedPorts)
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.benchmark
+
+import android.app.Instrumentation
+import android.os.Bundle
+import android.os.Debug
+import android.util.Log
+import androidx.test.platform.app.InstrumentationRegistry
+
+private const val TAG = "Benchmark"
+private const val ALLOCATION_ITERATIONS = 20
+
+/**
+ * Reports allocations per run of [block]. Allocations are counted outside of BenchmarkRule's timed loop so that
+ * counting doesn't affect the timings.
+ */
+@Suppress("DEPRECATION")
+fun reportAllocations(name: String, block: () -> Unit) {
+    block()
+    Debug.resetThreadAllocCount()
+    Debug.resetThreadAllocSize()
+    Debug.startAllocCounting()
+    repeat(ALLOCATION_ITERATIONS) { block() }
+    Debug.stopAllocCounting()
+
+    val count = Debug.getThreadAllocCount() / ALLOCATION_ITERATIONS
+    val size = Debug.getThreadAllocSize() / ALLOCATION_ITERATIONS
+    val message = "$name: $count allocations/op, $size bytes/op"
+    Log.i(TAG, message)
+    InstrumentationRegistry.getInstrumentation().sendStatus(0, Bundle().apply {
+        putString(Instrumentation.REPORT_KEY_STREAMRESULT, "$message\n")
+    })
+}
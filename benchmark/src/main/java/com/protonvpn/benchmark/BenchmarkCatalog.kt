@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.benchmark
+
+import com.protonvpn.android.models.vpn.LoadUpdate
+import com.protonvpn.android.models.vpn.Server
+import com.protonvpn.test.shared.MockedServers
+import java.util.Random
+
+/**
+ * Server catalog of a realistic size built from [MockedServers] templates.
+ */
+object BenchmarkCatalog {
+
+    const val LOGICALS = 2000
+    const val DOMAINS_PER_LOGICAL = 3
+
+    private val COUNTRIES = listOf(
+        "AE", "AR", "AT", "AU", "BE", "BG", "BR", "CA", "CH", "CL", "CO", "CR", "CY", "CZ", "DE", "DK", "EE", "ES",
+        "FI", "FR", "GR", "HK", "HU", "IE", "IL", "IN", "IS", "IT", "JP", "KR", "LT", "LU", "LV", "MD", "MX", "MY",
+        "NG", "NL", "NO", "NZ", "PE", "PL", "PT", "RO", "RS", "RU", "SE", "SG", "SI", "SK", "TR", "TW", "UA", "UK",
+        "US", "VN", "ZA"
+    )
+
+    fun createServers(
+        logicals: Int = LOGICALS,
+        domainsPerLogical: Int = DOMAINS_PER_LOGICAL,
+        random: Random = Random(0)
+    ): List<Server> {
+        val templates = MockedServers.serverList
+        return List(logicals) { i ->
+            val template = templates[i % templates.size]
+            val exitCountry = COUNTRIES[i % COUNTRIES.size]
+            val id = "benchmark-$i"
+            val domainTemplate = template.connectingDomains.first()
+            template.copy(
+                serverId = id,
+                serverName = "$exitCountry#$i",
+                exitCountry = exitCountry,
+                entryCountry = if (template.isSecureCoreServer) template.entryCountry else exitCountry,
+                domain = "node-$i.protonvpn.net",
+                load = random.nextInt(100).toFloat(),
+                score = random.nextFloat() * 5,
+                connectingDomains = List(domainsPerLogical) { d ->
+                    domainTemplate.copy(
+                        id = "$id-$d",
+                        entryIp = "10.${i / 256 % 256}.${i % 256}.$d",
+                        entryDomain = "node-$i-$d.protonvpn.net"
+                    )
+                }
+            )
+        }
+    }
+
+    fun createLoads(servers: List<Server>, random: Random = Random(1)): List<LoadUpdate> =
+        servers.map { LoadUpdate(it.serverId, random.nextInt(100).toFloat(), random.nextFloat() * 5) }
+}
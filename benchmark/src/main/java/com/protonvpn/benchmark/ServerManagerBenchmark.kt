@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.protonvpn.android.models.config.UserData
+import com.protonvpn.android.models.config.VpnProtocol
+import com.protonvpn.android.models.vpn.LoadUpdate
+import com.protonvpn.android.models.vpn.Server
+import com.protonvpn.android.models.vpn.VpnCountry
+import com.protonvpn.android.utils.ServerListStore
+import com.protonvpn.android.utils.ServerManager
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import java.util.Random
+
+@RunWith(AndroidJUnit4::class)
+class ServerManagerBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+    @get:Rule val tempFolder = TemporaryFolder()
+
+    private lateinit var servers: List<Server>
+    private lateinit var manager: ServerManager
+    private lateinit var largestCountry: VpnCountry
+    // Two sets of loads applied alternately so that every update changes the servers.
+    private lateinit var loads: List<List<LoadUpdate>>
+
+    @Before
+    fun setup() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        servers = BenchmarkCatalog.createServers()
+        manager = ServerManager(context, UserData.create(), ServerListStore(tempFolder.root) { it.run() })
+        manager.setServers(servers)
+        largestCountry = manager.getVpnCountries().maxByOrNull { it.serverList.size }!!
+        loads = listOf(
+            BenchmarkCatalog.createLoads(servers, Random(1)),
+            BenchmarkCatalog.createLoads(servers, Random(2))
+        )
+    }
+
+    @Test
+    fun setServers() {
+        benchmarkRule.measureRepeated {
+            manager.setServers(servers)
+        }
+        reportAllocations("setServers") { manager.setServers(servers) }
+    }
+
+    @Test
+    fun filterForProtocol() {
+        val countries = manager.getVpnCountries()
+        benchmarkRule.measureRepeated {
+            manager.filterForProtocol(countries, VpnProtocol.WireGuard)
+        }
+        reportAllocations("filterForProtocol") { manager.filterForProtocol(countries, VpnProtocol.WireGuard) }
+    }
+
+    @Test
+    fun getBestScoreServerInCountry() {
+        benchmarkRule.measureRepeated {
+            manager.getBestScoreServer(largestCountry)
+        }
+        reportAllocations("getBestScoreServer(country)") { manager.getBestScoreServer(largestCountry) }
+    }
+
+    @Test
+    fun getBestScoreServer() {
+        benchmarkRule.measureRepeated {
+            manager.getBestScoreServer(false)
+        }
+        reportAllocations("getBestScoreServer") { manager.getBestScoreServer(false) }
+    }
+
+    @Test
+    fun updateLoads() {
+        var i = 0
+        benchmarkRule.measureRepeated {
+            manager.updateLoads(loads[i++ % 2])
+        }
+        reportAllocations("updateLoads") { manager.updateLoads(loads[i++ % 2]) }
+    }
+}
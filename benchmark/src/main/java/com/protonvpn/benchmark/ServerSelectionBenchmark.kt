@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.protonvpn.android.models.config.UserData
+import com.protonvpn.android.models.profiles.Profile
+import com.protonvpn.android.utils.ServerListStore
+import com.protonvpn.android.utils.ServerManager
+import com.protonvpn.android.utils.UserPlanManager
+import com.protonvpn.android.vpn.PhysicalServer
+import com.protonvpn.android.vpn.VpnConnectionErrorHandler
+import io.mockk.every
+import io.mockk.mockk
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.MutableSharedFlow
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class ServerSelectionBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+    @get:Rule val tempFolder = TemporaryFolder()
+
+    private val scope = CoroutineScope(Job())
+    private lateinit var handler: VpnConnectionErrorHandler
+    private lateinit var profile: Profile
+    private lateinit var physicalServer: PhysicalServer
+
+    @Before
+    fun setup() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val userData = UserData.create()
+        val serverManager = ServerManager(context, userData, ServerListStore(tempFolder.root) { it.run() })
+        serverManager.setServers(BenchmarkCatalog.createServers())
+
+        val userPlanManager = mockk<UserPlanManager>(relaxed = true)
+        every { userPlanManager.infoChangeFlow } returns MutableSharedFlow()
+        handler = VpnConnectionErrorHandler(scope, context, mockk(relaxed = true), mockk(relaxed = true), userData,
+            userPlanManager, serverManager, mockk(relaxed = true), mockk(relaxed = true), mockk(relaxed = true),
+            mockk(relaxed = true), mockk(relaxed = true))
+
+        val server = serverManager.getBestScoreServer(false)!!
+        profile = Profile.getTempProfile(server, serverManager)
+        physicalServer = PhysicalServer(server, server.connectingDomains.first())
+    }
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun getCandidateServers() {
+        benchmarkRule.measureRepeated {
+            handler.getCandidateServers(profile, physicalServer, true)
+        }
+        reportAllocations("getCandidateServers") { handler.getCandidateServers(profile, physicalServer, true) }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2021 Proton Technologies AG
+ *
+ * This file is part of ProtonVPN.
+ *
+ * ProtonVPN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ProtonVPN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ProtonVPN.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.protonvpn.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.protonvpn.android.models.vpn.Server
+import com.protonvpn.android.utils.ServerListStore
+import com.protonvpn.android.utils.Storage
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class StorageBenchmark {
+
+    // Storage keys values by class name.
+    private class ServerListHolder(val servers: List<Server>)
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+    @get:Rule val tempFolder = TemporaryFolder()
+
+    private lateinit var holder: ServerListHolder
+
+    @Before
+    fun setup() {
+        holder = ServerListHolder(BenchmarkCatalog.createServers())
+    }
+
+    @After
+    fun tearDown() {
+        Storage.delete(ServerListHolder::class.java)
+    }
+
+    @Test
+    fun storageSave() {
+        benchmarkRule.measureRepeated {
+            Storage.save(holder)
+        }
+        reportAllocations("Storage.save") { Storage.save(holder) }
+    }
+
+    @Test
+    fun storageLoad() {
+        Storage.save(holder)
+        benchmarkRule.measureRepeated {
+            Storage.load(ServerListHolder::class.java)
+        }
+        reportAllocations("Storage.load") { Storage.load(ServerListHolder::class.java) }
+    }
+
+    @Test
+    fun serverListStoreSave() {
+        val store = ServerListStore(tempFolder.root) { it.run() }
+        benchmarkRule.measureRepeated {
+            store.save(holder.servers, null)
+        }
+        reportAllocations("ServerListStore.save") { store.save(holder.servers, null) }
+    }
+
+    @Test
+    fun serverListStoreLoad() {
+        val store = ServerListStore(tempFolder.root) { it.run() }
+        store.save(holder.servers, null)
+        benchmarkRule.measureRepeated {
+            store.load()
+        }
+        reportAllocations("ServerListStore.load") { store.load() }
+    }
+}
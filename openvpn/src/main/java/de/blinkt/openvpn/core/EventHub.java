@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Delivers events to listeners on a dispatch executor instead of the thread publishing them.
+ *
+ * Every listener has its own bounded queue and is drained by at most one task at a time, so
+ * listeners see events in the order they were published and a slow listener only delays (and
+ * eventually drops) its own events. Publishing never blocks: when a listener's queue is full the
+ * event is dropped for that listener and counted in its {@link Stats}.
+ */
+class EventHub<L> {
+
+    private static final String TAG = "EventHub";
+
+    interface Event<L> {
+        void deliver(L listener);
+    }
+
+    static final class Stats {
+        final String listener;
+        final long delivered;
+        final long dropped;
+        final int queued;
+        final long maxLagMs;
+
+        Stats(String listener, long delivered, long dropped, int queued, long maxLagMs) {
+            this.listener = listener;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.queued = queued;
+            this.maxLagMs = maxLagMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d delivered, %d dropped, %d queued, max lag %d ms",
+                    listener, delivered, dropped, queued, maxLagMs);
+        }
+    }
+
+    private static final Executor DISPATCHER = createDispatcher();
+
+    private final String mName;
+    private final Executor mExecutor;
+    private final int mQueueCapacity;
+    private final CopyOnWriteArrayList<Subscription<L>> mSubscriptions = new CopyOnWriteArrayList<>();
+
+    EventHub(String name, int queueCapacity) {
+        this(name, queueCapacity, DISPATCHER);
+    }
+
+    EventHub(String name, int queueCapacity, Executor executor) {
+        mName = name;
+        mQueueCapacity = queueCapacity;
+        mExecutor = executor;
+    }
+
+    /**
+     * Adds the listener unless it's already registered.
+     *
+     * @param initial delivered before any event published after this call, may be null
+     * @return false if the listener was already registered
+     */
+    boolean add(L listener, Event<L> initial) {
+        Subscription<L> subscription = new Subscription<>(listener, mQueueCapacity);
+        if (initial != null)
+            subscription.queue.offer(new Envelope<>(initial));
+        if (!mSubscriptions.addIfAbsent(subscription))
+            return false;
+        if (initial != null)
+            schedule(subscription);
+        return true;
+    }
+
+    /**
+     * Removes the listener. Events published before this call that are still queued for it are
+     * delivered (e.g. the final state published right before a service stops listening), events
+     * published after it are not.
+     */
+    void remove(L listener) {
+        for (Subscription<L> subscription : mSubscriptions) {
+            if (subscription.listener == listener)
+                mSubscriptions.remove(subscription);
+        }
+    }
+
+    void publish(Event<L> event) {
+        if (mSubscriptions.isEmpty())
+            return;
+        Envelope<L> envelope = new Envelope<>(event);
+        for (Subscription<L> subscription : mSubscriptions) {
+            if (subscription.queue.offer(envelope))
+                schedule(subscription);
+            else
+                subscription.dropped.incrementAndGet();
+        }
+    }
+
+    List<Stats> getStats() {
+        ArrayList<Stats> stats = new ArrayList<>();
+        for (Subscription<L> subscription : mSubscriptions) {
+            stats.add(new Stats(mName + " " + subscription.listener.getClass().getName(),
+                    subscription.delivered.get(), subscription.dropped.get(), subscription.queue.size(),
+                    TimeUnit.NANOSECONDS.toMillis(subscription.maxLagNanos.get())));
+        }
+        return stats;
+    }
+
+    private void schedule(final Subscription<L> subscription) {
+        if (subscription.scheduled.compareAndSet(false, true))
+            mExecutor.execute(subscription);
+    }
+
+    private static Executor createDispatcher() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "VpnStatusDispatch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        return executor;
+    }
+
+    private static final class Envelope<L> {
+        final Event<L> event;
+        final long publishedNanos = System.nanoTime();
+
+        Envelope(Event<L> event) {
+            this.event = event;
+        }
+    }
+
+    private static final class Subscription<L> implements Runnable {
+        final L listener;
+        final BoundedQueue<Envelope<L>> queue;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong maxLagNanos = new AtomicLong();
+
+        Subscription(L listener, int capacity) {
+            this.listener = listener;
+            this.queue = new BoundedQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Envelope<L> envelope;
+                while ((envelope = queue.poll()) != null) {
+                    long lag = System.nanoTime() - envelope.publishedNanos;
+                    if (lag > maxLagNanos.get())
+                        maxLagNanos.set(lag);
+                    try {
+                        envelope.event.deliver(listener);
+                    } catch (RuntimeException e) {
+                        // Not logged through VpnStatus, a failing log listener would get its own error
+                        Log.e(TAG, "Listener " + listener.getClass().getName() + " failed", e);
+                    }
+                    delivered.incrementAndGet();
+                }
+                scheduled.set(false);
+                // An event published after the queue was found empty but before the flag was reset
+                // didn't schedule a new run.
+                if (queue.isEmpty() || !scheduled.compareAndSet(false, true))
+                    return;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Subscription && ((Subscription<?>) o).listener == listener;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(listener);
+        }
+    }
+
+    /**
+     * Bounded multi-producer queue without locks (Dmitry Vyukov's bounded MPMC queue): each slot
+     * carries a sequence number telling producers and the consumer whose turn it is.
+     */
+    static final class BoundedQueue<T> {
+        private final int mMask;
+        private final AtomicReferenceArray<T> mItems;
+        private final AtomicLongArray mSequences;
+        private final AtomicLong mTail = new AtomicLong();
+        private final AtomicLong mHead = new AtomicLong();
+
+        BoundedQueue(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            mMask = size - 1;
+            mItems = new AtomicReferenceArray<>(size);
+            mSequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++)
+                mSequences.set(i, i);
+        }
+
+        boolean offer(T item) {
+            while (true) {
+                long tail = mTail.get();
+                int slot = (int) (tail & mMask);
+                long diff = mSequences.get(slot) - tail;
+                if (diff == 0) {
+                    if (mTail.compareAndSet(tail, tail + 1)) {
+                        mItems.set(slot, item);
+                        mSequences.set(slot, tail + 1);
+                        return true;
+                    }
+                } else if (diff < 0) {
+                    return false;
+                }
+            }
+        }
+
+        T poll() {
+            while (true) {
+                long head = mHead.get();
+                int slot = (int) (head & mMask);
+                long diff = mSequences.get(slot) - (head + 1);
+                if (diff == 0) {
+                    if (mHead.compareAndSet(head, head + 1)) {
+                        T item = mItems.get(slot);
+                        mItems.set(slot, null);
+                        mSequences.set(slot, head + mMask + 1);
+                        return item;
+                    }
+                } else if (diff < 0) {
+                    return null;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return size() == 0;
+        }
+
+        int size() {
+            return (int) Math.max(0, mTail.get() - mHead.get());
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Log cache made of memory-mapped segments. Each segment has a data file with length-prefixed,
+ * checksummed records and an index file with the end offset of every record, so the newest
+ * records can be read by seeking instead of scanning. When a segment is full a new one is
+ * started and the oldest ones are deleted, nothing is ever rewritten.
+ *
+ * Not thread safe, all calls are made from the log file handler thread.
+ */
+class LogCache {
+    private static final String DATA_SUFFIX = ".dat";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String PREFIX = "segment-";
+    // length and CRC32 of the record
+    private static final int RECORD_HEADER = 8;
+
+    private final File mDirectory;
+    private final int mSegmentBytes;
+    private final int mEntriesPerSegment;
+    private final int mSegmentsToKeep;
+
+    private long mSegment = -1;
+    private MappedByteBuffer mData;
+    private MappedByteBuffer mIndex;
+    private int mEntries;
+    private int mDataEnd;
+    private final CRC32 mCrc = new CRC32();
+
+    LogCache(File directory, int segmentBytes, int entriesPerSegment, int segmentsToKeep) {
+        mDirectory = directory;
+        mSegmentBytes = segmentBytes;
+        mEntriesPerSegment = entriesPerSegment;
+        mSegmentsToKeep = segmentsToKeep;
+    }
+
+    /**
+     * Returns up to {@code count} of the newest records, oldest first. Records that are damaged,
+     * e.g. because the process died while writing them, are skipped.
+     */
+    List<byte[]> readLast(int count) throws IOException {
+        ArrayList<byte[]> records = new ArrayList<>();
+        long[] segments = listSegments();
+        for (int s = segments.length - 1; s >= 0 && records.size() < count; s--) {
+            if (segments[s] == mSegment) {
+                readRecords(mData, mIndex, mEntries, count - records.size(), records);
+            } else {
+                try (RandomAccessFile data = new RandomAccessFile(dataFile(segments[s]), "r");
+                     RandomAccessFile index = new RandomAccessFile(indexFile(segments[s]), "r")) {
+                    MappedByteBuffer dataMap = data.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, data.length());
+                    MappedByteBuffer indexMap = index.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, index.length());
+                    readRecords(dataMap, indexMap, countEntries(indexMap), count - records.size(), records);
+                }
+            }
+        }
+        Collections.reverse(records);
+        return records;
+    }
+
+    /**
+     * Adds the records (in reverse order) of the last {@code count} entries of a segment.
+     */
+    private void readRecords(MappedByteBuffer data, MappedByteBuffer index, int entries, int count,
+                             List<byte[]> records) {
+        int first = Math.max(0, entries - count);
+        for (int i = entries - 1; i >= first; i--) {
+            int start = i == 0 ? 0 : index.getInt((i - 1) * 4);
+            int end = index.getInt(i * 4);
+            byte[] record = readRecord(data, start, end);
+            if (record != null)
+                records.add(record);
+        }
+    }
+
+    private byte[] readRecord(MappedByteBuffer data, int start, int end) {
+        if (start < 0 || end > data.capacity() || end - start < RECORD_HEADER)
+            return null;
+        int length = data.getInt(start);
+        if (length != end - start - RECORD_HEADER)
+            return null;
+        byte[] record = new byte[length];
+        for (int i = 0; i < length; i++)
+            record[i] = data.get(start + RECORD_HEADER + i);
+        mCrc.reset();
+        mCrc.update(record, 0, length);
+        return (int) mCrc.getValue() == data.getInt(start + 4) ? record : null;
+    }
+
+    void append(byte[] record) throws IOException {
+        int size = RECORD_HEADER + record.length;
+        if (size > mSegmentBytes)
+            throw new IOException("Log record too large: " + record.length);
+        if (mData == null)
+            openNewestSegment();
+        if (mEntries == mEntriesPerSegment || mDataEnd + size > mSegmentBytes)
+            rotate();
+
+        mCrc.reset();
+        mCrc.update(record, 0, record.length);
+        mData.putInt(mDataEnd, record.length);
+        mData.putInt(mDataEnd + 4, (int) mCrc.getValue());
+        for (int i = 0; i < record.length; i++)
+            mData.put(mDataEnd + RECORD_HEADER + i, record[i]);
+        mDataEnd += size;
+        // The index entry is written last, readers never see a record that isn't complete
+        mIndex.putInt(mEntries * 4, mDataEnd);
+        mEntries++;
+    }
+
+    void flush() {
+        if (mData != null) {
+            mData.force();
+            mIndex.force();
+        }
+    }
+
+    /**
+     * Deletes all segments.
+     */
+    void clear() {
+        mData = null;
+        mIndex = null;
+        mSegment = -1;
+        for (long segment : listSegments()) {
+            dataFile(segment).delete();
+            indexFile(segment).delete();
+        }
+    }
+
+    private void openNewestSegment() throws IOException {
+        long[] segments = listSegments();
+        if (segments.length == 0) {
+            openSegment(0);
+        } else {
+            openSegment(segments[segments.length - 1]);
+            mEntries = countEntries(mIndex);
+            mDataEnd = mEntries == 0 ? 0 : mIndex.getInt((mEntries - 1) * 4);
+            if (mDataEnd < 0 || mDataEnd > mSegmentBytes)
+                rotate();
+        }
+    }
+
+    private void rotate() throws IOException {
+        flush();
+        openSegment(mSegment + 1);
+        long[] segments = listSegments();
+        for (int i = 0; i < segments.length - mSegmentsToKeep; i++) {
+            dataFile(segments[i]).delete();
+            indexFile(segments[i]).delete();
+        }
+    }
+
+    private void openSegment(long segment) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            throw new IOException("Cannot create log cache directory " + mDirectory);
+        try (RandomAccessFile data = new RandomAccessFile(dataFile(segment), "rw");
+             RandomAccessFile index = new RandomAccessFile(indexFile(segment), "rw")) {
+            mData = data.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentBytes);
+            mIndex = index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mEntriesPerSegment * 4L);
+        }
+        mSegment = segment;
+        mEntries = 0;
+        mDataEnd = 0;
+    }
+
+    /**
+     * The index holds increasing end offsets followed by zeros, the number of entries is found
+     * with a binary search.
+     */
+    private static int countEntries(MappedByteBuffer index) {
+        int low = 0, high = index.capacity() / 4;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.getInt(mid * 4) > 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private long[] listSegments() {
+        String[] names = mDirectory.list();
+        if (names == null)
+            return new long[0];
+        long[] segments = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (!name.startsWith(PREFIX) || !name.endsWith(DATA_SUFFIX))
+                continue;
+            try {
+                long segment = Long.parseLong(name.substring(PREFIX.length(), name.length() - DATA_SUFFIX.length()));
+                if (indexFile(segment).exists())
+                    segments[count++] = segment;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private File dataFile(long segment) {
+        return new File(mDirectory, PREFIX + segment + DATA_SUFFIX);
+    }
+
+    private File indexFile(long segment) {
+        return new File(mDirectory, PREFIX + segment + INDEX_SUFFIX);
+    }
+}
@@ -9,17 +9,11 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.BufferOverflowException;
-import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Locale;
 
 import de.blinkt.openvpn.R;
@@ -32,10 +26,16 @@ class LogFileHandler extends Handler {
     static final int FLUSH_TO_DISK = 101;
     static final int LOG_INIT = 102;
     public static final int LOG_MESSAGE = 103;
-    public static final int MAGIC_BYTE = 0x55;
-    protected OutputStream mLogFile;
 
-    public static final String LOGFILE_NAME = "logcache.dat";
+    private static final String LOGCACHE_DIR = "logcache";
+    // Escaped stream used by earlier versions, it is deleted on start
+    private static final String LEGACY_LOGFILE_NAME = "logcache.dat";
+    // Keeping three segments of half the log buffer always leaves enough entries to restore it
+    private static final int SEGMENT_ENTRIES = VpnStatus.MAXLOGENTRIES / 2;
+    private static final int SEGMENTS_TO_KEEP = 3;
+    private static final int SEGMENT_BYTES = 256 * 1024;
+
+    protected LogCache mLogCache;
 
 
     public LogFileHandler(Looper looper) {
@@ -47,21 +47,28 @@ class LogFileHandler extends Handler {
     public void handleMessage(Message msg) {
         try {
             if (msg.what == LOG_INIT) {
-                if (mLogFile != null)
-                    throw new RuntimeException("mLogFile not null");
-                readLogCache((File) msg.obj);
-                openLogFile((File) msg.obj);
+                if (mLogCache != null)
+                    throw new RuntimeException("mLogCache not null");
+                File cacheDir = (File) msg.obj;
+                new File(cacheDir, LEGACY_LOGFILE_NAME).delete();
+                mLogCache = new LogCache(new File(cacheDir, LOGCACHE_DIR), SEGMENT_BYTES, SEGMENT_ENTRIES,
+                        SEGMENTS_TO_KEEP);
+                readLogCache();
             } else if (msg.what == LOG_MESSAGE && msg.obj instanceof LogItem) {
                 // Ignore log messages if not yet initialized
-                if (mLogFile == null)
+                if (mLogCache == null)
                     return;
-                writeLogItemToDisk((LogItem) msg.obj);
+                mLogCache.append(((LogItem) msg.obj).getMarschaledBytes());
             } else if (msg.what == TRIM_LOG_FILE) {
-                trimLogFile();
+                // Sent when the log is cleared, segments are rotated as they fill up otherwise
+                if (mLogCache == null)
+                    return;
+                mLogCache.clear();
                 for (LogItem li : VpnStatus.getlogbuffer())
-                    writeLogItemToDisk(li);
+                    mLogCache.append(li.getMarschaledBytes());
             } else if (msg.what == FLUSH_TO_DISK) {
-                flushToDisk();
+                if (mLogCache != null)
+                    mLogCache.flush();
             }
 
         } catch (IOException | BufferOverflowException e) {
@@ -72,72 +79,14 @@ class LogFileHandler extends Handler {
 
     }
 
-    private void flushToDisk() throws IOException {
-        mLogFile.flush();
-    }
-
-    private void trimLogFile() {
+    protected void readLogCache() {
         try {
-            mLogFile.flush();
-            ((FileOutputStream) mLogFile).getChannel().truncate(0);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void writeLogItemToDisk(LogItem li) throws IOException {
-
-        // We do not really care if the log cache breaks between Android upgrades,
-        // write binary format to disc
-
-        byte[] liBytes = li.getMarschaledBytes();
-
-        writeEscapedBytes(liBytes);
-    }
-
-    public void writeEscapedBytes(byte[] bytes) throws IOException {
-        int magic = 0;
-        for (byte b : bytes)
-            if (b == MAGIC_BYTE || b == MAGIC_BYTE + 1)
-                magic++;
-
-        byte eBytes[] = new byte[bytes.length + magic];
-
-        int i = 0;
-        for (byte b : bytes) {
-            if (b == MAGIC_BYTE || b == MAGIC_BYTE + 1) {
-                eBytes[i++] = MAGIC_BYTE + 1;
-                eBytes[i++] = (byte) (b - MAGIC_BYTE);
-            } else {
-                eBytes[i++] = b;
-            }
-        }
-
-        byte[] lenBytes = ByteBuffer.allocate(4).putInt(bytes.length).array();
-        synchronized (mLogFile) {
-            mLogFile.write(MAGIC_BYTE);
-            mLogFile.write(lenBytes);
-            mLogFile.write(eBytes);
-        }
-    }
-
-    private void openLogFile(File cacheDir) throws FileNotFoundException {
-        File logfile = new File(cacheDir, LOGFILE_NAME);
-        mLogFile = new FileOutputStream(logfile);
-    }
-
-    private void readLogCache(File cacheDir) {
-        try {
-            File logfile = new File(cacheDir, LOGFILE_NAME);
-
-
-            if (!logfile.exists() || !logfile.canRead())
-                return;
-
-            FileInputStream log = new FileInputStream(logfile);
-            readCacheContents(log);
-            log.close();
-
+            // We do not really care if the log cache breaks between Android upgrades,
+            // the records are the binary format of LogItem
+            List<byte[]> records = mLogCache.readLast(VpnStatus.MAXLOGENTRIES);
+            for (byte[] record : records)
+                restoreLogItem(record, record.length);
+            VpnStatus.logDebug(R.string.reread_log, records.size());
         } catch (java.io.IOException | java.lang.RuntimeException e) {
             VpnStatus.logError("Reading cached logfile failed");
             VpnStatus.logException(e);
@@ -151,69 +100,6 @@ class LogFileHandler extends Handler {
         }
     }
 
-
-    protected void readCacheContents(InputStream in) throws IOException {
-        BufferedInputStream logFile = new BufferedInputStream(in);
-
-        byte[] buf = new byte[16384];
-        int read = logFile.read(buf, 0, 5);
-        int itemsRead = 0;
-
-
-        readloop:
-        while (read >= 5) {
-            int skipped = 0;
-            while (buf[skipped] != MAGIC_BYTE) {
-                skipped++;
-                if (!(logFile.read(buf, skipped + 4, 1) == 1) || skipped + 10 > buf.length) {
-                    VpnStatus.logDebug(String.format(Locale.US, "Skipped %d bytes and no a magic byte found", skipped));
-                    break readloop;
-                }
-            }
-            if (skipped > 0)
-                VpnStatus.logDebug(String.format(Locale.US, "Skipped %d bytes before finding a magic byte", skipped));
-
-            int len = ByteBuffer.wrap(buf, skipped + 1, 4).asIntBuffer().get();
-
-            // Marshalled LogItem
-            int pos = 0;
-            byte buf2[] = new byte[buf.length];
-
-            while (pos < len) {
-                byte b = (byte) logFile.read();
-                if (b == MAGIC_BYTE) {
-                    VpnStatus.logDebug(String.format(Locale.US, "Unexpected magic byte found at pos %d, abort current log item", pos));
-                    read = logFile.read(buf, 1, 4) + 1;
-                    continue readloop;
-                } else if (b == MAGIC_BYTE + 1) {
-                    b = (byte) logFile.read();
-                    if (b == 0)
-                        b = MAGIC_BYTE;
-                    else if (b == 1)
-                        b = MAGIC_BYTE + 1;
-                    else {
-                        VpnStatus.logDebug(String.format(Locale.US, "Escaped byte not 0 or 1: %d", b));
-                        read = logFile.read(buf, 1, 4) + 1;
-                        continue readloop;
-                    }
-                }
-                buf2[pos++] = b;
-            }
-
-            restoreLogItem(buf2, len);
-
-            //Next item
-            read = logFile.read(buf, 0, 5);
-            itemsRead++;
-            if (itemsRead > 2 * VpnStatus.MAXLOGENTRIES) {
-                VpnStatus.logError("Too many logentries read from cache, aborting.");
-                read = 0;
-            }
-
-        }
-        VpnStatus.logDebug(R.string.reread_log, itemsRead);
-    }
-
     protected void restoreLogItem(byte[] buf, int len) throws UnsupportedEncodingException {
 
         LogItem li = new LogItem(buf, len);
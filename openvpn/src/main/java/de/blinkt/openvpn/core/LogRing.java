@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the newest log items in a fixed-size ring. Adding an item doesn't take a lock, so logging
+ * threads never wait for a reader taking a snapshot.
+ *
+ * Every slot has a sequence number that is written after the item, a reader only takes an item
+ * if the sequence matches before and after reading it. Items restored from the log cache of a
+ * previous run are kept separately and always come before the items added in this run.
+ */
+class LogRing {
+    private final int mCapacity;
+    private final AtomicReferenceArray<LogItem> mItems;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mNext = new AtomicLong();
+    // Sequence of the first item that has not been cleared.
+    private volatile long mStart;
+    private final List<LogItem> mRestored = new ArrayList<>();
+
+    LogRing(int capacity) {
+        mCapacity = capacity;
+        mItems = new AtomicReferenceArray<>(capacity);
+        mSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            mSequences.set(i, -1);
+    }
+
+    /**
+     * @return the sequence number of the item, counting all items ever added
+     */
+    long add(LogItem item) {
+        long sequence = mNext.getAndIncrement();
+        int slot = (int) (sequence % mCapacity);
+        mSequences.set(slot, -1);
+        mItems.set(slot, item);
+        mSequences.set(slot, sequence);
+        return sequence;
+    }
+
+    /**
+     * Adds an item from a previous run, it's placed after the restored items added before and
+     * before all items added with {@link #add}.
+     */
+    void addRestored(LogItem item) {
+        synchronized (mRestored) {
+            mRestored.add(item);
+            if (mRestored.size() > mCapacity)
+                mRestored.remove(0);
+        }
+    }
+
+    void clear() {
+        synchronized (mRestored) {
+            mRestored.clear();
+        }
+        mStart = mNext.get();
+    }
+
+    /**
+     * Returns at most capacity of the newest items, oldest first. Items that are being
+     * overwritten while the snapshot is taken are skipped.
+     */
+    LogItem[] snapshot() {
+        long end = mNext.get();
+        long start = Math.max(mStart, end - mCapacity);
+        ArrayList<LogItem> items = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence % mCapacity);
+            if (mSequences.get(slot) != sequence)
+                continue;
+            LogItem item = mItems.get(slot);
+            if (mSequences.get(slot) == sequence)
+                items.add(item);
+        }
+
+        synchronized (mRestored) {
+            int restored = Math.min(mRestored.size(), mCapacity - items.size());
+            items.addAll(0, mRestored.subList(mRestored.size() - restored, mRestored.size()));
+        }
+        return items.toArray(new LogItem[0]);
+    }
+}
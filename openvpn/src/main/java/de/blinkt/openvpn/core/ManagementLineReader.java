@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits the output of the management interface into lines. The lines are framed in place in a
+ * reusable buffer and dispatched on their prefix: the real-time notifications that keep arriving
+ * for the whole session (BYTECOUNT, STATE and LOG) are parsed directly from the bytes, everything
+ * else is passed on as a string.
+ */
+class ManagementLineReader {
+
+    interface Callback {
+        /** >BYTECOUNT:{BYTES_IN},{BYTES_OUT} */
+        void onByteCount(long in, long out);
+
+        /** >STATE:{TIME},{STATE},{REST}, with an empty message if the rest has no information */
+        void onState(long time, String state, String message);
+
+        /** >LOG:{TIME},{FLAGS},{LEVEL},{MESSAGE} */
+        void onLog(long time, VpnStatus.LogLevel level, int ovpnLevel, String message);
+
+        /** Any other line, or one of the above that couldn't be parsed */
+        void onLine(String line);
+    }
+
+    private static final int BYTECOUNT = 0;
+    private static final int STATE = 1;
+    private static final int LOG = 2;
+
+    private static final byte[][] PREFIXES = {
+            ascii(">BYTECOUNT:"), ascii(">STATE:"), ascii(">LOG:")
+    };
+
+    // Names of the states reported by OpenVPN, shared instead of decoded for every line.
+    private static final String[] STATES = {
+            "CONNECTING", "WAIT", "AUTH", "GET_CONFIG", "ASSIGN_IP", "ADD_ROUTES", "CONNECTED",
+            "RECONNECTING", "EXITING", "RESOLVE", "TCP_CONNECT", "AUTH_PENDING"
+    };
+    private static final byte[][] STATE_BYTES = new byte[STATES.length][];
+
+    static {
+        for (int i = 0; i < STATES.length; i++)
+            STATE_BYTES[i] = ascii(STATES[i]);
+    }
+
+    private final Callback mCallback;
+    private ByteBuffer mBuffer = ByteBuffer.allocate(2048);
+
+    // Value of the number parsed last.
+    private long mParsed;
+
+    ManagementLineReader(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Reads once from the stream into the buffer, the lines are dispatched by {@link #processLines}.
+     *
+     * @return false if the end of the stream has been reached
+     */
+    boolean read(InputStream in) throws IOException {
+        if (!mBuffer.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(mBuffer.capacity() * 2);
+            mBuffer.flip();
+            larger.put(mBuffer);
+            mBuffer = larger;
+        }
+        int read = in.read(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(), mBuffer.remaining());
+        if (read == -1)
+            return false;
+        mBuffer.position(mBuffer.position() + read);
+        return true;
+    }
+
+    /**
+     * Dispatches all complete lines in the buffer and keeps the incomplete rest.
+     */
+    void processLines() {
+        byte[] data = mBuffer.array();
+        int end = mBuffer.position();
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            if (data[i] != '\n')
+                continue;
+            int lineEnd = i > start && data[i - 1] == '\r' ? i - 1 : i;
+            processLine(data, start, lineEnd);
+            start = i + 1;
+        }
+        mBuffer.flip();
+        mBuffer.position(start);
+        mBuffer.compact();
+    }
+
+    private void processLine(byte[] data, int start, int end) {
+        int command = -1;
+        for (int i = 0; i < PREFIXES.length; i++) {
+            if (startsWith(data, start, end, PREFIXES[i])) {
+                command = i;
+                break;
+            }
+        }
+        int argument = command >= 0 ? start + PREFIXES[command].length : start;
+        boolean parsed;
+        switch (command) {
+            case BYTECOUNT:
+                parsed = processByteCount(data, argument, end);
+                break;
+            case STATE:
+                parsed = processState(data, argument, end);
+                break;
+            case LOG:
+                parsed = processLog(data, argument, end);
+                break;
+            default:
+                parsed = false;
+                break;
+        }
+        if (!parsed)
+            mCallback.onLine(decode(data, start, end));
+    }
+
+    private boolean processByteCount(byte[] data, int start, int end) {
+        int comma = indexOf(data, start, end, ',');
+        if (comma < 0 || !parseLong(data, start, comma))
+            return false;
+        long in = mParsed;
+        if (!parseLong(data, comma + 1, end))
+            return false;
+        mCallback.onByteCount(in, mParsed);
+        return true;
+    }
+
+    private boolean processState(byte[] data, int start, int end) {
+        int timeEnd = indexOf(data, start, end, ',');
+        if (timeEnd < 0 || !parseLong(data, start, timeEnd))
+            return false;
+        long time = mParsed;
+        int stateStart = timeEnd + 1;
+        int stateEnd = indexOf(data, stateStart, end, ',');
+        if (stateEnd < 0)
+            return false;
+        String state = null;
+        for (int i = 0; i < STATES.length && state == null; i++) {
+            if (regionEquals(data, stateStart, stateEnd, STATE_BYTES[i]))
+                state = STATES[i];
+        }
+        if (state == null)
+            state = decode(data, stateStart, stateEnd);
+
+        int restStart = stateEnd + 1;
+        boolean empty = end - restStart == 2 && data[restStart] == ',' && data[restStart + 1] == ',';
+        mCallback.onState(time, state, empty ? "" : decode(data, restStart, end));
+        return true;
+    }
+
+    private boolean processLog(byte[] data, int start, int end) {
+        int timeEnd = indexOf(data, start, end, ',');
+        if (timeEnd < 0 || !parseLong(data, start, timeEnd))
+            return false;
+        long time = mParsed;
+        int flagsStart = timeEnd + 1;
+        int flagsEnd = indexOf(data, flagsStart, end, ',');
+        int levelEnd = flagsEnd < 0 ? -1 : indexOf(data, flagsEnd + 1, end, ',');
+        if (levelEnd < 0 || !parseLong(data, flagsEnd + 1, levelEnd))
+            return false;
+        int ovpnLevel = (int) mParsed & 0x0F;
+
+        // Flags: I informational, F fatal error, N non-fatal error, W warning, D debug
+        VpnStatus.LogLevel level = VpnStatus.LogLevel.INFO;
+        if (flagsEnd - flagsStart == 1) {
+            switch (data[flagsStart]) {
+                case 'W':
+                    level = VpnStatus.LogLevel.WARNING;
+                    break;
+                case 'D':
+                    level = VpnStatus.LogLevel.VERBOSE;
+                    break;
+                case 'F':
+                    level = VpnStatus.LogLevel.ERROR;
+                    break;
+            }
+        }
+        mCallback.onLog(time, level, ovpnLevel, decode(data, levelEnd + 1, end));
+        return true;
+    }
+
+    /**
+     * Parses the decimal number in [start, end) into {@link #mParsed}.
+     */
+    private boolean parseLong(byte[] data, int start, int end) {
+        int i = start;
+        boolean negative = i < end && data[i] == '-';
+        if (negative)
+            i++;
+        if (i == end)
+            return false;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10)
+                return false;
+            value = value * 10 + digit;
+        }
+        mParsed = negative ? -value : value;
+        return true;
+    }
+
+    private static int indexOf(byte[] data, int start, int end, int b) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] data, int start, int end, byte[] prefix) {
+        return end - start >= prefix.length && regionEquals(data, start, start + prefix.length, prefix);
+    }
+
+    private static boolean regionEquals(byte[] data, int start, int end, byte[] other) {
+        if (end - start != other.length)
+            return false;
+        for (int i = 0; i < other.length; i++) {
+            if (data[start + i] != other[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static String decode(byte[] data, int start, int end) {
+        return new String(data, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -8,11 +8,11 @@ package de.blinkt.openvpn.core;
 import android.os.Build;
 import androidx.annotation.NonNull;
 
-import java.math.BigInteger;
 import java.net.Inet6Address;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
-import java.util.PriorityQueue;
 import java.util.TreeSet;
 import java.util.Vector;
 
@@ -28,13 +28,15 @@ public class NetworkSpace {
             throw new IllegalStateException();
     }
 
+    /**
+     * A network with its address kept in two longs, IPv4 addresses use only the lower 32 bits of {@code lo}.
+     */
     static class IpAddress implements Comparable<IpAddress> {
-        private BigInteger netAddress;
+        private final long netHi;
+        private final long netLo;
         public int networkMask;
         private boolean included;
         private boolean isV4;
-        private BigInteger firstAddress;
-        private BigInteger lastAddress;
 
 
         /**
@@ -44,7 +46,7 @@ public class NetworkSpace {
          */
         @Override
         public int compareTo(@NonNull IpAddress another) {
-            int comp = getFirstAddress().compareTo(another.getFirstAddress());
+            int comp = compareUnsigned(getFirstHi(), getFirstLo(), another.getFirstHi(), another.getFirstLo());
             if (comp != 0)
                 return comp;
 
@@ -69,60 +71,60 @@ public class NetworkSpace {
 
 
             IpAddress on = (IpAddress) o;
-            return (networkMask == on.networkMask) && on.getFirstAddress().equals(getFirstAddress());
+            return (networkMask == on.networkMask) && on.getFirstHi() == getFirstHi() && on.getFirstLo() == getFirstLo();
+        }
+
+        @Override
+        public int hashCode() {
+            long first = getFirstHi() * 31 + getFirstLo();
+            return (int) (first ^ (first >>> 32)) * 31 + networkMask;
         }
 
         public IpAddress(CIDRIP ip, boolean include) {
-            included = include;
-            netAddress = BigInteger.valueOf(ip.getInt());
-            networkMask = ip.len;
-            isV4 = true;
+            this(0, ip.getInt(), ip.len, include, true);
         }
 
         public IpAddress(Inet6Address address, int mask, boolean include) {
-            networkMask = mask;
-            included = include;
-
-            int s = 128;
+            this(bytesToLong(address.getAddress(), 0), bytesToLong(address.getAddress(), 8), mask, include, false);
+        }
 
-            netAddress = BigInteger.ZERO;
-            for (byte b : address.getAddress()) {
-                s -= 8;
-                netAddress = netAddress.add(BigInteger.valueOf((b & 0xFF)).shiftLeft(s));
-            }
+        IpAddress(long netHi, long netLo, int mask, boolean included, boolean isV4) {
+            this.netHi = netHi;
+            this.netLo = netLo;
+            this.networkMask = mask;
+            this.included = included;
+            this.isV4 = isV4;
         }
 
-        public BigInteger getLastAddress() {
-            if (lastAddress == null)
-                lastAddress = getMaskedAddress(true);
-            return lastAddress;
+        private static long bytesToLong(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = offset; i < offset + 8; i++)
+                value = (value << 8) | (bytes[i] & 0xFF);
+            return value;
         }
 
+        private int hostBits() {
+            return (isV4 ? 32 : 128) - networkMask;
+        }
 
-        public BigInteger getFirstAddress() {
-            if (firstAddress == null)
-                firstAddress = getMaskedAddress(false);
-            return firstAddress;
+        long getFirstHi() {
+            return netHi & ~hostMaskHi(hostBits());
         }
 
+        long getFirstLo() {
+            return netLo & ~hostMaskLo(hostBits());
+        }
 
-        private BigInteger getMaskedAddress(boolean one) {
-            BigInteger numAddress = netAddress;
+        long getLastHi() {
+            return netHi | hostMaskHi(hostBits());
+        }
 
-            int numBits;
-            if (isV4) {
-                numBits = 32 - networkMask;
-            } else {
-                numBits = 128 - networkMask;
-            }
+        long getLastLo() {
+            return netLo | hostMaskLo(hostBits());
+        }
 
-            for (int i = 0; i < numBits; i++) {
-                if (one)
-                    numAddress = numAddress.setBit(i);
-                else
-                    numAddress = numAddress.clearBit(i);
-            }
-            return numAddress;
+        boolean isIncluded() {
+            return included;
         }
 
 
@@ -135,42 +137,39 @@ public class NetworkSpace {
                 return String.format(Locale.US, "%s/%d", getIPv6Address(), networkMask);
         }
 
-        IpAddress(BigInteger baseAddress, int mask, boolean included, boolean isV4) {
-            this.netAddress = baseAddress;
-            this.networkMask = mask;
-            this.included = included;
-            this.isV4 = isV4;
-        }
-
 
         public IpAddress[] split() {
-            IpAddress firstHalf = new IpAddress(getFirstAddress(), networkMask + 1, included, isV4);
-            IpAddress secondHalf = new IpAddress(firstHalf.getLastAddress().add(BigInteger.ONE), networkMask + 1, included, isV4);
+            int bits = hostBits() - 1;
+            IpAddress firstHalf = new IpAddress(getFirstHi(), getFirstLo(), networkMask + 1, included, isV4);
+            IpAddress secondHalf = new IpAddress(getFirstHi() | bit(bits, true), getFirstLo() | bit(bits, false),
+                networkMask + 1, included, isV4);
             if (BuildConfig.DEBUG)
-                assertTrue(secondHalf.getLastAddress().equals(getLastAddress()));
+                assertTrue(secondHalf.getLastHi() == getLastHi() && secondHalf.getLastLo() == getLastLo());
             return new IpAddress[]{firstHalf, secondHalf};
         }
 
         String getIPv4Address() {
             if (BuildConfig.DEBUG) {
                 assertTrue(isV4);
-                assertTrue(netAddress.longValue() <= 0xffffffffl);
-                assertTrue(netAddress.longValue() >= 0);
+                assertTrue(netHi == 0);
+                assertTrue(netLo <= 0xffffffffl);
+                assertTrue(netLo >= 0);
             }
-            long ip = netAddress.longValue();
+            long ip = netLo;
             return String.format(Locale.US, "%d.%d.%d.%d", (ip >> 24) % 256, (ip >> 16) % 256, (ip >> 8) % 256, ip % 256);
         }
 
         String getIPv6Address() {
             if (BuildConfig.DEBUG) assertTrue(!isV4);
-            BigInteger r = netAddress;
+            long hi = netHi;
+            long lo = netLo;
 
             String ipv6str = null;
             boolean lastPart = true;
 
-            while (r.compareTo(BigInteger.ZERO) == 1) {
+            while (hi != 0 || lo != 0) {
 
-                long part = r.mod(BigInteger.valueOf(0x10000)).longValue();
+                long part = lo & 0xffff;
                 if (ipv6str != null || part != 0) {
                     if (ipv6str == null && !lastPart)
                             ipv6str = ":";
@@ -181,7 +180,8 @@ public class NetworkSpace {
                         ipv6str = String.format(Locale.US, "%x:%s", part, ipv6str);
                 }
 
-                r = r.shiftRight(16);
+                lo = (lo >>> 16) | (hi << 48);
+                hi >>>= 16;
                 lastPart = false;
             }
             if (ipv6str == null)
@@ -193,18 +193,35 @@ public class NetworkSpace {
 
         public boolean containsNet(IpAddress network) {
             // this.first >= net.first &&  this.last <= net.last
-            BigInteger ourFirst = getFirstAddress();
-            BigInteger ourLast = getLastAddress();
-            BigInteger netFirst = network.getFirstAddress();
-            BigInteger netLast = network.getLastAddress();
-
-            boolean a = ourFirst.compareTo(netFirst) != 1;
-            boolean b = ourLast.compareTo(netLast) != -1;
+            boolean a = compareUnsigned(getFirstHi(), getFirstLo(), network.getFirstHi(), network.getFirstLo()) <= 0;
+            boolean b = compareUnsigned(getLastHi(), getLastLo(), network.getLastHi(), network.getLastLo()) >= 0;
             return a && b;
 
         }
     }
 
+    static int compareUnsigned(long hiA, long loA, long hiB, long loB) {
+        int comp = Long.compare(hiA + Long.MIN_VALUE, hiB + Long.MIN_VALUE);
+        return comp != 0 ? comp : Long.compare(loA + Long.MIN_VALUE, loB + Long.MIN_VALUE);
+    }
+
+    // Half of a 128 bit mask with the lowest bits set.
+    static long hostMaskHi(int bits) {
+        return bits <= 64 ? 0 : bits == 128 ? -1L : (1L << (bits - 64)) - 1;
+    }
+
+    static long hostMaskLo(int bits) {
+        return bits >= 64 ? -1L : (1L << bits) - 1;
+    }
+
+    // Half of a 128 bit value with only bit set.
+    private static long bit(int bit, boolean hi) {
+        if (hi)
+            return bit >= 64 ? 1L << (bit - 64) : 0;
+        else
+            return bit < 64 ? 1L << bit : 0;
+    }
+
 
     TreeSet<IpAddress> mIpAddresses = new TreeSet<IpAddress>();
 
@@ -239,96 +256,126 @@ public class NetworkSpace {
         mIpAddresses.add(new IpAddress(address, mask, included));
     }
 
-    TreeSet<IpAddress> generateIPList() {
-
-        PriorityQueue<IpAddress> networks = new PriorityQueue<IpAddress>(mIpAddresses);
-
-        TreeSet<IpAddress> ipsDone = new TreeSet<IpAddress>();
-
-        IpAddress currentNet = networks.poll();
-        if (currentNet == null)
+    /**
+     * Splits the networks into non-overlapping networks, each address getting the type of the most specific network
+     * containing it. Networks nested in a network of the same type are dropped, networks containing networks of the
+     * other type are replaced by the largest networks around them. The result is sorted by address.
+     *
+     * Networks are walked once in address order, containing networks first, keeping the chain of containing networks
+     * on a stack together with how far each of them has been covered.
+     */
+    List<IpAddress> generateIPList() {
+        int count = mIpAddresses.size();
+        List<IpAddress> ipsDone = new ArrayList<>();
+        if (count == 0)
             return ipsDone;
 
-        while (currentNet != null) {
-            // Check if it and the next of it are compatible
-            IpAddress nextNet = networks.poll();
-
-            if (BuildConfig.DEBUG) assertTrue(currentNet!=null);
-            if (nextNet == null || currentNet.getLastAddress().compareTo(nextNet.getFirstAddress()) == -1) {
-                // Everything good, no overlapping nothing to do
-                ipsDone.add(currentNet);
-
-                currentNet = nextNet;
-            } else {
-                // This network is smaller or equal to the next but has the same base address
-                if (currentNet.getFirstAddress().equals(nextNet.getFirstAddress()) && currentNet.networkMask >= nextNet.networkMask) {
-                    if (currentNet.included == nextNet.included) {
-                        // Included in the next next and same type
-                        // Simply forget our current network
-                        currentNet = nextNet;
-                    } else {
-                        // our currentNet is included in next and types differ. Need to split the next network
-                        IpAddress[] newNets = nextNet.split();
-
-
-                        // TODO: The contains method of the Priority is stupid linear search
-
-                        // First add the second half to keep the order in networks
-                        if (!networks.contains(newNets[1]))
-                            networks.add(newNets[1]);
-
-                        if (newNets[0].getLastAddress().equals(currentNet.getLastAddress())) {
-                            if (BuildConfig.DEBUG)
-                                assertTrue(newNets[0].networkMask == currentNet.networkMask);
-                            // Don't add the lower half that would conflict with currentNet
-                        } else {
-                            if (!networks.contains(newNets[0]))
-                                networks.add(newNets[0]);
-                        }
-                        // Keep currentNet as is
-                    }
-                } else {
-                    if (BuildConfig.DEBUG) {
-                        assertTrue(currentNet.networkMask < nextNet.networkMask);
-                        assertTrue(nextNet.getFirstAddress().compareTo(currentNet.getFirstAddress()) == 1);
-                        assertTrue(currentNet.getLastAddress().compareTo(nextNet.getLastAddress()) != -1);
-                    }
-                    // This network is bigger than the next and last ip of current >= next
-
-                    //noinspection StatementWithEmptyBody
-                    if (currentNet.included == nextNet.included) {
-                        // Next network is in included in our network with the same type,
-                        // simply ignore the next and move on
-                    } else {
-                        // We need to split our network
-                        IpAddress[] newNets = currentNet.split();
-
-
-                        if (newNets[1].networkMask == nextNet.networkMask) {
-                            if (BuildConfig.DEBUG) {
-                                assertTrue(newNets[1].getFirstAddress().equals(nextNet.getFirstAddress()));
-                                assertTrue(newNets[1].getLastAddress().equals(currentNet.getLastAddress()));
-                                // split second equal the next network, do not add it
-                            }
-                            networks.add(nextNet);
-                        } else {
-                            // Add the smaller network first
-                            networks.add(newNets[1]);
-                            networks.add(nextNet);
-                        }
-                        currentNet = newNets[0];
-
-                    }
-                }
+        IpAddress[] networks = mIpAddresses.toArray(new IpAddress[count]);
+        // mIpAddresses has smaller networks first for equal addresses, the walk needs containing networks first.
+        for (int start = 0; start < count; ) {
+            int end = start + 1;
+            while (end < count && networks[end].getFirstHi() == networks[start].getFirstHi()
+                    && networks[end].getFirstLo() == networks[start].getFirstLo())
+                end++;
+            for (int i = start, j = end - 1; i < j; i++, j--) {
+                IpAddress tmp = networks[i];
+                networks[i] = networks[j];
+                networks[j] = tmp;
             }
+            start = end;
+        }
 
+        int maxDepth = (networks[0].isV4 ? 32 : 128) + 1;
+        IpAddress[] stack = new IpAddress[maxDepth];
+        // Next address of each network on the stack not covered by the result yet.
+        long[] nextHi = new long[maxDepth];
+        long[] nextLo = new long[maxDepth];
+        boolean[] covered = new boolean[maxDepth];
+        boolean[] split = new boolean[maxDepth];
+        int depth = 0;
+
+        for (IpAddress net : networks) {
+            while (depth > 0 && !stack[depth - 1].containsNet(net)) {
+                depth = pop(stack, nextHi, nextLo, covered, split, depth, ipsDone);
+            }
+            if (depth > 0) {
+                IpAddress parent = stack[depth - 1];
+                if (parent.included == net.included)
+                    continue;
+                split[depth - 1] = true;
+                addRange(ipsDone, parent, nextHi[depth - 1], nextLo[depth - 1], net.getFirstHi(), net.getFirstLo(),
+                    false);
+            }
+            stack[depth] = net;
+            nextHi[depth] = net.getFirstHi();
+            nextLo[depth] = net.getFirstLo();
+            covered[depth] = false;
+            split[depth] = false;
+            depth++;
         }
+        while (depth > 0)
+            depth = pop(stack, nextHi, nextLo, covered, split, depth, ipsDone);
 
         return ipsDone;
     }
 
+    private static int pop(IpAddress[] stack, long[] nextHi, long[] nextLo, boolean[] covered, boolean[] split,
+                           int depth, List<IpAddress> ipsDone) {
+        int top = depth - 1;
+        IpAddress net = stack[top];
+        if (!split[top]) {
+            ipsDone.add(net);
+        } else if (!covered[top]) {
+            addRange(ipsDone, net, nextHi[top], nextLo[top], net.getLastHi(), net.getLastLo(), true);
+        }
+        if (top > 0) {
+            // Continue the parent after this network.
+            long lastHi = net.getLastHi();
+            long lastLo = net.getLastLo();
+            long lo = lastLo + 1;
+            long hi = lo == 0 ? lastHi + 1 : lastHi;
+            nextHi[top - 1] = hi;
+            nextLo[top - 1] = lo;
+            covered[top - 1] = lastHi == stack[top - 1].getLastHi() && lastLo == stack[top - 1].getLastLo();
+        }
+        stack[top] = null;
+        return top;
+    }
+
+    /**
+     * Adds the largest networks covering addresses from {@code from} up to {@code to}, inclusive when
+     * {@code inclusive} and exclusive otherwise.
+     */
+    private static void addRange(List<IpAddress> ipsDone, IpAddress type, long fromHi, long fromLo, long toHi,
+                                 long toLo, boolean inclusive) {
+        int width = type.isV4 ? 32 : 128;
+        if (!inclusive) {
+            if (toHi == fromHi && toLo == fromLo)
+                return;
+            // to - 1
+            if (toLo == 0)
+                toHi--;
+            toLo--;
+        }
+        while (compareUnsigned(fromHi, fromLo, toHi, toLo) <= 0) {
+            int bits = fromLo != 0 ? Long.numberOfTrailingZeros(fromLo)
+                : fromHi != 0 ? 64 + Long.numberOfTrailingZeros(fromHi) : 128;
+            bits = Math.min(bits, width);
+            while (compareUnsigned(fromHi | hostMaskHi(bits), fromLo | hostMaskLo(bits), toHi, toLo) > 0)
+                bits--;
+            ipsDone.add(new IpAddress(fromHi, fromLo, width - bits, type.included, type.isV4));
+
+            long lastHi = fromHi | hostMaskHi(bits);
+            long lastLo = fromLo | hostMaskLo(bits);
+            if (lastHi == toHi && lastLo == toLo)
+                return;
+            fromLo = lastLo + 1;
+            fromHi = fromLo == 0 ? lastHi + 1 : lastHi;
+        }
+    }
+
     Collection<IpAddress> getPositiveIPList() {
-        TreeSet<IpAddress> ipsSorted = generateIPList();
+        List<IpAddress> ipsSorted = generateIPList();
 
         Vector<IpAddress> ips = new Vector<IpAddress>();
         for (IpAddress ia : ipsSorted) {
@@ -92,6 +92,33 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
     };
     private transient Connection mCurrentProxyConnection;
 
+    private final ManagementLineReader mLineReader = new ManagementLineReader(new ManagementLineReader.Callback() {
+        @Override
+        public void onByteCount(long in, long out) {
+            VpnStatus.updateByteCount(in, out);
+        }
+
+        @Override
+        public void onState(long time, String state, String message) {
+            if (!mShuttingDown)
+                VpnStatus.updateStateString(state, message);
+        }
+
+        @Override
+        public void onLog(long time, VpnStatus.LogLevel level, int ovpnLevel, String message) {
+            Log.d("OpenVPN", message);
+            if (message.startsWith("MANAGEMENT: CMD"))
+                ovpnLevel = Math.max(4, ovpnLevel);
+
+            VpnStatus.logMessageOpenVPN(level, ovpnLevel, message);
+        }
+
+        @Override
+        public void onLine(String line) {
+            processCommand(line);
+        }
+    });
+
     public OpenVpnManagementThread(VpnProfile profile, OpenVPNService openVpnService) {
         mProfile = profile;
         mOpenVPNService = openVpnService;
@@ -170,10 +197,8 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
 
     @Override
     public void run() {
-        byte[] buffer = new byte[2048];
         //	mSocket.setSoTimeout(5); // Setting a timeout cannot be that bad
 
-        String pendingInput = "";
         synchronized (active) {
             active.add(this);
         }
@@ -197,8 +222,7 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
 
             while (true) {
 
-                int numbytesread = instream.read(buffer);
-                if (numbytesread == -1)
+                if (!mLineReader.read(instream))
                     return;
 
                 FileDescriptor[] fds = null;
@@ -211,13 +235,7 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
                     Collections.addAll(mFDList, fds);
                 }
 
-                String input = new String(buffer, 0, numbytesread, "UTF-8");
-
-                pendingInput += input;
-
-                pendingInput = processInput(pendingInput);
-
-
+                mLineReader.processLines();
             }
         } catch (IOException e) {
             if (!e.getMessage().equals("socket closed") && !e.getMessage().equals("Connection reset by peer"))
@@ -266,21 +284,6 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         }
     }
 
-    private String processInput(String pendingInput) {
-
-
-        while (pendingInput.contains("\n")) {
-            String[] tokens = pendingInput.split("\\r?\\n", 2);
-            processCommand(tokens[0]);
-            if (tokens.length == 1)
-                // No second part, newline was at the end
-                pendingInput = "";
-            else
-                pendingInput = tokens[1];
-        }
-        return pendingInput;
-    }
-
     private void processCommand(String command) {
         //Log.i(TAG, "Line from managment" + command);
 
@@ -302,19 +305,9 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
                 case "NEED-OK":
                     processNeedCommand(argument);
                     break;
-                case "BYTECOUNT":
-                    processByteCount(argument);
-                    break;
-                case "STATE":
-                    if (!mShuttingDown)
-                        processState(argument);
-                    break;
                 case "PROXY":
                     processProxyCMD(argument);
                     break;
-                case "LOG":
-                    processLogMessage(argument);
-                    break;
                 case "PK_SIGN":
                     processSignCommand(argument);
                     break;
@@ -351,50 +344,6 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         }
     }
 
-    private void processLogMessage(String argument) {
-        String[] args = argument.split(",", 4);
-        // 0 unix time stamp
-        // 1 log level N,I,E etc.
-                /*
-                  (b) zero or more message flags in a single string:
-          I -- informational
-          F -- fatal error
-          N -- non-fatal error
-          W -- warning
-          D -- debug, and
-                 */
-        // 2 log message
-
-        Log.d("OpenVPN", argument);
-
-        VpnStatus.LogLevel level;
-        switch (args[1]) {
-            case "I":
-                level = VpnStatus.LogLevel.INFO;
-                break;
-            case "W":
-                level = VpnStatus.LogLevel.WARNING;
-                break;
-            case "D":
-                level = VpnStatus.LogLevel.VERBOSE;
-                break;
-            case "F":
-                level = VpnStatus.LogLevel.ERROR;
-                break;
-            default:
-                level = VpnStatus.LogLevel.INFO;
-                break;
-        }
-
-        int ovpnlevel = Integer.parseInt(args[2]) & 0x0F;
-        String msg = args[3];
-
-        if (msg.startsWith("MANAGEMENT: CMD"))
-            ovpnlevel = Math.max(4, ovpnlevel);
-
-        VpnStatus.logMessageOpenVPN(level, ovpnlevel, msg);
-    }
-
     boolean shouldBeRunning() {
         if (mPauseCallback == null)
             return false;
@@ -521,26 +470,6 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         }
     }
 
-    private void processState(String argument) {
-        String[] args = argument.split(",", 3);
-        String currentstate = args[1];
-
-        if (args[2].equals(",,"))
-            VpnStatus.updateStateString(currentstate, "");
-        else
-            VpnStatus.updateStateString(currentstate, args[2]);
-    }
-
-    private void processByteCount(String argument) {
-        //   >BYTECOUNT:{BYTES_IN},{BYTES_OUT}
-        int comma = argument.indexOf(',');
-        long in = Long.parseLong(argument.substring(0, comma));
-        long out = Long.parseLong(argument.substring(comma + 1));
-
-        VpnStatus.updateByteCount(in, out);
-
-    }
-
     private void processNeedCommand(String argument) {
         int p1 = argument.indexOf('\'');
         int p2 = argument.indexOf('\'', p1 + 1);
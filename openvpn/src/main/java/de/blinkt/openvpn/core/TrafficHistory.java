@@ -8,38 +8,53 @@ package de.blinkt.openvpn.core;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Vector;
-
 import static java.lang.Math.max;
 
 /**
  * Created by arne on 23.05.17.
+ *
+ * History of cumulative traffic counters kept at second, minute and hour resolution in fixed-size ring buffers,
+ * together with exponentially smoothed transfer rates. Adding samples doesn't allocate. Readers access the
+ * buffers through the indexed getters, index 0 being the oldest datapoint.
+ *
+ * All methods lock on the instance. A reader combining several calls, e.g. walking a ring with size() and the
+ * indexed getters, has to hold the same lock for the whole read or a concurrent add() may shift the ring under it.
  */
-
 public class TrafficHistory implements Parcelable {
 
+    public static final int SECONDS = 0;
+    public static final int MINUTES = 1;
+    public static final int HOURS = 2;
+
     public static final long PERIODS_TO_KEEP = 5;
     public static final int TIME_PERIOD_MINTUES = 60 * 1000;
     public static final int TIME_PERIOD_HOURS = 3600 * 1000;
-    private LinkedList<TrafficDatapoint> trafficHistorySeconds = new LinkedList<>();
-    private LinkedList<TrafficDatapoint> trafficHistoryMinutes = new LinkedList<>();
-    private LinkedList<TrafficDatapoint> trafficHistoryHours = new LinkedList<>();
+    private static final int[] CAPACITY = {
+        (int) (PERIODS_TO_KEEP * 60), (int) (PERIODS_TO_KEEP * 60), 5 * 24
+    };
+    // Weight of the newest sample in the smoothed rates.
+    private static final double RATE_SMOOTHING = 0.3;
 
-    private TrafficDatapoint lastSecondUsedForMinute;
-    private TrafficDatapoint lastMinuteUsedForHours;
+    private final Ring[] rings = new Ring[] {
+        new Ring(CAPACITY[SECONDS]), new Ring(CAPACITY[MINUTES]), new Ring(CAPACITY[HOURS])
+    };
+
+    private long diffIn;
+    private long diffOut;
+    private double rateIn;
+    private double rateOut;
 
     public TrafficHistory() {
 
     }
 
     protected TrafficHistory(Parcel in) {
-        in.readList(trafficHistorySeconds, getClass().getClassLoader());
-        in.readList(trafficHistoryMinutes, getClass().getClassLoader());
-        in.readList(trafficHistoryHours, getClass().getClassLoader());
-        lastSecondUsedForMinute = in.readParcelable(getClass().getClassLoader());
-        lastMinuteUsedForHours = in.readParcelable(getClass().getClassLoader());
+        for (Ring ring : rings)
+            ring.readFromParcel(in);
+        diffIn = in.readLong();
+        diffOut = in.readLong();
+        rateIn = in.readDouble();
+        rateOut = in.readDouble();
     }
 
     public static final Creator<TrafficHistory> CREATOR = new Creator<TrafficHistory>() {
@@ -54,190 +69,182 @@ public class TrafficHistory implements Parcelable {
         }
     };
 
-    public LastDiff getLastDiff(TrafficDatapoint tdp) {
-
-        TrafficDatapoint lasttdp;
-
-
-        if (trafficHistorySeconds.size() == 0)
-            lasttdp = new TrafficDatapoint(0, 0, System.currentTimeMillis());
-
-        else
-            lasttdp = trafficHistorySeconds.getLast();
-
-        if (tdp == null) {
-            tdp = lasttdp;
-            if (trafficHistorySeconds.size() < 2)
-                lasttdp = tdp;
-            else {
-                trafficHistorySeconds.descendingIterator().next();
-                tdp = trafficHistorySeconds.descendingIterator().next();
-            }
-        }
-
-        return new LastDiff(lasttdp, tdp);
-    }
-
     @Override
     public int describeContents() {
         return 0;
     }
 
     @Override
-    public void writeToParcel(Parcel dest, int flags) {
-        dest.writeList(trafficHistorySeconds);
-        dest.writeList(trafficHistoryMinutes);
-        dest.writeList(trafficHistoryHours);
-        dest.writeParcelable(lastSecondUsedForMinute, 0);
-        dest.writeParcelable(lastMinuteUsedForHours, 0);
-
-    }
-
-    public LinkedList<TrafficDatapoint> getHours() {
-        return trafficHistoryHours;
-    }
-
-    public LinkedList<TrafficDatapoint> getMinutes() {
-        return trafficHistoryMinutes;
+    public synchronized void writeToParcel(Parcel dest, int flags) {
+        for (Ring ring : rings)
+            ring.writeToParcel(dest);
+        dest.writeLong(diffIn);
+        dest.writeLong(diffOut);
+        dest.writeDouble(rateIn);
+        dest.writeDouble(rateOut);
     }
 
-    public LinkedList<TrafficDatapoint> getSeconds() {
-        return trafficHistorySeconds;
+    public synchronized void add(long in, long out) {
+        add(in, out, System.currentTimeMillis());
     }
 
-    public static LinkedList<TrafficDatapoint> getDummyList() {
-        LinkedList<TrafficDatapoint> list = new LinkedList<>();
-        list.add(new TrafficDatapoint(0, 0, System.currentTimeMillis()));
-        return list;
-    }
-
-
-    public static class TrafficDatapoint implements Parcelable {
-        private TrafficDatapoint(long inBytes, long outBytes, long timestamp) {
-            this.in = inBytes;
-            this.out = outBytes;
-            this.timestamp = timestamp;
+    /**
+     * Adds a sample of cumulative {@code in} and {@code out} byte counters.
+     */
+    public synchronized void add(long in, long out, long timestamp) {
+        Ring seconds = rings[SECONDS];
+        if (seconds.size == 0) {
+            diffIn = in;
+            diffOut = out;
+        } else {
+            int last = seconds.size - 1;
+            diffIn = max(0, in - seconds.getIn(last));
+            diffOut = max(0, out - seconds.getOut(last));
+            long elapsed = timestamp - seconds.getTimestamp(last);
+            if (elapsed > 0) {
+                double sampleRateIn = diffIn * 1000.0 / elapsed;
+                double sampleRateOut = diffOut * 1000.0 / elapsed;
+                boolean first = seconds.size == 1;
+                rateIn = first ? sampleRateIn : rateIn + RATE_SMOOTHING * (sampleRateIn - rateIn);
+                rateOut = first ? sampleRateOut : rateOut + RATE_SMOOTHING * (sampleRateOut - rateOut);
+            }
         }
+        seconds.add(in, out, timestamp);
 
-        public final long timestamp;
-        public final long in;
-        public final long out;
+        Ring minutes = rings[MINUTES];
+        if (minutes.size == 0
+                || timestamp / TIME_PERIOD_MINTUES > minutes.getTimestamp(minutes.size - 1) / TIME_PERIOD_MINTUES) {
+            minutes.add(in, out, timestamp);
 
-        private TrafficDatapoint(Parcel in) {
-            timestamp = in.readLong();
-            this.in = in.readLong();
-            out = in.readLong();
+            Ring hours = rings[HOURS];
+            if (hours.size == 0
+                    || timestamp / TIME_PERIOD_HOURS > hours.getTimestamp(hours.size - 1) / TIME_PERIOD_HOURS)
+                hours.add(in, out, timestamp);
         }
+    }
 
-        public static final Creator<TrafficDatapoint> CREATOR = new Creator<TrafficDatapoint>() {
-            @Override
-            public TrafficDatapoint createFromParcel(Parcel in) {
-                return new TrafficDatapoint(in);
-            }
+    public synchronized void clear() {
+        for (Ring ring : rings)
+            ring.clear();
+        diffIn = 0;
+        diffOut = 0;
+        rateIn = 0;
+        rateOut = 0;
+    }
 
-            @Override
-            public TrafficDatapoint[] newArray(int size) {
-                return new TrafficDatapoint[size];
-            }
-        };
+    public synchronized int size(int resolution) {
+        return rings[resolution].size;
+    }
 
-        @Override
-        public int describeContents() {
-            return 0;
-        }
+    public synchronized long getTimestamp(int resolution, int index) {
+        return rings[resolution].getTimestamp(index);
+    }
 
-        @Override
-        public void writeToParcel(Parcel dest, int flags) {
-            dest.writeLong(timestamp);
-            dest.writeLong(in);
-            dest.writeLong(out);
-        }
+    public synchronized long getIn(int resolution, int index) {
+        return rings[resolution].getIn(index);
     }
 
-    LastDiff add(long in, long out) {
-        TrafficDatapoint tdp = new TrafficDatapoint(in, out, System.currentTimeMillis());
+    public synchronized long getOut(int resolution, int index) {
+        return rings[resolution].getOut(index);
+    }
 
-        LastDiff diff = getLastDiff(tdp);
-        addDataPoint(tdp);
-        return diff;
+    public synchronized long getLastIn() {
+        Ring seconds = rings[SECONDS];
+        return seconds.size == 0 ? 0 : seconds.getIn(seconds.size - 1);
     }
 
-    private void addDataPoint(TrafficDatapoint tdp) {
-        trafficHistorySeconds.add(tdp);
+    public synchronized long getLastOut() {
+        Ring seconds = rings[SECONDS];
+        return seconds.size == 0 ? 0 : seconds.getOut(seconds.size - 1);
+    }
 
-        if (lastSecondUsedForMinute == null) {
-            lastSecondUsedForMinute = new TrafficDatapoint(0, 0, 0);
-            lastMinuteUsedForHours = new TrafficDatapoint(0, 0, 0);
-        }
+    // Difference between the last two samples.
+    public synchronized long getDiffIn() {
+        return diffIn;
+    }
 
-        removeAndAverage(tdp, true);
+    public synchronized long getDiffOut() {
+        return diffOut;
     }
 
-    private void removeAndAverage(TrafficDatapoint newTdp, boolean seconds) {
-        HashSet<TrafficDatapoint> toRemove = new HashSet<>();
-        Vector<TrafficDatapoint> toAverage = new Vector<>();
+    // Smoothed rates in bytes per second.
+    public synchronized long getRateIn() {
+        return Math.round(rateIn);
+    }
 
-        long timePeriod;
-        LinkedList<TrafficDatapoint> tpList, nextList;
-        TrafficDatapoint lastTsPeriod;
+    public synchronized long getRateOut() {
+        return Math.round(rateOut);
+    }
 
-        if (seconds) {
-            timePeriod = TIME_PERIOD_MINTUES;
-            tpList = trafficHistorySeconds;
-            nextList = trafficHistoryMinutes;
-            lastTsPeriod = lastSecondUsedForMinute;
-        } else {
-            timePeriod = TIME_PERIOD_HOURS;
-            tpList = trafficHistoryMinutes;
-            nextList = trafficHistoryHours;
-            lastTsPeriod = lastMinuteUsedForHours;
+    private static final class Ring {
+        private final long[] timestamps;
+        private final long[] in;
+        private final long[] out;
+        private int start;
+        private int size;
+
+        Ring(int capacity) {
+            timestamps = new long[capacity];
+            in = new long[capacity];
+            out = new long[capacity];
         }
 
-        if (newTdp.timestamp / timePeriod > (lastTsPeriod.timestamp / timePeriod)) {
-            nextList.add(newTdp);
-
-            if (seconds) {
-                lastSecondUsedForMinute = newTdp;
-                removeAndAverage(newTdp, false);
-            } else
-                lastMinuteUsedForHours = newTdp;
-
-            for (TrafficDatapoint tph : tpList) {
-                // List is iteratered from oldest to newest, remembert first one that we did not
-                if ((newTdp.timestamp - tph.timestamp) / timePeriod >= PERIODS_TO_KEEP)
-                    toRemove.add(tph);
+        void add(long inBytes, long outBytes, long timestamp) {
+            int capacity = timestamps.length;
+            int index;
+            if (size < capacity) {
+                index = (start + size) % capacity;
+                size++;
+            } else {
+                index = start;
+                start = (start + 1) % capacity;
             }
-            tpList.removeAll(toRemove);
+            timestamps[index] = timestamp;
+            in[index] = inBytes;
+            out[index] = outBytes;
         }
-    }
-
-    static class LastDiff {
 
-        final private TrafficDatapoint tdp;
-        final private TrafficDatapoint lasttdp;
+        void clear() {
+            start = 0;
+            size = 0;
+        }
 
-        private LastDiff(TrafficDatapoint lasttdp, TrafficDatapoint tdp) {
-            this.lasttdp = lasttdp;
-            this.tdp = tdp;
+        long getTimestamp(int index) {
+            return timestamps[position(index)];
         }
 
-        public long getDiffOut() {
-            return max(0, tdp.out - lasttdp.out);
+        long getIn(int index) {
+            return in[position(index)];
         }
 
-        public long getDiffIn() {
-            return max(0, tdp.in - lasttdp.in);
+        long getOut(int index) {
+            return out[position(index)];
         }
 
-        public long getIn() {
-            return tdp.in;
+        private int position(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            return (start + index) % timestamps.length;
         }
 
-        public long getOut() {
-            return tdp.out;
+        void writeToParcel(Parcel dest) {
+            dest.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                dest.writeLong(getTimestamp(i));
+                dest.writeLong(getIn(i));
+                dest.writeLong(getOut(i));
+            }
         }
 
+        void readFromParcel(Parcel source) {
+            clear();
+            int count = source.readInt();
+            for (int i = 0; i < count; i++) {
+                long timestamp = source.readLong();
+                long inBytes = source.readLong();
+                long outBytes = source.readLong();
+                add(inBytes, outBytes, timestamp);
+            }
+        }
     }
-
-
-}
\ No newline at end of file
+}
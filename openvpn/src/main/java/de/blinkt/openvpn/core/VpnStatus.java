@@ -15,28 +15,30 @@ import android.os.Message;
 import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.LinkedList;
 import java.util.Locale;
-import java.util.Vector;
 
 import de.blinkt.openvpn.R;
 
+/**
+ * Status and log of the VPN. Listeners are called on a dispatch thread (see {@link EventHub}),
+ * so logging or reporting the state from the management thread never waits for them.
+ */
 public class VpnStatus {
 
 
-    private static final LinkedList<LogItem> logbuffer;
+    private static final LogRing logbuffer;
 
-    private static Vector<LogListener> logListener;
-    private static Vector<StateListener> stateListener;
-    private static Vector<ByteCountListener> byteCountListener;
+    private static final EventHub<LogListener> logListener;
+    private static final EventHub<StateListener> stateListener;
+    private static final EventHub<ByteCountListener> byteCountListener;
 
-    private static String mLaststatemsg = "";
+    private static volatile String mLaststatemsg = "";
 
-    private static String mLaststate = "NOPROCESS";
+    private static volatile String mLaststate = "NOPROCESS";
 
-    private static int mLastStateresid = R.string.state_noprocess;
+    private static volatile int mLastStateresid = R.string.state_noprocess;
 
-    private static Intent mLastIntent = null;
+    private static volatile Intent mLastIntent = null;
 
     private static HandlerThread mHandlerThread;
 
@@ -137,8 +139,7 @@ public class VpnStatus {
 
     public static void setConnectedVPNProfile(String uuid) {
         mLastConnectedVPNUUID = uuid;
-        for (StateListener sl: stateListener)
-            sl.setConnectedVPN(uuid);
+        stateListener.publish(sl -> sl.setConnectedVPN(uuid));
     }
 
 
@@ -195,15 +196,15 @@ public class VpnStatus {
     static final byte[] fdroidkey = {-92, 111, -42, -46, 123, -96, -60, 79, -27, -31, 49, 103, 11, -54, -68, -27, 17, 2, 121, 104};
 
 
-    private static ConnectionStatus mLastLevel = ConnectionStatus.LEVEL_NOTCONNECTED;
+    private static volatile ConnectionStatus mLastLevel = ConnectionStatus.LEVEL_NOTCONNECTED;
 
     private static LogFileHandler mLogFileHandler;
 
     static {
-        logbuffer = new LinkedList<>();
-        logListener = new Vector<>();
-        stateListener = new Vector<>();
-        byteCountListener = new Vector<>();
+        logbuffer = new LogRing(MAXLOGENTRIES);
+        logListener = new EventHub<>("log", MAXLOGENTRIES);
+        stateListener = new EventHub<>("state", 64);
+        byteCountListener = new EventHub<>("bytecount", 64);
         trafficHistory = new TrafficHistory();
 
         logInformation();
@@ -225,7 +226,7 @@ public class VpnStatus {
         void updateByteCount(long in, long out, long diffIn, long diffOut);
     }
 
-    public synchronized static void logMessage(LogLevel level, String prefix, String message) {
+    public static void logMessage(LogLevel level, String prefix, String message) {
         newLogItem(new LogItem(level, prefix + message));
 
     }
@@ -249,31 +250,39 @@ public class VpnStatus {
                 nativeAPI, Build.VERSION.RELEASE, Build.ID, Build.FINGERPRINT, "", "");
     }
 
-    public synchronized static void addLogListener(LogListener ll) {
-        logListener.add(ll);
+    public static void addLogListener(LogListener ll) {
+        logListener.add(ll, null);
     }
 
-    public synchronized static void removeLogListener(LogListener ll) {
+    public static void removeLogListener(LogListener ll) {
         logListener.remove(ll);
     }
 
-    public synchronized static void addByteCountListener(ByteCountListener bcl) {
-        TrafficHistory.LastDiff diff = trafficHistory.getLastDiff(null);
-        bcl.updateByteCount(diff.getIn(), diff.getOut(), diff.getDiffIn(),diff.getDiffOut());
-        byteCountListener.add(bcl);
+    public static void addByteCountListener(ByteCountListener bcl) {
+        TrafficHistory history = trafficHistory;
+        long in, out, diffIn, diffOut;
+        synchronized (history) {
+            in = history.getLastIn();
+            out = history.getLastOut();
+            diffIn = history.getDiffIn();
+            diffOut = history.getDiffOut();
+        }
+        byteCountListener.add(bcl, l -> l.updateByteCount(in, out, diffIn, diffOut));
     }
 
-    public synchronized static void removeByteCountListener(ByteCountListener bcl) {
+    public static void removeByteCountListener(ByteCountListener bcl) {
         byteCountListener.remove(bcl);
     }
 
 
+    // Synchronized with the state updates, so the listener gets the last state before any newer one.
     public synchronized static void addStateListener(StateListener sl) {
-        if (!stateListener.contains(sl)) {
-            stateListener.add(sl);
-            if (mLaststate != null)
-                sl.updateState(mLaststate, mLaststatemsg, mLastStateresid, mLastLevel, mLastIntent);
-        }
+        String state = mLaststate;
+        String msg = mLaststatemsg;
+        int resid = mLastStateresid;
+        ConnectionStatus level = mLastLevel;
+        Intent intent = mLastIntent;
+        stateListener.add(sl, state == null ? null : l -> l.updateState(state, msg, resid, level, intent));
     }
 
     private static int getLocalizedState(String state) {
@@ -352,17 +361,25 @@ public class VpnStatus {
     }
 
 
-    public synchronized static void removeStateListener(StateListener sl) {
+    public static void removeStateListener(StateListener sl) {
         stateListener.remove(sl);
     }
 
 
-    synchronized public static LogItem[] getlogbuffer() {
-
-        // The stoned way of java to return an array from a vector
-        // brought to you by eclipse auto complete
-        return logbuffer.toArray(new LogItem[logbuffer.size()]);
+    public static LogItem[] getlogbuffer() {
+        return logbuffer.snapshot();
+    }
 
+    /**
+     * Delivery statistics of all listeners, one line per listener.
+     */
+    public static String getListenerStats() {
+        StringBuilder sb = new StringBuilder();
+        for (EventHub<?> hub : new EventHub<?>[]{stateListener, byteCountListener, logListener}) {
+            for (EventHub.Stats stats : hub.getStats())
+                sb.append(stats).append('\n');
+        }
+        return sb.toString();
     }
 
     static void updateStateString(String state, String msg) {
@@ -396,9 +413,7 @@ public class VpnStatus {
         mLastIntent = intent;
 
 
-        for (StateListener sl : stateListener) {
-            sl.updateState(state, msg, resid, level, intent);
-        }
+        stateListener.publish(sl -> sl.updateState(state, msg, resid, level, intent));
         //newLogItem(new LogItem((LogLevel.DEBUG), String.format("New OpenVPN Status (%s->%s): %s",state,level.toString(),msg)));
     }
 
@@ -423,27 +438,18 @@ public class VpnStatus {
     }
 
 
-    synchronized static void newLogItem(LogItem logItem, boolean cachedLine) {
+    static void newLogItem(LogItem logItem, boolean cachedLine) {
         if (cachedLine) {
-            logbuffer.addFirst(logItem);
+            logbuffer.addRestored(logItem);
         } else {
-            logbuffer.addLast(logItem);
+            logbuffer.add(logItem);
             if (mLogFileHandler != null) {
                 Message m = mLogFileHandler.obtainMessage(LogFileHandler.LOG_MESSAGE, logItem);
                 mLogFileHandler.sendMessage(m);
             }
         }
 
-        if (logbuffer.size() > MAXLOGENTRIES + MAXLOGENTRIES / 2) {
-            while (logbuffer.size() > MAXLOGENTRIES)
-                logbuffer.removeFirst();
-            if (mLogFileHandler != null)
-                mLogFileHandler.sendMessage(mLogFileHandler.obtainMessage(LogFileHandler.TRIM_LOG_FILE));
-        }
-
-        for (LogListener ll : logListener) {
-            ll.newLog(logItem);
-        }
+        logListener.publish(ll -> ll.newLog(logItem));
     }
 
 
@@ -475,11 +481,15 @@ public class VpnStatus {
     }
 
 
-    public static synchronized void updateByteCount(long in, long out) {
-        TrafficHistory.LastDiff diff = trafficHistory.add(in, out);
-
-        for (ByteCountListener bcl : byteCountListener) {
-            bcl.updateByteCount(in, out, diff.getDiffIn(), diff.getDiffOut());
+    public static void updateByteCount(long in, long out) {
+        TrafficHistory history = trafficHistory;
+        long diffIn, diffOut;
+        synchronized (history) {
+            history.add(in, out);
+            diffIn = history.getDiffIn();
+            diffOut = history.getDiffOut();
         }
+
+        byteCountListener.publish(bcl -> bcl.updateByteCount(in, out, diffIn, diffOut));
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TestEventHub {
+
+    interface Listener {
+        void onEvent(int value);
+    }
+
+    private static class RecordingListener implements Listener {
+        final List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onEvent(int value) {
+            values.add(value);
+        }
+    }
+
+    private final List<Runnable> pending = new ArrayList<>();
+
+    private void runPending() {
+        while (!pending.isEmpty())
+            pending.remove(0).run();
+    }
+
+    private static EventHub.Event<Listener> event(int value) {
+        return l -> l.onEvent(value);
+    }
+
+    @Test
+    public void deliversInOrderOnExecutor() {
+        EventHub<Listener> hub = new EventHub<>("test", 16, pending::add);
+        RecordingListener listener = new RecordingListener();
+        hub.add(listener, event(0));
+        for (int i = 1; i <= 5; i++)
+            hub.publish(event(i));
+
+        Assert.assertTrue(listener.values.isEmpty());
+        Assert.assertEquals(1, pending.size());
+        runPending();
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), listener.values);
+    }
+
+    @Test
+    public void fullQueueDropsEventsOfThatListenerOnly() {
+        EventHub<Listener> hub = new EventHub<>("test", 4, pending::add);
+        RecordingListener slow = new RecordingListener();
+        hub.add(slow, null);
+        for (int i = 0; i < 10; i++)
+            hub.publish(event(i));
+        RecordingListener late = new RecordingListener();
+        hub.add(late, null);
+        hub.publish(event(10));
+        runPending();
+
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3), slow.values);
+        Assert.assertEquals(Arrays.asList(10), late.values);
+        List<EventHub.Stats> stats = hub.getStats();
+        Assert.assertEquals(4, stats.get(0).delivered);
+        Assert.assertEquals(7, stats.get(0).dropped);
+        Assert.assertEquals(0, stats.get(1).dropped);
+    }
+
+    @Test
+    public void removedAndDuplicateListeners() {
+        EventHub<Listener> hub = new EventHub<>("test", 16, pending::add);
+        RecordingListener listener = new RecordingListener();
+        Assert.assertTrue(hub.add(listener, null));
+        Assert.assertFalse(hub.add(listener, event(-1)));
+        hub.publish(event(1));
+        hub.remove(listener);
+        hub.publish(event(2));
+        runPending();
+
+        // Events queued before removal are still delivered
+        Assert.assertEquals(Arrays.asList(1), listener.values);
+        Assert.assertTrue(hub.getStats().isEmpty());
+    }
+
+    @Test
+    public void slowListenerDoesNotBlockPublisher() throws InterruptedException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        EventHub<Listener> hub = new EventHub<>("test", 1024, executor);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(1000);
+        hub.add(value -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        }, null);
+        hub.add(value -> fastDone.countDown(), null);
+
+        for (int i = 0; i < 1000; i++)
+            hub.publish(event(i));
+        Assert.assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(hub.getStats().get(0).queued > 0);
+
+        release.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1000, hub.getStats().get(0).delivered);
+    }
+
+    @Test
+    public void concurrentPublishersLoseNothing() throws InterruptedException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        EventHub<Listener> hub = new EventHub<>("test", 1 << 16, executor);
+        RecordingListener listener = new RecordingListener();
+        hub.add(listener, null);
+
+        Thread[] publishers = new Thread[4];
+        for (int t = 0; t < publishers.length; t++) {
+            int base = t * 10000;
+            publishers[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++)
+                    hub.publish(event(base + i));
+            });
+            publishers[t].start();
+        }
+        for (Thread publisher : publishers)
+            publisher.join();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(40000, listener.values.size());
+        // Every publisher's events arrive in the order they were published
+        int[] last = {-1, -1, -1, -1};
+        for (int value : listener.values) {
+            Assert.assertTrue(value > last[value / 10000]);
+            last[value / 10000] = value;
+        }
+    }
+
+    @Test
+    public void logRingKeepsNewestItems() {
+        LogRing ring = new LogRing(4);
+        ring.addRestored(new LogItem(VpnStatus.LogLevel.INFO, "restored"));
+        for (int i = 0; i < 3; i++)
+            ring.add(new LogItem(VpnStatus.LogLevel.INFO, "item " + i));
+        Assert.assertEquals("[restored, item 0, item 1, item 2]", toStrings(ring.snapshot()));
+
+        for (int i = 3; i < 6; i++)
+            ring.add(new LogItem(VpnStatus.LogLevel.INFO, "item " + i));
+        Assert.assertEquals("[item 2, item 3, item 4, item 5]", toStrings(ring.snapshot()));
+
+        ring.clear();
+        ring.add(new LogItem(VpnStatus.LogLevel.INFO, "item 6"));
+        Assert.assertEquals("[item 6]", toStrings(ring.snapshot()));
+    }
+
+    private static String toStrings(LogItem[] items) {
+        List<String> strings = new ArrayList<>();
+        for (LogItem item : items)
+            strings.add(item.toString());
+        return strings.toString();
+    }
+}
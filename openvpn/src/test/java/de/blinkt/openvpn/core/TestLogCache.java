@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestLogCache {
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("logcache").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+
+    private static byte[] record(int i) {
+        return ("record " + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(List<byte[]> records) {
+        List<String> strings = new ArrayList<>();
+        for (byte[] record : records)
+            strings.add(new String(record, StandardCharsets.UTF_8));
+        return strings;
+    }
+
+    @Test
+    public void readsNewestRecordsAcrossSegments() throws IOException {
+        LogCache cache = new LogCache(dir, 4096, 10, 3);
+        for (int i = 0; i < 25; i++)
+            cache.append(record(i));
+
+        Assert.assertEquals(Arrays.asList("record 22", "record 23", "record 24"), strings(cache.readLast(3)));
+        List<String> last = strings(cache.readLast(12));
+        Assert.assertEquals(12, last.size());
+        Assert.assertEquals("record 13", last.get(0));
+        Assert.assertEquals("record 24", last.get(11));
+        Assert.assertEquals(25, cache.readLast(100).size());
+    }
+
+    @Test
+    public void rotationDeletesOldSegments() throws IOException {
+        LogCache cache = new LogCache(dir, 4096, 10, 3);
+        for (int i = 0; i < 100; i++)
+            cache.append(record(i));
+
+        // two data and index files for each of the three kept segments
+        Assert.assertEquals(6, dir.list().length);
+        List<String> all = strings(cache.readLast(1000));
+        Assert.assertEquals(30, all.size());
+        Assert.assertEquals("record 70", all.get(0));
+    }
+
+    @Test
+    public void rotatesWhenSegmentIsFull() throws IOException {
+        LogCache cache = new LogCache(dir, 64, 1000, 2);
+        byte[] big = new byte[40];
+        cache.append(big);
+        cache.append(record(1));
+        cache.append(big);
+
+        Assert.assertEquals(4, dir.list().length);
+        List<byte[]> records = cache.readLast(10);
+        Assert.assertEquals(3, records.size());
+        Assert.assertArrayEquals(big, records.get(2));
+    }
+
+    @Test
+    public void reopenedCacheContinuesNewestSegment() throws IOException {
+        LogCache cache = new LogCache(dir, 4096, 10, 3);
+        for (int i = 0; i < 15; i++)
+            cache.append(record(i));
+        cache.flush();
+
+        LogCache reopened = new LogCache(dir, 4096, 10, 3);
+        Assert.assertEquals(Arrays.asList("record 13", "record 14"), strings(reopened.readLast(2)));
+        for (int i = 15; i < 20; i++)
+            reopened.append(record(i));
+        reopened.append(record(20));
+
+        List<String> all = strings(new LogCache(dir, 4096, 10, 3).readLast(100));
+        Assert.assertEquals(21, all.size());
+        for (int i = 0; i < all.size(); i++)
+            Assert.assertEquals("record " + i, all.get(i));
+    }
+
+    @Test
+    public void damagedRecordsAreSkipped() throws IOException {
+        LogCache cache = new LogCache(dir, 4096, 10, 3);
+        for (int i = 0; i < 3; i++)
+            cache.append(record(i));
+        cache.flush();
+
+        // Flip a byte of the payload of the second record
+        try (RandomAccessFile data = new RandomAccessFile(new File(dir, "segment-0.dat"), "rw")) {
+            long offset = 8 + record(0).length + 8;
+            data.seek(offset);
+            int b = data.read();
+            data.seek(offset);
+            data.write(b ^ 0xff);
+        }
+        Assert.assertEquals(Arrays.asList("record 0", "record 2"),
+                strings(new LogCache(dir, 4096, 10, 3).readLast(10)));
+    }
+
+    @Test
+    public void clearRemovesEverything() throws IOException {
+        LogCache cache = new LogCache(dir, 4096, 10, 3);
+        for (int i = 0; i < 15; i++)
+            cache.append(record(i));
+        cache.clear();
+        Assert.assertTrue(cache.readLast(10).isEmpty());
+
+        cache.append(record(99));
+        Assert.assertEquals(Arrays.asList("record 99"), strings(cache.readLast(10)));
+    }
+
+    @Test
+    public void logItemsSurviveTheCache() throws IOException {
+        LogCache cache = new LogCache(dir, 64 * 1024, 100, 2);
+        LogItem li = new LogItem(VpnStatus.LogLevel.DEBUG, 72, 772, "sinnloser Text", 7723, 723.2f, 7.2);
+        cache.append(li.getMarschaledBytes());
+
+        byte[] record = cache.readLast(1).get(0);
+        LogItem restored = new LogItem(record, record.length);
+        Assert.assertTrue(restored.verify());
+        Assert.assertEquals(li, restored);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestManagementLineReader {
+
+    private static class RecordingCallback implements ManagementLineReader.Callback {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onByteCount(long in, long out) {
+            events.add("bytecount " + in + " " + out);
+        }
+
+        @Override
+        public void onState(long time, String state, String message) {
+            events.add("state " + time + " " + state + " '" + message + "'");
+        }
+
+        @Override
+        public void onLog(long time, VpnStatus.LogLevel level, int ovpnLevel, String message) {
+            events.add("log " + time + " " + level + " " + ovpnLevel + " " + message);
+        }
+
+        @Override
+        public void onLine(String line) {
+            events.add("line " + line);
+        }
+    }
+
+    // Returns at most chunkSize bytes per read, like a socket delivering the traffic in pieces.
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+        private final int mChunkSize;
+
+        ChunkedInputStream(byte[] data, int chunkSize) {
+            super(data);
+            mChunkSize = chunkSize;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, mChunkSize));
+        }
+    }
+
+    private static List<String> decode(byte[] data, int chunkSize) throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+        ManagementLineReader reader = new ManagementLineReader(callback);
+        InputStream in = new ChunkedInputStream(data, chunkSize);
+        while (reader.read(in))
+            reader.processLines();
+        return callback.events;
+    }
+
+    private static byte[] corpus() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = TestManagementLineReader.class.getResourceAsStream("/management_traffic.txt")) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void decodesSessionTraffic() throws IOException {
+        List<String> events = decode(corpus(), 2048);
+
+        Assert.assertEquals(41, events.size());
+        Assert.assertEquals("line >INFO:OpenVPN Management Interface Version 3 -- type 'help' for more info",
+                events.get(0));
+        Assert.assertEquals("line >HOLD:Waiting for hold release:0", events.get(2));
+        Assert.assertEquals("log 1620644021 WARNING 2 WARNING: No server certificate verification method has been "
+                + "enabled.  See http://openvpn.net/howto.html#mitm for more info.", events.get(9));
+        Assert.assertEquals("state 1620644021 RESOLVE ',,,,,'", events.get(11));
+        Assert.assertEquals("log 1620644022 INFO 4 MANAGEMENT: CMD 'password [...]'", events.get(19));
+        Assert.assertEquals("log 1620644023 VERBOSE 7 Control Channel: TLSv1.3, cipher TLSv1.3 "
+                + "TLS_AES_256_GCM_SHA384, 4096 bit RSA", events.get(21));
+        Assert.assertEquals("state 1620644023 ASSIGN_IP ',10.8.0.2,,,,'", events.get(24));
+        Assert.assertEquals("line >NEED-OK:Need 'ROUTE' confirmation MSG:0.0.0.0 0.0.0.0 10.8.0.1", events.get(26));
+        Assert.assertEquals("state 1620644024 CONNECTED 'SUCCESS,10.8.0.2,185.159.157.13,443,,'", events.get(30));
+        Assert.assertEquals("bytecount 4810 3512", events.get(32));
+        Assert.assertEquals("line >INFOMSG:CR_TEXT:E,R:Enter authenticator code", events.get(34));
+        Assert.assertEquals("log 1620644030 INFO 1 Connection reset, restarting [0]", events.get(35));
+        Assert.assertEquals("bytecount 1048576000 524288000", events.get(37));
+        Assert.assertEquals("log 1620644031 INFO 0 Exiting due to fatal error", events.get(38));
+        Assert.assertEquals("log 1620644025 INFO 3 Peer Connection Initiated with [AF_INET]185.159.157.13:443 "
+                + "(Z\u00fcrich)", events.get(40));
+    }
+
+    @Test
+    public void framingIsIndependentOfReadSizes() throws IOException {
+        byte[] corpus = corpus();
+        List<String> expected = decode(corpus, corpus.length);
+        for (int chunkSize : new int[]{1, 2, 3, 7, 64, 2047})
+            Assert.assertEquals("chunk size " + chunkSize, expected, decode(corpus, chunkSize));
+    }
+
+    @Test
+    public void longLinesGrowTheBuffer() throws IOException {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            message.append("route ").append(i).append(' ');
+        byte[] data = (">LOG:1,I,3," + message + "\n>BYTECOUNT:1,2\n").getBytes(StandardCharsets.UTF_8);
+
+        List<String> events = decode(data, 512);
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("log 1 INFO 3 " + message, events.get(0));
+        Assert.assertEquals("bytecount 1 2", events.get(1));
+    }
+
+    @Test
+    public void malformedNotificationsArePassedOn() throws IOException {
+        byte[] data = (">BYTECOUNT:12\n>BYTECOUNT:a,1\n>STATE:1\n>LOG:1,I,message\n>STATE:2,MYSTATE,x\n\n")
+                .getBytes(StandardCharsets.UTF_8);
+
+        List<String> events = decode(data, 2048);
+        Assert.assertEquals("line >BYTECOUNT:12", events.get(0));
+        Assert.assertEquals("line >BYTECOUNT:a,1", events.get(1));
+        Assert.assertEquals("line >STATE:1", events.get(2));
+        Assert.assertEquals("line >LOG:1,I,message", events.get(3));
+        Assert.assertEquals("state 2 MYSTATE 'x'", events.get(4));
+        Assert.assertEquals("line ", events.get(5));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestNetworkSpace {
+
+    @Test
+    public void excludedRoutesSplitDefaultRoute() {
+        NetworkSpace space = new NetworkSpace();
+        space.addIP(new CIDRIP("0.0.0.0", 0), true);
+        space.addIP(new CIDRIP("10.0.0.0", 8), false);
+        space.addIP(new CIDRIP("192.168.1.0", 24), false);
+
+        Assert.assertEquals("[0.0.0.0/5+, 8.0.0.0/7+, 10.0.0.0/8-, 11.0.0.0/8+, 12.0.0.0/6+, 16.0.0.0/4+, "
+                + "32.0.0.0/3+, 64.0.0.0/2+, 128.0.0.0/2+, 192.0.0.0/9+, 192.128.0.0/11+, 192.160.0.0/13+, "
+                + "192.168.0.0/24+, 192.168.1.0/24-, 192.168.2.0/23+, 192.168.4.0/22+, 192.168.8.0/21+, "
+                + "192.168.16.0/20+, 192.168.32.0/19+, 192.168.64.0/18+, 192.168.128.0/17+, 192.169.0.0/16+, "
+                + "192.170.0.0/15+, 192.172.0.0/14+, 192.176.0.0/12+, 192.192.0.0/10+, 193.0.0.0/8+, "
+                + "194.0.0.0/7+, 196.0.0.0/6+, 200.0.0.0/5+, 208.0.0.0/4+, 224.0.0.0/3+]",
+                describe(space.generateIPList()));
+    }
+
+    @Test
+    public void nestedNetworksTakeMostSpecificType() {
+        NetworkSpace space = new NetworkSpace();
+        space.addIP(new CIDRIP("8.0.0.0", 5), false);
+        space.addIP(new CIDRIP("12.0.0.0", 6), true);
+        space.addIP(new CIDRIP("10.212.0.0", 14), true);
+        space.addIP(new CIDRIP("10.212.1.0", 24), true);
+
+        Assert.assertEquals("[8.0.0.0/7-, 10.0.0.0/9-, 10.128.0.0/10-, 10.192.0.0/12-, 10.208.0.0/14-, "
+                + "10.212.0.0/14+, 10.216.0.0/13-, 10.224.0.0/11-, 11.0.0.0/8-, 12.0.0.0/6+]",
+                describe(space.generateIPList()));
+    }
+
+    @Test
+    public void unsplitNetworksAreKept() {
+        NetworkSpace space = new NetworkSpace();
+        space.addIP(new CIDRIP("10.0.0.0", 8), true);
+        space.addIP(new CIDRIP("172.16.0.0", 12), false);
+        List<NetworkSpace.IpAddress> ips = space.generateIPList();
+
+        Assert.assertEquals(2, ips.size());
+        Assert.assertSame(space.mIpAddresses.first(), ips.get(0));
+        Assert.assertSame(space.mIpAddresses.last(), ips.get(1));
+    }
+
+    @Test
+    public void excludedIPv6Host() throws UnknownHostException {
+        NetworkSpace space = new NetworkSpace();
+        space.addIPv6((Inet6Address) InetAddress.getByName("2000::"), 3, true);
+        space.addIPv6((Inet6Address) InetAddress.getByName("2001:db8::1"), 128, false);
+        List<NetworkSpace.IpAddress> ips = space.generateIPList();
+
+        Assert.assertEquals(128 - 3 + 1, ips.size());
+        Assert.assertEquals("2000::/16+", describe(ips.get(0)));
+        Assert.assertEquals("[2001:db0::/29+, 2001:db8::/128+, 2001:db8:0:0:0:0:0:1/128-, 2001:db8:0:0:0:0:0:2/127+]",
+                describe(ips.subList(7, 11)));
+        Assert.assertEquals("3000::/4+", describe(ips.get(ips.size() - 1)));
+    }
+
+    @Test
+    public void randomNetworksMatchMostSpecificNetwork() {
+        Random random = new Random(42);
+        for (int round = 0; round < 2000; round++) {
+            NetworkSpace space = new NetworkSpace();
+            List<NetworkSpace.IpAddress> inputs = new ArrayList<>();
+            int count = 1 + random.nextInt(8);
+            long base = random.nextInt(4) << 28;
+            for (int i = 0; i < count; i++) {
+                int mask = 4 + random.nextInt(25);
+                long address = (base | random.nextInt(1 << 28)) & (0xffffffffL << (32 - mask));
+                NetworkSpace.IpAddress ip = new NetworkSpace.IpAddress(
+                        new CIDRIP(longToIp(address), mask), random.nextBoolean());
+                if (space.mIpAddresses.add(ip))
+                    inputs.add(ip);
+            }
+
+            List<NetworkSpace.IpAddress> result = space.generateIPList();
+            for (int i = 1; i < result.size(); i++)
+                Assert.assertTrue(compareUnsigned(result.get(i - 1).getLastLo(), result.get(i).getFirstLo()) < 0);
+
+            List<Long> probes = new ArrayList<>();
+            for (NetworkSpace.IpAddress ip : inputs) {
+                probes.add(ip.getFirstLo());
+                probes.add(ip.getLastLo());
+                probes.add(ip.getFirstLo() - 1);
+                probes.add(ip.getLastLo() + 1);
+            }
+            for (int i = 0; i < 50; i++)
+                probes.add(base | random.nextInt(1 << 28));
+
+            for (long probe : probes) {
+                NetworkSpace.IpAddress expected = mostSpecific(inputs, probe & 0xffffffffL);
+                NetworkSpace.IpAddress actual = mostSpecific(result, probe & 0xffffffffL);
+                if (expected == null)
+                    Assert.assertNull(actual);
+                else
+                    Assert.assertEquals(space.mIpAddresses + " at " + longToIp(probe),
+                            expected.isIncluded(), actual.isIncluded());
+            }
+        }
+    }
+
+    private static NetworkSpace.IpAddress mostSpecific(List<NetworkSpace.IpAddress> ips, long address) {
+        NetworkSpace.IpAddress best = null;
+        for (NetworkSpace.IpAddress ip : ips) {
+            if (compareUnsigned(ip.getFirstLo(), address) <= 0 && compareUnsigned(address, ip.getLastLo()) <= 0
+                    && (best == null || ip.networkMask > best.networkMask))
+                best = ip;
+        }
+        return best;
+    }
+
+    private static int compareUnsigned(long a, long b) {
+        return Long.compare(a + Long.MIN_VALUE, b + Long.MIN_VALUE);
+    }
+
+    private static String longToIp(long address) {
+        return ((address >> 24) & 0xff) + "." + ((address >> 16) & 0xff) + "." + ((address >> 8) & 0xff) + "."
+                + (address & 0xff);
+    }
+
+    private static String describe(NetworkSpace.IpAddress ip) {
+        return ip + (ip.isIncluded() ? "+" : "-");
+    }
+
+    private static String describe(List<NetworkSpace.IpAddress> ips) {
+        List<String> descriptions = new ArrayList<>();
+        for (NetworkSpace.IpAddress ip : ips)
+            descriptions.add(describe(ip));
+        return descriptions.toString();
+    }
+}
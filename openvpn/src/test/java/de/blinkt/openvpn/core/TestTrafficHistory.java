@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2012-2017 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTrafficHistory {
+
+    @Test
+    public void diffsAndRates() {
+        TrafficHistory history = new TrafficHistory();
+        history.add(1000, 100, 0);
+        Assert.assertEquals(1000, history.getDiffIn());
+        Assert.assertEquals(0, history.getRateIn());
+
+        history.add(3000, 300, 1000);
+        Assert.assertEquals(2000, history.getDiffIn());
+        Assert.assertEquals(200, history.getDiffOut());
+        Assert.assertEquals(2000, history.getRateIn());
+
+        // Smoothed towards the new sample rate of 1000 B/s.
+        history.add(4000, 400, 2000);
+        Assert.assertEquals(1700, history.getRateIn());
+        Assert.assertEquals(170, history.getRateOut());
+        Assert.assertEquals(4000, history.getLastIn());
+    }
+
+    @Test
+    public void ringBuffersKeepNewestDatapoints() {
+        TrafficHistory history = new TrafficHistory();
+        int seconds = 2 * 3600;
+        for (int i = 0; i <= seconds; i++)
+            history.add(i, i, i * 1000L);
+
+        Assert.assertEquals(300, history.size(TrafficHistory.SECONDS));
+        Assert.assertEquals(seconds - 299, history.getIn(TrafficHistory.SECONDS, 0));
+        Assert.assertEquals(seconds, history.getIn(TrafficHistory.SECONDS, 299));
+
+        Assert.assertEquals(121, history.size(TrafficHistory.MINUTES));
+        Assert.assertEquals(seconds, history.getTimestamp(TrafficHistory.MINUTES, 120) / 1000);
+        Assert.assertEquals(3, history.size(TrafficHistory.HOURS));
+    }
+
+    @Test
+    public void clearResetsHistory() {
+        TrafficHistory history = new TrafficHistory();
+        history.add(1000, 100, 0);
+        history.add(3000, 300, 1000);
+        history.clear();
+
+        Assert.assertEquals(0, history.size(TrafficHistory.SECONDS));
+        Assert.assertEquals(0, history.getLastIn());
+        Assert.assertEquals(0, history.getRateIn());
+    }
+}